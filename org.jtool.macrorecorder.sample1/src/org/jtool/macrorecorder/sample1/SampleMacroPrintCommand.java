@@ -7,6 +7,7 @@
 package org.jtool.macrorecorder.sample1;
 
 import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroTemplate;
 import org.jtool.macrorecorder.recorder.IMacroRecorder;
 import org.jtool.macrorecorder.recorder.MacroRecorder;
 import org.jtool.macrorecorder.recorder.MacroConsole;
@@ -21,6 +22,8 @@ import org.eclipse.core.commands.ExecutionException;
  */
 public class SampleMacroPrintCommand extends AbstractHandler implements IMacroListener {
     
+    private static final MacroTemplate TEMPLATE = new MacroTemplate("S1 {description}");
+    
     private boolean recording = false;
     
     @Override
@@ -48,7 +51,7 @@ public class SampleMacroPrintCommand extends AbstractHandler implements IMacroLi
     @Override
     public void macroAdded(MacroEvent evt) {
         Macro macro = evt.getMacro();
-        MacroConsole.println("S1 " + macro.getDescription());
+        MacroConsole.println(TEMPLATE.render(macro));
     }
     
     @Override
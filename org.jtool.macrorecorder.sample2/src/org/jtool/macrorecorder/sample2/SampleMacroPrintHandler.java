@@ -7,6 +7,7 @@
 package org.jtool.macrorecorder.sample2;
 
 import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroTemplate;
 import org.jtool.macrorecorder.recorder.IMacroHandler;
 import org.jtool.macrorecorder.recorder.IMacroRecorder;
 import org.jtool.macrorecorder.recorder.MacroEvent;
@@ -27,6 +28,8 @@ import org.jtool.macrorecorder.recorder.MacroConsole;
  */
 public class SampleMacroPrintHandler implements IMacroHandler {
     
+    private static final MacroTemplate TEMPLATE = new MacroTemplate("S2 {description}");
+    
     public SampleMacroPrintHandler() {
     }
     
@@ -48,7 +51,7 @@ public class SampleMacroPrintHandler implements IMacroHandler {
     @Override
     public void macroAdded(MacroEvent evt) {
         Macro macro = evt.getMacro();
-        MacroConsole.println("S2 " + macro.getDescription());
+        MacroConsole.println(TEMPLATE.render(macro));
     }
     
     @Override
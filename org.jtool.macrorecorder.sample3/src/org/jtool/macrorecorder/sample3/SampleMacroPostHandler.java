@@ -7,17 +7,23 @@
 package org.jtool.macrorecorder.sample3;
 
 import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.FileMacro;
 import org.jtool.macrorecorder.recorder.IMacroHandler;
 import org.jtool.macrorecorder.recorder.MacroEvent;
 import org.jtool.macrorecorder.recorder.MacroConsole;
+import org.jtool.macrorecorder.store.SnapshotDeltaCodec;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.net.URL;
 import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+import java.util.ArrayDeque;
+import java.util.UUID;
 
 /**
  * SampleMacroPrintCommand sample handler that post change macros to an HTTP server.
+ * Macros that failed to be posted are kept and posted again in order before the next macro.
  * <p>
  * This is intended to be specified in the extension point of <code>org.jtool.macrorecorder.handlers</code>.
  * <pre><code>
@@ -32,6 +38,14 @@ public class SampleMacroPostHandler implements IMacroHandler {
     
     private static final String URL_FOR_POST = "http://localhost:1337/post";
     
+    private static final int MAX_UNSENT_MACROS = 10000;
+    
+    private String clientId = UUID.randomUUID().toString();
+    
+    private SnapshotDeltaCodec codec = new SnapshotDeltaCodec();
+    
+    private Deque<Macro> unsentMacros = new ArrayDeque<Macro>();
+    
     public SampleMacroPostHandler() {
     }
     
@@ -46,45 +60,71 @@ public class SampleMacroPostHandler implements IMacroHandler {
     
     @Override
     public void terminate() {
+        postUnsentMacros();
+        if (unsentMacros.size() > 0) {
+            MacroConsole.println("POST FAILURE: " + unsentMacros.size() + " macros were not posted");
+        }
+        unsentMacros.clear();
+        codec.reset();
     }
     
     @Override
     public void macroAdded(MacroEvent evt) {
-        Macro macro = evt.getMacro();
-        executePost(macro.getJSONString());
+        unsentMacros.add(evt.getMacro());
+        if (unsentMacros.size() > MAX_UNSENT_MACROS) {
+            MacroConsole.println("POST FAILURE: " + unsentMacros.removeFirst().getJSONString());
+        }
+        postUnsentMacros();
+        if (unsentMacros.size() == 1) {
+            MacroConsole.println("POST FAILURE: macros are kept until the server accepts them");
+        }
+    }
+    
+    private void postUnsentMacros() {
+        while (unsentMacros.size() > 0) {
+            Macro macro = unsentMacros.getFirst();
+            if (macro instanceof FileMacro) {
+                if (!executePost(codec.encodeJSONString((FileMacro)macro))) {
+                    codec.reset(macro.getPath());
+                    return;
+                }
+            } else if (!executePost(macro.getJSONString())) {
+                return;
+            }
+            unsentMacros.removeFirst();
+        }
     }
     
     @Override
     public void rawMacroAdded(MacroEvent evt) {
     }
     
-    private void executePost(String jsonString) {
+    private boolean executePost(String jsonString) {
         try {
             URL url = new URL(URL_FOR_POST);
             HttpURLConnection connection = null;
             
             try {
+                byte[] body = jsonString.getBytes(StandardCharsets.UTF_8);
                 connection = (HttpURLConnection)url.openConnection();
                 connection.setDoOutput(true);
                 connection.setRequestMethod("POST");
                 connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-                connection.setRequestProperty("Content-Length", String.valueOf(jsonString.length()));
+                connection.setRequestProperty("X-Macro-Client", clientId);
+                connection.setFixedLengthStreamingMode(body.length);
                 
-                OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8);
-                writer.write(jsonString);
-                writer.flush();
+                OutputStream out = connection.getOutputStream();
+                out.write(body);
+                out.flush();
                 
-                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                    MacroConsole.println("POST FAILURE: " + jsonString);
-                }
+                return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
             } finally {
                 if (connection != null) {
                     connection.disconnect();
                 }
             }
             
-        } catch (IOException e) {
-            MacroConsole.println("POST FAILURE: " + jsonString);
-        }
+        } catch (IOException e) { /* empty */ }
+        return false;
     }
 }
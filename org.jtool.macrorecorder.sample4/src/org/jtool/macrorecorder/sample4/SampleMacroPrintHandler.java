@@ -7,6 +7,7 @@
 package org.jtool.macrorecorder.sample4;
 
 import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroTemplate;
 import org.jtool.macrorecorder.recorder.IMacroHandler;
 import org.jtool.macrorecorder.recorder.MacroEvent;
 import org.jtool.macrorecorder.recorder.MacroConsole;
@@ -25,6 +26,8 @@ import org.jtool.macrorecorder.recorder.MacroConsole;
  */
 public class SampleMacroPrintHandler implements IMacroHandler {
     
+    private static final MacroTemplate RAW_TEMPLATE = new MacroTemplate("- {description}");
+    
     public SampleMacroPrintHandler() {
     }
     
@@ -44,12 +47,12 @@ public class SampleMacroPrintHandler implements IMacroHandler {
     @Override
     public void macroAdded(MacroEvent evt) {
         Macro macro = evt.getMacro();
-        MacroConsole.println(macro.getDescription());
+        MacroConsole.println(MacroTemplate.DESCRIPTION.render(macro));
     }
     
     @Override
     public void rawMacroAdded(MacroEvent evt) {
         Macro macro = evt.getMacro();
-        MacroConsole.println("- " + macro.getDescription());
+        MacroConsole.println(RAW_TEMPLATE.render(macro));
     }
 }
@@ -8,14 +8,13 @@ package org.jtool.macrorecorder.sample5;
 
 import org.jtool.macrorecorder.macro.FileMacro;
 import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroTemplate;
 import org.jtool.macrorecorder.recorder.IMacroHandler;
 import org.jtool.macrorecorder.recorder.MacroEvent;
 import org.jtool.macrorecorder.recorder.MacroConsole;
+import org.jtool.macrorecorder.store.MacroLogWriter;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
-import java.util.ArrayList;
-import java.io.FileWriter;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
@@ -34,9 +33,10 @@ import org.eclipse.core.runtime.Path;
  */
 public class SampleMacroFileOutputHandler implements IMacroHandler {
     
-    private List<Macro> macroList = new ArrayList<Macro>();
+    private MacroLogWriter writer;
     
     private static String DEFAULT_DIRECTORY_PATH = "#record";
+    private static long ROTATION_SIZE = 4 * 1024 * 1024;
     private String location;
     
     public SampleMacroFileOutputHandler() {
@@ -50,24 +50,44 @@ public class SampleMacroFileOutputHandler implements IMacroHandler {
     @Override
     public void initialize() {
         location = getDefaultLoaction();
-        macroList.clear();
+        
+        writer = new MacroLogWriter(new File(location), "");
+        writer.setRotationSize(ROTATION_SIZE);
+        try {
+            writer.open();
+        } catch (IOException e) {
+            MacroConsole.println(e.getMessage());
+            location = null;
+        }
     }
     
     @Override
     public void terminate() {
-        macroList.clear();
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            MacroConsole.println(e.getMessage());
+        }
     }
     
     @Override
     public void macroAdded(MacroEvent evt) {
         Macro macro = evt.getMacro();
-        MacroConsole.println(macro.getDescription());
+        MacroConsole.println(MacroTemplate.DESCRIPTION.render(macro));
         
         if (location == null) {
             return;
         }
         
-        macroList.add(macro);
+        try {
+            writer.write(macro);
+        } catch (IOException e) {
+            MacroConsole.println(e.getMessage());
+        }
+        
         if (macro instanceof FileMacro) {
             FileMacro fmacro = (FileMacro)macro;
             if (fmacro.isClose() || fmacro.isClose() || fmacro.isSave()) {
@@ -80,22 +100,24 @@ public class SampleMacroFileOutputHandler implements IMacroHandler {
     public void rawMacroAdded(MacroEvent evt) {
     }
     
-    public void storeMacros() {
-        long time = macroList.get(0).getTimeAsLong();
-        String filename = location + File.separatorChar + String.valueOf(time) + ".txt";
-        StringBuilder buf = new StringBuilder();
-        for (Macro macro : macroList) {
-            buf.append(macro.getDescription());
-            buf.append("\n");
+    @Override
+    public void flush() {
+        if (location == null) {
+            return;
         }
         
         try {
-            FileWriter filewriter = new FileWriter(new File(filename));
-            filewriter.write(buf.toString());
-            filewriter.close();
-            macroList.clear();
+            writer.flush();
+        } catch (IOException e) {
+            MacroConsole.println(e.getMessage());
+        }
+    }
+    
+    public void storeMacros() {
+        try {
+            writer.flush();
             
-            MacroConsole.println("WRITE MACROS ON " + filename);
+            MacroConsole.println("WRITE MACROS ON " + writer.getFile().getPath());
         } catch(IOException e) {
             MacroConsole.println(e.getMessage());
         }
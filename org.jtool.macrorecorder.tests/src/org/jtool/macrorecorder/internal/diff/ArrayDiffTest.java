@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.internal.diff;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Tests that the differences found on edit scripts are the same as the ones found by <code>diff_match_patch</code>.
+ * @author Katsuhisa Maruyama
+ */
+public class ArrayDiffTest {
+    
+    /**
+     * The number of random pairs of texts compared in a test.
+     */
+    private static final int TRIALS = 300;
+    
+    /**
+     * The characters of random texts, which include new lines and blanks so that the line mode and the semantic cleanup are used.
+     */
+    private static final String ALPHABET = "abcxyz(){};  \n\n\r\t";
+    
+    /**
+     * Tests that the differences of random pairs of texts are the same as the ones of <code>diff_main</code>.
+     */
+    @Test
+    public void testSameDiffsAsDiffMain() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < TRIALS; trial++) {
+            String otext = createText(random, random.nextInt(400));
+            String ntext = random.nextInt(4) == 0 ? createText(random, random.nextInt(400)) : mutate(random, otext);
+            
+            diff_match_patch dmp = createDiffMatchPatch();
+            LinkedList<diff_match_patch.Diff> expected = dmp.diff_main(otext, ntext, true);
+            
+            ArrayDiff engine = new ArrayDiff(dmp.Diff_EditCost, Long.MAX_VALUE);
+            ArrayDiff.EditScript actual = engine.diff(ArrayDiff.toTokens(otext), ArrayDiff.toTokens(ntext));
+            assertEquals(otext + " -> " + ntext, toStrings(expected), toStrings(actual, otext, ntext));
+        }
+    }
+    
+    /**
+     * Tests that the differences after the efficiency cleanup are the same as the ones of <code>diff_cleanupEfficiency</code>.
+     */
+    @Test
+    public void testSameDiffsAsCleanupEfficiency() {
+        Random random = new Random(2);
+        for (int trial = 0; trial < TRIALS; trial++) {
+            String otext = createText(random, random.nextInt(400));
+            String ntext = mutate(random, otext);
+            
+            diff_match_patch dmp = createDiffMatchPatch();
+            LinkedList<diff_match_patch.Diff> expected = dmp.diff_main(otext, ntext, true);
+            dmp.diff_cleanupEfficiency(expected);
+            
+            ArrayDiff engine = new ArrayDiff(dmp.Diff_EditCost, Long.MAX_VALUE);
+            int[] a = ArrayDiff.toTokens(otext);
+            int[] b = ArrayDiff.toTokens(ntext);
+            ArrayDiff.EditScript actual = engine.cleanupEfficiency(engine.diff(a, b), a, b);
+            assertEquals(otext + " -> " + ntext, toStrings(expected), toStrings(actual, otext, ntext));
+        }
+    }
+    
+    /**
+     * Creates an object of <code>diff_match_patch</code> whose time is unlimited.
+     * @return the created object
+     */
+    private static diff_match_patch createDiffMatchPatch() {
+        diff_match_patch dmp = new diff_match_patch();
+        dmp.Diff_Timeout = 0;
+        return dmp;
+    }
+    
+    /**
+     * Creates a random text.
+     * @param random the generator of random numbers
+     * @param length the length of the text
+     * @return the created text
+     */
+    private static String createText(Random random, int length) {
+        StringBuilder buf = new StringBuilder(length);
+        for (int idx = 0; idx < length; idx++) {
+            buf.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Applies random insertions, deletions, and moves of substrings to a text.
+     * @param random the generator of random numbers
+     * @param text the original text
+     * @return the changed text
+     */
+    private static String mutate(Random random, String text) {
+        StringBuilder buf = new StringBuilder(text);
+        int count = 1 + random.nextInt(8);
+        for (int edit = 0; edit < count; edit++) {
+            int start = random.nextInt(buf.length() + 1);
+            int end = Math.min(buf.length(), start + random.nextInt(20));
+            switch (random.nextInt(3)) {
+                case 0:
+                    buf.insert(start, createText(random, 1 + random.nextInt(20)));
+                    break;
+                case 1:
+                    buf.delete(start, end);
+                    break;
+                default:
+                    String moved = buf.substring(start, end);
+                    buf.delete(start, end);
+                    buf.insert(random.nextInt(buf.length() + 1), moved);
+            }
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Converts differences of <code>diff_match_patch</code> into strings for comparison.
+     * @param diffs the differences
+     * @return the strings each of which has the operation and the text of a difference
+     */
+    private static List<String> toStrings(LinkedList<diff_match_patch.Diff> diffs) {
+        List<String> strings = new ArrayList<String>();
+        for (diff_match_patch.Diff diff : diffs) {
+            strings.add(diff.operation + ":" + diff.text);
+        }
+        return strings;
+    }
+    
+    /**
+     * Converts an edit script into strings for comparison.
+     * @param diffs the edit script
+     * @param otext the old text
+     * @param ntext the new text
+     * @return the strings each of which has the operation and the text of an edit
+     */
+    private static List<String> toStrings(ArrayDiff.EditScript diffs, String otext, String ntext) {
+        List<String> strings = new ArrayList<String>();
+        int opos = 0;
+        int npos = 0;
+        for (int idx = 0; idx < diffs.size; idx++) {
+            int length = diffs.lengths[idx];
+            if (diffs.ops[idx] == ArrayDiff.EQUAL) {
+                strings.add(diff_match_patch.Operation.EQUAL + ":" + otext.substring(opos, opos + length));
+                opos = opos + length;
+                npos = npos + length;
+            } else if (diffs.ops[idx] == ArrayDiff.DELETE) {
+                strings.add(diff_match_patch.Operation.DELETE + ":" + otext.substring(opos, opos + length));
+                opos = opos + length;
+            } else {
+                strings.add(diff_match_patch.Operation.INSERT + ":" + ntext.substring(npos, npos + length));
+                npos = npos + length;
+            }
+        }
+        assertEquals(otext.length(), opos);
+        assertEquals(ntext.length(), npos);
+        return strings;
+    }
+}
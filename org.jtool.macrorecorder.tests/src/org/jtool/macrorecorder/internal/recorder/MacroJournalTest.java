@@ -0,0 +1,124 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.internal.recorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.CancelMacro;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests the recovery of macros from a journal.
+ * @author Katsuhisa Maruyama
+ */
+public class MacroJournalTest {
+    
+    /**
+     * The journal file.
+     */
+    private File file;
+    
+    /**
+     * Creates a journal file that does not exist yet.
+     * @throws IOException if the file cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("macro", ".journal");
+        file.delete();
+    }
+    
+    /**
+     * Deletes the journal file.
+     */
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+    
+    /**
+     * Creates a document macro.
+     * @param start the offset of the change
+     * @param itext the inserted text
+     * @param dtext the deleted text
+     * @return the document macro
+     */
+    private static DocumentMacro createMacro(int start, String itext, String dtext) {
+        MacroPath mpath = new MacroPath("/P/src/p/A.java", "master", "P", "p", "A.java");
+        return new DocumentMacro(DocumentMacro.Action.EDIT, mpath, start, itext, dtext);
+    }
+    
+    /**
+     * Tests that unacknowledged macros are recovered with their texts, including unpaired surrogates.
+     * @throws IOException if the journal cannot be opened
+     */
+    @Test
+    public void testRecoverUnpairedSurrogates() throws IOException {
+        DocumentMacro[] macros = new DocumentMacro[] {
+            createMacro(0, "\ud83d", ""),
+            createMacro(1, "\ude00", ""),
+            createMacro(0, "", "\ud83d\ude00"),
+            createMacro(3, "\u3042\u00e9", "\ude00x\ud83d")
+        };
+        
+        MacroJournal journal = new MacroJournal(file);
+        assertEquals(0, journal.open().size());
+        for (DocumentMacro macro : macros) {
+            journal.append(macro);
+        }
+        
+        List<Macro> recovered = new MacroJournal(file).open();
+        assertEquals(macros.length, recovered.size());
+        for (int i = 0; i < macros.length; i++) {
+            DocumentMacro macro = (DocumentMacro)recovered.get(i);
+            assertEquals(macros[i].getStart(), macro.getStart());
+            assertEquals(macros[i].getInsertedText(), macro.getInsertedText());
+            assertEquals(macros[i].getDeletedText(), macro.getDeletedText());
+            assertEquals(macros[i].getMacroPath().getPath(), macro.getMacroPath().getPath());
+            assertEquals(macros[i].getTime().toInstant(), macro.getTime().toInstant());
+        }
+    }
+    
+    /**
+     * Tests that recovered macros survive a second crash and are removed only when they are acknowledged.
+     * @throws IOException if the journal cannot be opened
+     */
+    @Test
+    public void testKeepRecoveredMacrosUntilAcknowledged() throws IOException {
+        MacroJournal journal = new MacroJournal(file);
+        journal.open();
+        journal.append(createMacro(0, "a", ""));
+        journal.append(new CancelMacro(DocumentMacro.Action.EDIT, createMacro(0, "", "a").getMacroPath(), 0, "", "a"));
+        
+        journal = new MacroJournal(file);
+        assertEquals(2, journal.open().size());
+        journal.append(createMacro(0, "b", ""));
+        
+        journal = new MacroJournal(file);
+        List<Macro> recovered = journal.open();
+        assertEquals(3, recovered.size());
+        assertTrue(recovered.get(1) instanceof CancelMacro);
+        
+        long mark = journal.getRecordCount();
+        journal.append(createMacro(1, "c", ""));
+        journal.acknowledge(mark);
+        assertTrue(journal.hasRecords());
+        
+        journal.acknowledge(journal.getRecordCount());
+        assertTrue(!journal.hasRecords());
+        journal.close(true);
+        assertEquals(0, new MacroJournal(file).open().size());
+    }
+}
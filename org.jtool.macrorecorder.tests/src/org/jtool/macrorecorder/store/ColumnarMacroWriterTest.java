@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.CopyMacro;
+import org.jtool.macrorecorder.macro.FileMacro;
+import org.jtool.macrorecorder.macro.CompoundMacro;
+import org.junit.Test;
+import java.io.File;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Tests the export of macros into columnar files.
+ * @author Katsuhisa Maruyama
+ */
+public class ColumnarMacroWriterTest {
+    
+    /**
+     * The path of the edited file.
+     */
+    private static final MacroPath PATH = new MacroPath("/P/src/p/A.java", "master", "P", "p", "A.java");
+    
+    /**
+     * The time of the first macro, which has microseconds and a region-based time zone.
+     */
+    private static final ZonedDateTime TIME = ZonedDateTime.parse("2019-04-01T10:00:00.123456+09:00[Asia/Tokyo]");
+    
+    /**
+     * Tests that document, copy, and file macros are read back with their sequence numbers as they were written.
+     * @throws IOException if the file cannot be written or read
+     */
+    @Test
+    public void testRestoreMacros() throws IOException {
+        List<Macro> macros = Arrays.asList(
+            new FileMacro(TIME, FileMacro.Action.OPENED.toString(), PATH, "hello", "UTF-8", PATH.getPath()),
+            new DocumentMacro(TIME.plusNanos(1000), DocumentMacro.Action.EDIT.toString(), PATH, 5, " world", ""),
+            new CopyMacro(TIME.plusNanos(2000), CopyMacro.Action.COPY.toString(), PATH, 0, "hello"),
+            new DocumentMacro(TIME.plusNanos(2000), DocumentMacro.Action.AUTO_DIFF.toString(), PATH, 0, "", "h"),
+            new FileMacro(TIME.plusSeconds(1), FileMacro.Action.MOVED_FROM.toString(), PATH, "", "UTF-8", "/P/src/p/B.java"));
+        macros.get(3).setSequence(1);
+        
+        File file = File.createTempFile("macros", ".col");
+        try {
+            try (ColumnarMacroWriter writer = new ColumnarMacroWriter(file)) {
+                for (Macro macro : macros) {
+                    assertTrue(ColumnarMacroWriter.isRestorable(macro));
+                    writer.write(macro);
+                }
+            }
+            
+            List<Macro> restored = new MacroQuery(file).macros().collect(Collectors.toList());
+            assertEquals(macros.size(), restored.size());
+            for (int idx = 0; idx < macros.size(); idx++) {
+                assertEquals(macros.get(idx).getJSONString(), restored.get(idx).getJSONString());
+                assertEquals(macros.get(idx).getSequence(), restored.get(idx).getSequence());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+    
+    /**
+     * Tests that macros are read back across row groups and that row groups outside a time range are skipped.
+     * @throws IOException if the file cannot be written or read
+     */
+    @Test
+    public void testRestoreMacrosAcrossRowGroups() throws IOException {
+        List<Macro> macros = Arrays.asList(
+            new FileMacro(TIME, FileMacro.Action.OPENED.toString(), PATH, "hello", "UTF-8", PATH.getPath()),
+            new DocumentMacro(TIME.plusSeconds(1), DocumentMacro.Action.EDIT.toString(), PATH, 5, " world", ""),
+            new DocumentMacro(TIME.plusSeconds(2), DocumentMacro.Action.EDIT.toString(), PATH, 0, "", "h"),
+            new DocumentMacro(TIME.plusSeconds(3), DocumentMacro.Action.EDIT.toString(), PATH, 0, "H", ""),
+            new FileMacro(TIME.plusSeconds(4), FileMacro.Action.SAVED.toString(), PATH, "Hello world", "UTF-8", PATH.getPath()));
+        
+        File file = File.createTempFile("macros", ".col");
+        try {
+            try (ColumnarMacroWriter writer = new ColumnarMacroWriter(file, 2)) {
+                writer.write(macros);
+            }
+            
+            try (ColumnarMacroReader reader = new ColumnarMacroReader(file)) {
+                assertEquals(3, reader.getRowGroups().size());
+                assertEquals(macros.size(), reader.getRowCount());
+            }
+            
+            List<Macro> restored = new MacroQuery(file).macros().collect(Collectors.toList());
+            assertEquals(macros.size(), restored.size());
+            for (int idx = 0; idx < macros.size(); idx++) {
+                assertEquals(macros.get(idx).getJSONString(), restored.get(idx).getJSONString());
+            }
+            
+            long from = macros.get(3).getTimeAsLong();
+            assertEquals(2, new MacroQuery(file).between(from, Long.MAX_VALUE).count());
+        } finally {
+            file.delete();
+        }
+    }
+    
+    /**
+     * Tests that macros whose attributes are not stored in the columns are not restorable.
+     */
+    @Test
+    public void testMacrosNotRestorable() {
+        CompoundMacro cmacro = new CompoundMacro(TIME, "Format", PATH, null);
+        cmacro.addMacro(new DocumentMacro(TIME, DocumentMacro.Action.EDIT.toString(), PATH, 0, "X", ""));
+        assertFalse(ColumnarMacroWriter.isRestorable(cmacro));
+        
+        MacroPath mpath = new MacroPath("/P/src/p/A.java", "master", "Q", "p", "A.java");
+        assertFalse(ColumnarMacroWriter.isRestorable(new DocumentMacro(TIME, DocumentMacro.Action.EDIT.toString(), mpath, 0, "X", "")));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.FileMacro;
+import org.jtool.macrorecorder.macro.CompoundMacro;
+import org.jtool.macrorecorder.recorder.DocMacroCombinator;
+import org.junit.Test;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests the compaction of logs of macros.
+ * @author Katsuhisa Maruyama
+ */
+public class MacroLogCompactorTest {
+    
+    /**
+     * The path of the edited file.
+     */
+    private static final MacroPath PATH_A = new MacroPath("/P/src/p/A.java", "master", "P", "p", "A.java");
+    
+    /**
+     * The path of another file.
+     */
+    private static final MacroPath PATH_B = new MacroPath("/P/src/p/B.java", "master", "P", "p", "B.java");
+    
+    /**
+     * The time of the first macro.
+     */
+    private static final ZonedDateTime TIME = ZonedDateTime.parse("2019-04-01T10:00:00+09:00");
+    
+    /**
+     * Creates a document macro that inserts a text.
+     * @param seconds the time of the macro in seconds from the first macro
+     * @param start the offset of the insertion
+     * @param itext the inserted text
+     * @return the document macro
+     */
+    private static DocumentMacro insert(int seconds, int start, String itext) {
+        return new DocumentMacro(TIME.plusSeconds(seconds), DocumentMacro.Action.EDIT.toString(), PATH_A, start, itext, "");
+    }
+    
+    /**
+     * Creates a log that starts with the contents of the file and contains a compound macro of another file.
+     * @return the collection of macros in the log
+     */
+    private static List<Macro> createLog() {
+        CompoundMacro cmacro = new CompoundMacro(TIME.plusSeconds(2), "Format", PATH_B, null);
+        cmacro.addMacro(insert(2, 5, "Y"));
+        return new ArrayList<Macro>(Arrays.asList(
+            new FileMacro(TIME, FileMacro.Action.OPENED.toString(), PATH_A, "hello world", "UTF-8", PATH_A.getPath()),
+            insert(1, 0, "X"),
+            cmacro,
+            insert(3, 1, "Z")
+        ));
+    }
+    
+    /**
+     * Tests that edits before and after a compound macro editing the same file are not combined.
+     */
+    @Test
+    public void testCompoundMacroSeparatesEditsOfItsChildren() {
+        List<Macro> original = createLog();
+        MacroLogCompactor compactor = new MacroLogCompactor(new DocMacroCombinator() {});
+        List<Macro> compacted = compactor.compact(original);
+        
+        assertEquals(0, compactor.getFailureCount());
+        MacroReplayer replayer = new MacroReplayer();
+        replayer.replay(compacted);
+        assertEquals("XZhellYo world", replayer.getCode(PATH_A.getPath()));
+        assertEquals(0, replayer.getInconsistencyCount());
+    }
+    
+    /**
+     * Tests that a compaction that changes the contents of the file is not verified.
+     */
+    @Test
+    public void testVerifyRejectsCorruptedCompaction() {
+        List<Macro> original = createLog();
+        List<Macro> corrupted = new ArrayList<Macro>(original);
+        corrupted.remove(3);
+        corrupted.set(1, insert(1, 0, "XZ"));
+        assertFalse(MacroLogCompactor.verify(original, corrupted));
+    }
+    
+    /**
+     * Tests that a log editing a file whose contents are unknown is verified only with its baseline.
+     */
+    @Test
+    public void testVerifyRequiresBaseline() {
+        List<Macro> original = createLog();
+        original.remove(0);
+        assertFalse(MacroLogCompactor.verify(original, original));
+        assertTrue(MacroLogCompactor.verify(original, original,
+                Collections.singletonMap(PATH_A.getPath(), "hello world")));
+        
+        MacroLogCompactor compactor = new MacroLogCompactor(new DocMacroCombinator() {});
+        assertEquals(original, compactor.compact(original));
+        assertEquals(1, compactor.getFailureCount());
+    }
+    
+    /**
+     * Tests that a log inconsistent with the contents of the file is not verified.
+     */
+    @Test
+    public void testVerifyRejectsInconsistentReplay() {
+        List<Macro> original = createLog();
+        original.add(insert(4, 100, "W"));
+        assertFalse(MacroLogCompactor.verify(original, original));
+    }
+}
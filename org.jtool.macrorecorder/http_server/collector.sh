@@ -0,0 +1,8 @@
+#!/bin/sh
+#
+# A collector server receiving macros posted by HTTP POST requests
+# The server stores the macros into segment files under a directory. To run,
+#   % sh collector.sh [port] [directory] [-force]
+
+cd "$(dirname "$0")/.."
+exec java -cp bin:lib/javax.json-1.1.jar org.jtool.macrorecorder.store.MacroCollector "$@"
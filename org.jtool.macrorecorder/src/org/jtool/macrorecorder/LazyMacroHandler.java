@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.recorder.IMacroHandler;
+import org.jtool.macrorecorder.recorder.MacroEvent;
+import org.jtool.macrorecorder.recorder.MacroConsole;
+import java.util.Set;
+
+/**
+ * A macro handler that stands for a handler declaring the types of macros it consumes or whether it allows the recording.
+ * The declared handler is neither created nor initialized until the first macro of a declared type arrives,
+ * so its bundle is not activated at startup. If the extension does not declare whether the recording is allowed,
+ * the declared handler decides it when it is created, and macros are discarded if it does not allow the recording.
+ * @author Katsuhisa Maruyama
+ */
+public class LazyMacroHandler implements IMacroHandler {
+    
+    /**
+     * The configuration element that specifies the declared handler.
+     */
+    private IConfigurationElement element;
+    
+    /**
+     * The types of macros the declared handler consumes.
+     */
+    private Set<Class<? extends Macro>> macroTypes;
+    
+    /**
+     * A flag that indicates if the declared handler consumes raw macros.
+     */
+    private boolean rawMacros;
+    
+    /**
+     * The name of the declared handler class.
+     */
+    private String name;
+    
+    /**
+     * A flag that indicates if the extension declares that the recording is allowed.
+     */
+    private boolean declaredAllowed;
+    
+    /**
+     * The declared handler, or <code>null</code> if it has not been created or cannot be used.
+     */
+    private IMacroHandler handler = null;
+    
+    /**
+     * A flag that indicates if the creation of the declared handler has been attempted.
+     */
+    private boolean created = false;
+    
+    /**
+     * A flag that indicates if the declared handler has been initialized.
+     */
+    private boolean initialized = false;
+    
+    /**
+     * Creates a handler that stands for a declared handler.
+     * @param element the configuration element that specifies the declared handler
+     * @param macroTypes the types of macros the declared handler consumes
+     * @param rawMacros <code>true</code> if the declared handler consumes raw macros, otherwise <code>false</code>
+     * @param declaredAllowed <code>true</code> if the extension declares that the recording is allowed,
+     *        or <code>false</code> if the declared handler decides it when it is created
+     */
+    LazyMacroHandler(IConfigurationElement element, Set<Class<? extends Macro>> macroTypes, boolean rawMacros, boolean declaredAllowed) {
+        this.element = element;
+        this.macroTypes = macroTypes;
+        this.rawMacros = rawMacros;
+        this.declaredAllowed = declaredAllowed;
+        this.name = element.getAttribute(MacroHandlerLoader.ATTRIBUTE_CLASS);
+    }
+    
+    /**
+     * Returns the types of macros the declared handler consumes.
+     * @return the collection of the macro types
+     */
+    public Set<Class<? extends Macro>> getMacroTypes() {
+        return macroTypes;
+    }
+    
+    /**
+     * Tests if the declared handler consumes raw macros.
+     * @return <code>true</code> if the declared handler consumes raw macros, otherwise <code>false</code>
+     */
+    public boolean acceptsRawMacros() {
+        return rawMacros;
+    }
+    
+    /**
+     * Returns the name of the declared handler.
+     * @return the simple name of the declared handler class
+     */
+    public String getName() {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+    
+    /**
+     * Creates the declared handler, which is used only if it allows the recording.
+     */
+    private void create() {
+        created = true;
+        try {
+            Object obj = element.createExecutableExtension(MacroHandlerLoader.ATTRIBUTE_CLASS);
+            if (obj instanceof IMacroHandler) {
+                handler = (IMacroHandler)obj;
+            }
+        } catch (CoreException e) {
+            e.printStackTrace();
+        }
+        if (handler != null && !declaredAllowed && !handler.recordingAllowed()) {
+            MacroConsole.println("Macro handler " + getName() + " does not allow the recording; its macros are discarded");
+            handler = null;
+        }
+    }
+    
+    /**
+     * Obtains the declared handler, creating and initializing it when it is first required.
+     * @return the declared handler, or <code>null</code> if it cannot be used
+     */
+    private synchronized IMacroHandler getHandler() {
+        if (!created) {
+            create();
+        }
+        if (handler != null && !initialized) {
+            initialized = true;
+            handler.initialize();
+        }
+        return handler;
+    }
+    
+    /**
+     * Receives an event when a new change macro is added.
+     * @param evt the macro event
+     */
+    @Override
+    public void macroAdded(MacroEvent evt) {
+        IMacroHandler h = getHandler();
+        if (h != null) {
+            h.macroAdded(evt);
+        }
+    }
+    
+    /**
+     * Receives an event when a new raw change macro is added.
+     * @param evt the raw macro event
+     */
+    @Override
+    public void rawMacroAdded(MacroEvent evt) {
+        IMacroHandler h = getHandler();
+        if (h != null) {
+            h.rawMacroAdded(evt);
+        }
+    }
+    
+    /**
+     * Tests if the macro recording is allowed.
+     * The declared handler is not created here, and it decides when it is created unless the extension declares it.
+     * @return always <code>true</code>
+     */
+    @Override
+    public boolean recordingAllowed() {
+        return true;
+    }
+    
+    /**
+     * Invoked to initialize this handler immediately before starting the macro recording.
+     * The declared handler is initialized when the first macro of a declared type arrives.
+     */
+    @Override
+    public void initialize() {
+    }
+    
+    /**
+     * Invoked to write out the macros that the declared handler buffers.
+     * Nothing is done if the declared handler has not been initialized.
+     */
+    @Override
+    public void flush() {
+        IMacroHandler h;
+        synchronized (this) {
+            h = initialized ? handler : null;
+        }
+        if (h != null) {
+            h.flush();
+        }
+    }
+    
+    /**
+     * Invoked to terminate this handler immediately after stopping the macro recording.
+     * The declared handler is terminated only if it has been initialized, and it will be initialized again on demand.
+     */
+    @Override
+    public void terminate() {
+        IMacroHandler h;
+        synchronized (this) {
+            h = initialized ? handler : null;
+            initialized = false;
+        }
+        if (h != null) {
+            h.terminate();
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- *  Copyright 2017-2018
+ *  Copyright 2017-2019
  *  Software Science and Technology Lab.
  *  Department of Computer Science, Ritsumeikan University
  */
@@ -12,12 +12,16 @@ import org.eclipse.core.runtime.IExtension;
 import org.eclipse.core.runtime.IExtensionPoint;
 import org.eclipse.core.runtime.IExtensionRegistry;
 import org.eclipse.core.runtime.Platform;
+import org.jtool.macrorecorder.macro.Macro;
 import org.jtool.macrorecorder.recorder.IMacroHandler;
+import org.jtool.macrorecorder.recorder.MacroConsole;
 import java.util.Set;
 import java.util.HashSet;
 
 /**
  * Loads extensions for a macro hander.
+ * A handler that declares the types of macros it consumes or whether it allows the recording is neither created
+ * nor initialized until the first macro it receives arrives.
  * @author Katsuhisa Maruyama
  */
 public class MacroHandlerLoader {
@@ -37,8 +41,31 @@ public class MacroHandlerLoader {
      */
     static final String ATTRIBUTE_CLASS = "class";
     
+    /**
+     * The attribute name that specifies the types of macros a macro handler consumes.
+     */
+    static final String ATTRIBUTE_MACROS = "macros";
+    
+    /**
+     * The attribute name that specifies whether a macro handler consumes raw macros.
+     */
+    static final String ATTRIBUTE_RAW_MACROS = "rawMacros";
+    
+    /**
+     * The attribute name that specifies whether a macro handler allows the recording.
+     */
+    static final String ATTRIBUTE_RECORDING_ALLOWED = "recordingAllowed";
+    
+    /**
+     * The type name that stands for all types of macros.
+     */
+    static final String ALL_MACRO_TYPES = "*";
+    
     /**
      * Loads macro handlers that are specified in the extension point.
+     * Only handlers that allow the recording are loaded.
+     * A handler that declares neither macro types nor whether it allows the recording is created and asked at startup,
+     * otherwise its creation is deferred and the declaration decides without activating the bundle of the handler.
      */
     public static Set<IMacroHandler> load() {
         Set<IMacroHandler> handlers = new HashSet<IMacroHandler>();
@@ -54,6 +81,21 @@ public class MacroHandlerLoader {
             IConfigurationElement[] elems = extension.getConfigurationElements();
             for (IConfigurationElement elem : elems) {
                 if (elem.getName().equals(ELEMENT_NAME)) {
+                    Set<Class<? extends Macro>> types = getMacroTypes(elem.getAttribute(ATTRIBUTE_MACROS));
+                    String allowed = elem.getAttribute(ATTRIBUTE_RECORDING_ALLOWED);
+                    if (types != null || allowed != null) {
+                        if ("false".equalsIgnoreCase(allowed)) {
+                            continue;
+                        }
+                        if (types == null) {
+                            types = new HashSet<Class<? extends Macro>>();
+                            types.add(Macro.class);
+                        }
+                        boolean rawMacros = !"false".equalsIgnoreCase(elem.getAttribute(ATTRIBUTE_RAW_MACROS));
+                        handlers.add(new LazyMacroHandler(elem, types, rawMacros, allowed != null));
+                        continue;
+                    }
+                    
                     try {
                         Object obj = elem.createExecutableExtension(ATTRIBUTE_CLASS);
                         if (obj instanceof IMacroHandler) {
@@ -70,4 +112,35 @@ public class MacroHandlerLoader {
         }
         return handlers;
     }
+    
+    /**
+     * Obtains the types of macros from their declaration.
+     * Each type is specified by the name of a macro class without its package name and the trailing <code>Macro</code>.
+     * @param value the comma-separated type names, or <code>"*"</code> for all types
+     * @return the collection of the macro types, or <code>null</code> if no type is declared
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<Class<? extends Macro>> getMacroTypes(String value) {
+        if (value == null || value.trim().length() == 0) {
+            return null;
+        }
+        
+        Set<Class<? extends Macro>> types = new HashSet<Class<? extends Macro>>();
+        for (String name : value.split(",")) {
+            name = name.trim();
+            if (name.equals(ALL_MACRO_TYPES)) {
+                types.add(Macro.class);
+                continue;
+            }
+            try {
+                Class<?> type = Class.forName(Macro.class.getPackageName() + "." + name + "Macro");
+                if (Macro.class.isAssignableFrom(type)) {
+                    types.add((Class<? extends Macro>)type);
+                    continue;
+                }
+            } catch (ClassNotFoundException e) { /* empty */ }
+            MacroConsole.println("Unknown macro type in " + EXTENSION_POINT_ID + ": " + name);
+        }
+        return types;
+    }
 }
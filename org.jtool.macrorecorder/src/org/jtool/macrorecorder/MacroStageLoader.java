@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.IExtension;
+import org.eclipse.core.runtime.IExtensionPoint;
+import org.eclipse.core.runtime.IExtensionRegistry;
+import org.eclipse.core.runtime.Platform;
+import org.jtool.macrorecorder.recorder.IMacroStage;
+import org.jtool.macrorecorder.recorder.MacroConsole;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Loads extensions for a macro stage.
+ * @author Katsuhisa Maruyama
+ */
+public class MacroStageLoader {
+    
+    /**
+     * The ID of the extension point.
+     */
+    public static final String EXTENSION_POINT_ID = "org.jtool.macrorecorder.stages";
+    
+    /**
+     * The element name that specifies the collection of macro stages.
+     */
+    static final String ELEMENT_NAME = "stage";
+    
+    /**
+     * The attribute name that specifies a macro stage class to be loaded.
+     */
+    static final String ATTRIBUTE_CLASS = "class";
+    
+    /**
+     * The attribute name that specifies the order of a macro stage.
+     */
+    static final String ATTRIBUTE_ORDER = "order";
+    
+    /**
+     * Loads macro stages that are specified in the extension point.
+     * @return the stages sorted by their orders, in which a macro flows
+     */
+    public static List<IMacroStage> load() {
+        List<IMacroStage> stages = new ArrayList<IMacroStage>();
+        
+        IExtensionRegistry registry = Platform.getExtensionRegistry();
+        IExtensionPoint point = registry.getExtensionPoint(EXTENSION_POINT_ID);
+        if (point == null) {
+            return stages;
+        }
+        
+        Map<IMacroStage, Integer> orders = new HashMap<IMacroStage, Integer>();
+        IExtension[] extensions = point.getExtensions();
+        for (IExtension extension : extensions) {
+            IConfigurationElement[] elems = extension.getConfigurationElements();
+            for (IConfigurationElement elem : elems) {
+                if (elem.getName().equals(ELEMENT_NAME)) {
+                    try {
+                        Object obj = elem.createExecutableExtension(ATTRIBUTE_CLASS);
+                        if (obj instanceof IMacroStage) {
+                            IMacroStage stage = (IMacroStage)obj;
+                            stages.add(stage);
+                            orders.put(stage, getOrder(elem.getAttribute(ATTRIBUTE_ORDER)));
+                        }
+                    } catch (CoreException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        stages.sort((s1, s2) -> Integer.compare(orders.get(s1), orders.get(s2)));
+        return stages;
+    }
+    
+    /**
+     * Obtains the order of a macro stage.
+     * @param value the string representation of the order
+     * @return the order, or <code>0</code> if it is not specified
+     */
+    private static int getOrder(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            MacroConsole.println("Invalid order in " + EXTENSION_POINT_ID + ": " + value);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,1401 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.internal.diff;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Finds differences between two texts on arrays of primitive tokens.
+ * This follows the algorithms of <code>diff_match_patch</code> (the bisection of Myers, the half-match and line-mode speedups,
+ * and the semantic, efficiency, and merge cleanups) but represents a difference as an edit script,
+ * which stores only the operations and their lengths in primitive arrays.
+ * The text of an operation is given by its position in either of the two texts, which is the sum of the lengths of
+ * the preceding operations, so no text is copied or concatenated until the differences are converted into macros.
+ * @author Katsuhisa Maruyama
+ */
+class ArrayDiff {
+    
+    /**
+     * The operation that keeps the text of both texts.
+     */
+    static final byte EQUAL = 0;
+    
+    /**
+     * The operation that deletes the text of the old text.
+     */
+    static final byte DELETE = 1;
+    
+    /**
+     * The operation that inserts the text of the new text.
+     */
+    static final byte INSERT = 2;
+    
+    /**
+     * The operation of an equality that was split into a deletion followed by an insertion of the same text,
+     * which appears only in the middle of a cleanup.
+     */
+    private static final byte REPLACE = 3;
+    
+    /**
+     * The operation that was removed, which appears only in the middle of a cleanup.
+     */
+    private static final byte REMOVED = -1;
+    
+    /**
+     * The number of tokens compared at a time when the common suffix is searched.
+     */
+    private static final int SUFFIX_BLOCK = 64;
+    
+    /**
+     * The pattern of a text that ends with a blank line.
+     */
+    private static final Pattern BLANKLINEEND = Pattern.compile("\\n\\r?\\n\\Z", Pattern.DOTALL);
+    
+    /**
+     * The cost of an empty edit operation in terms of edit characters.
+     */
+    private short editCost;
+    
+    /**
+     * The time (by <code>System.currentTimeMillis()</code>) by which the differences must be found,
+     * or <code>Long.MAX_VALUE</code> if the time is unlimited.
+     */
+    private long deadline;
+    
+    /**
+     * Creates an object that finds differences.
+     * @param editCost the cost of an empty edit operation in terms of edit characters
+     * @param deadline the time by which the differences must be found, or <code>Long.MAX_VALUE</code> if the time is unlimited
+     */
+    ArrayDiff(short editCost, long deadline) {
+        this.editCost = editCost;
+        this.deadline = deadline;
+    }
+    
+    /**
+     * Converts a text into an array of tokens each of which is a character.
+     * @param text the text
+     * @return the array of the characters
+     */
+    static int[] toTokens(String text) {
+        int[] tokens = new int[text.length()];
+        for (int idx = 0; idx < tokens.length; idx++) {
+            tokens[idx] = text.charAt(idx);
+        }
+        return tokens;
+    }
+    
+    /**
+     * Finds the differences between two texts, which correspond to <code>diff_main</code>.
+     * @param a the old text
+     * @param b the new text
+     * @return the edit script that transforms the old text into the new one
+     */
+    EditScript diff(int[] a, int[] b) {
+        return diffMain(a, 0, a.length, b, 0, b.length, true);
+    }
+    
+    /**
+     * Finds the differences between two ranges of texts after stripping their common prefix and suffix.
+     * @param a the old text
+     * @param as the start of the range of the old text
+     * @param ae the end of the range of the old text
+     * @param b the new text
+     * @param bs the start of the range of the new text
+     * @param be the end of the range of the new text
+     * @param checklines <code>true</code> if a line-level diff is run first to identify the changed areas
+     * @return the edit script of the ranges
+     */
+    private EditScript diffMain(int[] a, int as, int ae, int[] b, int bs, int be, boolean checklines) {
+        if (ae - as == be - bs && Arrays.equals(a, as, ae, b, bs, be)) {
+            EditScript diffs = new EditScript(1);
+            if (ae > as) {
+                diffs.add(EQUAL, ae - as);
+            }
+            return diffs;
+        }
+        
+        int prefix = commonPrefix(a, as, ae, b, bs, be);
+        int suffix = commonSuffix(a, as + prefix, ae, b, bs + prefix, be);
+        EditScript middle = compute(a, as + prefix, ae - suffix, b, bs + prefix, be - suffix, checklines);
+        
+        EditScript diffs = new EditScript(middle.size + 2);
+        if (prefix != 0) {
+            diffs.add(EQUAL, prefix);
+        }
+        diffs.addAll(middle);
+        if (suffix != 0) {
+            diffs.add(EQUAL, suffix);
+        }
+        return cleanupMerge(diffs, a, as, b, bs);
+    }
+    
+    /**
+     * Finds the differences between two ranges of texts that have no common prefix or suffix.
+     * @param a the old text
+     * @param as the start of the range of the old text
+     * @param ae the end of the range of the old text
+     * @param b the new text
+     * @param bs the start of the range of the new text
+     * @param be the end of the range of the new text
+     * @param checklines <code>true</code> if a line-level diff is run first to identify the changed areas
+     * @return the edit script of the ranges
+     */
+    private EditScript compute(int[] a, int as, int ae, int[] b, int bs, int be, boolean checklines) {
+        EditScript diffs = new EditScript(3);
+        if (ae == as) {
+            diffs.add(INSERT, be - bs);
+            return diffs;
+        }
+        if (be == bs) {
+            diffs.add(DELETE, ae - as);
+            return diffs;
+        }
+        
+        boolean longA = ae - as > be - bs;
+        int[] lt = longA ? a : b;
+        int ls = longA ? as : bs;
+        int le = longA ? ae : be;
+        int[] st = longA ? b : a;
+        int ss = longA ? bs : as;
+        int se = longA ? be : ae;
+        int found = indexOf(lt, ls, le, st, ss, se);
+        if (found != -1) {
+            byte op = longA ? DELETE : INSERT;
+            diffs.add(op, found - ls);
+            diffs.add(EQUAL, se - ss);
+            diffs.add(op, le - found - (se - ss));
+            return diffs;
+        }
+        
+        if (se - ss == 1) {
+            diffs.add(DELETE, ae - as);
+            diffs.add(INSERT, be - bs);
+            return diffs;
+        }
+        
+        int[] hm = halfMatch(a, as, ae, b, bs, be);
+        if (hm != null) {
+            EditScript diffsA = diffMain(a, as, hm[0], b, bs, hm[2], checklines);
+            EditScript diffsB = diffMain(a, hm[1], ae, b, hm[3], be, checklines);
+            diffsA.add(EQUAL, hm[1] - hm[0]);
+            diffsA.addAll(diffsB);
+            return diffsA;
+        }
+        
+        if (checklines && ae - as > 100 && be - bs > 100) {
+            return lineMode(a, as, ae, b, bs, be);
+        }
+        return bisect(a, as, ae, b, bs, be);
+    }
+    
+    /**
+     * Finds the differences between two ranges of texts line by line, and then rediffs the replaced lines character by character.
+     * @param a the old text
+     * @param as the start of the range of the old text
+     * @param ae the end of the range of the old text
+     * @param b the new text
+     * @param bs the start of the range of the new text
+     * @param be the end of the range of the new text
+     * @return the edit script of the ranges
+     */
+    private EditScript lineMode(int[] a, int as, int ae, int[] b, int bs, int be) {
+        LineTable table = new LineTable();
+        int[] aoffsets = lineOffsets(a, as, ae);
+        int[] boffsets = lineOffsets(b, bs, be);
+        int[] alines = table.tokenize(a, aoffsets);
+        int[] blines = table.tokenize(b, boffsets);
+        
+        EditScript lines = diffMain(alines, 0, alines.length, blines, 0, blines.length, false);
+        EditScript diffs = new EditScript(lines.size);
+        int pa = 0;
+        int pb = 0;
+        for (int idx = 0; idx < lines.size; idx++) {
+            byte op = lines.ops[idx];
+            int len = lines.lengths[idx];
+            if (op == INSERT) {
+                diffs.add(op, boffsets[pb + len] - boffsets[pb]);
+            } else {
+                diffs.add(op, aoffsets[pa + len] - aoffsets[pa]);
+            }
+            pa = pa + lengthA(op, len);
+            pb = pb + lengthB(op, len);
+        }
+        diffs = cleanupSemantic(diffs, a, as, b, bs);
+        
+        EditScript result = new EditScript(diffs.size);
+        int countDelete = 0;
+        int countInsert = 0;
+        int lengthDelete = 0;
+        int lengthInsert = 0;
+        int runStart = 0;
+        int posA = as;
+        int posB = bs;
+        for (int idx = 0; idx <= diffs.size; idx++) {
+            byte op = idx < diffs.size ? diffs.ops[idx] : EQUAL;
+            int len = idx < diffs.size ? diffs.lengths[idx] : 0;
+            if (op == INSERT) {
+                countInsert++;
+                lengthInsert = lengthInsert + len;
+            } else if (op == DELETE) {
+                countDelete++;
+                lengthDelete = lengthDelete + len;
+            } else {
+                if (countDelete >= 1 && countInsert >= 1) {
+                    result.addAll(diffMain(a, posA, posA + lengthDelete, b, posB, posB + lengthInsert, false));
+                } else {
+                    for (int run = runStart; run < idx; run++) {
+                        result.add(diffs.ops[run], diffs.lengths[run]);
+                    }
+                }
+                if (idx < diffs.size) {
+                    result.add(EQUAL, len);
+                }
+                posA = posA + lengthDelete + len;
+                posB = posB + lengthInsert + len;
+                countDelete = 0;
+                countInsert = 0;
+                lengthDelete = 0;
+                lengthInsert = 0;
+                runStart = idx + 1;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Finds the middle snake of the differences between two ranges of texts, and splits the problem in two.
+     * @param a the old text
+     * @param as the start of the range of the old text
+     * @param ae the end of the range of the old text
+     * @param b the new text
+     * @param bs the start of the range of the new text
+     * @param be the end of the range of the new text
+     * @return the edit script of the ranges
+     */
+    private EditScript bisect(int[] a, int as, int ae, int[] b, int bs, int be) {
+        int alength = ae - as;
+        int blength = be - bs;
+        int maxD = (alength + blength + 1) / 2;
+        int vOffset = maxD;
+        int vLength = 2 * maxD;
+        int[] v1 = new int[vLength];
+        int[] v2 = new int[vLength];
+        Arrays.fill(v1, -1);
+        Arrays.fill(v2, -1);
+        v1[vOffset + 1] = 0;
+        v2[vOffset + 1] = 0;
+        int delta = alength - blength;
+        boolean front = (delta % 2 != 0);
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        for (int d = 0; d < maxD; d++) {
+            if (System.currentTimeMillis() > deadline || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = vOffset + k1;
+                int x1;
+                if (k1 == -d || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1])) {
+                    x1 = v1[k1Offset + 1];
+                } else {
+                    x1 = v1[k1Offset - 1] + 1;
+                }
+                int y1 = x1 - k1;
+                if (x1 < alength && y1 < blength && a[as + x1] == b[bs + y1]) {
+                    int snake = Arrays.mismatch(a, as + x1, ae, b, bs + y1, be);
+                    if (snake < 0) {
+                        snake = alength - x1;
+                    }
+                    x1 = x1 + snake;
+                    y1 = y1 + snake;
+                }
+                v1[k1Offset] = x1;
+                if (x1 > alength) {
+                    k1end += 2;
+                } else if (y1 > blength) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2Offset = vOffset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < vLength && v2[k2Offset] != -1) {
+                        int x2 = alength - v2[k2Offset];
+                        if (x1 >= x2) {
+                            return bisectSplit(a, as, ae, b, bs, be, x1, y1);
+                        }
+                    }
+                }
+            }
+            
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = vOffset + k2;
+                int x2;
+                if (k2 == -d || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1])) {
+                    x2 = v2[k2Offset + 1];
+                } else {
+                    x2 = v2[k2Offset - 1] + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < alength && y2 < blength && a[ae - x2 - 1] == b[be - y2 - 1]) {
+                    x2++;
+                    y2++;
+                }
+                v2[k2Offset] = x2;
+                if (x2 > alength) {
+                    k2end += 2;
+                } else if (y2 > blength) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1Offset = vOffset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < vLength && v1[k1Offset] != -1) {
+                        int x1 = v1[k1Offset];
+                        int y1 = vOffset + x1 - k1Offset;
+                        x2 = alength - x2;
+                        if (x1 >= x2) {
+                            return bisectSplit(a, as, ae, b, bs, be, x1, y1);
+                        }
+                    }
+                }
+            }
+        }
+        
+        EditScript diffs = new EditScript(2);
+        diffs.add(DELETE, alength);
+        diffs.add(INSERT, blength);
+        return diffs;
+    }
+    
+    /**
+     * Splits the differences between two ranges of texts at the middle snake and finds the differences of both parts.
+     * @param a the old text
+     * @param as the start of the range of the old text
+     * @param ae the end of the range of the old text
+     * @param b the new text
+     * @param bs the start of the range of the new text
+     * @param be the end of the range of the new text
+     * @param x the split point relative to the start of the range of the old text
+     * @param y the split point relative to the start of the range of the new text
+     * @return the edit script of the ranges
+     */
+    private EditScript bisectSplit(int[] a, int as, int ae, int[] b, int bs, int be, int x, int y) {
+        EditScript diffs = diffMain(a, as, as + x, b, bs, bs + y, false);
+        diffs.addAll(diffMain(a, as + x, ae, b, bs + y, be, false));
+        return diffs;
+    }
+    
+    /**
+     * Tests if two ranges of texts share a range that is at least half the length of the longer one.
+     * @param a the old text
+     * @param as the start of the range of the old text
+     * @param ae the end of the range of the old text
+     * @param b the new text
+     * @param bs the start of the range of the new text
+     * @param be the end of the range of the new text
+     * @return the start and end of the common range in the old text followed by those in the new text,
+     *         or <code>null</code> if there is no such a range
+     */
+    private int[] halfMatch(int[] a, int as, int ae, int[] b, int bs, int be) {
+        if (deadline == Long.MAX_VALUE) {
+            return null;
+        }
+        
+        boolean longA = ae - as > be - bs;
+        int[] lt = longA ? a : b;
+        int ls = longA ? as : bs;
+        int le = longA ? ae : be;
+        int[] st = longA ? b : a;
+        int ss = longA ? bs : as;
+        int se = longA ? be : ae;
+        if (le - ls < 4 || (se - ss) * 2 < le - ls) {
+            return null;
+        }
+        
+        int[] hm1 = halfMatch(lt, ls, le, st, ss, se, ls + (le - ls + 3) / 4);
+        int[] hm2 = halfMatch(lt, ls, le, st, ss, se, ls + (le - ls + 1) / 2);
+        int[] hm;
+        if (hm1 == null && hm2 == null) {
+            return null;
+        } else if (hm2 == null) {
+            hm = hm1;
+        } else if (hm1 == null) {
+            hm = hm2;
+        } else {
+            hm = hm1[1] - hm1[0] > hm2[1] - hm2[0] ? hm1 : hm2;
+        }
+        
+        if (longA) {
+            return hm;
+        } else {
+            return new int[] { hm[2], hm[3], hm[0], hm[1] };
+        }
+    }
+    
+    /**
+     * Tests if the shorter range contains a range that is seeded by a quarter of the longer range
+     * and is at least half the length of the longer range.
+     * @param lt the longer text
+     * @param ls the start of the longer range
+     * @param le the end of the longer range
+     * @param st the shorter text
+     * @param ss the start of the shorter range
+     * @param se the end of the shorter range
+     * @param seed the start of the seed in the longer range
+     * @return the start and end of the common range in the longer text followed by those in the shorter text,
+     *         or <code>null</code> if there is no such a range
+     */
+    private static int[] halfMatch(int[] lt, int ls, int le, int[] st, int ss, int se, int seed) {
+        int seedEnd = seed + (le - ls) / 4;
+        int best = 0;
+        int[] hm = new int[4];
+        int found = ss - 1;
+        while ((found = indexOf(st, found + 1, se, lt, seed, seedEnd)) != -1) {
+            int prefixLength = commonPrefix(lt, seed, le, st, found, se);
+            int suffixLength = commonSuffix(lt, ls, seed, st, ss, found);
+            if (best < suffixLength + prefixLength) {
+                best = suffixLength + prefixLength;
+                hm[0] = seed - suffixLength;
+                hm[1] = seed + prefixLength;
+                hm[2] = found - suffixLength;
+                hm[3] = found + prefixLength;
+            }
+        }
+        if (best * 2 >= le - ls) {
+            return hm;
+        }
+        return null;
+    }
+    
+    /**
+     * Reduces the number of edits by eliminating semantically trivial equalities, which corresponds to <code>diff_cleanupSemantic</code>.
+     * @param diffs the edit script
+     * @param a the old text
+     * @param as the position in the old text where the edit script starts
+     * @param b the new text
+     * @param bs the position in the new text where the edit script starts
+     * @return the cleaned edit script
+     */
+    private EditScript cleanupSemantic(EditScript diffs, int[] a, int as, int[] b, int bs) {
+        if (diffs.size == 0) {
+            return diffs;
+        }
+        
+        boolean changes = false;
+        IntStack equalities = new IntStack();
+        int lastEquality = -1;
+        int lengthInsertions1 = 0;
+        int lengthDeletions1 = 0;
+        int lengthInsertions2 = 0;
+        int lengthDeletions2 = 0;
+        int idx = 0;
+        boolean half = false;
+        while (idx < diffs.size) {
+            byte op = diffs.ops[idx];
+            if (op == EQUAL) {
+                equalities.push(idx);
+                lengthInsertions1 = lengthInsertions2;
+                lengthDeletions1 = lengthDeletions2;
+                lengthInsertions2 = 0;
+                lengthDeletions2 = 0;
+                lastEquality = diffs.lengths[idx];
+            } else {
+                if (op == INSERT || (op == REPLACE && half)) {
+                    lengthInsertions2 = lengthInsertions2 + diffs.lengths[idx];
+                } else {
+                    lengthDeletions2 = lengthDeletions2 + diffs.lengths[idx];
+                }
+                if (lastEquality != -1 &&
+                    lastEquality <= Math.max(lengthInsertions1, lengthDeletions1) &&
+                    lastEquality <= Math.max(lengthInsertions2, lengthDeletions2)) {
+                    diffs.ops[equalities.pop()] = REPLACE;
+                    if (!equalities.isEmpty()) {
+                        equalities.pop();
+                    }
+                    idx = equalities.isEmpty() ? 0 : equalities.peek();
+                    half = false;
+                    lengthInsertions1 = 0;
+                    lengthInsertions2 = 0;
+                    lengthDeletions1 = 0;
+                    lengthDeletions2 = 0;
+                    lastEquality = -1;
+                    changes = true;
+                    continue;
+                }
+            }
+            if (op == REPLACE && !half) {
+                half = true;
+            } else {
+                idx++;
+                half = false;
+            }
+        }
+        
+        if (changes) {
+            diffs = cleanupMerge(diffs, a, as, b, bs);
+        }
+        diffs = cleanupSemanticLossless(diffs, a, as, b, bs);
+        
+        EditScript result = new EditScript(diffs.size + 1);
+        int pa = as;
+        int pb = bs;
+        int idy = 0;
+        while (idy < diffs.size) {
+            if (idy + 1 < diffs.size && diffs.ops[idy] == DELETE && diffs.ops[idy + 1] == INSERT) {
+                int deletion = diffs.lengths[idy];
+                int insertion = diffs.lengths[idy + 1];
+                int overlap1 = commonOverlap(a, pa, pa + deletion, b, pb, pb + insertion);
+                int overlap2 = commonOverlap(b, pb, pb + insertion, a, pa, pa + deletion);
+                if (overlap1 >= overlap2 && (overlap1 >= deletion / 2.0 || overlap1 >= insertion / 2.0)) {
+                    result.add(DELETE, deletion - overlap1);
+                    result.add(EQUAL, overlap1);
+                    result.add(INSERT, insertion - overlap1);
+                } else if (overlap1 < overlap2 && (overlap2 >= deletion / 2.0 || overlap2 >= insertion / 2.0)) {
+                    result.add(INSERT, insertion - overlap2);
+                    result.add(EQUAL, overlap2);
+                    result.add(DELETE, deletion - overlap2);
+                } else {
+                    result.add(DELETE, deletion);
+                    result.add(INSERT, insertion);
+                }
+                pa = pa + deletion;
+                pb = pb + insertion;
+                idy = idy + 2;
+            } else {
+                result.add(diffs.ops[idy], diffs.lengths[idy]);
+                pa = pa + lengthA(diffs.ops[idy], diffs.lengths[idy]);
+                pb = pb + lengthB(diffs.ops[idy], diffs.lengths[idy]);
+                idy++;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Shifts single edits surrounded by equalities sideways to align them to word boundaries,
+     * which corresponds to <code>diff_cleanupSemanticLossless</code>.
+     * @param diffs the edit script
+     * @param a the old text
+     * @param as the position in the old text where the edit script starts
+     * @param b the new text
+     * @param bs the position in the new text where the edit script starts
+     * @return the cleaned edit script
+     */
+    private static EditScript cleanupSemanticLossless(EditScript diffs, int[] a, int as, int[] b, int bs) {
+        int prev = 0;
+        int cur = 1;
+        int next = 2;
+        int pa = as;
+        int pb = bs;
+        boolean removed = false;
+        while (next < diffs.size) {
+            boolean nextRemoved = false;
+            if (diffs.ops[prev] == EQUAL && diffs.ops[next] == EQUAL) {
+                int[] text = diffs.ops[cur] == INSERT ? b : a;
+                int start = diffs.ops[cur] == INSERT ? pb : pa;
+                int equality1 = diffs.lengths[prev];
+                int edit = diffs.lengths[cur];
+                int end = start + equality1 + edit + diffs.lengths[next];
+                
+                int boundary = start + equality1 - commonSuffix(text, start, start + equality1,
+                        text, start + equality1, start + equality1 + edit);
+                int bestBoundary = boundary;
+                int bestScore = semanticScore(text, start, boundary, boundary + edit) +
+                                semanticScore(text, boundary, boundary + edit, end);
+                while (edit != 0 && boundary + edit < end && text[boundary] == text[boundary + edit]) {
+                    boundary++;
+                    int score = semanticScore(text, start, boundary, boundary + edit) +
+                                semanticScore(text, boundary, boundary + edit, end);
+                    if (score >= bestScore) {
+                        bestScore = score;
+                        bestBoundary = boundary;
+                    }
+                }
+                
+                if (bestBoundary != start + equality1) {
+                    if (bestBoundary != start) {
+                        diffs.lengths[prev] = bestBoundary - start;
+                    } else {
+                        diffs.ops[prev] = REMOVED;
+                        diffs.lengths[prev] = 0;
+                    }
+                    if (bestBoundary + edit != end) {
+                        diffs.lengths[next] = end - bestBoundary - edit;
+                    } else {
+                        diffs.ops[next] = REMOVED;
+                        diffs.lengths[next] = 0;
+                        nextRemoved = true;
+                    }
+                    removed = true;
+                }
+            }
+            if (nextRemoved) {
+                next++;
+            } else {
+                pa = pa + lengthA(diffs.ops[prev], diffs.lengths[prev]);
+                pb = pb + lengthB(diffs.ops[prev], diffs.lengths[prev]);
+                prev = cur;
+                cur = next;
+                next++;
+            }
+        }
+        if (removed) {
+            diffs.compact();
+        }
+        return diffs;
+    }
+    
+    /**
+     * Computes a score that represents whether a boundary between two adjacent ranges falls on a logical boundary.
+     * @param text the text
+     * @param start the start of the first range
+     * @param boundary the end of the first range, which is the start of the second range
+     * @param end the end of the second range
+     * @return the score from <code>6</code> (best) to <code>0</code> (worst)
+     */
+    private static int semanticScore(int[] text, int start, int boundary, int end) {
+        if (boundary == start || boundary == end) {
+            return 6;
+        }
+        
+        char char1 = (char)text[boundary - 1];
+        char char2 = (char)text[boundary];
+        boolean nonAlphaNumeric1 = !Character.isLetterOrDigit(char1);
+        boolean nonAlphaNumeric2 = !Character.isLetterOrDigit(char2);
+        boolean whitespace1 = nonAlphaNumeric1 && Character.isWhitespace(char1);
+        boolean whitespace2 = nonAlphaNumeric2 && Character.isWhitespace(char2);
+        boolean lineBreak1 = whitespace1 && Character.getType(char1) == Character.CONTROL;
+        boolean lineBreak2 = whitespace2 && Character.getType(char2) == Character.CONTROL;
+        boolean blankLine1 = lineBreak1 && endsWithBlankLine(text, start, boundary);
+        boolean blankLine2 = lineBreak2 && startsWithBlankLine(text, boundary, end);
+        
+        if (blankLine1 || blankLine2) {
+            return 5;
+        } else if (lineBreak1 || lineBreak2) {
+            return 4;
+        } else if (nonAlphaNumeric1 && !whitespace1 && whitespace2) {
+            return 3;
+        } else if (whitespace1 || whitespace2) {
+            return 2;
+        } else if (nonAlphaNumeric1 || nonAlphaNumeric2) {
+            return 1;
+        }
+        return 0;
+    }
+    
+    /**
+     * Tests if a range of a text ends with a blank line.
+     * Since the pattern is anchored at the end, only the last few characters are matched.
+     * @param text the text
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return <code>true</code> if the range ends with a blank line, otherwise <code>false</code>
+     */
+    private static boolean endsWithBlankLine(int[] text, int start, int end) {
+        int from = Math.max(start, end - 6);
+        char[] tail = new char[end - from];
+        for (int idx = 0; idx < tail.length; idx++) {
+            tail[idx] = (char)text[from + idx];
+        }
+        return BLANKLINEEND.matcher(new String(tail)).find();
+    }
+    
+    /**
+     * Tests if a range of a text starts with a blank line.
+     * @param text the text
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return <code>true</code> if the range starts with a blank line, otherwise <code>false</code>
+     */
+    private static boolean startsWithBlankLine(int[] text, int start, int end) {
+        int pos = start;
+        for (int line = 0; line < 2; line++) {
+            if (pos < end && text[pos] == '\r') {
+                pos++;
+            }
+            if (pos >= end || text[pos] != '\n') {
+                return false;
+            }
+            pos++;
+        }
+        return true;
+    }
+    
+    /**
+     * Reduces the number of edits by eliminating operationally trivial equalities, which corresponds to <code>diff_cleanupEfficiency</code>.
+     * @param diffs the edit script
+     * @param a the old text
+     * @param b the new text
+     * @return the cleaned edit script
+     */
+    EditScript cleanupEfficiency(EditScript diffs, int[] a, int[] b) {
+        if (diffs.size == 0) {
+            return diffs;
+        }
+        
+        boolean changes = false;
+        IntStack equalities = new IntStack();
+        int lastEquality = -1;
+        boolean preIns = false;
+        boolean preDel = false;
+        boolean postIns = false;
+        boolean postDel = false;
+        int safe = 0;
+        boolean safeHalf = false;
+        int idx = 0;
+        boolean half = false;
+        while (idx < diffs.size) {
+            byte op = diffs.ops[idx];
+            if (op == EQUAL) {
+                if (diffs.lengths[idx] < editCost && (postIns || postDel)) {
+                    equalities.push(idx);
+                    preIns = postIns;
+                    preDel = postDel;
+                    lastEquality = diffs.lengths[idx];
+                } else {
+                    equalities.clear();
+                    lastEquality = -1;
+                    safe = idx;
+                    safeHalf = false;
+                }
+                postIns = false;
+                postDel = false;
+            } else {
+                if (op == DELETE || (op == REPLACE && !half)) {
+                    postDel = true;
+                } else {
+                    postIns = true;
+                }
+                int count = (preIns ? 1 : 0) + (preDel ? 1 : 0) + (postIns ? 1 : 0) + (postDel ? 1 : 0);
+                if (lastEquality != -1 &&
+                    ((preIns && preDel && postIns && postDel) || (lastEquality < editCost / 2 && count == 3))) {
+                    int split = equalities.pop();
+                    diffs.ops[split] = REPLACE;
+                    lastEquality = -1;
+                    changes = true;
+                    if (preIns && preDel) {
+                        postIns = true;
+                        postDel = true;
+                        equalities.clear();
+                        safe = split;
+                        safeHalf = true;
+                        idx = split + 1;
+                        half = false;
+                    } else {
+                        if (!equalities.isEmpty()) {
+                            equalities.pop();
+                        }
+                        if (equalities.isEmpty()) {
+                            idx = safe;
+                            half = safeHalf;
+                        } else {
+                            idx = equalities.peek();
+                            half = false;
+                        }
+                        postIns = false;
+                        postDel = false;
+                    }
+                    continue;
+                }
+            }
+            if (op == REPLACE && !half) {
+                half = true;
+            } else {
+                idx++;
+                half = false;
+            }
+        }
+        
+        if (changes) {
+            diffs = cleanupMerge(diffs, a, 0, b, 0);
+        }
+        return diffs;
+    }
+    
+    /**
+     * Reorders and merges edits and merges equalities, which corresponds to <code>diff_cleanupMerge</code>.
+     * Any edit can move as long as it does not cross an equality.
+     * @param diffs the edit script, which may contain split equalities
+     * @param a the old text
+     * @param as the position in the old text where the edit script starts
+     * @param b the new text
+     * @param bs the position in the new text where the edit script starts
+     * @return the merged edit script
+     */
+    private static EditScript cleanupMerge(EditScript diffs, int[] a, int as, int[] b, int bs) {
+        while (true) {
+            EditScript result = new EditScript(diffs.size + 2);
+            int countDelete = 0;
+            int countInsert = 0;
+            int lengthDelete = 0;
+            int lengthInsert = 0;
+            byte single = EQUAL;
+            int prevEqual = -1;
+            int pa = as;
+            int pb = bs;
+            for (int idx = 0; idx <= diffs.size; idx++) {
+                byte op = idx < diffs.size ? diffs.ops[idx] : EQUAL;
+                int len = idx < diffs.size ? diffs.lengths[idx] : 0;
+                if (op == INSERT) {
+                    countInsert++;
+                    lengthInsert = lengthInsert + len;
+                    single = INSERT;
+                    prevEqual = -1;
+                } else if (op == DELETE) {
+                    countDelete++;
+                    lengthDelete = lengthDelete + len;
+                    single = DELETE;
+                    prevEqual = -1;
+                } else if (op == REPLACE) {
+                    countDelete++;
+                    countInsert++;
+                    lengthDelete = lengthDelete + len;
+                    lengthInsert = lengthInsert + len;
+                    prevEqual = -1;
+                } else if (op == EQUAL) {
+                    if (countDelete + countInsert > 1) {
+                        if (countDelete != 0 && countInsert != 0) {
+                            int common = commonPrefix(b, pb, pb + lengthInsert, a, pa, pa + lengthDelete);
+                            if (common != 0) {
+                                if (result.size > 0) {
+                                    result.lengths[result.size - 1] += common;
+                                } else {
+                                    result.add(EQUAL, common);
+                                }
+                                pa = pa + common;
+                                pb = pb + common;
+                                lengthInsert = lengthInsert - common;
+                                lengthDelete = lengthDelete - common;
+                            }
+                            common = commonSuffix(b, pb, pb + lengthInsert, a, pa, pa + lengthDelete);
+                            if (common != 0) {
+                                len = len + common;
+                                lengthInsert = lengthInsert - common;
+                                lengthDelete = lengthDelete - common;
+                            }
+                        }
+                        if (lengthDelete != 0) {
+                            result.add(DELETE, lengthDelete);
+                        }
+                        if (lengthInsert != 0) {
+                            result.add(INSERT, lengthInsert);
+                        }
+                        result.add(EQUAL, len);
+                        prevEqual = result.size - 1;
+                    } else {
+                        if (countDelete + countInsert == 1) {
+                            result.add(single, single == DELETE ? lengthDelete : lengthInsert);
+                        }
+                        if (prevEqual != -1) {
+                            result.lengths[prevEqual] += len;
+                        } else {
+                            result.add(EQUAL, len);
+                            prevEqual = result.size - 1;
+                        }
+                    }
+                    pa = pa + lengthDelete + len;
+                    pb = pb + lengthInsert + len;
+                    countDelete = 0;
+                    countInsert = 0;
+                    lengthDelete = 0;
+                    lengthInsert = 0;
+                }
+            }
+            if (result.size > 0 && result.lengths[result.size - 1] == 0) {
+                result.size--;
+            }
+            
+            if (!shiftEdits(result, a, as, b, bs)) {
+                return result;
+            }
+            diffs = result;
+        }
+    }
+    
+    /**
+     * Shifts single edits surrounded by equalities sideways to eliminate an equality.
+     * For example, <code>A&lt;ins&gt;BA&lt;/ins&gt;C</code> is changed into <code>&lt;ins&gt;AB&lt;/ins&gt;AC</code>.
+     * @param diffs the edit script
+     * @param a the old text
+     * @param as the position in the old text where the edit script starts
+     * @param b the new text
+     * @param bs the position in the new text where the edit script starts
+     * @return <code>true</code> if any edit was shifted, otherwise <code>false</code>
+     */
+    private static boolean shiftEdits(EditScript diffs, int[] a, int as, int[] b, int bs) {
+        boolean changes = false;
+        int prev = 0;
+        int cur = 1;
+        int next = 2;
+        int pa = as;
+        int pb = bs;
+        while (next < diffs.size) {
+            if (diffs.ops[prev] == EQUAL && diffs.ops[next] == EQUAL) {
+                int prevLength = diffs.lengths[prev];
+                int curLength = diffs.lengths[cur];
+                int nextLength = diffs.lengths[next];
+                int[] text = diffs.ops[cur] == INSERT ? b : a;
+                int start = diffs.ops[cur] == INSERT ? pb + prevLength : pa + prevLength;
+                int nextStart = pa + prevLength + lengthA(diffs.ops[cur], curLength);
+                if (curLength >= prevLength &&
+                    Arrays.equals(text, start + curLength - prevLength, start + curLength, a, pa, pa + prevLength)) {
+                    diffs.lengths[next] += prevLength;
+                    diffs.ops[prev] = REMOVED;
+                    diffs.lengths[prev] = 0;
+                    pa = pa + lengthA(diffs.ops[cur], curLength);
+                    pb = pb + lengthB(diffs.ops[cur], curLength);
+                    prev = next;
+                    cur = next + 1;
+                    next = next + 2;
+                    changes = true;
+                    continue;
+                } else if (curLength >= nextLength &&
+                    Arrays.equals(text, start, start + nextLength, a, nextStart, nextStart + nextLength)) {
+                    diffs.lengths[prev] += nextLength;
+                    diffs.ops[next] = REMOVED;
+                    diffs.lengths[next] = 0;
+                    pa = pa + prevLength + nextLength;
+                    pb = pb + prevLength + nextLength;
+                    prev = cur;
+                    cur = next + 1;
+                    next = next + 2;
+                    changes = true;
+                    continue;
+                }
+            }
+            pa = pa + lengthA(diffs.ops[prev], diffs.lengths[prev]);
+            pb = pb + lengthB(diffs.ops[prev], diffs.lengths[prev]);
+            prev = cur;
+            cur = next;
+            next++;
+        }
+        if (changes) {
+            diffs.compact();
+        }
+        return changes;
+    }
+    
+    /**
+     * Returns the length of the common prefix of two ranges.
+     * @param a the first text
+     * @param as the start of the range of the first text
+     * @param ae the end of the range of the first text
+     * @param b the second text
+     * @param bs the start of the range of the second text
+     * @param be the end of the range of the second text
+     * @return the number of the common tokens at the start of both ranges
+     */
+    static int commonPrefix(int[] a, int as, int ae, int[] b, int bs, int be) {
+        int n = Math.min(ae - as, be - bs);
+        int mismatch = Arrays.mismatch(a, as, as + n, b, bs, bs + n);
+        return mismatch < 0 ? n : mismatch;
+    }
+    
+    /**
+     * Returns the length of the common suffix of two ranges.
+     * The ranges are compared block by block from their ends, and only the block containing the mismatch is scanned.
+     * @param a the first text
+     * @param as the start of the range of the first text
+     * @param ae the end of the range of the first text
+     * @param b the second text
+     * @param bs the start of the range of the second text
+     * @param be the end of the range of the second text
+     * @return the number of the common tokens at the end of both ranges
+     */
+    static int commonSuffix(int[] a, int as, int ae, int[] b, int bs, int be) {
+        int n = Math.min(ae - as, be - bs);
+        int common = 0;
+        while (common < n) {
+            int step = Math.min(SUFFIX_BLOCK, n - common);
+            if (!Arrays.equals(a, ae - common - step, ae - common, b, be - common - step, be - common)) {
+                while (a[ae - common - 1] == b[be - common - 1]) {
+                    common++;
+                }
+                return common;
+            }
+            common = common + step;
+        }
+        return common;
+    }
+    
+    /**
+     * Returns the length of the longest suffix of the first range that is a prefix of the second range.
+     * @param a the first text
+     * @param as the start of the range of the first text
+     * @param ae the end of the range of the first text
+     * @param b the second text
+     * @param bs the start of the range of the second text
+     * @param be the end of the range of the second text
+     * @return the number of the overlapping tokens
+     */
+    private static int commonOverlap(int[] a, int as, int ae, int[] b, int bs, int be) {
+        int alength = ae - as;
+        int blength = be - bs;
+        if (alength == 0 || blength == 0) {
+            return 0;
+        }
+        
+        if (alength > blength) {
+            as = ae - blength;
+        } else if (alength < blength) {
+            be = bs + alength;
+        }
+        int length = Math.min(alength, blength);
+        if (Arrays.equals(a, as, ae, b, bs, be)) {
+            return length;
+        }
+        
+        int best = 0;
+        int len = 1;
+        while (true) {
+            int found = indexOf(b, bs, be, a, ae - len, ae);
+            if (found == -1) {
+                return best;
+            }
+            found = found - bs;
+            len = len + found;
+            if (found == 0 || Arrays.equals(a, ae - len, ae, b, bs, bs + len)) {
+                best = len;
+                len++;
+            }
+        }
+    }
+    
+    /**
+     * Finds the first occurrence of a pattern in a range of a text.
+     * @param text the text
+     * @param from the position from which the pattern is searched
+     * @param end the end of the range of the text
+     * @param pattern the pattern
+     * @param ps the start of the range of the pattern
+     * @param pe the end of the range of the pattern
+     * @return the position where the pattern was found, or <code>-1</code> if not found
+     */
+    private static int indexOf(int[] text, int from, int end, int[] pattern, int ps, int pe) {
+        int length = pe - ps;
+        if (length == 0) {
+            return from <= end ? from : -1;
+        }
+        
+        int first = pattern[ps];
+        int last = end - length;
+        for (int idx = from; idx <= last; idx++) {
+            if (text[idx] == first && Arrays.equals(text, idx + 1, idx + length, pattern, ps + 1, pe)) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the number of tokens of the old text consumed by an operation.
+     * @param op the operation
+     * @param length the length of the operation
+     * @return the number of the consumed tokens
+     */
+    static int lengthA(byte op, int length) {
+        return op == INSERT ? 0 : length;
+    }
+    
+    /**
+     * Returns the number of tokens of the new text consumed by an operation.
+     * @param op the operation
+     * @param length the length of the operation
+     * @return the number of the consumed tokens
+     */
+    static int lengthB(byte op, int length) {
+        return op == DELETE ? 0 : length;
+    }
+    
+    /**
+     * Returns the start positions of the lines in a range of a text.
+     * A line includes its trailing new line character.
+     * @param text the text
+     * @param start the start of the range
+     * @param end the end of the range
+     * @return the start positions of the lines followed by the end of the range
+     */
+    private static int[] lineOffsets(int[] text, int start, int end) {
+        int count = 0;
+        for (int idx = start; idx < end; idx++) {
+            if (text[idx] == '\n') {
+                count++;
+            }
+        }
+        if (end > start && text[end - 1] != '\n') {
+            count++;
+        }
+        
+        int[] offsets = new int[count + 1];
+        int line = 0;
+        offsets[line++] = start;
+        for (int idx = start; idx < end; idx++) {
+            if (text[idx] == '\n' && idx + 1 < end) {
+                offsets[line++] = idx + 1;
+            }
+        }
+        offsets[count] = end;
+        return offsets;
+    }
+    
+    /**
+     * An edit script that stores the operations and their lengths in primitive arrays.
+     */
+    static class EditScript {
+        
+        /**
+         * The operations.
+         */
+        byte[] ops;
+        
+        /**
+         * The lengths of the operations.
+         */
+        int[] lengths;
+        
+        /**
+         * The number of the operations.
+         */
+        int size = 0;
+        
+        /**
+         * Creates an empty edit script.
+         * @param capacity the initial number of operations that can be stored
+         */
+        EditScript(int capacity) {
+            ops = new byte[Math.max(capacity, 4)];
+            lengths = new int[ops.length];
+        }
+        
+        /**
+         * Appends an operation.
+         * @param op the operation
+         * @param length the length of the operation
+         */
+        void add(byte op, int length) {
+            ensureCapacity(size + 1);
+            ops[size] = op;
+            lengths[size] = length;
+            size++;
+        }
+        
+        /**
+         * Appends all the operations of another edit script.
+         * @param script the edit script
+         */
+        void addAll(EditScript script) {
+            ensureCapacity(size + script.size);
+            System.arraycopy(script.ops, 0, ops, size, script.size);
+            System.arraycopy(script.lengths, 0, lengths, size, script.size);
+            size = size + script.size;
+        }
+        
+        /**
+         * Removes the operations that were marked as removed.
+         */
+        void compact() {
+            int count = 0;
+            for (int idx = 0; idx < size; idx++) {
+                if (ops[idx] != REMOVED) {
+                    ops[count] = ops[idx];
+                    lengths[count] = lengths[idx];
+                    count++;
+                }
+            }
+            size = count;
+        }
+        
+        /**
+         * Enlarges the arrays if needed.
+         * @param capacity the number of operations to be stored
+         */
+        private void ensureCapacity(int capacity) {
+            if (capacity > ops.length) {
+                int newCapacity = Math.max(capacity, ops.length * 2);
+                ops = Arrays.copyOf(ops, newCapacity);
+                lengths = Arrays.copyOf(lengths, newCapacity);
+            }
+        }
+    }
+    
+    /**
+     * A stack of indices of operations.
+     */
+    private static class IntStack {
+        
+        /**
+         * The elements of this stack.
+         */
+        private int[] elements = new int[16];
+        
+        /**
+         * The number of the elements.
+         */
+        private int size = 0;
+        
+        /**
+         * Pushes an element.
+         * @param element the element
+         */
+        void push(int element) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size * 2);
+            }
+            elements[size++] = element;
+        }
+        
+        /**
+         * Pops the top element.
+         * @return the top element
+         */
+        int pop() {
+            return elements[--size];
+        }
+        
+        /**
+         * Returns the top element without popping it.
+         * @return the top element
+         */
+        int peek() {
+            return elements[size - 1];
+        }
+        
+        /**
+         * Tests if this stack is empty.
+         * @return <code>true</code> if this stack is empty, otherwise <code>false</code>
+         */
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        /**
+         * Removes all the elements.
+         */
+        void clear() {
+            size = 0;
+        }
+    }
+    
+    /**
+     * A table that assigns the same token to the same lines, which are ranges of texts.
+     */
+    private static class LineTable {
+        
+        /**
+         * The texts containing the lines indexed by their tokens.
+         */
+        private int[][] texts = new int[64][];
+        
+        /**
+         * The start positions of the lines indexed by their tokens.
+         */
+        private int[] starts = new int[64];
+        
+        /**
+         * The end positions of the lines indexed by their tokens.
+         */
+        private int[] ends = new int[64];
+        
+        /**
+         * The hash values of the lines indexed by their tokens.
+         */
+        private int[] hashes = new int[64];
+        
+        /**
+         * The number of the tokens, where token <code>0</code> is not used.
+         */
+        private int count = 1;
+        
+        /**
+         * The open-addressing hash table of the tokens, where <code>0</code> represents an empty slot.
+         */
+        private int[] table = new int[128];
+        
+        /**
+         * Converts the lines of a text into tokens.
+         * @param text the text
+         * @param offsets the start positions of the lines followed by the end of the last line
+         * @return the tokens of the lines
+         */
+        int[] tokenize(int[] text, int[] offsets) {
+            int[] tokens = new int[offsets.length - 1];
+            for (int line = 0; line < tokens.length; line++) {
+                tokens[line] = getToken(text, offsets[line], offsets[line + 1]);
+            }
+            return tokens;
+        }
+        
+        /**
+         * Returns the token of a line, which is registered if it appears for the first time.
+         * @param text the text containing the line
+         * @param start the start position of the line
+         * @param end the end position of the line
+         * @return the token of the line
+         */
+        private int getToken(int[] text, int start, int end) {
+            int hash = 1;
+            for (int idx = start; idx < end; idx++) {
+                hash = 31 * hash + text[idx];
+            }
+            hash = hash ^ (hash >>> 16);
+            
+            int mask = table.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int token = table[slot];
+                if (token == 0) {
+                    break;
+                }
+                if (hashes[token] == hash &&
+                    Arrays.equals(texts[token], starts[token], ends[token], text, start, end)) {
+                    return token;
+                }
+            }
+            
+            if (count == texts.length) {
+                texts = Arrays.copyOf(texts, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            int token = count++;
+            texts[token] = text;
+            starts[token] = start;
+            ends[token] = end;
+            hashes[token] = hash;
+            if (count * 2 > table.length) {
+                rehash();
+            } else {
+                insert(token);
+            }
+            return token;
+        }
+        
+        /**
+         * Inserts a token into the hash table.
+         * @param token the token
+         */
+        private void insert(int token) {
+            int mask = table.length - 1;
+            int slot = hashes[token] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = token;
+        }
+        
+        /**
+         * Doubles the hash table and inserts all the tokens again.
+         */
+        private void rehash() {
+            table = new int[table.length * 2];
+            for (int token = 1; token < count; token++) {
+                insert(token);
+            }
+        }
+    }
+}
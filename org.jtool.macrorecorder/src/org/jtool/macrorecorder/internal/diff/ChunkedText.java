@@ -0,0 +1,291 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.internal.diff;
+
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Stores the contents of a large file as a sequence of content-defined chunks.
+ * Chunk boundaries are determined by a rolling hash of the text, so an edit changes only the chunks around it
+ * and unchanged chunks of two versions of a file can be found by comparing their hash values.
+ * @author Katsuhisa Maruyama
+ */
+public class ChunkedText {
+    
+    /**
+     * The minimum length of a chunk.
+     */
+    private static final int MIN_CHUNK_SIZE = 256;
+    
+    /**
+     * The maximum length of a chunk.
+     */
+    private static final int MAX_CHUNK_SIZE = 16 * 1024;
+    
+    /**
+     * The mask of the rolling hash value that determines a boundary, which makes chunks about 2K characters long.
+     */
+    private static final long BOUNDARY_MASK = (1L << 11) - 1;
+    
+    /**
+     * The random values of the gear-based rolling hash.
+     */
+    private static final long[] GEAR = createGearTable();
+    
+    /**
+     * The chunks of the text.
+     */
+    private List<Chunk> chunks;
+    
+    /**
+     * The length of the text.
+     */
+    private int length;
+    
+    /**
+     * Creates a text divided into chunks.
+     * @param text the contents of the text
+     */
+    public ChunkedText(String text) {
+        chunks = new ArrayList<Chunk>();
+        length = text.length();
+        split(text, chunks);
+    }
+    
+    /**
+     * Returns the length of this text.
+     * @return the number of characters of this text
+     */
+    public int length() {
+        return length;
+    }
+    
+    /**
+     * Returns the number of chunks of this text.
+     * @return the number of the chunks
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+    
+    /**
+     * Returns a part of this text.
+     * @param start the starting position of the part
+     * @param end the ending position of the part
+     * @return the text of the part
+     */
+    public String substring(int start, int end) {
+        StringBuilder buf = new StringBuilder(end - start);
+        int pos = 0;
+        for (Chunk chunk : chunks) {
+            int next = pos + chunk.text.length();
+            if (next > start && pos < end) {
+                buf.append(chunk.text, Math.max(start - pos, 0), Math.min(end, next) - pos);
+            }
+            if (next >= end) {
+                break;
+            }
+            pos = next;
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Replaces a part of this text with another text.
+     * Only the chunks around the replaced part are divided again.
+     * @param start the starting position of the part
+     * @param end the ending position of the part
+     * @param text the text that replaces the part
+     * @return <code>true</code> if the part was replaced, otherwise <code>false</code>
+     */
+    public boolean replace(int start, int end, String text) {
+        if (start < 0 || end < start || end > length) {
+            return false;
+        }
+        if (chunks.size() == 0) {
+            length = text.length();
+            split(text, chunks);
+            return true;
+        }
+        
+        int first = 0;
+        int firstPos = 0;
+        while (first < chunks.size() - 1 && firstPos + chunks.get(first).text.length() <= start) {
+            firstPos = firstPos + chunks.get(first).text.length();
+            first++;
+        }
+        int last = first;
+        int lastEnd = firstPos + chunks.get(first).text.length();
+        while (last < chunks.size() - 1 && lastEnd < end) {
+            last++;
+            lastEnd = lastEnd + chunks.get(last).text.length();
+        }
+        
+        StringBuilder buf = new StringBuilder();
+        for (int idx = first; idx <= last; idx++) {
+            buf.append(chunks.get(idx).text);
+        }
+        buf.replace(start - firstPos, end - firstPos, text);
+        
+        List<Chunk> newChunks = new ArrayList<Chunk>();
+        int next = last + 1;
+        while (true) {
+            boolean closed = split(buf, newChunks);
+            if (closed || next >= chunks.size()) {
+                break;
+            }
+            
+            Chunk open = newChunks.remove(newChunks.size() - 1);
+            buf = new StringBuilder(open.text);
+            buf.append(chunks.get(next).text);
+            next++;
+        }
+        
+        chunks.subList(first, next).clear();
+        chunks.addAll(first, newChunks);
+        length = length - (end - start) + text.length();
+        return true;
+    }
+    
+    /**
+     * Returns the contents of this text.
+     * @return the whole text
+     */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder(length);
+        for (Chunk chunk : chunks) {
+            buf.append(chunk.text);
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Tests if this text has the same contents as another one by comparing the hash values of their chunks.
+     * @param other the other text
+     * @return <code>true</code> if the texts are equal, otherwise <code>false</code>
+     */
+    public boolean contentEquals(ChunkedText other) {
+        if (length != other.length || chunks.size() != other.chunks.size()) {
+            return false;
+        }
+        for (int idx = 0; idx < chunks.size(); idx++) {
+            if (!chunks.get(idx).sameAs(other.chunks.get(idx))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the chunks of this text.
+     * @return the collection of the chunks
+     */
+    List<Chunk> getChunks() {
+        return chunks;
+    }
+    
+    /**
+     * Divides a text into chunks.
+     * @param text the text
+     * @param result the collection that stores the chunks
+     * @return <code>true</code> if the last chunk ends at a boundary, otherwise <code>false</code>
+     */
+    private static boolean split(CharSequence text, List<Chunk> result) {
+        int start = 0;
+        int len = text.length();
+        boolean closed = true;
+        while (start < len) {
+            int end = findBoundary(text, start);
+            closed = end > 0;
+            if (end < 0) {
+                end = len;
+            }
+            result.add(new Chunk(text.subSequence(start, end).toString()));
+            start = end;
+        }
+        return closed;
+    }
+    
+    /**
+     * Finds the next chunk boundary.
+     * @param text the text
+     * @param start the starting position of a chunk
+     * @return the position of the boundary, or <code>-1</code> if the text ends before a boundary is found
+     */
+    private static int findBoundary(CharSequence text, int start) {
+        long hash = 0;
+        int len = text.length();
+        for (int pos = start; pos < len; pos++) {
+            char ch = text.charAt(pos);
+            hash = (hash << 1) + GEAR[(ch ^ (ch >>> 8)) & 0xFF];
+            int size = pos - start + 1;
+            if (size >= MAX_CHUNK_SIZE || (size >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0)) {
+                return pos + 1;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Creates the random values of the gear-based rolling hash.
+     * @return the table of the random values
+     */
+    private static long[] createGearTable() {
+        long[] table = new long[256];
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int idx = 0; idx < table.length; idx++) {
+            seed = seed + 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            table[idx] = z ^ (z >>> 31);
+        }
+        return table;
+    }
+    
+    /**
+     * A chunk of a text.
+     */
+    static class Chunk {
+        
+        /**
+         * The contents of this chunk.
+         */
+        final String text;
+        
+        /**
+         * The hash value of the contents of this chunk.
+         */
+        final long hash;
+        
+        /**
+         * Creates a chunk.
+         * @param text the contents of the chunk
+         */
+        Chunk(String text) {
+            this.text = text;
+            
+            long h = 0xCBF29CE484222325L;
+            for (int pos = 0; pos < text.length(); pos++) {
+                h = (h ^ text.charAt(pos)) * 0x100000001B3L;
+            }
+            this.hash = h;
+        }
+        
+        /**
+         * Tests if this chunk has the same contents as another one.
+         * The hash values are compared first, and the texts are compared only if the hash values are equal.
+         * @param other the other chunk
+         * @return <code>true</code> if the texts of the chunks are equal, otherwise <code>false</code>
+         */
+        boolean sameAs(Chunk other) {
+            return hash == other.hash && text.equals(other.text);
+        }
+    }
+}
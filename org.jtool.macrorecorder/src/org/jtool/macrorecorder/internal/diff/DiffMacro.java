@@ -8,6 +8,8 @@ package org.jtool.macrorecorder.internal.diff;
 
 import org.jtool.macrorecorder.internal.recorder.PathInfoFinder;
 import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import java.time.ZonedDateTime;
 
 /**
  * Stores a macro that represents difference between two versions of source code.
@@ -28,6 +30,19 @@ public class DiffMacro extends DocumentMacro{
         super(action.toString(), PathInfoFinder.getMacroPath(path, branch), start, itext, dtext);
     }
     
+    /**
+     * Creates an object storing information about a difference macro performed at a given time.
+     * @param time the time when this macro was performed
+     * @param action the action of this macro
+     * @param mpath the information about the path a resource on which this macro was performed
+     * @param start the leftmost offset of the text changed by this macro
+     * @param itext the contents of the text inserted by the macro
+     * @param dtext the contents of the text deleted by the macro
+     */
+    public DiffMacro(ZonedDateTime time, Action action, MacroPath mpath, int start, String itext, String dtext) {
+        super(time, action.toString(), mpath, start, itext, dtext);
+    }
+    
     /**
      * Sets the contents of the text inserted by the macro
      * @param text the contents of the text inserted by the macro
@@ -50,8 +65,10 @@ public class DiffMacro extends DocumentMacro{
      * @return the created document macro
      */
     public static DocumentMacro getExpectedDiff(DiffMacro macro) {
-        return new DocumentMacro(macro.getTime(), DocumentMacro.Action.AUTO_DIFF.toString(),
+        DocumentMacro diff = new DocumentMacro(macro.getTime(), DocumentMacro.Action.AUTO_DIFF.toString(),
                    macro.getMacroPath(), macro.getStart(), macro.getInsertedText(), macro.getDeletedText());
+        diff.setSequence(macro.getSequence());
+        return diff;
     }
     
     /**
@@ -60,7 +77,9 @@ public class DiffMacro extends DocumentMacro{
      * @return the created document macro
      */
     public static DocumentMacro getUnexpectedDiff(DiffMacro macro) {
-        return new DocumentMacro(macro.getTime(),DocumentMacro.Action.IRREGULAR_DIFF.toString(),
+        DocumentMacro diff = new DocumentMacro(macro.getTime(),DocumentMacro.Action.IRREGULAR_DIFF.toString(),
                    macro.getMacroPath(), macro.getStart(), macro.getInsertedText(), macro.getDeletedText());
+        diff.setSequence(macro.getSequence());
+        return diff;
     }
 }
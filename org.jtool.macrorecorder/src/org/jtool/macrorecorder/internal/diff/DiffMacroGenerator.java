@@ -6,13 +6,14 @@
 
 package org.jtool.macrorecorder.internal.diff;
 
-import org.jtool.macrorecorder.internal.diff.diff_match_patch.Diff;
-import org.jtool.macrorecorder.internal.diff.diff_match_patch.Operation;
+import org.jtool.macrorecorder.internal.recorder.PathInfoFinder;
 import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.HashMap;
 
 /**
  * Generates diff macros from differences between the contents of two the source files.
@@ -20,6 +21,11 @@ import java.util.ListIterator;
  */
 public class DiffMacroGenerator {
     
+    /**
+     * The maximum time (in milliseconds) spent in finding the differences between two textual contents.
+     */
+    private static final long DIFF_TIMEOUT = 1000;
+    
     /**
      * The cost of an empty edit operation in terms of edit characters.
      */
@@ -33,6 +39,28 @@ public class DiffMacroGenerator {
         editCost = cost;
     }
     
+    /**
+     * The number of characters of the contents of a file over which the file is diffed in the large-file mode.
+     */
+    private static int largeFileThreshold = 1024 * 1024;
+    
+    /**
+     * Sets the number of characters of the contents of a file over which the file is diffed in the large-file mode.
+     * @param threshold the threshold to be set
+     */
+    public static void setLargeFileThreshold(int threshold) {
+        largeFileThreshold = threshold;
+    }
+    
+    /**
+     * Tests if the contents of a file is diffed in the large-file mode.
+     * @param length the number of characters of the contents
+     * @return <code>true</code> if the contents is large, otherwise <code>false</code>
+     */
+    public static boolean isLargeFile(int length) {
+        return length > largeFileThreshold;
+    }
+    
     /**
      * Generates diff macros from the differences between two textual contents.
      * @param path the path of a file on which the macros were performed
@@ -42,86 +70,334 @@ public class DiffMacroGenerator {
      * @return the collection of the code deltas
      */
     public static List<DiffMacro> generate(String path, String branch, String otext, String ntext) {
+        return generate(path, branch, otext, ntext, ZonedDateTime.now(), Long.MAX_VALUE);
+    }
+    
+    /**
+     * Generates diff macros from the differences between two textual contents within a deadline.
+     * The macros share the given time and are ordered by successive sequence numbers, so that no macro waits for a new time stamp.
+     * @param path the path of a file on which the macros were performed
+     * @param branch the branch name of a file on which the macros were performed
+     * @param otext the contents of the source code file to be diffed
+     * @param ntext the contents of the source code file to be diffed
+     * @param time the time of the macros
+     * @param deadline the time (by <code>System.currentTimeMillis()</code>) by which the generation must finish
+     * @return the collection of the code deltas, or <code>null</code> if the deadline passed or the current thread was interrupted
+     */
+    public static List<DiffMacro> generate(String path, String branch, String otext, String ntext, ZonedDateTime time, long deadline) {
         assert otext != null;
         assert ntext != null;
         
-        diff_match_patch dmp = new diff_match_patch();
-        dmp.Diff_EditCost = editCost;
-        
-        LinkedList<Diff> diffs = dmp.diff_main(otext, ntext);
-        dmp.diff_cleanupEfficiency(diffs);
-        
-        List<DiffMacro> macros = getDeltas(path, branch, diffs);
-        List<DiffMacro> aggregatedMacros = aggregate(macros);
-        
-        return aggregate(aggregatedMacros);
+        return generate(new DiffContext(path, branch, time, deadline), otext, ntext, 0);
     }
     
     /**
-     * Obtains the deltas from a given difference information.
+     * Generates diff macros from the differences between two textual contents divided into chunks.
+     * Chunks with the same hash values are skipped, and only the texts between them are diffed.
      * @param path the path of a file on which the macros were performed
      * @param branch the branch name of a file on which the macros were performed
-     * @param diffs the collection of difference information of the diff utility.
+     * @param otext the contents of the source code file to be diffed
+     * @param ntext the contents of the source code file to be diffed
      * @return the collection of the code deltas
      */
-    private static List<DiffMacro> getDeltas(String path, String branch, LinkedList<Diff> diffs) {
-        List<DiffMacro> macros = new ArrayList<DiffMacro>();
+    public static List<DiffMacro> generate(String path, String branch, ChunkedText otext, ChunkedText ntext) {
+        return generate(path, branch, otext, ntext, ZonedDateTime.now(), Long.MAX_VALUE);
+    }
+    
+    /**
+     * Generates diff macros from the differences between two textual contents divided into chunks within a deadline.
+     * @param path the path of a file on which the macros were performed
+     * @param branch the branch name of a file on which the macros were performed
+     * @param otext the contents of the source code file to be diffed
+     * @param ntext the contents of the source code file to be diffed
+     * @param time the time of the macros
+     * @param deadline the time (by <code>System.currentTimeMillis()</code>) by which the generation must finish
+     * @return the collection of the code deltas, or <code>null</code> if the deadline passed or the current thread was interrupted
+     */
+    public static List<DiffMacro> generate(String path, String branch, ChunkedText otext, ChunkedText ntext, ZonedDateTime time, long deadline) {
+        assert otext != null;
+        assert ntext != null;
+        
+        DiffContext context = new DiffContext(path, branch, time, deadline);
+        List<ChunkedText.Chunk> ochunks = otext.getChunks();
+        List<ChunkedText.Chunk> nchunks = ntext.getChunks();
+        int min = Math.min(ochunks.size(), nchunks.size());
+        
+        int prefix = 0;
         int offset = 0;
-        int offsetGap = 0;
+        while (prefix < min && ochunks.get(prefix).sameAs(nchunks.get(prefix))) {
+            offset = offset + nchunks.get(prefix).text.length();
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < min - prefix &&
+               ochunks.get(ochunks.size() - 1 - suffix).sameAs(nchunks.get(nchunks.size() - 1 - suffix))) {
+            suffix++;
+        }
+        int oend = ochunks.size() - suffix;
+        int nend = nchunks.size() - suffix;
         
-        for (ListIterator<Diff> pointer = diffs.listIterator(); pointer.hasNext(); ) { 
-            Diff diff = pointer.next();
-            DiffMacro.Action action = null;
-            String itext = "";
-            String dtext = "";
-            
-            if (diff.operation == Operation.INSERT) {
-                action = DocumentMacro.Action.AUTO_DIFF;
-                itext = diff.text;
-                
-            } else if (diff.operation == Operation.DELETE) {
-                action = DocumentMacro.Action.AUTO_DIFF;
-                dtext = diff.text;
+        Map<Long, Integer> anchors = new HashMap<Long, Integer>();
+        for (int idx = prefix; idx < oend; idx++) {
+            Integer former = anchors.put(ochunks.get(idx).hash, idx);
+            if (former != null) {
+                anchors.put(ochunks.get(idx).hash, -1);
+            }
+        }
+        
+        List<DiffMacro> macros = new ArrayList<DiffMacro>();
+        int ostart = prefix;
+        int nstart = prefix;
+        int nstartOffset = offset;
+        for (int idx = prefix; idx < nend; idx++) {
+            ChunkedText.Chunk chunk = nchunks.get(idx);
+            Integer anchor = anchors.get(chunk.hash);
+            if (anchor != null && anchor >= ostart && chunk.sameAs(ochunks.get(anchor))) {
+                List<DiffMacro> gap = generate(context, concat(ochunks, ostart, anchor),
+                        concat(nchunks, nstart, idx), nstartOffset);
+                if (gap == null) {
+                    return null;
+                }
+                macros.addAll(gap);
+                ostart = anchor + 1;
+                nstart = idx + 1;
+                nstartOffset = offset + chunk.text.length();
+            }
+            offset = offset + chunk.text.length();
+        }
+        List<DiffMacro> gap = generate(context, concat(ochunks, ostart, oend),
+                concat(nchunks, nstart, nend), nstartOffset);
+        if (gap == null) {
+            return null;
+        }
+        macros.addAll(gap);
+        return macros;
+    }
+    
+    /**
+     * Generates a single diff macro that replaces the whole region in which two textual contents differ.
+     * This is used instead of the fine-grained differences when they cannot be obtained in time.
+     * @param path the path of a file on which the macro was performed
+     * @param branch the branch name of a file on which the macro was performed
+     * @param otext the contents of the source code file to be diffed
+     * @param ntext the contents of the source code file to be diffed
+     * @param time the time of the macro
+     * @return the diff macro, or <code>null</code> if the contents are equal
+     */
+    public static DiffMacro generateReplacement(String path, String branch, String otext, String ntext, ZonedDateTime time) {
+        int max = Math.min(otext.length(), ntext.length());
+        int prefix = 0;
+        while (prefix < max && otext.charAt(prefix) == ntext.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix == otext.length() && prefix == ntext.length()) {
+            return null;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix &&
+               otext.charAt(otext.length() - 1 - suffix) == ntext.charAt(ntext.length() - 1 - suffix)) {
+            suffix++;
+        }
+        
+        return new DiffMacro(time, DocumentMacro.Action.AUTO_DIFF, PathInfoFinder.getMacroPath(path, branch), prefix,
+                ntext.substring(prefix, ntext.length() - suffix), otext.substring(prefix, otext.length() - suffix));
+    }
+    
+    /**
+     * Concatenates the contents of chunks.
+     * @param chunks the collection of the chunks
+     * @param start the index of the first chunk
+     * @param end the index next to the last chunk
+     * @return the concatenated text
+     */
+    private static String concat(List<ChunkedText.Chunk> chunks, int start, int end) {
+        StringBuilder buf = new StringBuilder();
+        for (int idx = start; idx < end; idx++) {
+            buf.append(chunks.get(idx).text);
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Generates diff macros from the differences between two textual contents.
+     * @param context the context of the generation
+     * @param otext the contents of the source code file to be diffed
+     * @param ntext the contents of the source code file to be diffed
+     * @param base the offset of the contents in the whole file
+     * @return the collection of the code deltas, or <code>null</code> if the deadline passed
+     */
+    private static List<DiffMacro> generate(DiffContext context, String otext, String ntext, int base) {
+        if (otext.equals(ntext)) {
+            return new ArrayList<DiffMacro>();
+        }
+        
+        long remaining = context.getRemainingTime();
+        if (remaining <= 0) {
+            return null;
+        }
+        
+        int[] a = ArrayDiff.toTokens(otext);
+        int[] b = ArrayDiff.toTokens(ntext);
+        ArrayDiff engine = new ArrayDiff(editCost, System.currentTimeMillis() + Math.min(DIFF_TIMEOUT, remaining));
+        ArrayDiff.EditScript diffs = engine.diff(a, b);
+        if (context.isExpired()) {
+            return null;
+        }
+        diffs = engine.cleanupEfficiency(diffs, a, b);
+        
+        return getDeltas(context, diffs, otext, ntext, base);
+    }
+    
+    /**
+     * Obtains the deltas from an edit script.
+     * A deletion immediately followed by an insertion at the same position is aggregated into a single macro.
+     * @param context the context of the generation
+     * @param diffs the edit script that transforms the old contents into the new ones
+     * @param otext the old contents
+     * @param ntext the new contents
+     * @param base the offset of the diffed contents in the whole file
+     * @return the collection of the code deltas, or <code>null</code> if the deadline passed
+     */
+    private static List<DiffMacro> getDeltas(DiffContext context, ArrayDiff.EditScript diffs, String otext, String ntext, int base) {
+        List<DiffMacro> macros = new ArrayList<DiffMacro>();
+        DiffMacro deletion = null;
+        int opos = 0;
+        int npos = 0;
+        
+        for (int idx = 0; idx < diffs.size; idx++) {
+            byte op = diffs.ops[idx];
+            int length = diffs.lengths[idx];
+            if (op == ArrayDiff.EQUAL) {
+                opos = opos + length;
+                npos = npos + length;
+                continue;
             }
             
-            if (action != null) {
-                int start = offset + offsetGap;
-                DiffMacro macro = new DiffMacro(action, path, branch, start, itext, dtext);
+            if (macros.size() % 256 == 255 && context.isExpired()) {
+                return null;
+            }
+            int start = base + npos;
+            if (op == ArrayDiff.DELETE) {
+                DiffMacro macro = new DiffMacro(context.getTime(), DocumentMacro.Action.AUTO_DIFF, context.getMacroPath(),
+                        start, "", otext.substring(opos, opos + length));
+                macro.setSequence(context.nextSequence());
                 macros.add(macro);
+                deletion = macro.deleted() ? macro : null;
+                opos = opos + length;
                 
-                offsetGap = offsetGap - dtext.length();
+            } else {
+                String itext = ntext.substring(npos, npos + length);
+                if (deletion != null && itext.length() != 0 && deletion.getStart() == start) {
+                    deletion.setInsertedText(itext);
+                } else {
+                    DiffMacro macro = new DiffMacro(context.getTime(), DocumentMacro.Action.AUTO_DIFF, context.getMacroPath(),
+                            start, itext, "");
+                    macro.setSequence(context.nextSequence());
+                    macros.add(macro);
+                }
+                deletion = null;
+                npos = npos + length;
             }
-            
-            offset = offset + diff.text.length();
         }
-        
         return macros;
     }
     
     /**
-     * Aggregates the insertion and deletion diff macros that are performed consecutively at the same position.
-     * @param macros the collection of diff macros that represent either of insertion or deletion
-     * @return the collection of the aggregated diff macros
+     * Holds the information shared by the diff macros generated at a time.
      */
-    private static List<DiffMacro> aggregate(List<DiffMacro> macros) {
-        if (macros.size() < 2) {
-            return macros;
+    private static class DiffContext {
+        
+        /**
+         * The path of a file on which the macros were performed.
+         */
+        private String path;
+        
+        /**
+         * The branch name of a file on which the macros were performed.
+         */
+        private String branch;
+        
+        /**
+         * The information about the path, which is obtained when the first macro is created.
+         */
+        private MacroPath macroPath = null;
+        
+        /**
+         * The time of the macros.
+         */
+        private ZonedDateTime time;
+        
+        /**
+         * The number of macros that were given their sequence numbers.
+         */
+        private int count = 0;
+        
+        /**
+         * The time (by <code>System.currentTimeMillis()</code>) by which the generation must finish.
+         */
+        private long deadline;
+        
+        /**
+         * Creates a context of a generation.
+         * @param path the path of a file on which the macros were performed
+         * @param branch the branch name of a file on which the macros were performed
+         * @param time the time of the macros
+         * @param deadline the time by which the generation must finish
+         */
+        DiffContext(String path, String branch, ZonedDateTime time, long deadline) {
+            this.path = path;
+            this.branch = branch;
+            this.time = time;
+            this.deadline = deadline;
         }
         
-        List<DiffMacro> aggregatedMacros = new ArrayList<DiffMacro>();
-        aggregatedMacros.add(macros.get(0));
-        for (int idx = 1; idx < macros.size(); idx++) {
-            DiffMacro prevMacro = macros.get(idx - 1);
-            DiffMacro curMacro = macros.get(idx);
-            
-            if (prevMacro.deleted() && curMacro.inserted() &&
-                prevMacro.getStart() == curMacro.getStart()) {
-                prevMacro.setInsertedText(curMacro.getInsertedText());
-            } else {
-                aggregatedMacros.add(curMacro);
+        /**
+         * Returns the information about the path of a file on which the macros were performed.
+         * @return the information about the path
+         */
+        MacroPath getMacroPath() {
+            if (macroPath == null) {
+                macroPath = PathInfoFinder.getMacroPath(path, branch);
             }
+            return macroPath;
         }
         
-        return aggregatedMacros;
+        /**
+         * Returns the time of the macros.
+         * @return the time shared by the macros
+         */
+        ZonedDateTime getTime() {
+            return time;
+        }
+        
+        /**
+         * Returns the sequence number of the next macro.
+         * @return the sequence number that is one greater than that of the previous macro
+         */
+        int nextSequence() {
+            return count++;
+        }
+        
+        /**
+         * Returns the time remaining until the deadline.
+         * @return the remaining time in milliseconds
+         */
+        long getRemainingTime() {
+            if (Thread.currentThread().isInterrupted()) {
+                return 0;
+            }
+            if (deadline == Long.MAX_VALUE) {
+                return Long.MAX_VALUE;
+            }
+            return deadline - System.currentTimeMillis();
+        }
+        
+        /**
+         * Tests if the deadline passed or the current thread was interrupted.
+         * @return <code>true</code> if the generation must stop, otherwise <code>false</code>
+         */
+        boolean isExpired() {
+            return getRemainingTime() <= 0;
+        }
     }
 }
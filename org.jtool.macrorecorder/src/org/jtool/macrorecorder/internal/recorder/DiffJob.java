@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.internal.recorder;
+
+import org.jtool.macrorecorder.recorder.MacroConsole;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.internal.diff.DiffMacro;
+import org.jtool.macrorecorder.internal.diff.DiffMacroGenerator;
+import org.jtool.macrorecorder.internal.diff.ChunkedText;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.ui.progress.UIJob;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Generates diff macros between two snapshots of the contents of a file in the background.
+ * The snapshots are immutable, so the recorder keeps recording while the job runs.
+ * The job gives up the fine-grained differences and generates a single macro replacing the changed region
+ * when the differences cannot be obtained by the deadline or the job is cancelled.
+ * The generated macros are handed to the recorder in the UI thread, which puts them at the position
+ * of the sequence number reserved when the job was scheduled.
+ * @author Katsuhisa Maruyama
+ */
+class DiffJob extends Job {
+    
+    /**
+     * The time (in milliseconds) given to a job for generating diff macros.
+     */
+    private static final long DEADLINE = 2000;
+    
+    /**
+     * The recorder that receives the generated macros.
+     */
+    private Recorder recorder;
+    
+    /**
+     * The path of the file.
+     */
+    private String path;
+    
+    /**
+     * The branch name of the file.
+     */
+    private String branch;
+    
+    /**
+     * The previous contents of the file.
+     */
+    private String preCode;
+    
+    /**
+     * The previous contents of the file divided into chunks, or <code>null</code> if the file is not large.
+     */
+    private ChunkedText preChunks;
+    
+    /**
+     * The current contents of the file.
+     */
+    private String code;
+    
+    /**
+     * A flag that indicates whether the difference is expected.
+     */
+    private boolean expected;
+    
+    /**
+     * The sequence number reserved for the generated macros.
+     */
+    private long sequenceNumber;
+    
+    /**
+     * The time of the first generated macro.
+     */
+    private ZonedDateTime time;
+    
+    /**
+     * Creates a job that generates diff macros.
+     * @param recorder the recorder that receives the generated macros
+     * @param path the path of the file
+     * @param branch the branch name of the file
+     * @param preCode the previous contents of the file
+     * @param preChunks the previous contents divided into chunks, which are no longer changed, or <code>null</code> if the file is not large
+     * @param code the current contents of the file
+     * @param expected <code>true</code> if the difference is expected, otherwise <code>false</code>
+     */
+    DiffJob(Recorder recorder, String path, String branch, String preCode, ChunkedText preChunks, String code, boolean expected) {
+        super("Diff " + path);
+        this.recorder = recorder;
+        this.path = path;
+        this.branch = branch;
+        this.preCode = preCode;
+        this.preChunks = preChunks;
+        this.code = code;
+        this.expected = expected;
+        
+        setSystem(true);
+        setPriority(Job.SHORT);
+    }
+    
+    /**
+     * Returns the path of the file whose diff macros this job generates.
+     * @return the path of the file
+     */
+    String getPath() {
+        return path;
+    }
+    
+    /**
+     * Schedules this job at the position of a sequence number.
+     * @param seq the sequence number reserved for the generated macros
+     * @param time the time of the generated macros
+     */
+    void schedule(long seq, ZonedDateTime time) {
+        this.sequenceNumber = seq;
+        this.time = time;
+        schedule();
+    }
+    
+    /**
+     * Generates diff macros in the background and hands them to the recorder in the UI thread.
+     * @param monitor the progress monitor
+     * @return the status of the job
+     */
+    @Override
+    protected IStatus run(IProgressMonitor monitor) {
+        List<DocumentMacro> macros = generate(System.currentTimeMillis() + DEADLINE);
+        Thread.interrupted();
+        
+        UIJob job = new UIJob("Diff") {
+            
+            /**
+             * Run the job in the UI thread.
+             * @param monitor the progress monitor to use to display progress
+             */
+            @Override
+            public IStatus runInUIThread(IProgressMonitor monitor) {
+                recorder.completeDiff(sequenceNumber, macros);
+                return Status.OK_STATUS;
+            }
+        };
+        job.setSystem(true);
+        job.schedule();
+        return Status.OK_STATUS;
+    }
+    
+    /**
+     * Interrupts the thread running this job so that the generation stops.
+     */
+    @Override
+    protected void canceling() {
+        Thread thread = getThread();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    /**
+     * Generates diff macros.
+     * @param deadline the time (by <code>System.currentTimeMillis()</code>) by which the generation must finish
+     * @return the collection of the generated document macros
+     */
+    List<DocumentMacro> generate(long deadline) {
+        List<DiffMacro> diffs;
+        if (preChunks != null) {
+            diffs = DiffMacroGenerator.generate(path, branch, preChunks, new ChunkedText(code), time, deadline);
+        } else {
+            diffs = DiffMacroGenerator.generate(path, branch, preCode, code, time, deadline);
+        }
+        
+        if (diffs == null) {
+            String otext = preChunks != null ? preChunks.toString() : preCode;
+            MacroConsole.println("Diff of " + path + " was not finished in time: replaced as a whole");
+            diffs = new ArrayList<DiffMacro>();
+            DiffMacro diff = DiffMacroGenerator.generateReplacement(path, branch, otext, code, time);
+            if (diff != null) {
+                diffs.add(diff);
+            }
+        }
+        
+        List<DocumentMacro> macros = new ArrayList<DocumentMacro>(diffs.size());
+        for (DiffMacro diff : diffs) {
+            if (expected) {
+                macros.add(DiffMacro.getExpectedDiff(diff));
+            } else {
+                macros.add(DiffMacro.getUnexpectedDiff(diff));
+            }
+        }
+        return macros;
+    }
+}
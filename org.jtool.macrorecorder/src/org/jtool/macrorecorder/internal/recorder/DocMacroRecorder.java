@@ -15,8 +15,10 @@ import org.jtool.macrorecorder.macro.CancelMacro;
 import org.jtool.macrorecorder.macro.CompoundMacro;
 import org.jtool.macrorecorder.macro.CodeCompletionMacro;
 import org.jtool.macrorecorder.recorder.MacroConsole;
-import org.jtool.macrorecorder.internal.diff.DiffMacro;
 import org.jtool.macrorecorder.internal.diff.DiffMacroGenerator;
+import org.jtool.macrorecorder.internal.diff.ChunkedText;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -66,6 +68,31 @@ class DocMacroRecorder {
      */
     protected String preCode = "";
     
+    /**
+     * The previous contents of the source code divided into chunks, which are used instead of the string in the large-file mode.
+     */
+    private ChunkedText preChunks = null;
+    
+    /**
+     * The document whose contents are known to be equal to the previous contents of the source code.
+     */
+    private IDocument syncDocument = null;
+    
+    /**
+     * The modification stamp of the document at the time when its contents were equal to the previous contents.
+     */
+    private long syncStamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+    
+    /**
+     * A flag that indicates whether the previous contents were equal to the contents of the document before its change.
+     */
+    private boolean syncBeforeChange = false;
+    
+    /**
+     * A flag that indicates whether the previous contents follow the changes of the document in a text file buffer.
+     */
+    private volatile boolean followingBuffer = false;
+    
     /**
      * A flag that indicates whether this recorder will be disposed.
      */
@@ -149,11 +176,36 @@ class DocMacroRecorder {
      * @param code the contents of the source code
      */
     void setPreCode(String code) {
-        if (code != null) {
-            preCode = code;
+        if (code == null) {
+            code = "";
+        }
+        if (DiffMacroGenerator.isLargeFile(code.length())) {
+            setPreCode(code, new ChunkedText(code));
         } else {
-            preCode = "";
+            setPreCode(code, null);
+        }
+        setSynchronized(null, IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP);
+    }
+    
+    /**
+     * Sets the previous contents of the source code to the current contents of a document.
+     * @param doc the document, or <code>null</code> if the document does not exist
+     */
+    void setPreCode(IDocument doc) {
+        long stamp = getModificationStamp(doc);
+        if (doc != null) {
+            setPreCode(doc.get());
+        } else {
+            setPreCode((String)null);
         }
+        setSynchronized(doc, stamp);
+    }
+    
+    /**
+     * Keeps the previous contents of the source code without copying them, which may differ from the current contents.
+     */
+    void keepPreCode() {
+        setSynchronized(null, IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP);
     }
     
     /**
@@ -161,14 +213,58 @@ class DocMacroRecorder {
      * @return the contents of the source code
      */
     String getPreCode() {
+        if (preChunks != null) {
+            return preChunks.toString();
+        }
         return preCode;
     }
     
+    /**
+     * Stores the previous contents of the source code.
+     * @param code the contents of the source code
+     * @param chunks the contents divided into chunks, or <code>null</code> if the contents are not large
+     */
+    private void setPreCode(String code, ChunkedText chunks) {
+        if (chunks != null) {
+            preCode = "";
+            preChunks = chunks;
+        } else {
+            preCode = code;
+            preChunks = null;
+        }
+    }
+    
+    /**
+     * Sets the flag that indicates the previous contents follow the changes of the document in a text file buffer.
+     * @param bool <code>true</code> if the changes of the document are recorded, otherwise <code>false</code>
+     */
+    void setFollowingBuffer(boolean bool) {
+        followingBuffer = bool;
+    }
+    
+    /**
+     * Tests if the previous contents follow the changes of the document in a text file buffer.
+     * The previous contents are equal to the contents of the document in that case, and need not be recovered.
+     * @return <code>true</code> if the changes of the document are recorded, otherwise <code>false</code>
+     */
+    boolean isFollowingBuffer() {
+        return followingBuffer;
+    }
+    
+    /**
+     * Tests if the previous contents of the source code are stored in the large-file mode.
+     * @return <code>true</code> if the contents are divided into chunks, otherwise <code>false</code>
+     */
+    boolean isLargeFile() {
+        return preChunks != null;
+    }
+    
     /**
      * Sets the flag that indicates the code completion is currently progressed.
      * @param bool <code>true</code> if the code completion is currently progressed, otherwise <code>false</code>
      */
     void setCodeCompletionInProgress(boolean bool) {
+        getGlobalMacroRecorder().flushCursorMacros();
         codeCompletionInProgress = bool;
     }
     
@@ -228,6 +324,8 @@ class DocMacroRecorder {
      * Cancels the code completion being in execution.
      */
     void cancelCodeCompletion() {
+        getGlobalMacroRecorder().flushCursorMacros();
+        
         if (getCodeCompletionInProgress()) {
             String path = getPath();
             String branch = getGlobalMacroRecorder().getBranch(path);
@@ -289,10 +387,26 @@ class DocMacroRecorder {
         return "";
     }
     
+    /**
+     * Returns the offset of the current caret position.
+     * @return always <code>-1</code>
+     */
+    int getCaretOffset() {
+        return -1;
+    }
+    
+    /**
+     * Records cursor changes that are pending.
+     */
+    void flushCursorMacro() {
+        documentListener.flushCursorChange();
+    }
+    
     /**
      * Dumps the last document macro.
      */
     void dumpLastDocumentMacro() {
+        getGlobalMacroRecorder().flushCursorMacros();
         recorder.dumpLastDocumentMacro();
     }
     
@@ -349,38 +463,131 @@ class DocMacroRecorder {
         }
     }
     
+    /**
+     * Obtains the document of a file under recording.
+     * @return the document, or <code>null</code> if the document does not exist
+     */
+    IDocument getCurrentDocument() {
+        return null;
+    }
+    
     /**
      * Obtains the current contents of a file under recording.
      * @return the contents of source code, or <code>null</code> if source code does not exist
      */
     String getCurrentCode() {
+        IDocument doc = getCurrentDocument();
+        if (doc != null) {
+            return doc.get();
+        }
         return null;
     }
     
     /**
      * Confirms the necessity of generation of difference macros.
+     * The contents of the document are neither copied nor compared if its modification stamp is unchanged.
      * @param expected <code>true</code> if the difference is expected, otherwise <code>false</code>
      */
     void applyDiff(boolean expected) {
-        String code = getCurrentCode();
+        IDocument doc = getCurrentDocument();
+        long stamp = getModificationStamp(doc);
+        if (isSynchronized(doc, stamp)) {
+            dumpLastDocumentMacro();
+            return;
+        }
+        
+        String code = null;
+        if (doc != null) {
+            code = doc.get();
+        }
         generateDiff(code, expected);
+        setSynchronized(doc, stamp);
     }
     
     /**
      * Confirms the necessity of generation of difference macros.
+     * The contents of the document are neither copied nor compared if its modification stamp is unchanged.
      * @param backupCode the current code
      * @param expected <code>true</code> if the difference is expected, otherwise <code>false</code>
      */
     void applyDiff(String backupCode, boolean expected) {
-        String code = getCurrentCode();
-        if (code == null) {
-            code = backupCode;
+        IDocument doc = getCurrentDocument();
+        long stamp = getModificationStamp(doc);
+        if (isSynchronized(doc, stamp)) {
+            dumpLastDocumentMacro();
+            return;
+        }
+        
+        String code = backupCode;
+        if (doc != null) {
+            code = doc.get();
         }
         generateDiff(code, expected);
+        setSynchronized(doc, stamp);
+    }
+    
+    /**
+     * Receives a notification that a document will be changed.
+     * @param doc the document to be changed
+     */
+    void documentAboutToBeChanged(IDocument doc) {
+        syncBeforeChange = isSynchronized(doc, getModificationStamp(doc));
+        setSynchronized(null, IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP);
+    }
+    
+    /**
+     * Receives a notification that a document has been changed and its change has been applied to the previous code.
+     * @param doc the changed document
+     */
+    void documentChanged(IDocument doc) {
+        if (syncBeforeChange) {
+            setSynchronized(doc, getModificationStamp(doc));
+        }
+        syncBeforeChange = false;
+    }
+    
+    /**
+     * Tests if the previous contents of the source code are equal to the current contents of a document.
+     * @param doc the document
+     * @param stamp the current modification stamp of the document
+     * @return <code>true</code> if the contents are known to be equal, otherwise <code>false</code>
+     */
+    private boolean isSynchronized(IDocument doc, long stamp) {
+        return doc != null && doc == syncDocument &&
+               stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP && stamp == syncStamp;
+    }
+    
+    /**
+     * Remembers that the previous contents of the source code are equal to the contents of a document.
+     * @param doc the document, or <code>null</code> if the equality is unknown
+     * @param stamp the modification stamp of the document
+     */
+    private void setSynchronized(IDocument doc, long stamp) {
+        if (doc != null && stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+            syncDocument = doc;
+            syncStamp = stamp;
+        } else {
+            syncDocument = null;
+            syncStamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+        }
+    }
+    
+    /**
+     * Obtains the modification stamp of a document.
+     * @param doc the document
+     * @return the modification stamp, or <code>UNKNOWN_MODIFICATION_STAMP</code> if the document does not provide it
+     */
+    private static long getModificationStamp(IDocument doc) {
+        if (doc instanceof IDocumentExtension4) {
+            return ((IDocumentExtension4)doc).getModificationStamp();
+        }
+        return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
     }
     
     /**
      * Generates document macros that represent differences.
+     * The differences are generated by a background job against the snapshots of the previous and current code,
+     * and the macros are put at the current position in the sequence of macros.
      * @param code the current code
      * @param expected <code>true</code> if the difference is expected, otherwise <code>false</code>
      */
@@ -390,25 +597,21 @@ class DocMacroRecorder {
         if (code == null) {
             code = "";
         }
-        if (!code.equals(preCode)) {
-            
-            List<DiffMacro> diffs = DiffMacroGenerator.generate(path, branch, preCode, code);
-            if (diffs.size() > 0) {
-                for (DiffMacro diff : diffs) {
-                    
-                    DocumentMacro macro;
-                    if (expected) {
-                        macro = DiffMacro.getExpectedDiff(diff);
-                    } else {
-                        macro = DiffMacro.getUnexpectedDiff(diff);
-                    }
-                    
-                    recorder.recordRawMacro(macro);
-                    recorder.recordMacro(macro);
-                }
+        
+        ChunkedText chunks = null;
+        if (preChunks != null || DiffMacroGenerator.isLargeFile(code.length())) {
+            chunks = new ChunkedText(code);
+            ChunkedText prevChunks = preChunks;
+            if (prevChunks == null) {
+                prevChunks = new ChunkedText(preCode);
             }
+            if (!chunks.contentEquals(prevChunks)) {
+                recorder.scheduleDiff(new DiffJob(recorder, path, branch, null, prevChunks, code, expected));
+            }
+        } else if (!code.equals(preCode)) {
+            recorder.scheduleDiff(new DiffJob(recorder, path, branch, preCode, null, code, expected));
         }
-        preCode = code;
+        setPreCode(code, chunks);
     }
     
     /**
@@ -420,6 +623,7 @@ class DocMacroRecorder {
         if (macro instanceof DocumentMacro) {
             DocumentMacro dmacro = (DocumentMacro)macro;
             if (hasInconsistency(dmacro)) {
+                syncBeforeChange = false;
                 return false;
             } else {
                 return applyMacro(dmacro);
@@ -435,14 +639,20 @@ class DocMacroRecorder {
      */
     private boolean hasInconsistency(DocumentMacro macro) {
         int start = macro.getStart();
-        if (start > preCode.length()) {
+        int length = preChunks != null ? preChunks.length() : preCode.length();
+        if (start > length) {
             return true;
         }
         
         String dtext = macro.getDeletedText();
         int end = start + dtext.length();
         if (dtext.length() > 0) {
-            String rtext = preCode.substring(start, end);
+            String rtext;
+            if (preChunks != null) {
+                rtext = preChunks.substring(start, Math.min(end, length));
+            } else {
+                rtext = preCode.substring(start, end);
+            }
             if (rtext != null && !rtext.equals(dtext)) {
                 
                 for (int i = 0; i < rtext.length(); i++) {
@@ -463,15 +673,24 @@ class DocMacroRecorder {
      * @param macro the document macro to be applied
      */
     private boolean applyMacro(DocumentMacro macro) {
-        StringBuilder postCode = new StringBuilder(preCode);
         int start = macro.getStart();
         int end = start + macro.getDeletedText().length();
         String itext = macro.getInsertedText();
+        if (preChunks != null) {
+            if (preChunks.replace(start, end, itext)) {
+                return true;
+            }
+            syncBeforeChange = false;
+            return false;
+        }
+        
+        StringBuilder postCode = new StringBuilder(preCode);
         try {
             postCode.replace(start, end, itext);
             preCode = postCode.toString();
             return true;
         } catch (StringIndexOutOfBoundsException e) {
+            syncBeforeChange = false;
             return false;
         }
     }
@@ -30,7 +30,7 @@ class DocMacroRecorderOffEdit extends DocMacroRecorder {
         
         assert file != null;
         this.file = file;
-        setPreCode(getCurrentCode());
+        setPreCode(getCurrentDocument());
     }
     
     /**
@@ -50,19 +50,14 @@ class DocMacroRecorderOffEdit extends DocMacroRecorder {
     }
     
     /**
-     * Obtains the current contents of a file under recording.
-     * @return the contents of source code, or <code>null</code> if source code does not exist
+     * Obtains the document of a file under recording.
+     * @return the document, or <code>null</code> if the document does not exist
      */
     @Override
-    String getCurrentCode() {
+    IDocument getCurrentDocument() {
         if (dispose) {
             return null;
         }
-        
-        IDocument doc = EditorUtilities.getDocument(file);
-        if (doc != null) {
-            return doc.get();
-        }
-        return null;
+        return EditorUtilities.getDocument(file);
     }
 }
@@ -13,13 +13,18 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.swt.custom.StyledText;
-import org.eclipse.swt.widgets.Display;
-import org.eclipse.ui.PlatformUI;
+import org.eclipse.swt.custom.CaretEvent;
+import org.eclipse.swt.custom.CaretListener;
 import org.eclipse.ui.IEditorPart;
-import org.eclipse.ui.IWorkbenchPart;
 import org.eclipse.ui.progress.UIJob;
-import org.eclipse.ui.texteditor.AbstractTextEditor;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.text.source.ISourceViewer;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.ISelectionChangedListener;
+import org.eclipse.jface.viewers.ISelectionProvider;
+import org.eclipse.jface.viewers.SelectionChangedEvent;
+import org.eclipse.jface.text.ITextViewerExtension5;
 
 /**
  * Records document macros performed on the editor.
@@ -43,15 +48,42 @@ class DocMacroRecorderOnEdit extends DocMacroRecorder {
     private StyledText styledText;
     
     /**
-     * The starting point of the text that is contained the selection.
+     * The selection provider of an editor.
      */
-    private int selectionStart;
+    private ISelectionProvider selectionProvider;
     
+    /**
+     * The snapshot of the current selection, which is updated in the UI thread when the selection changes or the caret moves.
+     */
+    private volatile ITextSelection selection = null;
     
     /**
-     * The text that is contained the selection.
+     * A listener that keeps the snapshot of the current selection.
      */
-    private String selectionText;
+    private ISelectionChangedListener selectionListener = new ISelectionChangedListener() {
+        
+        /**
+         * Receives an event when the selection has changed.
+         * @param event the event describing the selection change
+         */
+        public void selectionChanged(SelectionChangedEvent event) {
+            updateSelection(event.getSelection());
+        }
+    };
+    
+    /**
+     * A listener that keeps the snapshot of the current selection when the caret moves without changing the selected text.
+     */
+    private CaretListener caretListener = new CaretListener() {
+        
+        /**
+         * Receives an event when the caret has moved.
+         * @param event the event describing the caret move
+         */
+        public void caretMoved(CaretEvent event) {
+            updateSelection(selectionProvider.getSelection());
+        }
+    };
     
     /**
      * Creates an object that records document macros performed on an editor.
@@ -65,7 +97,11 @@ class DocMacroRecorderOnEdit extends DocMacroRecorder {
         this.editor = editor;
         this.doc = EditorUtilities.getDocument(editor);
         this.styledText = EditorUtilities.getStyledText(editor);
-        setPreCode(doc.get());
+        ISourceViewer viewer = EditorUtilities.getSourceViewer(editor);
+        if (viewer != null) {
+            this.selectionProvider = viewer.getSelectionProvider();
+        }
+        setPreCode(doc);
     }
     
     /**
@@ -83,6 +119,13 @@ class DocMacroRecorderOnEdit extends DocMacroRecorder {
             public IStatus runInUIThread(IProgressMonitor monitor) {
                 documentListener.register(doc, styledText);
                 completionListener.register(editor);
+                if (selectionProvider != null) {
+                    selectionProvider.addSelectionChangedListener(selectionListener);
+                    if (styledText != null && !styledText.isDisposed()) {
+                        styledText.addCaretListener(caretListener);
+                    }
+                    updateSelection(selectionProvider.getSelection());
+                }
                 return Status.OK_STATUS;
             }
         };
@@ -106,6 +149,12 @@ class DocMacroRecorderOnEdit extends DocMacroRecorder {
             public IStatus runInUIThread(IProgressMonitor monitor) {
                 documentListener.unregister(doc);
                 completionListener.unregister(editor);
+                if (selectionProvider != null) {
+                    selectionProvider.removeSelectionChangedListener(selectionListener);
+                    if (styledText != null && !styledText.isDisposed()) {
+                        styledText.removeCaretListener(caretListener);
+                    }
+                }
                 return Status.OK_STATUS;
             }
         };
@@ -141,71 +190,79 @@ class DocMacroRecorderOnEdit extends DocMacroRecorder {
         dumpMacro(cmacro);
     }
     
+    /**
+     * Updates the snapshot of the current selection.
+     * @param sel the current selection
+     */
+    private void updateSelection(ISelection sel) {
+        if (sel instanceof ITextSelection) {
+            selection = (ITextSelection)sel;
+        } else {
+            selection = null;
+        }
+    }
+    
     /**
      * Returns the starting point of the text that is contained the selection.
+     * The snapshot of the selection is read without waiting for the UI thread.
      * @return the starting point of the selected text, <code>-1</code> if the selection is invalid
      */
+    @Override
     int getSelectionStart() {
-        IWorkbenchPart part = EditorUtilities.getActivePart();
-        if (!(part instanceof AbstractTextEditor)) {
-            return -1;
-        }
-        
-        if (styledText == null) {
+        ITextSelection sel = selection;
+        if (sel == null || sel.isEmpty()) {
             return -1;
         }
-        
-        String path = EditorUtilities.getActiveInputFilePath();
-        if (path == null) {
-            return -1;
-        }
-        
-        Display display = PlatformUI.getWorkbench().getDisplay();
-        display.syncExec(new Runnable() {
-            public void run() {
-                selectionStart = styledText.getSelectionRange().x;
-            }
-        });
-        return selectionStart;
+        return sel.getOffset();
     }
     
     /**
      * Returns the text that is contained the selection.
+     * The snapshot of the selection is read without waiting for the UI thread.
      * @return the selected text, the empty string if the selection is invalid
      */
+    @Override
     String getSelectionText() {
-        if (styledText == null) {
+        ITextSelection sel = selection;
+        if (sel == null || sel.isEmpty()) {
             return "";
         }
         
-        String path = EditorUtilities.getActiveInputFilePath();
-        if (path == null) {
+        String text = sel.getText();
+        if (text == null) {
             return "";
         }
+        return text;
+    }
+    
+    /**
+     * Returns the offset of the current caret position.
+     * This method must be called in the UI thread.
+     * @return the offset of the caret position in the document, <code>-1</code> if the caret is unavailable
+     */
+    @Override
+    int getCaretOffset() {
+        if (styledText == null || styledText.isDisposed()) {
+            return -1;
+        }
         
-        Display display = PlatformUI.getWorkbench().getDisplay();
-        display.syncExec(new Runnable() {
-            public void run() {
-                selectionText = styledText.getSelectionText();
-            }
-        });
-        return selectionText;
+        int offset = styledText.getCaretOffset();
+        ITextViewerExtension5 extension = EditorUtilities.getTextViewerExtension5(editor);
+        if (extension != null) {
+            return extension.widgetOffset2ModelOffset(offset);
+        }
+        return offset;
     }
     
     /**
-     * Obtains the current contents of a file under recording.
-     * @return the contents of source code, or <code>null</code> if source code does not exist
+     * Obtains the document of a file under recording.
+     * @return the document, or <code>null</code> if the document does not exist
      */
     @Override
-    String getCurrentCode() {
+    IDocument getCurrentDocument() {
         if (dispose) {
             return null;
         }
-        
-        IDocument doc = EditorUtilities.getDocument(editor);
-        if (doc != null) {
-            return doc.get();
-        }
-        return null;
+        return EditorUtilities.getDocument(editor);
     }
 }
@@ -60,6 +60,44 @@ class DocumentListener implements IDocumentListener, IDocumentUndoListener, List
      */
     private boolean codeCompletionInProgress = false;
     
+    /**
+     * The time (in milliseconds) of quiet period that closes a burst of cursor changes.
+     */
+    private static final int CURSOR_CHANGE_INTERVAL = 300;
+    
+    /**
+     * The last known offset of the caret position.
+     */
+    private int caretOffset = -1;
+    
+    /**
+     * The offset of the caret position at the beginning of the pending cursor changes.
+     */
+    private int cursorChangeStart = -1;
+    
+    /**
+     * The offset of the caret position at the end of the pending cursor changes.
+     */
+    private int cursorChangeEnd = -1;
+    
+    /**
+     * The number of the pending cursor changes.
+     */
+    private int cursorChangeCount = 0;
+    
+    /**
+     * A task that records the pending cursor changes when the quiet period expires.
+     */
+    private Runnable cursorChangeFlusher = new Runnable() {
+        
+        /**
+         * Records the pending cursor changes.
+         */
+        public void run() {
+            flushCursorChange();
+        }
+    };
+    
     /**
      * Creates an object that records document events.
      * @param recorder a recorder that records macros
@@ -113,6 +151,8 @@ class DocumentListener implements IDocumentListener, IDocumentUndoListener, List
      */
     void unregister(IDocument doc) {
         assert doc != null;
+        flushCursorChange();
+        
         doc.removeDocumentListener(this);
         
         DocumentUndoManagerRegistry.connect(doc);
@@ -129,6 +169,8 @@ class DocumentListener implements IDocumentListener, IDocumentUndoListener, List
      */
     @Override
     public void documentAboutToBeChanged(DocumentEvent event) {
+        docRecorder.documentAboutToBeChanged(event.getDocument());
+        
         insertedText = event.getText();
         deletedText = "";
         if (event.getLength() > 0) {
@@ -148,9 +190,12 @@ class DocumentListener implements IDocumentListener, IDocumentUndoListener, List
      */
     @Override
     public void documentChanged(DocumentEvent event) {
+        flushCursorChange();
+        
         if (insertedText.length() == 0 && deletedText.length() == 0) {
             return;
         }
+        caretOffset = event.getOffset() + insertedText.length();
         
         String path = docRecorder.getPath();
         String branch = docRecorder.getGlobalMacroRecorder().getBranch(path);
@@ -201,6 +246,7 @@ class DocumentListener implements IDocumentListener, IDocumentUndoListener, List
                 docRecorder.recordDocumentMacro(macro);
             }
         }
+        docRecorder.documentChanged(event.getDocument());
     }
     
     /**
@@ -209,6 +255,8 @@ class DocumentListener implements IDocumentListener, IDocumentUndoListener, List
      */
     @Override
     public void documentUndoNotification(DocumentUndoEvent event) {
+        flushCursorChange();
+        
         String path = docRecorder.getPath();
         String branch = docRecorder.getGlobalMacroRecorder().getBranch(path);
         MacroPath mpath = PathInfoFinder.getMacroPath(path, branch);
@@ -265,13 +313,43 @@ class DocumentListener implements IDocumentListener, IDocumentUndoListener, List
         }
         
         if (cursorMoved) {
-            String path = docRecorder.getPath();
-            String branch = docRecorder.getGlobalMacroRecorder().getBranch(path);
+            int offset = docRecorder.getCaretOffset();
+            synchronized (this) {
+                if (cursorChangeCount == 0) {
+                    cursorChangeStart = caretOffset >= 0 ? caretOffset : offset;
+                }
+                cursorChangeEnd = offset;
+                cursorChangeCount++;
+            }
+            caretOffset = offset;
             
-            TriggerMacro tmacro = new TriggerMacro(TriggerMacro.Action.CURSOR_CHANGE,
-                    PathInfoFinder.getMacroPath(path, branch), TriggerMacro.Timing.INSTANT);
-            docRecorder.getGlobalMacroRecorder().recordTriggerMacro(tmacro);
+            event.display.timerExec(CURSOR_CHANGE_INTERVAL, cursorChangeFlusher);
+        }
+    }
+    
+    /**
+     * Records a single trigger macro for the pending burst of cursor changes.
+     * This must be called before any other macro is recorded in order to keep the order of macros.
+     */
+    void flushCursorChange() {
+        int start, end, count;
+        synchronized (this) {
+            if (cursorChangeCount == 0) {
+                return;
+            }
+            start = cursorChangeStart;
+            end = cursorChangeEnd;
+            count = cursorChangeCount;
+            cursorChangeCount = 0;
         }
+        
+        String path = docRecorder.getPath();
+        String branch = docRecorder.getGlobalMacroRecorder().getBranch(path);
+        
+        TriggerMacro tmacro = new TriggerMacro(TriggerMacro.Action.CURSOR_CHANGE,
+                PathInfoFinder.getMacroPath(path, branch), TriggerMacro.Timing.INSTANT);
+        tmacro.setCursorChange(start, end, count);
+        docRecorder.getGlobalMacroRecorder().recordTriggerMacro(tmacro);
     }
     
     /**
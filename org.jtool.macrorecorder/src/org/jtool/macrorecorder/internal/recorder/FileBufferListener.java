@@ -0,0 +1,323 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.internal.recorder;
+
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import org.eclipse.core.filebuffers.FileBuffers;
+import org.eclipse.core.filebuffers.IFileBuffer;
+import org.eclipse.core.filebuffers.IFileBufferListener;
+import org.eclipse.core.filebuffers.ITextFileBuffer;
+import org.eclipse.core.filebuffers.ITextFileBufferManager;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.ui.progress.UIJob;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Listens changes of the documents in text file buffers of files that are not opened in editors.
+ * Changes made by tools, quick fixes, or refactorings on such files are recorded as document macros
+ * instead of being detected by the differences between the contents of the files.
+ * @author Katsuhisa Maruyama
+ */
+class FileBufferListener implements IFileBufferListener, IDocumentListener {
+    
+    /**
+     * A recorder that records global macros.
+     */
+    private GlobalMacroRecorder globalRecorder;
+    
+    /**
+     * The collection of the documents of text file buffers under listening.
+     */
+    private Map<IDocument, BufferDocument> documents = new ConcurrentHashMap<IDocument, BufferDocument>();
+    
+    /**
+     * Creates an object that records changes of documents in text file buffers.
+     * @param recorder a recorder that records global macros
+     */
+    FileBufferListener(GlobalMacroRecorder recorder) {
+        this.globalRecorder = recorder;
+    }
+    
+    /**
+     * Registers a file buffer listener.
+     */
+    void register() {
+        ITextFileBufferManager manager = FileBuffers.getTextFileBufferManager();
+        manager.addFileBufferListener(this);
+        for (IFileBuffer buffer : manager.getFileBuffers()) {
+            bufferCreated(buffer);
+        }
+    }
+    
+    /**
+     * Unregisters a file buffer listener.
+     */
+    void unregister() {
+        FileBuffers.getTextFileBufferManager().removeFileBufferListener(this);
+        for (IDocument doc : documents.keySet()) {
+            doc.removeDocumentListener(this);
+        }
+        documents.clear();
+    }
+    
+    /**
+     * Receives an event when a file buffer has been created.
+     * @param buffer the created file buffer
+     */
+    @Override
+    public void bufferCreated(IFileBuffer buffer) {
+        if (!(buffer instanceof ITextFileBuffer)) {
+            return;
+        }
+        
+        IFile file = getFile(buffer);
+        IDocument doc = ((ITextFileBuffer)buffer).getDocument();
+        if (file != null && doc != null && JavaCore.isJavaLikeFileName(file.getName())) {
+            documents.put(doc, new BufferDocument(file));
+            doc.addDocumentListener(this);
+        }
+    }
+    
+    /**
+     * Receives an event when a file buffer has been disposed.
+     * The recorder of the file detects the changes discarded with the file buffer as differences.
+     * @param buffer the disposed file buffer
+     */
+    @Override
+    public void bufferDisposed(IFileBuffer buffer) {
+        if (!(buffer instanceof ITextFileBuffer)) {
+            return;
+        }
+        
+        IDocument doc = ((ITextFileBuffer)buffer).getDocument();
+        if (doc == null) {
+            return;
+        }
+        
+        BufferDocument bdoc = documents.remove(doc);
+        doc.removeDocumentListener(this);
+        if (bdoc == null) {
+            return;
+        }
+        
+        DocMacroRecorder docRecorder = globalRecorder.getDocMacroRecorder(bdoc.path);
+        if (docRecorder != null && docRecorder.isOff() && docRecorder.isFollowingBuffer()) {
+            docRecorder.setFollowingBuffer(false);
+            
+            if (buffer.isDirty()) {
+                UIJob job = new UIJob("Discard") {
+                    
+                    /**
+                     * Run the job in the UI thread.
+                     * @param monitor the progress monitor to use to display progress
+                     */
+                    @Override
+                    public IStatus runInUIThread(IProgressMonitor monitor) {
+                        docRecorder.applyDiff(false);
+                        return Status.OK_STATUS;
+                    }
+                };
+                job.setSystem(true);
+                job.schedule();
+            }
+        }
+    }
+    
+    /**
+     * Receives a document event will be performed.
+     * The recorder of the file is created if the file has never been recorded.
+     * @param event the document event describing the document change
+     */
+    @Override
+    public void documentAboutToBeChanged(DocumentEvent event) {
+        IDocument doc = event.getDocument();
+        BufferDocument bdoc = documents.get(doc);
+        if (bdoc == null) {
+            return;
+        }
+        bdoc.docRecorder = null;
+        
+        DocMacroRecorder docRecorder = globalRecorder.getDocMacroRecorder(bdoc.path);
+        if (docRecorder == null) {
+            docRecorder = globalRecorder.getRecorder().off(bdoc.file);
+        }
+        if (docRecorder.isOn()) {
+            return;
+        }
+        
+        if (!docRecorder.isFollowingBuffer()) {
+            docRecorder.applyDiff(false);
+            docRecorder.setFollowingBuffer(true);
+        }
+        docRecorder.documentAboutToBeChanged(doc);
+        
+        bdoc.docRecorder = docRecorder;
+        bdoc.insertedText = event.getText() != null ? event.getText() : "";
+        bdoc.deletedText = "";
+        if (event.getLength() > 0) {
+            try {
+                bdoc.deletedText = doc.get(event.getOffset(), event.getLength());
+            } catch (Exception e) {
+                bdoc.docRecorder = null;
+                docRecorder.setFollowingBuffer(false);
+            }
+        }
+    }
+    
+    /**
+     * Receives a document event has been performed.
+     * @param event the document event describing the document change
+     */
+    @Override
+    public void documentChanged(DocumentEvent event) {
+        BufferDocument bdoc = documents.get(event.getDocument());
+        if (bdoc == null || bdoc.docRecorder == null) {
+            return;
+        }
+        
+        DocMacroRecorder docRecorder = bdoc.docRecorder;
+        bdoc.docRecorder = null;
+        if (bdoc.insertedText.length() > 0 || bdoc.deletedText.length() > 0) {
+            String branch = globalRecorder.getBranch(bdoc.path);
+            MacroPath mpath = PathInfoFinder.getMacroPath(bdoc.path, branch);
+            DocumentMacro macro = new DocumentMacro(DocumentMacro.Action.AUTO_DIFF, mpath,
+                    event.getOffset(), bdoc.insertedText, bdoc.deletedText);
+            docRecorder.recordDocumentMacro(macro);
+        }
+        docRecorder.documentChanged(event.getDocument());
+    }
+    
+    /**
+     * Obtains the file of a file buffer in the workspace.
+     * @param buffer the file buffer
+     * @return the file, or <code>null</code> if the file buffer is not related to a file in the workspace
+     */
+    private IFile getFile(IFileBuffer buffer) {
+        IPath location = buffer.getLocation();
+        if (location == null) {
+            return null;
+        }
+        return FileBuffers.getWorkspaceFileAtLocation(location);
+    }
+    
+    /**
+     * Receives an event when the content of a file buffer is about to be replaced.
+     * @param buffer the file buffer
+     */
+    @Override
+    public void bufferContentAboutToBeReplaced(IFileBuffer buffer) {
+    }
+    
+    /**
+     * Receives an event when the content of a file buffer has been replaced.
+     * @param buffer the file buffer
+     */
+    @Override
+    public void bufferContentReplaced(IFileBuffer buffer) {
+    }
+    
+    /**
+     * Receives an event when the state of a file buffer is about to change.
+     * @param buffer the file buffer
+     */
+    @Override
+    public void stateChanging(IFileBuffer buffer) {
+    }
+    
+    /**
+     * Receives an event when the dirty state of a file buffer has changed.
+     * @param buffer the file buffer
+     * @param isDirty the dirty state
+     */
+    @Override
+    public void dirtyStateChanged(IFileBuffer buffer, boolean isDirty) {
+    }
+    
+    /**
+     * Receives an event when the state validation of a file buffer has changed.
+     * @param buffer the file buffer
+     * @param isStateValidated the state validation
+     */
+    @Override
+    public void stateValidationChanged(IFileBuffer buffer, boolean isStateValidated) {
+    }
+    
+    /**
+     * Receives an event when the file underlying a file buffer has been moved.
+     * @param buffer the file buffer
+     * @param path the new location of the file
+     */
+    @Override
+    public void underlyingFileMoved(IFileBuffer buffer, IPath path) {
+    }
+    
+    /**
+     * Receives an event when the file underlying a file buffer has been deleted.
+     * @param buffer the file buffer
+     */
+    @Override
+    public void underlyingFileDeleted(IFileBuffer buffer) {
+    }
+    
+    /**
+     * Receives an event when the state change of a file buffer has failed.
+     * @param buffer the file buffer
+     */
+    @Override
+    public void stateChangeFailed(IFileBuffer buffer) {
+    }
+    
+    /**
+     * A document of a text file buffer with the change being performed on it.
+     */
+    private static class BufferDocument {
+        
+        /**
+         * The file of the text file buffer.
+         */
+        final IFile file;
+        
+        /**
+         * The path of the file.
+         */
+        final String path;
+        
+        /**
+         * The recorder that records the change being performed, or <code>null</code> if the change is not recorded.
+         */
+        DocMacroRecorder docRecorder;
+        
+        /**
+         * The text inserted by the change being performed.
+         */
+        String insertedText = "";
+        
+        /**
+         * The text deleted by the change being performed.
+         */
+        String deletedText = "";
+        
+        /**
+         * Creates a document of a text file buffer.
+         * @param file the file of the text file buffer
+         */
+        BufferDocument(IFile file) {
+            this.file = file;
+            this.path = EditorUtilities.getInputFilePath(file);
+        }
+    }
+}
@@ -16,7 +16,10 @@ import org.eclipse.ui.PlatformUI;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.ResourcesPlugin;
 import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Records macros representing global actions occurring in the workspace.
@@ -49,6 +52,11 @@ class GlobalMacroRecorder {
      */
     private ResourceListener resourceListener;
     
+    /**
+     * A listener that manages changes of documents in text file buffers.
+     */
+    private FileBufferListener fileBufferListener;
+    
     /**
      * A listener that manages resource changes in the Java model.
      */
@@ -89,6 +97,11 @@ class GlobalMacroRecorder {
      */
     private Map<String, String> gitProjects = new HashMap<String, String>();
     
+    /**
+     * The collection of document macros derived from refactorings, which wait for the changes of their files.
+     */
+    private Map<String, RefactoringEdits> refactoringEdits = new ConcurrentHashMap<String, RefactoringEdits>();
+    
     /**
      * Creates an object that records global macros.
      * @param recorder the recorder
@@ -100,6 +113,7 @@ class GlobalMacroRecorder {
         refactoringListener = new RefactoringListener(this);
         fileListener = new FileListener(this);
         resourceListener = new ResourceListener(this);
+        fileBufferListener = new FileBufferListener(this);
         gitRepositoryListener = new GitRepositoryListener(this, ResourcesPlugin.getWorkspace().getRoot().getProjects());
     }
     
@@ -136,6 +150,7 @@ class GlobalMacroRecorder {
         refactoringListener.register();
         fileListener.register();
         resourceListener.register();
+        fileBufferListener.register();
         gitRepositoryListener.register();
         
         pathToBeRefactored = null;
@@ -151,6 +166,7 @@ class GlobalMacroRecorder {
         refactoringListener.unregister();
         fileListener.unregister();
         resourceListener.unregister();
+        fileBufferListener.unregister();
         gitRepositoryListener.unregister();
     }
     
@@ -174,6 +190,8 @@ class GlobalMacroRecorder {
      * Cancels the refactoring being in execution.
      */
     void cancelRefactoring() {
+        flushCursorMacros();
+        
         if (getRefactoringInProgress()) {
             String path = getPathToBeRefactored();
             String branch = getBranch(path);
@@ -217,6 +235,39 @@ class GlobalMacroRecorder {
         return refactoringInProgress;
     }
     
+    /**
+     * Stores document macros derived from a refactoring that is about to change a file.
+     * @param path the path of the file
+     * @param edits the document macros of the refactoring
+     */
+    void putRefactoringEdits(String path, RefactoringEdits edits) {
+        refactoringEdits.put(path, edits);
+    }
+    
+    /**
+     * Removes and returns document macros derived from a refactoring that has changed a file.
+     * @param path the path of the file
+     * @return the document macros of the refactoring, or <code>null</code> if none
+     */
+    RefactoringEdits takeRefactoringEdits(String path) {
+        return refactoringEdits.remove(path);
+    }
+    
+    /**
+     * Discards document macros derived from a refactoring if the changes of their files have not been detected.
+     * @param edits the collection of the document macros of the refactoring
+     */
+    void discardRefactoringEdits(Collection<RefactoringEdits> edits) {
+        refactoringEdits.values().removeAll(edits);
+    }
+    
+    /**
+     * Discards document macros derived from refactorings whose changes have not been detected.
+     */
+    void clearRefactoringEdits() {
+        refactoringEdits.clear();
+    }
+    
     /**
      * Sets the flag that indicates a cut action is currently progressed.
      * @param bool <code>true</code> if the cut action is currently progressed, otherwise <code>false</code>
@@ -304,6 +355,8 @@ class GlobalMacroRecorder {
      * @param macro the raw macro to be recorded
      */
     void recordRawMacro(Macro macro) {
+        flushCursorMacros();
+        
         String path = macro.getPath();
         DocMacroRecorder docRecorder = recorder.getDocMacroRecorder(path);
         if (docRecorder != null) {
@@ -318,6 +371,8 @@ class GlobalMacroRecorder {
      * @param macro the command macro to be recorded
      */
     void recordCommandMacro(CommandMacro macro) {
+        flushCursorMacros();
+        
         String path = macro.getPath();
         DocMacroRecorder docRecorder = recorder.getDocMacroRecorder(path);
         if (docRecorder != null) {
@@ -351,6 +406,8 @@ class GlobalMacroRecorder {
      * @param macro the trigger macro to be recorded
      */
     void recordTriggerMacro(TriggerMacro macro) {
+        flushCursorMacros();
+        
         String path = macro.getPath();
         DocMacroRecorder docRecorder = recorder.getDocMacroRecorder(path);
         
@@ -369,6 +426,16 @@ class GlobalMacroRecorder {
         }
     }
     
+    /**
+     * Records cursor changes pending in all the document recorders.
+     * Cursor changes are coalesced per navigation burst and must be recorded before other macros.
+     */
+    void flushCursorMacros() {
+        for (DocMacroRecorder docRecorder : new ArrayList<DocMacroRecorder>(recorder.getDocMacroRecorders())) {
+            docRecorder.flushCursorMacro();
+        }
+    }
+    
     /**
      * Checks if a project is under git.
      * @param project the project to be checked
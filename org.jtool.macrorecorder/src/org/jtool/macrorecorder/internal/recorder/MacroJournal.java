@@ -0,0 +1,393 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.internal.recorder;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.CancelMacro;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.zip.CRC32C;
+
+/**
+ * Journals raw document macros before they are sent to the listeners, so that macros that have not been delivered
+ * yet can be recovered after Eclipse crashed or was killed.
+ * <p>
+ * Records are appended to a memory-mapped file, each of which consists of its length, its checksum, and its payload.
+ * Texts in a payload are stored as UTF-16 code units, so that an edit that splits a surrogate pair is recovered as it is.
+ * A record of length zero terminates the journal. The journal is truncated when the recorder holds no pending macro
+ * and the macro handlers have written out the macros they received, which acknowledges all the journaled macros.
+ * Records that follow a torn or corrupted record are ignored.
+ * </p>
+ * @author Katsuhisa Maruyama
+ */
+class MacroJournal {
+    
+    /**
+     * The magic number at the beginning of a journal file.
+     */
+    private static final int MAGIC = 0x4A4D524A;
+    
+    /**
+     * The size of the header of a journal file.
+     */
+    private static final int HEADER_SIZE = 8;
+    
+    /**
+     * The size of the header of a record.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+    
+    /**
+     * The initial size of the mapped region of a journal file.
+     */
+    private static final int INITIAL_SIZE = 1024 * 1024;
+    
+    /**
+     * The kind of a record for a document macro.
+     */
+    private static final byte DOCUMENT = 1;
+    
+    /**
+     * The kind of a record for a cancel macro.
+     */
+    private static final byte CANCEL = 2;
+    
+    /**
+     * The journal file.
+     */
+    private File file;
+    
+    /**
+     * The channel of the journal file.
+     */
+    private FileChannel channel;
+    
+    /**
+     * The mapped region of the journal file.
+     */
+    private MappedByteBuffer buffer;
+    
+    /**
+     * The calculator of checksums.
+     */
+    private CRC32C crc = new CRC32C();
+    
+    /**
+     * The number of records that were appended.
+     */
+    private long recordCount = 0;
+    
+    /**
+     * The total time in nanoseconds spent for appending records.
+     */
+    private long totalTime = 0;
+    
+    /**
+     * Creates a journal.
+     * @param file the journal file
+     */
+    MacroJournal(File file) {
+        this.file = file;
+    }
+    
+    /**
+     * Opens the journal and recovers macros that were not acknowledged.
+     * The recovered records are kept until they are acknowledged after being replayed, and new records follow them.
+     * @return the collection of the recovered macros
+     * @throws IOException if the journal file cannot be opened
+     */
+    synchronized List<Macro> open() throws IOException {
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), INITIAL_SIZE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        
+        List<Macro> macros = new ArrayList<Macro>();
+        int end = HEADER_SIZE;
+        if (buffer.getInt(0) == MAGIC) {
+            end = recover(macros);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, 0);
+        }
+        
+        buffer.putInt(end, 0);
+        buffer.position(end);
+        return macros;
+    }
+    
+    /**
+     * Closes the journal.
+     * @param acknowledged <code>true</code> if all the journaled macros are regarded as acknowledged, otherwise <code>false</code>
+     */
+    synchronized void close(boolean acknowledged) {
+        if (buffer == null) {
+            return;
+        }
+        
+        if (acknowledged) {
+            truncate();
+        }
+        buffer.force();
+        buffer = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            /* empty */
+        }
+        channel = null;
+    }
+    
+    /**
+     * Tests if the journal is open.
+     * @return <code>true</code> if the journal is open, otherwise <code>false</code>
+     */
+    synchronized boolean isOpen() {
+        return buffer != null;
+    }
+    
+    /**
+     * Appends a raw macro to the journal.
+     * Macros other than document macros are not journaled since they are sent to the listeners immediately.
+     * @param macro the raw macro
+     */
+    synchronized void append(Macro macro) {
+        if (buffer == null || !(macro instanceof DocumentMacro)) {
+            return;
+        }
+        
+        long startTime = System.nanoTime();
+        DocumentMacro dmacro = (DocumentMacro)macro;
+        String[] strings = new String[] {
+            dmacro.getAction(),
+            dmacro.getMacroPath().getPath(),
+            dmacro.getMacroPath().getBranch(),
+            dmacro.getMacroPath().getProjectName(),
+            dmacro.getMacroPath().getPackageName(),
+            dmacro.getMacroPath().getFileName(),
+            dmacro.getInsertedText(),
+            dmacro.getDeletedText()
+        };
+        int length = 1 + 8 + 4 + 4;
+        for (String str : strings) {
+            length = length + 4 + getLength(str) * 2;
+        }
+        
+        int pos = buffer.position();
+        if (!ensureCapacity(pos + RECORD_HEADER_SIZE + length + 4)) {
+            return;
+        }
+        
+        buffer.position(pos + RECORD_HEADER_SIZE);
+        buffer.put(macro instanceof CancelMacro ? CANCEL : DOCUMENT);
+        Instant instant = dmacro.getTime().toInstant();
+        buffer.putLong(instant.getEpochSecond());
+        buffer.putInt(instant.getNano());
+        buffer.putInt(dmacro.getStart());
+        for (String str : strings) {
+            putString(str);
+        }
+        
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(pos + RECORD_HEADER_SIZE);
+        payload.limit(pos + RECORD_HEADER_SIZE + length);
+        crc.reset();
+        crc.update(payload);
+        
+        buffer.putInt(buffer.position(), 0);
+        buffer.putInt(pos + 4, (int)crc.getValue());
+        buffer.putInt(pos, length);
+        
+        recordCount++;
+        totalTime = totalTime + (System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Tests if the journal holds records that are not acknowledged.
+     * @return <code>true</code> if the journal holds records, otherwise <code>false</code>
+     */
+    synchronized boolean hasRecords() {
+        return buffer != null && buffer.position() > HEADER_SIZE;
+    }
+    
+    /**
+     * Acknowledges all the journaled macros, which have been delivered to the listeners.
+     * Nothing is acknowledged if a record was appended after the acknowledgment was requested.
+     * @param mark the number of the appended records when the acknowledgment was requested
+     */
+    synchronized void acknowledge(long mark) {
+        if (recordCount == mark && hasRecords()) {
+            truncate();
+        }
+    }
+    
+    /**
+     * Returns the number of records that were appended.
+     * @return the number of the records
+     */
+    synchronized long getRecordCount() {
+        return recordCount;
+    }
+    
+    /**
+     * Returns the average time spent for appending a record.
+     * @return the average time in nanoseconds
+     */
+    synchronized long getAverageTime() {
+        if (recordCount == 0) {
+            return 0;
+        }
+        return totalTime / recordCount;
+    }
+    
+    /**
+     * Removes all the records from the journal.
+     */
+    private void truncate() {
+        buffer.putInt(HEADER_SIZE, 0);
+        buffer.position(HEADER_SIZE);
+    }
+    
+    /**
+     * Enlarges the mapped region of the journal file if necessary.
+     * @param size the required size of the region
+     * @return <code>true</code> if the region is large enough, otherwise <code>false</code>
+     */
+    private boolean ensureCapacity(int size) {
+        if (size <= buffer.capacity()) {
+            return true;
+        }
+        
+        int pos = buffer.position();
+        long newSize = Math.max((long)buffer.capacity() * 2, size);
+        if (newSize > Integer.MAX_VALUE) {
+            return false;
+        }
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+            buffer.position(pos);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Reads the records that are not acknowledged.
+     * @param macros the collection that stores the macros of the records
+     * @return the position next to the last valid record
+     */
+    private int recover(List<Macro> macros) {
+        int pos = HEADER_SIZE;
+        while (pos + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            int checksum = buffer.getInt(pos + 4);
+            if (length <= 0 || pos + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(pos + RECORD_HEADER_SIZE);
+            payload.limit(pos + RECORD_HEADER_SIZE + length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int)crc.getValue() != checksum) {
+                break;
+            }
+            
+            Macro macro = decode(payload);
+            if (macro == null) {
+                break;
+            }
+            macros.add(macro);
+            pos = pos + RECORD_HEADER_SIZE + length;
+        }
+        return pos;
+    }
+    
+    /**
+     * Decodes the payload of a record.
+     * @param payload the payload
+     * @return the decoded macro, or <code>null</code> if the payload is malformed
+     */
+    private static Macro decode(ByteBuffer payload) {
+        try {
+            byte kind = payload.get();
+            long seconds = payload.getLong();
+            int nanos = payload.getInt();
+            int start = payload.getInt();
+            String action = getString(payload);
+            String path = getString(payload);
+            String branch = getString(payload);
+            String projectName = getString(payload);
+            String packageName = getString(payload);
+            String fileName = getString(payload);
+            String itext = getString(payload);
+            String dtext = getString(payload);
+            
+            ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(seconds, nanos), ZoneId.systemDefault());
+            MacroPath mpath = new MacroPath(path, branch, projectName, packageName, fileName);
+            if (kind == CANCEL) {
+                return new CancelMacro(time, action, mpath, start, itext, dtext);
+            } else if (kind == DOCUMENT) {
+                return new DocumentMacro(time, action, mpath, start, itext, dtext);
+            }
+        } catch (RuntimeException e) {
+            /* empty */
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the number of UTF-16 code units of a string.
+     * @param str the string, which may be <code>null</code>
+     * @return the number of the code units
+     */
+    private static int getLength(String str) {
+        return str != null ? str.length() : 0;
+    }
+    
+    /**
+     * Writes a string as UTF-16 code units, which keeps unpaired surrogates of a split edit.
+     * @param str the string, which may be <code>null</code>
+     */
+    private void putString(String str) {
+        int length = getLength(str);
+        buffer.putInt(length);
+        if (length > 0) {
+            buffer.asCharBuffer().put(str);
+            buffer.position(buffer.position() + length * 2);
+        }
+    }
+    
+    /**
+     * Reads a string stored as UTF-16 code units.
+     * @param payload the buffer that stores the string
+     * @return the decoded string
+     */
+    private static String getString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0 || length > payload.remaining() / 2) {
+            throw new IllegalArgumentException("Malformed string length: " + length);
+        }
+        char[] chars = new char[length];
+        payload.asCharBuffer().get(chars);
+        payload.position(payload.position() + length * 2);
+        return new String(chars);
+    }
+}
@@ -6,10 +6,12 @@
 
 package org.jtool.macrorecorder.internal.recorder;
 
+import org.jtool.macrorecorder.macro.Macro;
 import org.jtool.macrorecorder.macro.DocumentMacro;
 import org.jtool.macrorecorder.recorder.DocMacroCombinator;
 import org.jtool.macrorecorder.recorder.IDocMacroCombinator;
 import org.jtool.macrorecorder.recorder.IMacroListener;
+import java.util.Set;
 
 /**
  * A notifier that sends change macros to each listener.
@@ -32,6 +34,16 @@ public class Notifier {
      */
     private DocumentMacro lastDocumentMacro = null;
     
+    /**
+     * The types of macros sent to the listener, or <code>null</code> if macros of all types are sent.
+     */
+    private Set<Class<? extends Macro>> macroTypes = null;
+    
+    /**
+     * A flag that indicates if raw macros are sent to the listener.
+     */
+    private boolean rawMacroAccepted = true;
+    
     /**
      * Creates an agent that records macros for each listener.
      * @param listener a listener that receives macro events
@@ -81,4 +93,40 @@ public class Notifier {
     DocumentMacro getLastDocumentMacro() {
         return lastDocumentMacro;
     }
+    
+    /**
+     * Restricts macros sent to the listener.
+     * @param types the types of macros sent to the listener, or <code>null</code> if macros of all types are sent
+     * @param rawMacros <code>true</code> if raw macros are sent to the listener, otherwise <code>false</code>
+     */
+    public void setMacroTypes(Set<Class<? extends Macro>> types, boolean rawMacros) {
+        macroTypes = types;
+        rawMacroAccepted = rawMacros;
+    }
+    
+    /**
+     * Tests if a macro is sent to the listener.
+     * @param macro the macro
+     * @return <code>true</code> if the macro is sent, otherwise <code>false</code>
+     */
+    boolean accepts(Macro macro) {
+        if (macroTypes == null) {
+            return true;
+        }
+        for (Class<? extends Macro> type : macroTypes) {
+            if (type.isInstance(macro)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Tests if a raw macro is sent to the listener.
+     * @param macro the raw macro
+     * @return <code>true</code> if the raw macro is sent, otherwise <code>false</code>
+     */
+    boolean acceptsRawMacro(Macro macro) {
+        return rawMacroAccepted && accepts(macro);
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.internal.recorder;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Loads the contents of files concurrently on a pool of worker threads.
+ * A burst of file changes (e.g., by a refactoring or a checkout) is loaded file by file in parallel,
+ * and the caller records the macros of the files in its own order after all the contents have been loaded.
+ * @author Katsuhisa Maruyama
+ */
+class ParallelLoader {
+    
+    /**
+     * The pool of worker threads, which is created when a burst is loaded for the first time.
+     */
+    private static ExecutorService pool = null;
+    
+    /**
+     * Loads the contents of files.
+     * The load of a single file is performed in the current thread.
+     * This method returns after all the contents have been loaded even if the current thread is interrupted.
+     * @param <T> the type of the holders of the contents
+     * @param files the collection of the holders of the contents of the files
+     * @param loader the task that loads the contents of a file into its holder
+     */
+    static <T> void loadAll(List<T> files, Consumer<T> loader) {
+        if (files.size() <= 1) {
+            for (T file : files) {
+                loader.accept(file);
+            }
+            return;
+        }
+        
+        List<Future<?>> futures = new ArrayList<Future<?>>(files.size());
+        ExecutorService executor = getPool();
+        for (T file : files) {
+            futures.add(executor.submit(() -> loader.accept(file)));
+        }
+        
+        boolean interrupted = false;
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            rethrow(e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Throws an exception that occurred in a worker thread again in the current thread.
+     * @param cause the exception
+     */
+    private static void rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+        } else if (cause instanceof Error) {
+            throw (Error)cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+    
+    /**
+     * Returns the pool of worker threads.
+     * @return the pool
+     */
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            int size = Math.max(2, Runtime.getRuntime().availableProcessors());
+            pool = Executors.newFixedThreadPool(size, runnable -> {
+                Thread thread = new Thread(runnable, "MacroRecorder-Loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return pool;
+    }
+}
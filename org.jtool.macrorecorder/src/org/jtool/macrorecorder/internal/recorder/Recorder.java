@@ -9,25 +9,41 @@ package org.jtool.macrorecorder.internal.recorder;
 import org.jtool.macrorecorder.recorder.MacroRecorder;
 import org.jtool.macrorecorder.recorder.IDocMacroCombinator;
 import org.jtool.macrorecorder.recorder.MacroConsole;
+import org.jtool.macrorecorder.recorder.IMacroSink;
+import org.jtool.macrorecorder.recorder.IMacroStage;
+import org.jtool.macrorecorder.recorder.MacroStages;
 import org.jtool.macrorecorder.macro.CompoundMacro;
 import org.jtool.macrorecorder.macro.DocumentMacro;
 import org.jtool.macrorecorder.macro.CancelMacro;
 import org.jtool.macrorecorder.macro.TriggerMacro;
 import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.store.MacroLogWriter;
+import org.jtool.macrorecorder.Activator;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.progress.UIJob;
+import java.io.File;
+import java.io.IOException;
+import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 
 /**
  * Records all kinds of macros that were performed on Eclipse.
+ * Macros arrive on the UI thread, on threads that end workspace operations, and on threads that edit file buffers,
+ * so the methods that record macros or hold events are synchronized on this recorder.
+ * Macros are put into an outbox in the order of their recording while the lock is held,
+ * and they are sent to the macro stages and the listeners after the lock is released
+ * so that a listener waiting for another thread does not block the recording.
  * @author Katsuhisa Maruyama
  */
 public class Recorder {
@@ -67,6 +83,87 @@ public class Recorder {
      */
     private Macro lastMacro = null;
     
+    /**
+     * The name of the journal file in the state location of this plug-in.
+     */
+    private static final String JOURNAL_FILENAME = "macro.journal";
+    
+    /**
+     * The journal that stores raw document macros before they are delivered.
+     */
+    private MacroJournal journal = null;
+    
+    /**
+     * The collection of macros recovered from the journal, which have not been replayed yet.
+     */
+    private List<Macro> recoveredMacros = new ArrayList<Macro>();
+    
+    /**
+     * The number of journal records covered by the flush of the macro handlers in progress, or <code>-1</code> if none.
+     */
+    private long flushMark = -1;
+    
+    /**
+     * The number of journal records after which the journaled macros are acknowledged without waiting for the interval.
+     */
+    private static final int ACK_BATCH_SIZE = 256;
+    
+    /**
+     * The interval time (in milliseconds) at which the journaled macros are acknowledged,
+     * which follows the interval at which macro log writers commit pending macros.
+     */
+    private static final long ACK_INTERVAL = MacroLogWriter.DEFAULT_FLUSH_INTERVAL;
+    
+    /**
+     * The number of journal records that were acknowledged last.
+     */
+    private long acknowledgedMark = 0;
+    
+    /**
+     * The time when the macro handlers were asked to flush last.
+     */
+    private long lastFlushTime = 0;
+    
+    /**
+     * The job that acknowledges the journaled macros when the interval elapses.
+     */
+    private Job acknowledgeJob = null;
+    
+    /**
+     * The sequence number given to the next event.
+     */
+    private long nextSequenceNumber = 0;
+    
+    /**
+     * The events that wait for diff jobs scheduled before them on the same files, which are sorted by their sequence numbers.
+     */
+    private Deque<SequencedEvent> pendingEvents = new ArrayDeque<SequencedEvent>();
+    
+    /**
+     * A flag that indicates whether pending events are being processed.
+     */
+    private boolean draining = false;
+    
+    /**
+     * The actions that send recorded macros to the notifiers, which are run in order outside the lock.
+     */
+    private Deque<Runnable> outbox = new ArrayDeque<Runnable>();
+    
+    /**
+     * A flag that indicates whether a thread is running the actions in the outbox.
+     */
+    private boolean delivering = false;
+    
+    /**
+     * The chain of macro stages that processes macros before they are sent to the notifiers.
+     */
+    private volatile IMacroSink macroChain = this::dispatchMacro;
+    
+    /**
+     * The chain of macro stages that processes raw macros before they are sent to the notifiers.
+     */
+    private volatile IMacroSink rawMacroChain = this::dispatchRawMacro;
+    
     /**
      * Creates an object that records macros.
      * @param recorder the facade of a macro recorder
@@ -76,6 +173,16 @@ public class Recorder {
         globalRecorder = new GlobalMacroRecorder(this);
     }
     
+    /**
+     * Sets macro stages that process macros and raw macros before they are sent to the notifiers.
+     * The stages are linked into chains, which replace the current ones.
+     * @param stages the stages in the order in which a macro flows
+     */
+    public void setMacroStages(List<IMacroStage> stages) {
+        macroChain = MacroStages.link(stages, this::dispatchMacro);
+        rawMacroChain = MacroStages.link(stages, this::dispatchRawMacro);
+    }
+    
     /**
      * Returns the recorder that records global macros.
      * @return the global macro recorder
@@ -86,10 +193,10 @@ public class Recorder {
     
     /**
      * Returns all the recorders that record document macros.
-     * @return the collection of the recorders
+     * @return the copied collection of the recorders
      */
-    Collection<DocMacroRecorder> getDocMacroRecorders() {
-        return docRecorders.values();
+    synchronized Collection<DocMacroRecorder> getDocMacroRecorders() {
+        return new ArrayList<DocMacroRecorder>(docRecorders.values());
     }
     
     /**
@@ -97,7 +204,7 @@ public class Recorder {
      * @param path the path of the file
      * @return the recorder, or <code>null</code> if none
      */
-    DocMacroRecorder getDocMacroRecorder(String path) {
+    synchronized DocMacroRecorder getDocMacroRecorder(String path) {
         if (path != null) {
             return docRecorders.get(path);
         }
@@ -108,7 +215,7 @@ public class Recorder {
      * Removes a recorder that records document macros related to a file.
      * @param path the path of the file
      */
-    void removeDocMacroRecorder(String path) {
+    synchronized void removeDocMacroRecorder(String path) {
         docRecorders.remove(path);
     }
     
@@ -130,15 +237,19 @@ public class Recorder {
         };
         job.schedule();
         
-        compoundMacro = null;
-        rawMacros.clear();
+        synchronized (this) {
+            compoundMacro = null;
+            rawMacros.clear();
+            
+            openJournal();
+        }
     }
     
     /**
      * Stops the recording of menu and document macros.
      */
     public void stop() {
-        if (globalRecorder == null && docRecorders.values().size() == 0) {
+        if (globalRecorder == null && getDocMacroRecorders().size() == 0) {
             return;
         }
         
@@ -149,15 +260,13 @@ public class Recorder {
              */
             @Override
             public IStatus runInUIThread(IProgressMonitor monitor) {
-                List<DocMacroRecorder> recorders = new ArrayList<DocMacroRecorder>(docRecorders.size());
                 for (DocMacroRecorder docRrecorder : getDocMacroRecorders()) {
-                    recorders.add(docRrecorder);
-                }
-                for (DocMacroRecorder docRrecorder : recorders) {
                     docRrecorder.stop();
                 }
-                recorders.clear();
-                docRecorders.clear();
+                finishDiffJobs();
+                synchronized (Recorder.this) {
+                    docRecorders.clear();
+                }
                 
                 globalRecorder.stop();
                 return Status.OK_STATUS;
@@ -165,7 +274,152 @@ public class Recorder {
         };
         job.schedule();
         
-        rawMacros.clear();
+        synchronized (this) {
+            rawMacros.clear();
+            
+            if (journal != null) {
+                if (journal.getRecordCount() > 0) {
+                    MacroConsole.println("Journaled " + journal.getRecordCount() + " macros in " +
+                            journal.getAverageTime() + " ns per macro on average");
+                }
+                journal.close(recoveredMacros.isEmpty());
+                journal = null;
+            }
+            recoveredMacros.clear();
+            flushMark = -1;
+            acknowledgedMark = 0;
+            if (acknowledgeJob != null) {
+                acknowledgeJob.cancel();
+            }
+        }
+    }
+    
+    /**
+     * Opens the journal and recovers macros that were not delivered before the previous session ended abnormally.
+     */
+    private void openJournal() {
+        if (journal != null || Activator.getPlugin() == null) {
+            return;
+        }
+        
+        File file = Activator.getPlugin().getStateLocation().append(JOURNAL_FILENAME).toFile();
+        MacroJournal newJournal = new MacroJournal(file);
+        try {
+            recoveredMacros.addAll(newJournal.open());
+            journal = newJournal;
+        } catch (IOException e) {
+            MacroConsole.println("Cannot open the journal: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Sends macros recovered from the journal to all the listeners before live macros are recorded.
+     */
+    public void replayRecoveredMacros() {
+        synchronized (this) {
+            if (recoveredMacros.size() == 0) {
+                return;
+            }
+            
+            MacroConsole.println("Recovered " + recoveredMacros.size() + " macros from the journal");
+            for (Macro macro : recoveredMacros) {
+                notifyRawMacro(macro);
+                notifyMacro(macro);
+            }
+            recoveredMacros.clear();
+            dumpLastDocumentMacro();
+        }
+        deliver();
+    }
+    
+    /**
+     * Acknowledges the journaled macros if no macro is pending in this recorder, the document recorders, or the notifiers.
+     * The journal is truncated after all the macro handlers write out the macros they received.
+     * The handlers are asked to flush in batches, when enough macros are journaled or the interval elapses.
+     */
+    private void acknowledgeJournal() {
+        if (journal == null || flushMark >= 0 || !journal.hasRecords()) {
+            return;
+        }
+        if (compoundMacro != null || !pendingEvents.isEmpty() || !recoveredMacros.isEmpty()) {
+            return;
+        }
+        if (delivering || !outbox.isEmpty()) {
+            return;
+        }
+        
+        for (DocMacroRecorder docRecorder : docRecorders.values()) {
+            if (docRecorder.getCompoundMacro() != null) {
+                return;
+            }
+        }
+        for (Notifier notifier : macroRecorder.getNotifiers()) {
+            if (notifier.getLastDocumentMacro() != null) {
+                return;
+            }
+        }
+        
+        MacroJournal target = journal;
+        long mark = target.getRecordCount();
+        long elapsed = System.currentTimeMillis() - lastFlushTime;
+        if (mark - acknowledgedMark < ACK_BATCH_SIZE && elapsed < ACK_INTERVAL) {
+            scheduleAcknowledgment(ACK_INTERVAL - elapsed);
+            return;
+        }
+        
+        flushMark = mark;
+        lastFlushTime = System.currentTimeMillis();
+        macroRecorder.flushHandlers(flushed -> handlersFlushed(target, mark, flushed));
+    }
+    
+    /**
+     * Acknowledges the journaled macros after all the macro handlers wrote out the macros they received.
+     * The journal is left as it is if any handler has not been flushed, and the acknowledgment is tried again later.
+     * @param target the journal that stores the macros
+     * @param mark the number of the journal records when the handlers were asked to flush
+     * @param flushed <code>true</code> if all the handlers have been flushed, otherwise <code>false</code>
+     */
+    private synchronized void handlersFlushed(MacroJournal target, long mark, boolean flushed) {
+        if (target != journal) {
+            return;
+        }
+        
+        flushMark = -1;
+        if (flushed) {
+            target.acknowledge(mark);
+            acknowledgedMark = mark;
+        }
+        if (target.hasRecords()) {
+            scheduleAcknowledgment(ACK_INTERVAL);
+        }
+    }
+    
+    /**
+     * Schedules the acknowledgment of the journaled macros.
+     * @param delay the delay time in milliseconds
+     */
+    private void scheduleAcknowledgment(long delay) {
+        if (acknowledgeJob == null) {
+            acknowledgeJob = new Job("Acknowledge") {
+                
+                /**
+                 * Acknowledges the journaled macros if no macro is pending.
+                 * @param monitor the progress monitor to use to display progress
+                 */
+                @Override
+                protected IStatus run(IProgressMonitor monitor) {
+                    synchronized (Recorder.this) {
+                        acknowledgeJournal();
+                    }
+                    return Status.OK_STATUS;
+                }
+            };
+            acknowledgeJob.setSystem(true);
+        }
+        int state = acknowledgeJob.getState();
+        if (state != Job.WAITING && state != Job.SLEEPING) {
+            acknowledgeJob.schedule(delay);
+        }
     }
     
     /**
@@ -173,7 +427,7 @@ public class Recorder {
      * @param editor the editor
      * @return the document recorder
      */
-    DocMacroRecorder on(IEditorPart editor) {
+    synchronized DocMacroRecorder on(IEditorPart editor) {
         String path = EditorUtilities.getInputFilePath(editor);
         DocMacroRecorder docRecorder = getDocMacroRecorder(path);
         
@@ -208,7 +462,7 @@ public class Recorder {
      * @param file a file resource
      * @return the document recorder
      */
-    DocMacroRecorder off(IFile file) {
+    synchronized DocMacroRecorder off(IFile file) {
         String path = EditorUtilities.getInputFilePath(file);
         DocMacroRecorder docRecorder = getDocMacroRecorder(path);
         
@@ -228,49 +482,179 @@ public class Recorder {
         return docRecorder;
     }
     
+    /**
+     * Schedules a job that generates diff macros.
+     * Events on the same file that are recorded after this call are held until the job hands its macros over.
+     * @param job the diff job
+     */
+    synchronized void scheduleDiff(DiffJob job) {
+        long seq = nextSequenceNumber++;
+        pendingEvents.add(new SequencedEvent(seq, job, getPathString(job.getPath())));
+        
+        ZonedDateTime time = ZonedDateTime.now();
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) { /* empty */ }
+        job.schedule(seq, time);
+    }
+    
+    /**
+     * Receives diff macros generated by a job and sends them with the events held after the job.
+     * @param seq the sequence number reserved for the job
+     * @param macros the collection of the generated macros
+     */
+    void completeDiff(long seq, List<DocumentMacro> macros) {
+        synchronized (this) {
+            for (SequencedEvent event : pendingEvents) {
+                if (event.seq == seq && event.job != null) {
+                    event.job = null;
+                    event.action = () -> recordDiffMacros(macros);
+                    break;
+                }
+            }
+            drain();
+        }
+        deliver();
+    }
+    
+    /**
+     * Cancels all the diff jobs in progress and sends the held events immediately.
+     * Each cancelled job is replaced with a single macro replacing the changed region.
+     */
+    void finishDiffJobs() {
+        synchronized (this) {
+            for (SequencedEvent event : pendingEvents) {
+                if (event.job != null) {
+                    DiffJob job = event.job;
+                    job.cancel();
+                    event.job = null;
+                    List<DocumentMacro> macros = job.generate(0);
+                    event.action = () -> recordDiffMacros(macros);
+                }
+            }
+            drain();
+        }
+        deliver();
+    }
+    
+    /**
+     * Records diff macros.
+     * @param macros the collection of the diff macros
+     */
+    private void recordDiffMacros(List<DocumentMacro> macros) {
+        for (DocumentMacro macro : macros) {
+            recordRawMacro(macro);
+            recordMacro(macro);
+        }
+    }
+    
+    /**
+     * Holds an event if any event on the same file is held or waits for its diff job.
+     * @param path the path of the file on which the event was performed, or <code>null</code> if the event must follow all the held events
+     * @param action the action that processes the event
+     * @return <code>true</code> if the event is held, otherwise <code>false</code>
+     */
+    private boolean defer(String path, Runnable action) {
+        if (draining || pendingEvents.isEmpty()) {
+            return false;
+        }
+        SequencedEvent event = new SequencedEvent(nextSequenceNumber++, null, path);
+        if (!event.followsAny(pendingEvents)) {
+            return false;
+        }
+        event.action = action;
+        pendingEvents.add(event);
+        return true;
+    }
+    
+    /**
+     * Processes the held events in the order of their sequence numbers.
+     * An event is processed when its diff job has finished and no earlier event on the same file remains held.
+     */
+    private void drain() {
+        if (draining) {
+            return;
+        }
+        
+        draining = true;
+        try {
+            SequencedEvent event = nextReadyEvent();
+            while (event != null) {
+                pendingEvents.remove(event);
+                event.action.run();
+                event = nextReadyEvent();
+            }
+        } finally {
+            draining = false;
+        }
+    }
+    
+    /**
+     * Finds the first held event that can be processed.
+     * @return the event that is ready, or <code>null</code> if every held event waits
+     */
+    private SequencedEvent nextReadyEvent() {
+        List<SequencedEvent> waiting = new ArrayList<SequencedEvent>();
+        for (SequencedEvent event : pendingEvents) {
+            if (event.action != null && !event.followsAny(waiting)) {
+                return event;
+            }
+            waiting.add(event);
+        }
+        return null;
+    }
+    
     /**
      * Records a macro.
      * @param macro the macro to be recorded
      */
     void recordMacro(Macro macro) {
-        if (macro instanceof TriggerMacro) {
+        synchronized (this) {
+            String path = macro instanceof TriggerMacro || compoundMacro != null ? null : getPathString(macro.getPath());
+            if (defer(path, () -> recordMacro(macro))) {
+                return;
+            }
             
-            TriggerMacro tmacro = (TriggerMacro)macro;
-            if (compoundMacro == null && tmacro.isBegin()) {
-                compoundMacro = new CompoundMacro(tmacro.getTime(), tmacro.getAction(), tmacro.getMacroPath(), tmacro.getCommandMacro());
-                
-            } else if (tmacro.isEnd()) {
+            if (macro instanceof TriggerMacro) {
                 
-                if (compoundMacro != null) {
-                    compoundMacro.setRawMacros(new ArrayList<Macro>(rawMacros));
-                    rawMacros.clear();
+                TriggerMacro tmacro = (TriggerMacro)macro;
+                if (compoundMacro == null && tmacro.isBegin()) {
+                    compoundMacro = new CompoundMacro(tmacro.getTime(), tmacro.getAction(), tmacro.getMacroPath(), tmacro.getCommandMacro());
                     
-                    if (compoundMacro.getMacros().size() != 0) {
-                        compoundMacro.sort();
-                        notifyMacro(compoundMacro);
+                } else if (tmacro.isEnd()) {
+                    
+                    if (compoundMacro != null) {
+                        compoundMacro.setRawMacros(new ArrayList<Macro>(rawMacros));
+                        rawMacros.clear();
+                        
+                        if (compoundMacro.getMacros().size() != 0) {
+                            compoundMacro.sort();
+                            notifyMacro(compoundMacro);
+                        }
+                    }
+                    compoundMacro = null;
+                    
+                } else if (tmacro.isCancel()) {
+                    if (compoundMacro != null) {
+                        for (Macro m : compoundMacro.getMacros()) {
+                            notifyMacro(m);
+                        }
                     }
+                    compoundMacro = null;
                 }
-                compoundMacro = null;
                 
-            } else if (tmacro.isCancel()) {
+            } else {
                 if (compoundMacro != null) {
-                    for (Macro m : compoundMacro.getMacros()) {
-                        notifyMacro(m);
-                    }
+                    compoundMacro.addMacro(macro);
+                } else {
+                    macro.setRawMacros(new ArrayList<Macro>(rawMacros));
+                    rawMacros.clear();
+                    
+                    notifyMacro(macro);
                 }
-                compoundMacro = null;
-            }
-            
-        } else {
-            if (compoundMacro != null) {
-                compoundMacro.addMacro(macro);
-            } else {
-                macro.setRawMacros(new ArrayList<Macro>(rawMacros));
-                rawMacros.clear();
-                
-                notifyMacro(macro);
             }
         }
+        deliver();
     }
     
     /**
@@ -278,22 +662,43 @@ public class Recorder {
      * @param macro the compound macro to be recorded
      */
     void recordCompoundMacro(CompoundMacro cmacro) {
-        List<Macro> macros = cmacro.getMacros();
-        for (int idx = 0; idx < macros.size(); idx++) {
-            Macro macro = macros.get(idx);
+        synchronized (this) {
+            if (defer(null, () -> recordCompoundMacro(cmacro))) {
+                return;
+            }
             
-            if (compoundMacro != null) {
-                compoundMacro.addMacro(macro);
-            } else {
-                notifyMacro(macro);
+            List<Macro> macros = cmacro.getMacros();
+            for (int idx = 0; idx < macros.size(); idx++) {
+                Macro macro = macros.get(idx);
+                
+                if (compoundMacro != null) {
+                    compoundMacro.addMacro(macro);
+                } else {
+                    notifyMacro(macro);
+                }
             }
         }
+        deliver();
     }
     
     /**
      * Dumps the last macro.
      */
     void dumpLastDocumentMacro() {
+        synchronized (this) {
+            if (defer(null, () -> dumpLastDocumentMacro())) {
+                return;
+            }
+            
+            outbox.add(this::dispatchLastDocumentMacros);
+        }
+        deliver();
+    }
+    
+    /**
+     * Sends the last document macros that the notifiers hold for combination to their listeners.
+     */
+    private void dispatchLastDocumentMacros() {
         for (Notifier notifier : macroRecorder.getNotifiers()) {
             DocumentMacro lastDocumentMacro = notifier.getLastDocumentMacro();
             if (lastDocumentMacro != null) {
@@ -304,29 +709,81 @@ public class Recorder {
     }
     
     /**
-     * Sends a macro event to all the listeners.
+     * Puts a macro into the outbox to send it to all the listeners.
      * @param macro the macro sent to the listeners
      */
     private void notifyMacro(Macro macro) {
         if (macro != null && lastMacro != null) {
             if (getPathString(macro.getPath()).equals(getPathString(lastMacro.getPath())) &&
                     getPathString(macro.getBranch()).equals(getPathString(lastMacro.getBranch())) &&
-                    !macro.getTime().isAfter(lastMacro.getTime())) {
+                    macro.compareTime(lastMacro) <= 0) {
                 MacroConsole.println("The order of macros is abnormal: " + macro.toString() + " " + lastMacro.toString());
                 return;
             }
         }
         
+        outbox.add(() -> macroChain.accept(macro));
+        lastMacro = macro;
+    }
+    
+    /**
+     * Runs the actions in the outbox in order without holding the lock of this recorder.
+     * Only one thread runs them at a time, and the actions put by other threads meanwhile are run by that thread.
+     * Nothing is done if the calling thread holds the lock, since it runs the actions after releasing the lock.
+     */
+    private void deliver() {
+        if (Thread.holdsLock(this)) {
+            return;
+        }
+        synchronized (this) {
+            if (delivering) {
+                return;
+            }
+            delivering = true;
+        }
+        
+        boolean completed = false;
+        try {
+            while (true) {
+                Runnable action;
+                synchronized (this) {
+                    action = outbox.pollFirst();
+                    if (action == null) {
+                        delivering = false;
+                        completed = true;
+                        acknowledgeJournal();
+                        return;
+                    }
+                }
+                action.run();
+            }
+        } finally {
+            if (!completed) {
+                synchronized (this) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Sends a macro that passed through the macro stages to all the listeners.
+     * @param macro the macro sent to the listeners
+     */
+    private void dispatchMacro(Macro macro) {
         if (macro instanceof DocumentMacro) {
             for (Notifier notifier : macroRecorder.getNotifiers()) {
-                notifyDocMacro(notifier, (DocumentMacro)macro);
+                if (notifier.accepts(macro)) {
+                    notifyDocMacro(notifier, (DocumentMacro)macro);
+                }
             }
         } else {
             for (Notifier notifier : macroRecorder.getNotifiers()) {
-                macroRecorder.notifyMacro(notifier.getMacroListener(), macro);
+                if (notifier.accepts(macro)) {
+                    macroRecorder.notifyMacro(notifier.getMacroListener(), macro);
+                }
             }
         }
-        lastMacro = macro;
     }
     
     /**
@@ -379,6 +836,23 @@ public class Recorder {
      * @param macro the raw macro to be recorded
      */
     void recordRawMacro(Macro macro) {
+        synchronized (this) {
+            if (journal != null) {
+                journal.append(macro);
+            }
+            if (defer(getPathString(macro.getPath()), () -> recordDeferredRawMacro(macro))) {
+                return;
+            }
+            recordDeferredRawMacro(macro);
+        }
+        deliver();
+    }
+    
+    /**
+     * Records a raw macro that has been journaled.
+     * @param macro the raw macro to be recorded
+     */
+    private void recordDeferredRawMacro(Macro macro) {
         lastRawMacro = macro;
         rawMacros.add(macro);
         
@@ -389,17 +863,79 @@ public class Recorder {
      * Returns the last raw macro.
      * @return the last raw macro
      */
-    Macro getLastRawMacro() {
+    synchronized Macro getLastRawMacro() {
         return lastRawMacro;
     }
     
     /**
-     * Sends a raw macro event to all the listeners.
+     * Puts a raw macro into the outbox to send it to all the listeners.
      * @param macro the raw macro sent to the listeners
      */
     private void notifyRawMacro(Macro macro) {
+        outbox.add(() -> rawMacroChain.accept(macro));
+    }
+    
+    /**
+     * Sends a raw macro that passed through the macro stages to all the listeners.
+     * @param macro the raw macro sent to the listeners
+     */
+    private void dispatchRawMacro(Macro macro) {
         for (Notifier notifier : macroRecorder.getNotifiers()) {
-            macroRecorder.notifyRawMacro(notifier.getMacroListener(), macro);
+            if (notifier.acceptsRawMacro(macro)) {
+                macroRecorder.notifyRawMacro(notifier.getMacroListener(), macro);
+            }
+        }
+    }
+    
+    /**
+     * An event that is given a sequence number.
+     */
+    private static class SequencedEvent {
+        
+        /**
+         * The sequence number of this event.
+         */
+        private long seq;
+        
+        /**
+         * The diff job that generates the macros of this event, or <code>null</code> if the macros are ready.
+         */
+        private DiffJob job;
+        
+        /**
+         * The action that processes this event, or <code>null</code> if it is not ready.
+         */
+        private Runnable action = null;
+        
+        /**
+         * The path of the file on which this event was performed, or <code>null</code> if this event is ordered with all events.
+         */
+        private String path;
+        
+        /**
+         * Creates an event.
+         * @param seq the sequence number
+         * @param job the diff job that generates the macros of the event, or <code>null</code> if none
+         * @param path the path of the file on which the event was performed, or <code>null</code> if the event is ordered with all events
+         */
+        SequencedEvent(long seq, DiffJob job, String path) {
+            this.seq = seq;
+            this.job = job;
+            this.path = path;
+        }
+        
+        /**
+         * Tests if this event must be processed after any of the given events.
+         * @param events the events preceding this event
+         * @return <code>true</code> if any of the events is on the same file or is ordered with all events, otherwise <code>false</code>
+         */
+        boolean followsAny(Collection<SequencedEvent> events) {
+            for (SequencedEvent event : events) {
+                if (path == null || event.path == null || path.equals(event.path)) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 }
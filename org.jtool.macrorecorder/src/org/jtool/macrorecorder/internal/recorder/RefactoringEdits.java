@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.internal.recorder;
+
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.ltk.core.refactoring.TextEditChangeGroup;
+import org.eclipse.ltk.core.refactoring.TextFileChange;
+import org.eclipse.text.edits.DeleteEdit;
+import org.eclipse.text.edits.InsertEdit;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.RangeMarker;
+import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.text.edits.TextEdit;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Stores document macros derived from the text edits that a refactoring performs on a file.
+ * The macros replace the differences that would otherwise be generated between the contents of the file
+ * before and after the refactoring.
+ * @author Katsuhisa Maruyama
+ */
+class RefactoringEdits {
+    
+    /**
+     * The contents of the file before the refactoring.
+     */
+    private String preCode;
+    
+    /**
+     * The contents of the file after the refactoring.
+     */
+    private String postCode;
+    
+    /**
+     * The document macros in the order of their application.
+     */
+    private List<DocumentMacro> macros;
+    
+    /**
+     * Creates an object that stores document macros of a refactoring.
+     * @param preCode the contents of the file before the refactoring
+     * @param postCode the contents of the file after the refactoring
+     * @param macros the document macros in the order of their application
+     */
+    private RefactoringEdits(String preCode, String postCode, List<DocumentMacro> macros) {
+        this.preCode = preCode;
+        this.postCode = postCode;
+        this.macros = macros;
+    }
+    
+    /**
+     * Returns the contents of the file before the refactoring.
+     * @return the contents of the file
+     */
+    String getPreCode() {
+        return preCode;
+    }
+    
+    /**
+     * Returns the contents of the file after the refactoring.
+     * @return the contents of the file
+     */
+    String getPostCode() {
+        return postCode;
+    }
+    
+    /**
+     * Returns the document macros of the refactoring.
+     * @return the document macros in the order of their application
+     */
+    List<DocumentMacro> getMacros() {
+        return macros;
+    }
+    
+    /**
+     * Derives document macros from the text edits of a change on a file, which is about to be performed.
+     * @param change the change on the file
+     * @param mpath the path of the file
+     * @return the derived macros, or <code>null</code> if the change contains text edits that cannot be converted
+     */
+    static RefactoringEdits create(TextFileChange change, MacroPath mpath) {
+        TextEdit root = change.getEdit();
+        if (root == null || !change.isEnabled()) {
+            return null;
+        }
+        for (TextEditChangeGroup group : change.getTextEditChangeGroups()) {
+            if (!group.isEnabled()) {
+                return null;
+            }
+        }
+        
+        List<TextEdit> edits = new ArrayList<TextEdit>();
+        if (!collectLeafEdits(root, edits)) {
+            return null;
+        }
+        
+        String code;
+        try {
+            code = change.getCurrentContent(null);
+        } catch (CoreException e) {
+            return null;
+        }
+        
+        List<DocumentMacro> macros = new ArrayList<DocumentMacro>(edits.size());
+        StringBuilder postCode = new StringBuilder(code.length());
+        int last = 0;
+        for (TextEdit edit : edits) {
+            int offset = edit.getOffset();
+            int end = edit.getExclusiveEnd();
+            if (offset < last || end > code.length()) {
+                return null;
+            }
+            
+            postCode.append(code, last, offset);
+            String itext = getInsertedText(edit);
+            String dtext = code.substring(offset, end);
+            if (itext.length() > 0 || dtext.length() > 0) {
+                macros.add(new DocumentMacro(DocumentMacro.Action.AUTO_DIFF, mpath, postCode.length(), itext, dtext));
+            }
+            postCode.append(itext);
+            last = end;
+        }
+        postCode.append(code, last, code.length());
+        return new RefactoringEdits(code, postCode.toString(), macros);
+    }
+    
+    /**
+     * Collects the text edits that change text in the order of their offsets.
+     * @param edit the text edit to be examined
+     * @param edits the collection that stores the collected text edits
+     * @return <code>true</code> if all the text edits can be converted into document macros, otherwise <code>false</code>
+     */
+    private static boolean collectLeafEdits(TextEdit edit, List<TextEdit> edits) {
+        if (edit instanceof MultiTextEdit || edit instanceof RangeMarker) {
+            for (TextEdit child : edit.getChildren()) {
+                if (!collectLeafEdits(child, edits)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        if ((edit instanceof ReplaceEdit || edit instanceof InsertEdit || edit instanceof DeleteEdit) &&
+            !edit.hasChildren()) {
+            edits.add(edit);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the text inserted by a text edit.
+     * @param edit the text edit
+     * @return the inserted text, or the empty string if the edit only deletes text
+     */
+    private static String getInsertedText(TextEdit edit) {
+        if (edit instanceof ReplaceEdit) {
+            return ((ReplaceEdit)edit).getText();
+        } else if (edit instanceof InsertEdit) {
+            return ((InsertEdit)edit).getText();
+        }
+        return "";
+    }
+}
@@ -9,6 +9,11 @@ package org.jtool.macrorecorder.internal.recorder;
 import org.jtool.macrorecorder.macro.RefactoringMacro;
 import org.jtool.macrorecorder.macro.TriggerMacro;
 import org.jtool.macrorecorder.macro.MacroPath;
+import org.eclipse.ltk.core.refactoring.Change;
+import org.eclipse.ltk.core.refactoring.CompositeChange;
+import org.eclipse.ltk.core.refactoring.IUndoManager;
+import org.eclipse.ltk.core.refactoring.IUndoManagerListener;
+import org.eclipse.ltk.core.refactoring.TextFileChange;
 import org.eclipse.ltk.core.refactoring.RefactoringDescriptor;
 import org.eclipse.ltk.core.refactoring.RefactoringDescriptorProxy;
 import org.eclipse.ltk.core.refactoring.RefactoringContribution;
@@ -19,19 +24,35 @@ import org.eclipse.ltk.core.refactoring.history.IRefactoringHistoryListener;
 import org.eclipse.ltk.core.refactoring.history.IRefactoringHistoryService;
 import org.eclipse.ltk.core.refactoring.history.RefactoringHistoryEvent;
 import org.eclipse.ui.IEditorPart;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.HashMap;
 
 /**
  * Listens refactoring events.
+ * The text edits of a refactoring on each file are converted into document macros before the refactoring is performed,
+ * which saves the generation of differences between the contents of the file before and after the refactoring.
  * @author Katsuhisa Maruyama
  */
-class RefactoringListener implements IRefactoringExecutionListener, IRefactoringHistoryListener {
+class RefactoringListener implements IRefactoringExecutionListener, IRefactoringHistoryListener, IUndoManagerListener {
     
     /**
      * A recorder that records global macros.
      */
     private GlobalMacroRecorder globalRecorder;
     
+    /**
+     * The document macros collected from the change being performed, or <code>null</code> if no change is being performed.
+     */
+    private List<RefactoringEdits> performingEdits = null;
+    
     /**
      * Creates an object that records refectoring execution events.
      * @param recorder a recorder that records global macros
@@ -48,6 +69,7 @@ class RefactoringListener implements IRefactoringExecutionListener, IRefactoring
         if (rs != null) {
             rs.addExecutionListener(this);
         }
+        RefactoringCore.getUndoManager().addListener(this);
     }
     
     /**
@@ -58,6 +80,8 @@ class RefactoringListener implements IRefactoringExecutionListener, IRefactoring
         if (rs != null) {
             rs.removeExecutionListener(this);
         }
+        RefactoringCore.getUndoManager().removeListener(this);
+        globalRecorder.clearRefactoringEdits();
     }
     
     /**
@@ -114,9 +138,12 @@ class RefactoringListener implements IRefactoringExecutionListener, IRefactoring
     
     /**
      * Updates recorders corresponding to opened files.
+     * The recorders are updated in the order of the paths of the files so that their diff macros are merged in that order.
      */
     private void updateRecorders() {
-        for (IEditorPart editor : EditorUtilities.getEditors()) {
+        List<IEditorPart> editors = EditorUtilities.getEditors();
+        editors.sort(Comparator.comparing(editor -> String.valueOf(EditorUtilities.getInputFilePath(editor))));
+        for (IEditorPart editor : editors) {
             String fpath = EditorUtilities.getInputFilePath(editor);
             DocMacroRecorder recorder = globalRecorder.getDocMacroRecorder(fpath);
             if (recorder != null && recorder.isOff()) {
@@ -152,6 +179,111 @@ class RefactoringListener implements IRefactoringExecutionListener, IRefactoring
         return RefactoringMacro.Action.NONE;
     }
     
+    /**
+     * Receives an event when a change is about to be performed.
+     * The text edits of the change are converted into document macros of the files to be changed.
+     * @param manager the undo manager
+     * @param change the change to be performed
+     */
+    @Override
+    public void aboutToPerformChange(IUndoManager manager, Change change) {
+        globalRecorder.clearRefactoringEdits();
+        
+        Map<String, RefactoringEdits> editsMap = new HashMap<String, RefactoringEdits>();
+        collectRefactoringEdits(change, editsMap);
+        
+        performingEdits = new ArrayList<RefactoringEdits>();
+        for (Map.Entry<String, RefactoringEdits> entry : editsMap.entrySet()) {
+            if (entry.getValue() != null) {
+                globalRecorder.putRefactoringEdits(entry.getKey(), entry.getValue());
+                performingEdits.add(entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Collects document macros from the text edits of a change on files.
+     * Files being edited are excluded since their changes are recorded as document changes.
+     * Files changed by more than one text file change are excluded since each change is derived from the same contents.
+     * @param change the change
+     * @param editsMap the map that stores the document macros for each file, or <code>null</code> for an excluded file
+     */
+    private void collectRefactoringEdits(Change change, Map<String, RefactoringEdits> editsMap) {
+        if (change instanceof CompositeChange) {
+            for (Change child : ((CompositeChange)change).getChildren()) {
+                collectRefactoringEdits(child, editsMap);
+            }
+            
+        } else if (change instanceof TextFileChange) {
+            TextFileChange fchange = (TextFileChange)change;
+            String path = EditorUtilities.getInputFilePath(fchange.getFile());
+            if (path == null) {
+                return;
+            }
+            
+            DocMacroRecorder docRecorder = globalRecorder.getDocMacroRecorder(path);
+            if (docRecorder != null && docRecorder.isOn()) {
+                return;
+            }
+            if (editsMap.containsKey(path)) {
+                editsMap.put(path, null);
+                return;
+            }
+            
+            String branch = globalRecorder.getBranch(path);
+            RefactoringEdits edits = RefactoringEdits.create(fchange, PathInfoFinder.getMacroPath(path, branch));
+            editsMap.put(path, edits);
+        }
+    }
+    
+    /**
+     * Receives an event when a change has been performed.
+     * The document macros of the change that were not taken by the changes of files are discarded
+     * after the resource change events of the change are delivered, whether the change succeeded or failed.
+     * @param manager the undo manager
+     * @param change the performed change
+     */
+    @Override
+    public void changePerformed(IUndoManager manager, Change change) {
+        List<RefactoringEdits> edits = performingEdits;
+        performingEdits = null;
+        if (edits == null || edits.size() == 0) {
+            return;
+        }
+        
+        Job job = new Job("Discard refactoring edits") {
+            
+            /**
+             * Discards the document macros after the workspace operation that performed the change ends.
+             * @param monitor the progress monitor to use to display progress
+             */
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                globalRecorder.discardRefactoringEdits(edits);
+                return Status.OK_STATUS;
+            }
+        };
+        job.setSystem(true);
+        job.setRule(ResourcesPlugin.getWorkspace().getRoot());
+        job.schedule();
+    }
+    
+    /**
+     * Receives an event when the undo stack has changed.
+     * @param manager the undo manager
+     */
+    @Override
+    public void undoStackChanged(IUndoManager manager) {
+    }
+    
+    /**
+     * Receives an event when the redo stack has changed.
+     * @param manager the undo manager
+     */
+    @Override
+    public void redoStackChanged(IUndoManager manager) {
+    }
+    
     /**
      * Receives an event when a refactoring history event happened.
      * @param event the refactoring history event
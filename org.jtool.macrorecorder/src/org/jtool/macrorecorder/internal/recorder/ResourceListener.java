@@ -26,11 +26,16 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.HashMap;
 
 /**
  * Listens resource change events.
+ * The contents of the files changed by an event are loaded in parallel, and the macros of the files are recorded
+ * in the order of their paths after all the contents have been loaded.
  * @author Katsuhisa Maruyama
  */
 class ResourceListener implements IResourceChangeListener {
@@ -76,14 +81,17 @@ class ResourceListener implements IResourceChangeListener {
         removedFiles.clear();
         if (event.getType() == IResourceChangeEvent.POST_CHANGE) {
             try {
-                IResourceDeltaVisitor rvisitor = new ResourceRemovedVisitor();
+                ResourceRemovedVisitor rvisitor = new ResourceRemovedVisitor();
                 event.getDelta().accept(rvisitor);
+                recordFileResourceRemovedMacros(rvisitor.files);
                 
-                IResourceDeltaVisitor avisitor = new ResourceAddedVisitor();
+                ResourceAddedVisitor avisitor = new ResourceAddedVisitor();
                 event.getDelta().accept(avisitor);
+                recordFileResourceAddedMacros(avisitor.files);
                 
-                IResourceDeltaVisitor cvisitor = new ResourceChangedVisitor();
+                ResourceChangedVisitor cvisitor = new ResourceChangedVisitor();
                 event.getDelta().accept(cvisitor);
+                recordFileResourceChangedMacros(cvisitor.files);
             } catch (CoreException e1) {
                 e1.printStackTrace();
             }
@@ -95,6 +103,11 @@ class ResourceListener implements IResourceChangeListener {
      */
     class ResourceAddedVisitor implements IResourceDeltaVisitor {
         
+        /**
+         * The collection of added files, whose macros are recorded after the visit.
+         */
+        List<FileDelta> files = new ArrayList<FileDelta>();
+        
         /**
          * Visits the given resource delta.
          * @param delta the resource delta
@@ -108,7 +121,11 @@ class ResourceListener implements IResourceChangeListener {
             
             if (path != null && target != null) {
                 if (delta.getKind() == IResourceDelta.ADDED) {
-                    recordResourceAddedMacro(delta, path, target);
+                    if (target == ResourceMacro.Target.FILE) {
+                        files.add(new FileDelta(delta, path));
+                    } else {
+                        recordNonFileResourceAddedMacro(delta, path, target);
+                    }
                 }
             }
             return true;
@@ -120,6 +137,11 @@ class ResourceListener implements IResourceChangeListener {
      */
     class ResourceRemovedVisitor implements IResourceDeltaVisitor {
         
+        /**
+         * The collection of removed files, whose macros are recorded after the visit.
+         */
+        List<FileDelta> files = new ArrayList<FileDelta>();
+        
         /**
          * Visits the given resource delta.
          * @param delta the resource delta
@@ -133,8 +155,11 @@ class ResourceListener implements IResourceChangeListener {
             
             if (path != null && target != null) {
                 if (delta.getKind() == IResourceDelta.REMOVED) {
-                    recordResourceRemovedMacro(delta, path, target);
-                    
+                    if (target == ResourceMacro.Target.FILE) {
+                        files.add(new FileDelta(delta, path));
+                    } else {
+                        recordNonFileResourceRemovedMacro(delta, path, target);
+                    }
                 }
             }
             return true;
@@ -146,6 +171,11 @@ class ResourceListener implements IResourceChangeListener {
      */
     class ResourceChangedVisitor implements IResourceDeltaVisitor {
         
+        /**
+         * The collection of changed files, whose macros are recorded after the visit.
+         */
+        List<FileDelta> files = new ArrayList<FileDelta>();
+        
         /**
          * Visits the given resource delta.
          * @param delta the resource delta
@@ -158,29 +188,8 @@ class ResourceListener implements IResourceChangeListener {
             ResourceMacro.Target target = getTarget(resource);
             
             if (path != null && target != null) {
-                if (delta.getKind() == IResourceDelta.CHANGED) {
-                    recordResourceChangedMacro(delta, path, target);
-                    
-                    if (resource.getType() == IResource.FILE) {
-                        if (globalRecorder.getSaveInProgress()) { 
-                            String branch = globalRecorder.getBranch(path);
-                            String code = getCurrentCode(resource);
-                            String charset = getCharset(resource);
-                            
-                            FileMacro macro = new FileMacro(FileMacro.Action.SAVED,
-                                    PathInfoFinder.getMacroPath(path, branch), code, charset);
-                            globalRecorder.recordMacro(macro);
-                            
-                        } else if (globalRecorder.getRefactoringInProgress()) {
-                            String branch = globalRecorder.getBranch(path);
-                            String code = getCurrentCode(resource);
-                            String charset = getCharset(resource);
-                            
-                            FileMacro macro = new FileMacro(FileMacro.Action.REFACTORED,
-                                    PathInfoFinder.getMacroPath(path, branch), code, charset);
-                            globalRecorder.recordMacro(macro);
-                        }
-                    }
+                if (delta.getKind() == IResourceDelta.CHANGED && resource.getType() == IResource.FILE) {
+                    files.add(new FileDelta(delta, path));
                 }
             }
             return true;
@@ -188,32 +197,36 @@ class ResourceListener implements IResourceChangeListener {
     }
     
     /**
-     * Records a macro corresponding to the addition of a resource.
-     * @param delta the resource delta
-     * @param path the path of the the resource
-     * @param target the kind of the target of the resource
+     * Records macros corresponding to the addition of file resources.
+     * The contents of the files are loaded in parallel and the macros are recorded in the order of the paths.
+     * @param files the collection of the added files
      */
-    private void recordResourceAddedMacro(IResourceDelta delta, String path, ResourceMacro.Target target) {
-        if (target == ResourceMacro.Target.FILE) {
-            recordFileResourceAddedMacro(delta, path, target);
-        } else {
-            recordNonFileResourceAddedMacro(delta, path, target);
+    private void recordFileResourceAddedMacros(List<FileDelta> files) {
+        files.sort(Comparator.comparing(file -> file.path));
+        ParallelLoader.loadAll(files, file -> {
+            file.code = getCurrentCode(file.resource);
+            file.charset = getCharset(file.resource);
+        });
+        
+        for (FileDelta file : files) {
+            recordFileResourceAddedMacro(file);
         }
     }
     
     /**
      * Records a macro corresponding to the addition of a file resource.
-     * @param delta the resource delta
-     * @param path the path of the the resource
-     * @param target the kind of the target of the resource
+     * @param file the added file whose contents have been loaded
      */
-    private void recordFileResourceAddedMacro(IResourceDelta delta, String path, ResourceMacro.Target target) {
+    private void recordFileResourceAddedMacro(FileDelta file) {
+        IResourceDelta delta = file.delta;
+        String path = file.path;
+        ResourceMacro.Target target = ResourceMacro.Target.FILE;
         String branch = globalRecorder.getBranch(path);
         MacroPath mpath = PathInfoFinder.getMacroPath(path, branch);
         
-        IResource resource = delta.getResource();
-        String code = getCurrentCode(resource);
-        String charset = getCharset(resource);
+        IResource resource = file.resource;
+        String code = file.code;
+        String charset = file.charset;
         
         ResourceMacro rmacro = null;
         FileMacro.Action ftype = null;
@@ -244,13 +257,12 @@ class ResourceListener implements IResourceChangeListener {
         
         if (ftype == FileMacro.Action.MOVED_FROM || ftype == FileMacro.Action.RENAMED_FROM) {
             String preCode = removedFiles.get(fromPath);
-            String curCode = getCurrentCode(resource);
             
             FileMacro fmacro = new FileMacro(ftype, mpath, preCode, charset, fromPath);
             globalRecorder.recordMacro(fmacro);
             
             docRecorder.setPreCode(preCode);
-            docRecorder.applyDiff(curCode, true);
+            docRecorder.applyDiff(code, true);
             
         } else {
             FileMacro fmacro = new FileMacro(ftype, mpath, "", charset, path);
@@ -292,31 +304,35 @@ class ResourceListener implements IResourceChangeListener {
     }
     
     /**
-     * Records a macro corresponding to the addition of a resource.
-     * @param delta delta the resource delta
-     * @param path the path of the the resource
-     * @param target the kind of the target of the resource
+     * Records macros corresponding to the removal of file resources.
+     * The previous contents of the files are loaded in parallel and the macros are recorded in the order of the paths.
+     * @param files the collection of the removed files
      */
-    private void recordResourceRemovedMacro(IResourceDelta delta, String path, ResourceMacro.Target target) {
-        if (target == ResourceMacro.Target.FILE) {
-            recordFileResourceRemovedMacro(delta, path, target);
-        } else {
-            recordNonFileResourceRemovedMacro(delta, path, target);
+    private void recordFileResourceRemovedMacros(List<FileDelta> files) {
+        files.sort(Comparator.comparing(file -> file.path));
+        ParallelLoader.loadAll(files, file -> {
+            file.prevCode = getPrevCode(file.resource);
+            file.charset = getCharset(file.resource);
+        });
+        
+        for (FileDelta file : files) {
+            recordFileResourceRemovedMacro(file);
         }
     }
     
     /**
      * Records a macro corresponding to the removal of a file resource.
-     * @param delta delta the resource delta
-     * @param path the path of the the resource
-     * @param target the kind of the target of the resource
+     * @param file the removed file whose previous contents have been loaded
      */
-    private void recordFileResourceRemovedMacro(IResourceDelta delta, String path, ResourceMacro.Target target) {
+    private void recordFileResourceRemovedMacro(FileDelta file) {
+        IResourceDelta delta = file.delta;
+        String path = file.path;
+        ResourceMacro.Target target = ResourceMacro.Target.FILE;
         String branch = globalRecorder.getBranch(path);
         MacroPath mpath = PathInfoFinder.getMacroPath(path, branch);
         
-        IResource resource = delta.getResource();
-        String charset = getCharset(resource);
+        IResource resource = file.resource;
+        String charset = file.charset;
         
         ResourceMacro rmacro = null;
         FileMacro.Action ftype = null;
@@ -337,8 +353,7 @@ class ResourceListener implements IResourceChangeListener {
             ftype = FileMacro.Action.REMOVED;
         }
         
-        String prevCode = getPrevCode(resource);
-        removedFiles.put(path, prevCode);
+        removedFiles.put(path, file.prevCode);
         
         DocMacroRecorder docRecorder = globalRecorder.getDocMacroRecorder(path);
         if (docRecorder == null) {
@@ -381,53 +396,111 @@ class ResourceListener implements IResourceChangeListener {
     }
     
     /**
-     * Records a macro corresponding to the change of a resource.
-     * @param delta delta the resource delta
-     * @param path the path of the the resource
-     * @param target the kind of the target of the resource
+     * Records macros corresponding to the change of file resources.
+     * The recorders of the files are prepared in the order of the paths, the contents of the files are loaded
+     * in parallel, and then the macros are recorded in the order of the paths.
+     * Diff macros of the files are generated by concurrent jobs but merged in the order of the paths.
+     * Document macros derived from a refactoring are used only if they reproduce the loaded contents of the file.
+     * @param files the collection of the changed files
      */
-    private void recordResourceChangedMacro(IResourceDelta delta, String path, ResourceMacro.Target target) {
-        if (target == ResourceMacro.Target.FILE && (delta.getFlags() & IResourceDelta.CONTENT) != 0) {
-            recordFileResourceChangedMacro(delta, path, target);
+    private void recordFileResourceChangedMacros(List<FileDelta> files) {
+        files.sort(Comparator.comparing(file -> file.path));
+        boolean saved = globalRecorder.getSaveInProgress();
+        boolean refactored = !saved && globalRecorder.getRefactoringInProgress();
+        
+        for (FileDelta file : files) {
+            if ((file.delta.getFlags() & IResourceDelta.CONTENT) != 0) {
+                DocMacroRecorder docRecorder = globalRecorder.getDocMacroRecorder(file.path);
+                boolean largeFile = false;
+                if (docRecorder == null) {
+                    docRecorder = globalRecorder.getRecorder().off((IFile)file.resource);
+                } else {
+                    largeFile = docRecorder.isLargeFile();
+                }
+                
+                if (!docRecorder.isOn()) {
+                    file.docRecorder = docRecorder;
+                    file.edits = globalRecorder.takeRefactoringEdits(file.path);
+                    if (docRecorder.isFollowingBuffer()) {
+                        file.edits = null;
+                        file.code = docRecorder.getPreCode();
+                    } else {
+                        file.needPrevCode = !largeFile && (file.delta.getFlags() & IResourceDelta.MOVED_FROM) == 0;
+                    }
+                }
+            }
+        }
+        
+        ParallelLoader.loadAll(files, file -> {
+            if (file.code != null) {
+                file.charset = getCharset(file.resource);
+            } else if (file.docRecorder != null || saved || refactored) {
+                file.code = getCurrentCode(file.resource);
+                file.charset = getCharset(file.resource);
+            }
+            if (file.edits != null && !file.edits.getPostCode().equals(file.code)) {
+                file.edits = null;
+            }
+            if (file.needPrevCode && file.edits == null) {
+                file.prevCode = getPrevCode(file.resource);
+            }
+        });
+        
+        for (FileDelta file : files) {
+            if (file.docRecorder != null) {
+                recordFileResourceChangedMacro(file);
+            }
+            
+            String branch = globalRecorder.getBranch(file.path);
+            if (saved) {
+                FileMacro macro = new FileMacro(FileMacro.Action.SAVED,
+                        PathInfoFinder.getMacroPath(file.path, branch), file.code, file.charset);
+                globalRecorder.recordMacro(macro);
+                
+            } else if (refactored) {
+                FileMacro macro = new FileMacro(FileMacro.Action.REFACTORED,
+                        PathInfoFinder.getMacroPath(file.path, branch), file.code, file.charset);
+                globalRecorder.recordMacro(macro);
+            }
         }
     }
     
     /**
      * Records a macro corresponding to the change of a file resource.
-     * @param delta delta the resource delta
-     * @param path the path of the the resource
-     * @param target the kind of the target of the resource
+     * If the change was made in a text file buffer, its document macros have already been recorded.
+     * If the change was made by a refactoring, the document macros derived from its text edits are recorded.
+     * In both cases no difference remains to be generated unless the file was changed in another way.
+     * @param file the changed file whose contents have been loaded
      */
-    private void recordFileResourceChangedMacro(IResourceDelta delta, String path, ResourceMacro.Target target) {
+    private void recordFileResourceChangedMacro(FileDelta file) {
+        String path = file.path;
+        ResourceMacro.Target target = ResourceMacro.Target.FILE;
         String branch = globalRecorder.getBranch(path);
         MacroPath mpath = PathInfoFinder.getMacroPath(path, branch);
         
-        IResource resource = delta.getResource();
-        DocMacroRecorder docRecorder = globalRecorder.getDocMacroRecorder(path);
-        if (docRecorder == null) {
-            docRecorder = globalRecorder.getRecorder().off((IFile)resource);
-        } else {
-            if (docRecorder.isOn()) {
-                return;
-            }
-        }
-        
-        String preCode = getPrevCode(resource);
-        String curCode = getCurrentCode(resource);
-        String charset = getCharset(resource);
+        DocMacroRecorder docRecorder = file.docRecorder;
+        String curCode = file.code;
+        String charset = file.charset;
         
-        if ((delta.getFlags() & IResourceDelta.MOVED_FROM) != 0) {
-            preCode = docRecorder.getPreCode();
+        if (file.edits != null) {
+            docRecorder.setPreCode(file.edits.getPreCode());
+        } else if (file.needPrevCode) {
+            docRecorder.setPreCode(file.prevCode);
+        } else if (!docRecorder.isFollowingBuffer()) {
+            docRecorder.keepPreCode();
         }
         
-        docRecorder.setPreCode(preCode);
-        
         ResourceMacro rmacro = new ResourceMacro(ResourceMacro.Action.CHANGED, mpath, target, path);
         globalRecorder.recordMacro(rmacro);
         
         FileMacro fmacro = new FileMacro(FileMacro.Action.CONTENT_CHANGED, mpath, curCode, charset);
         globalRecorder.recordMacro(fmacro);
         
+        if (file.edits != null) {
+            for (DocumentMacro macro : file.edits.getMacros()) {
+                docRecorder.recordDocumentMacro(macro);
+            }
+        }
         docRecorder.applyDiff(curCode, true);
     }
     
@@ -545,4 +618,66 @@ class ResourceListener implements IResourceChangeListener {
         } catch (IOException e) { /* empty */ }
         return null;
     }
+    
+    /**
+     * A file resource delta with the contents of the file, which are loaded in parallel with other files.
+     */
+    private static class FileDelta {
+        
+        /**
+         * The resource delta.
+         */
+        final IResourceDelta delta;
+        
+        /**
+         * The path of the file.
+         */
+        final String path;
+        
+        /**
+         * The file resource.
+         */
+        final IResource resource;
+        
+        /**
+         * The current contents of the file.
+         */
+        String code;
+        
+        /**
+         * The previous contents of the file.
+         */
+        String prevCode;
+        
+        /**
+         * The name of the charset of the file.
+         */
+        String charset;
+        
+        /**
+         * The recorder that records the change of the file, or <code>null</code> if the change is not recorded.
+         */
+        DocMacroRecorder docRecorder;
+        
+        /**
+         * The document macros derived from a refactoring that changed the file, or <code>null</code> if none.
+         */
+        RefactoringEdits edits;
+        
+        /**
+         * A flag that indicates whether the previous contents are obtained from the history of the file.
+         */
+        boolean needPrevCode = false;
+        
+        /**
+         * Creates a file resource delta.
+         * @param delta the resource delta
+         * @param path the path of the file
+         */
+        FileDelta(IResourceDelta delta, String path) {
+            this.delta = delta;
+            this.path = path;
+            this.resource = delta.getResource();
+        }
+    }
 }
@@ -47,7 +47,7 @@ public class CancelMacro extends DocumentMacro {
      * @param itext the contents of the document inserted by the macro
      * @param dtext the contents of the document deleted by the macro
      */
-    protected CancelMacro(ZonedDateTime time, String action, MacroPath mpath, int start, String itext, String dtext) {
+    public CancelMacro(ZonedDateTime time, String action, MacroPath mpath, int start, String itext, String dtext) {
         super(time, action, mpath, start, itext, dtext);
     }
     
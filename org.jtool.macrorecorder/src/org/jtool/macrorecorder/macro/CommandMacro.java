@@ -6,6 +6,7 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import javax.json.JsonObject;
 
@@ -55,7 +56,7 @@ public class CommandMacro extends Macro {
      * @param mpath the information about the path a resource on which this macro was performed
      * @param commandId the command information about this macro
      */
-    protected CommandMacro(ZonedDateTime time, String action, MacroPath mpath, String commandId) {
+    public CommandMacro(ZonedDateTime time, String action, MacroPath mpath, String commandId) {
         super(time, action, mpath);
         this.commandId = commandId;
     }
@@ -85,16 +86,15 @@ public class CommandMacro extends Macro {
     }
     
     /**
-     * Returns the textual description of this macro.
-     * @return the textual description
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
      */
     @Override
-    public String getDescription() {
-        StringBuilder buf = new StringBuilder();
-        buf.append(super.getDescription());
+    public void writeDescription(Appendable out) throws IOException {
+        super.writeDescription(out);
         
-        buf.append(" command=[" + commandId + "]");
-        return buf.toString();
+        out.append(" command=[").append(commandId).append(']');
     }
     
     /**
@@ -6,6 +6,7 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.ArrayList;
@@ -202,36 +203,29 @@ public class CompoundMacro extends Macro {
              * @param macro2 - the second macro to be compared
              */
             public int compare(Macro macro1, Macro macro2) {
-                ZonedDateTime time1 = macro1.getTime();
-                ZonedDateTime time2 = macro2.getTime();
-                
-                if (time1.isAfter(time2)) {
-                    return 1;
-                } else if (time1.isBefore(time2)) {
-                    return -1;
-                } else {
-                    return 0;
-                }
+                return macro1.compareTime(macro2);
             }
         });
     }
     
     /**
-     * Returns the textual description of this macro.
-     * @return the textual description
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
      */
     @Override
-    public String getDescription() {
-        StringBuilder buf = new StringBuilder();
-        buf.append("{" + getThisClassName() + "} ");
-        buf.append(getFormatedTime(time));
-        buf.append(" " + action);
-        buf.append(" commandId=[" + getCommandId() + "]");
-        buf.append(" num=[" + getMacroNumber() + "]");
-        for (Macro macros: macros) {
-            buf.append("\n !" + macros.toString());
+    public void writeDescription(Appendable out) throws IOException {
+        out.append('{').append(getThisClassName()).append("} ");
+        appendFormatedTime(out, time);
+        out.append(' ').append(action);
+        out.append(" commandId=[").append(getCommandId()).append(']');
+        out.append(" num=[");
+        appendNumber(out, getMacroNumber());
+        out.append(']');
+        for (Macro macro : macros) {
+            out.append("\n !");
+            macro.writeDescription(out);
         }
-        return buf.toString();
     }
     
     /**
@@ -240,21 +234,12 @@ public class CompoundMacro extends Macro {
      */
     @Override
     public JsonObject getJSON() {
-        String path = "";
-        if (getPath() != null) {
-            path = getPath();
-        }
-        
         JsonObjectBuilder builder = MacroJSON.getJSONObjectBuilder(this)
-          .add(MacroJSON.JSON_MACRO, getThisClassName())
-          .add(MacroJSON.JSON_MACRO_TIME, getTimeAsISOString(time))
-          .add(MacroJSON.JSON_MACRO_ACTION, action)
-          .add(MacroJSON.JSON_MACRO_PATH, path)
           .add(MacroJSON.JSON_ATTR_COMMAND, getCommandId())
           .add(MacroJSON.JSON_ATTR_NUMBER, getMacroNumber());
         JsonArrayBuilder array = MacroJSON.getJSONArrayBuilder(macros);
         if (array != null) {
-            builder.add(MacroJSON.JSON_MACRO_PATH, array);
+            builder.add(MacroJSON.JSON_MACROS, array);
         }
         JsonObject json = builder.build();
         return json;
@@ -6,6 +6,7 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import javax.json.JsonObject;
 
@@ -64,7 +65,7 @@ public class CopyMacro extends Macro {
      * @param start the leftmost offset of the document changed by this macro
      * @param text the contents of the document copied by the macro
      */
-    protected CopyMacro(ZonedDateTime time, String action, MacroPath mpath, int start, String text) {
+    public CopyMacro(ZonedDateTime time, String action, MacroPath mpath, int start, String text) {
         super(time, action.toString(), mpath);
         this.start = start;
         this.copiedText = text;
@@ -95,17 +96,19 @@ public class CopyMacro extends Macro {
     }
     
     /**
-     * Returns the textual description of this macro.
-     * @return the textual description
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
      */
     @Override
-    public String getDescription() {
-        StringBuilder buf = new StringBuilder();
-        buf.append(super.getDescription());
+    public void writeDescription(Appendable out) throws IOException {
+        super.writeDescription(out);
         
-        buf.append(" offset=" + start);
-        buf.append(" copy=[" + getShortText(copiedText) + "]");
-        return buf.toString();
+        out.append(" offset=");
+        appendNumber(out, start);
+        out.append(" copy=[");
+        appendShortText(out, copiedText);
+        out.append(']');
     }
     
     /**
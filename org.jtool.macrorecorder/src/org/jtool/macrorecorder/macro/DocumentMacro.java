@@ -6,6 +6,7 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import javax.json.JsonObject;
 
@@ -193,18 +194,21 @@ public class DocumentMacro extends Macro {
     }
     
     /**
-     * Returns the textual description of this macro.
-     * @return the textual description
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
      */
     @Override
-    public String getDescription() {
-        StringBuilder buf = new StringBuilder();
-        buf.append(super.getDescription());
+    public void writeDescription(Appendable out) throws IOException {
+        super.writeDescription(out);
         
-        buf.append(" offset=" + start);
-        buf.append(" ins=[" + getShortText(insertedText) + "]");
-        buf.append(" del=[" + getShortText(deletedText) + "]");
-        return buf.toString();
+        out.append(" offset=");
+        appendNumber(out, start);
+        out.append(" ins=[");
+        appendShortText(out, insertedText);
+        out.append("] del=[");
+        appendShortText(out, deletedText);
+        out.append(']');
     }
     
     /**
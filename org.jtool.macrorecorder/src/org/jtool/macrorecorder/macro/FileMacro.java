@@ -6,7 +6,9 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
+import java.util.function.Supplier;
 import javax.json.JsonObject;
 
 /**
@@ -29,6 +31,11 @@ public class FileMacro extends Macro {
      */
     private String code;
     
+    /**
+     * The supplier that loads the contents of source code when it is first requested.
+     */
+    private volatile Supplier<String> codeLoader = null;
+    
     /**
      * The name of a charset of the file.
      */
@@ -86,19 +93,33 @@ public class FileMacro extends Macro {
      * @param charset the name of a charset of the file
      * @param sdpath the path of the source or destination of the rename or move
      */
-    protected FileMacro(ZonedDateTime time, String action, MacroPath mpath, String code, String charset, String sdpath) {
+    public FileMacro(ZonedDateTime time, String action, MacroPath mpath, String code, String charset, String sdpath) {
         super(time, action, mpath);
         this.code = code;
         this.charset = charset;
         this.srcDstPath = sdpath;
     }
     
+    /**
+     * Creates an object storing information about a file macro whose source code is loaded when it is first requested.
+     * @param time the time when this macro was performed
+     * @param action the type of this macro
+     * @param mpath the information about the path a resource on which this macro was performed
+     * @param codeLoader the supplier that loads the contents of source code of the file
+     * @param charset the name of a charset of the file
+     * @param sdpath the path of the source or destination of the rename or move
+     */
+    public FileMacro(ZonedDateTime time, String action, MacroPath mpath, Supplier<String> codeLoader, String charset, String sdpath) {
+        this(time, action, mpath, (String)null, charset, sdpath);
+        this.codeLoader = codeLoader;
+    }
+    
     /**
      * Creates a clone of this macro.
      */
     @Override
     public FileMacro clone() {
-        return new FileMacro(time, action, macroPath, code, charset, srcDstPath);
+        return new FileMacro(time, action, macroPath, getCode(), charset, srcDstPath);
     }
     
     /**
@@ -114,6 +135,11 @@ public class FileMacro extends Macro {
      * @return the contents of the source code
      */
     public String getCode() {
+        Supplier<String> loader = codeLoader;
+        if (loader != null) {
+            code = loader.get();
+            codeLoader = null;
+        }
         return code;
     }
     
@@ -246,16 +272,17 @@ public class FileMacro extends Macro {
     }
     
     /**
-     * Returns the textual description of this macro.
-     * @return the textual description
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
      */
     @Override
-    public String getDescription() {
-        StringBuilder buf = new StringBuilder();
-        buf.append(super.getDescription());
+    public void writeDescription(Appendable out) throws IOException {
+        super.writeDescription(out);
         
-        buf.append(" code=[" + getShortText(code) + "]");
-        return buf.toString();
+        out.append(" code=[");
+        appendShortText(out, getCode());
+        out.append(']');
     }
     
     /**
@@ -265,7 +292,7 @@ public class FileMacro extends Macro {
     @Override
     public JsonObject getJSON() {
         JsonObject json = MacroJSON.getJSONObjectBuilder(this)
-          .add(MacroJSON.JSON_ATTR_CODE, code)
+          .add(MacroJSON.JSON_ATTR_CODE, getCode())
           .add(MacroJSON.JSON_ATTR_CHARSET, charset)
           .add(MacroJSON.JSON_ATTR_SRD_DST_PATH, srcDstPath)
           .build();
@@ -6,6 +6,7 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import javax.json.JsonObject;
 
@@ -55,7 +56,7 @@ public class GitMacro extends Macro {
      * @param mpath the information about the path a resource on which this macro was performed
      * @param dir the directory of the git repository
      */
-    protected GitMacro(ZonedDateTime time, String action, MacroPath mpath, String dir) {
+    public GitMacro(ZonedDateTime time, String action, MacroPath mpath, String dir) {
         super(time, action, mpath);
         this.dir = dir;
     }
@@ -93,12 +94,13 @@ public class GitMacro extends Macro {
     }
     
     /**
-     * Returns the textual description of this macro.
-     * @return the textual description
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
      */
     @Override
-    public String getDescription() {
-        return super.getDescription();
+    public void writeDescription(Appendable out) throws IOException {
+        super.writeDescription(out);
     }
     
     /**
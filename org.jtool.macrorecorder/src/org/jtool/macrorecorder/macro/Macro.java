@@ -6,10 +6,13 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.json.JsonObject;
 
 /**
@@ -18,13 +21,50 @@ import javax.json.JsonObject;
  */
 public class Macro {
     
+    /**
+     * The formatter of the time information, which is shared by all macros.
+     */
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss.SSS");
+    
+    /**
+     * The maximum length of a text in the textual description.
+     */
+    private static final int LESS_LEN = 100;
+    
+    /**
+     * The cache of the names of macro classes without their package names.
+     */
+    private static final ClassValue<String> classNames = new ClassValue<String>() {
+        
+        /**
+         * Computes the name of a class without its package name.
+         * @param type the class
+         * @return the name of the class
+         */
+        @Override
+        protected String computeValue(Class<?> type) {
+            String fqn = type.getName();
+            int sep = fqn.lastIndexOf('.');
+            if (sep != -1) {
+                return fqn.substring(sep + 1, fqn.length() - 5);
+            }
+            return fqn;
+        }
+    };
+    
     /**
      * The time when this macro was executed.
      * There is no change operations with the same time within the same file
-     * (with the same path and the same branch).
+     * (with the same path and the same branch) unless their sequence numbers differ.
      */
     protected ZonedDateTime time;
     
+    /**
+     * The sequence number that orders this macro after other macros performed at the same time,
+     * which is zero unless the macros were generated at a time.
+     */
+    protected int sequence = 0;
+    
     /**
      * The action of this macro.
      */
@@ -40,8 +80,14 @@ public class Macro {
      */
     protected List<Macro> rawMacros;
     
+    /**
+     * The values attached to this macro by macro stages, which are neither cloned nor stored in JSON.
+     */
+    private volatile Map<String, Object> attachments = null;
+    
     /**
      * Creates an object storing information about a macro.
+     * No delay is needed since the time is given rather than taken from the clock.
      * @param time the time when this macro was performed
      * @param action the action of this macro
      * @param mpath the information about the path a resource on which this macro was performed
@@ -50,8 +96,6 @@ public class Macro {
         this.time = time;
         this.action = action;
         this.macroPath = mpath;
-        
-        delay();
     }
     
     /**
@@ -61,6 +105,8 @@ public class Macro {
      */
     protected Macro(String action, MacroPath mpath) {
         this(ZonedDateTime.now(), action, mpath);
+        
+        delay();
     }
     
     /**
@@ -97,6 +143,35 @@ public class Macro {
         return time.toInstant().toEpochMilli();
     }
     
+    /**
+     * Sets the sequence number that orders this macro after other macros performed at the same time.
+     * @param sequence the sequence number
+     */
+    public void setSequence(int sequence) {
+        this.sequence = sequence;
+    }
+    
+    /**
+     * Returns the sequence number that orders this macro after other macros performed at the same time.
+     * @return the sequence number, which is zero unless the macros were generated at a time
+     */
+    public int getSequence() {
+        return sequence;
+    }
+    
+    /**
+     * Compares the times of this macro and another macro, and their sequence numbers if the times are the same.
+     * @param macro the other macro
+     * @return a negative integer, zero, or a positive integer as this macro was performed before, with, or after the other
+     */
+    public int compareTime(Macro macro) {
+        int result = time.toInstant().compareTo(macro.time.toInstant());
+        if (result != 0) {
+            return result;
+        }
+        return Integer.compare(sequence, macro.sequence);
+    }
+    
     /**
      * Sets the action of this macro
      * @param action the action of the macro
@@ -177,7 +252,9 @@ public class Macro {
         rawMacros = new ArrayList<Macro>();
         for (Macro macro :  macros) {
             if (macro == this) {
-                rawMacros.add(macro.clone());
+                Macro copy = macro.clone();
+                copy.sequence = macro.sequence;
+                rawMacros.add(copy);
             } else {
                 rawMacros.add(macro);
             }
@@ -192,14 +269,55 @@ public class Macro {
         return rawMacros;
     }
     
+    /**
+     * Attaches a value to this macro so that it is shared by all the listeners receiving this macro.
+     * @param key the key of the value
+     * @param value the value to be attached, or <code>null</code> if the value is removed
+     */
+    public synchronized void putAttachment(String key, Object value) {
+        if (attachments == null) {
+            if (value == null) {
+                return;
+            }
+            attachments = new ConcurrentHashMap<String, Object>(4);
+        }
+        if (value != null) {
+            attachments.put(key, value);
+        } else {
+            attachments.remove(key);
+        }
+    }
+    
+    /**
+     * Returns a value attached to this macro.
+     * @param key the key of the value
+     * @return the attached value, or <code>null</code> if none
+     */
+    public Object getAttachment(String key) {
+        Map<String, Object> map = attachments;
+        if (map == null) {
+            return null;
+        }
+        return map.get(key);
+    }
+    
     /**
      * Obtains the formated time information.
      * @param time the time information
      * @return the formatted string of the time
      */
     protected String getFormatedTime(ZonedDateTime t) {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss.SSS");
-        return t.format(formatter);
+        return TIME_FORMATTER.format(t);
+    }
+    
+    /**
+     * Writes the formated time information.
+     * @param out the destination of the formatted time
+     * @param time the time information
+     * @throws IOException if an I/O error occurs
+     */
+    protected void appendFormatedTime(Appendable out, ZonedDateTime time) throws IOException {
+        TIME_FORMATTER.formatTo(time, out);
     }
     
     /**
@@ -217,18 +335,53 @@ public class Macro {
      * @return the text consists of the first four characters not including the new line
      */
     protected String getShortText(String text) {
+        StringBuilder buf = new StringBuilder();
+        try {
+            appendShortText(buf, text);
+        } catch (IOException e) { /* empty */ }
+        return buf.toString();
+    }
+    
+    /**
+     * Writes the pretty text of a text without creating its copy.
+     * The text is truncated and its new line characters are replaced with <code>'~'</code>.
+     * @param out the destination of the pretty text
+     * @param text the original text
+     * @throws IOException if an I/O error occurs
+     */
+    protected static void appendShortText(Appendable out, String text) throws IOException {
         if (text == null) {
-            return "NULL";
+            out.append("NULL");
+            return;
         }
         
-        final int LESS_LEN = 100;
-        String text2;
+        int len = Math.min(text.length(), LESS_LEN);
+        int from = 0;
+        for (int pos = 0; pos < len; pos++) {
+            if (text.charAt(pos) == '\n') {
+                out.append(text, from, pos);
+                out.append('~');
+                from = pos + 1;
+            }
+        }
+        out.append(text, from, len);
         if (text.length() > LESS_LEN) {
-            text2 = text.substring(0, LESS_LEN) + "...";
+            out.append("...");
+        }
+    }
+    
+    /**
+     * Writes a number without creating its string if possible.
+     * @param out the destination of the number
+     * @param num the number
+     * @throws IOException if an I/O error occurs
+     */
+    protected static void appendNumber(Appendable out, int num) throws IOException {
+        if (out instanceof StringBuilder) {
+            ((StringBuilder)out).append(num);
         } else {
-            text2 = text;
+            out.append(String.valueOf(num));
         }
-        return text2.replace('\n', '~');
     }
     
     /**
@@ -236,12 +389,7 @@ public class Macro {
      * @return the name of the instance without its package name.
      */
     protected String getThisClassName() {
-        String fqn = this.getClass().getName();
-        int sep = fqn.lastIndexOf('.');
-        if (sep != -1) {
-            return fqn.substring(sep + 1, fqn.length() - 5);
-        }
-        return fqn;
+        return classNames.get(this.getClass());
     }
     
     /**
@@ -250,15 +398,27 @@ public class Macro {
      */
     public String getDescription() {
         StringBuilder buf = new StringBuilder();
-        buf.append("{" + getThisClassName() + "} ");
-        buf.append(getFormatedTime(time));
-        buf.append(" " + action);
-        buf.append(" path=[" + getPath() + "]");
-        buf.append(" resource=[" + getProjectName() + "/" + getPackageName() + "/" + getFileName() + "]");
-        buf.append(" branch=[" + getBranch() + "]");
+        try {
+            writeDescription(buf);
+        } catch (IOException e) { /* empty */ }
         return buf.toString();
     }
     
+    /**
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeDescription(Appendable out) throws IOException {
+        out.append('{').append(getThisClassName()).append("} ");
+        appendFormatedTime(out, time);
+        out.append(' ').append(action);
+        out.append(" path=[").append(getPath()).append(']');
+        out.append(" resource=[").append(getProjectName()).append('/')
+           .append(getPackageName()).append('/').append(getFileName()).append(']');
+        out.append(" branch=[").append(getBranch()).append(']');
+    }
+    
     /**
      * Obtains a JSON object that stores information on this macro.
      * @return the JSON object
@@ -268,6 +428,16 @@ public class Macro {
         return json;
     }
     
+    /**
+     * Obtains a JSON object that stores information on this macro without the macros it contains.
+     * Neither the raw macros nor the macros of a compound macro are stored, so that an encoder can refer to them
+     * instead of repeating them.
+     * @return the JSON object
+     */
+    public JsonObject getShallowJSON() {
+        return MacroJSON.getShallowJSON(this);
+    }
+    
     /**
      * Obtains the string representation of a JSON object that stores information on this macro.
      * @return the string representation of the JSON object
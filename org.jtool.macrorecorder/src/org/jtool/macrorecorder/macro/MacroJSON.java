@@ -27,6 +27,7 @@ public class MacroJSON {
     
     protected static final String JSON_MACRO = "macro";
     protected static final String JSON_MACRO_TIME = "time";
+    protected static final String JSON_MACRO_SEQUENCE = "seq";
     protected static final String JSON_MACRO_ACTION = "action";
     protected static final String JSON_MACRO_PATH = "path";
     protected static final String JSON_MACRO_BRANCH = "branch";
@@ -34,6 +35,7 @@ public class MacroJSON {
     protected static final String JSON_MACRO_PACKAGE_NAME = "package";
     protected static final String JSON_MACRO_FILE_NAME = "file";
     protected static final String JSON_RAW_MACROS = "rawMacros";
+    protected static final String JSON_MACROS = "macros";
     
     protected static final String JSON_ATTR_COMMAND = "commandId";
     protected static final String JSON_ATTR_OFFSET = "offset";
@@ -48,10 +50,35 @@ public class MacroJSON {
     protected static final String JSON_ATTR_REFACTORING_END = "refend";
     protected static final String JSON_ATTR_RESOURCE_TARGET = "target";
     protected static final String JSON_ATTR_TIMING = "timing";
+    protected static final String JSON_ATTR_CURSOR_START = "cstart";
+    protected static final String JSON_ATTR_CURSOR_END = "cend";
     
     protected static final String JSON_ATTR_NUMBER = "num";
     protected static final String JSON_PRIMITIVE_MACROS = "rawMacros";
     
+    /**
+     * A flag that indicates whether JSON objects are being created without raw macros and the macros of compound macros.
+     */
+    private static final ThreadLocal<Boolean> shallow = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    
+    /**
+     * Creates a JSON object of a macro that contains neither its raw macros nor the macros of a compound macro.
+     * @param macro the macro
+     * @return the created JSON object
+     */
+    protected static JsonObject getShallowJSON(Macro macro) {
+        if (shallow.get()) {
+            return macro.getJSON();
+        }
+        
+        shallow.set(Boolean.TRUE);
+        try {
+            return macro.getJSON();
+        } finally {
+            shallow.set(Boolean.FALSE);
+        }
+    }
+    
     /**
      * Creates a JSON object builder of a macro.
      * @param macro the macro
@@ -71,6 +98,9 @@ public class MacroJSON {
           .add(MacroJSON.JSON_MACRO_PROJECT_NAME, macro.getProjectName())
           .add(MacroJSON.JSON_MACRO_PACKAGE_NAME, macro.getPackageName())
           .add(MacroJSON.JSON_MACRO_FILE_NAME, macro.getFileName());
+        if (macro.getSequence() != 0) {
+            builder.add(MacroJSON.JSON_MACRO_SEQUENCE, macro.getSequence());
+        }
         JsonArrayBuilder getJSONArray = getJSONArrayBuilder(macro.getRawMacros());
         if (getJSONArray != null) {
             builder.add(MacroJSON.JSON_RAW_MACROS, getJSONArray);
@@ -84,7 +114,7 @@ public class MacroJSON {
      * @return the created JSON array builder, or <code>null</code> if the array builder is not required
      */
     protected static JsonArrayBuilder getJSONArrayBuilder(List<Macro> macros) {
-        if (macros == null || macros.size() == 0) {
+        if (macros == null || macros.size() == 0 || shallow.get()) {
             return null;
         }
         JsonArrayBuilder builder = Json.createArrayBuilder();
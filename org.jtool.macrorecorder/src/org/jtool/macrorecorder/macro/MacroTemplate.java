@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.macro;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * A template that renders the textual representation of macros.
+ * A template is compiled once from a pattern containing placeholders such as <code>{time}</code> and <code>{path}</code>,
+ * and writes the text of each macro into a given destination without creating intermediate strings.
+ * <p>
+ * The available placeholders are <code>{class}</code>, <code>{time}</code>, <code>{isotime}</code>,
+ * <code>{epoch}</code>, <code>{action}</code>, <code>{path}</code>, <code>{branch}</code>, <code>{project}</code>,
+ * <code>{package}</code>, <code>{file}</code>, and <code>{description}</code>.
+ * </p>
+ * @author Katsuhisa Maruyama
+ */
+public class MacroTemplate {
+    
+    /**
+     * The template that renders the textual description of a macro.
+     */
+    public static final MacroTemplate DESCRIPTION = new MacroTemplate("{description}");
+    
+    /**
+     * The template that renders the summary of a macro in a line.
+     */
+    public static final MacroTemplate SUMMARY = new MacroTemplate("{time} {class} {action} {path}");
+    
+    /**
+     * The kinds of placeholders.
+     */
+    private enum Field {
+        CLASS, TIME, ISOTIME, EPOCH, ACTION, PATH, BRANCH, PROJECT, PACKAGE, FILE, DESCRIPTION;
+    }
+    
+    /**
+     * The pattern of this template.
+     */
+    private String pattern;
+    
+    /**
+     * The literal strings that precede respective placeholders.
+     */
+    private String[] literals;
+    
+    /**
+     * The placeholders that follow respective literal strings.
+     * The last element is <code>null</code> for the literal string at the end of the pattern.
+     */
+    private Field[] fields;
+    
+    /**
+     * Creates a template from its pattern.
+     * @param pattern the pattern of the template
+     * @throws IllegalArgumentException if the pattern contains an unknown or unclosed placeholder
+     */
+    public MacroTemplate(String pattern) {
+        assert pattern != null;
+        this.pattern = pattern;
+        
+        List<String> lits = new ArrayList<String>();
+        List<Field> flds = new ArrayList<Field>();
+        int from = 0;
+        while (true) {
+            int open = pattern.indexOf('{', from);
+            if (open == -1) {
+                break;
+            }
+            int close = pattern.indexOf('}', open);
+            if (close == -1) {
+                throw new IllegalArgumentException("Unclosed placeholder in " + pattern);
+            }
+            
+            String name = pattern.substring(open + 1, close);
+            Field field;
+            try {
+                field = Field.valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown placeholder {" + name + "} in " + pattern);
+            }
+            lits.add(pattern.substring(from, open));
+            flds.add(field);
+            from = close + 1;
+        }
+        lits.add(pattern.substring(from));
+        flds.add(null);
+        
+        literals = lits.toArray(new String[lits.size()]);
+        fields = flds.toArray(new Field[flds.size()]);
+    }
+    
+    /**
+     * Returns the pattern of this template.
+     * @return the pattern
+     */
+    public String getPattern() {
+        return pattern;
+    }
+    
+    /**
+     * Writes the text of a macro according to this template.
+     * @param macro the macro to be rendered
+     * @param out the destination of the text
+     * @throws IOException if an I/O error occurs
+     */
+    public void render(Macro macro, Appendable out) throws IOException {
+        for (int idx = 0; idx < fields.length; idx++) {
+            out.append(literals[idx]);
+            if (fields[idx] != null) {
+                renderField(macro, fields[idx], out);
+            }
+        }
+    }
+    
+    /**
+     * Creates the text of a macro according to this template.
+     * @param macro the macro to be rendered
+     * @return the text of the macro
+     */
+    public String render(Macro macro) {
+        StringBuilder buf = new StringBuilder();
+        try {
+            render(macro, buf);
+        } catch (IOException e) { /* empty */ }
+        return buf.toString();
+    }
+    
+    /**
+     * Writes the value of a placeholder.
+     * @param macro the macro to be rendered
+     * @param field the placeholder
+     * @param out the destination of the value
+     * @throws IOException if an I/O error occurs
+     */
+    private void renderField(Macro macro, Field field, Appendable out) throws IOException {
+        switch (field) {
+            case CLASS:
+                out.append(macro.getThisClassName());
+                break;
+            case TIME:
+                macro.appendFormatedTime(out, macro.getTime());
+                break;
+            case ISOTIME:
+                out.append(macro.getTimeAsISOString(macro.getTime()));
+                break;
+            case EPOCH:
+                out.append(String.valueOf(macro.getTimeAsLong()));
+                break;
+            case ACTION:
+                out.append(macro.getAction());
+                break;
+            case PATH:
+                out.append(macro.getPath());
+                break;
+            case BRANCH:
+                out.append(macro.getBranch());
+                break;
+            case PROJECT:
+                out.append(macro.getProjectName());
+                break;
+            case PACKAGE:
+                out.append(macro.getPackageName());
+                break;
+            case FILE:
+                out.append(macro.getFileName());
+                break;
+            case DESCRIPTION:
+                macro.writeDescription(out);
+                break;
+        }
+    }
+}
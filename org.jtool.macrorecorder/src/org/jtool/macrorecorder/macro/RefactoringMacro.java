@@ -6,6 +6,7 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.util.Map;
 import java.time.ZonedDateTime;
 import java.util.HashMap;
@@ -78,7 +79,7 @@ public class RefactoringMacro extends Macro {
      * @param name the name of a refactoring
      * @param map the map that stores arguments of a refactoring
      */
-    protected RefactoringMacro(ZonedDateTime time, String action, MacroPath mpath, String name, Map<String, String> map) {
+    public RefactoringMacro(ZonedDateTime time, String action, MacroPath mpath, String name, Map<String, String> map) {
         super(time, action, mpath);
         this.name = name;
         this.argumentMap = map;
@@ -195,20 +196,24 @@ public class RefactoringMacro extends Macro {
     }
     
     /**
-     * Returns the textual description of this macro.
-     * @return the textual description
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
      */
     @Override
-    public String getDescription() {
-        StringBuilder buf = new StringBuilder();
-        buf.append(super.getDescription());
+    public void writeDescription(Appendable out) throws IOException {
+        super.writeDescription(out);
         
-        buf.append(" name=[" + name + "]");
+        out.append(" name=[").append(name).append(']');
         if (selectionText.length() > 0) {
-            buf.append(" range=[" + getSelectionStart() + "-" + getSelectionEnd() + "]");
-            buf.append(" code=[" + getShortText(selectionText) + "]");
+            out.append(" range=[");
+            appendNumber(out, getSelectionStart());
+            out.append('-');
+            appendNumber(out, getSelectionEnd());
+            out.append("] code=[");
+            appendShortText(out, selectionText);
+            out.append(']');
         }
-        return buf.toString();
     }
     
     /**
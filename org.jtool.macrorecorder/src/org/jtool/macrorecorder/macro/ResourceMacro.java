@@ -6,6 +6,7 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import javax.json.JsonObject;
 
@@ -71,7 +72,7 @@ public class ResourceMacro extends Macro {
      * @param target the kind of the target of the resource
      * @param sdpath the path of the source or destination of the resource
      */
-    protected ResourceMacro(ZonedDateTime time, String action, MacroPath mpath, Target target, String sdpath) {
+    public ResourceMacro(ZonedDateTime time, String action, MacroPath mpath, Target target, String sdpath) {
         super(time, action, mpath);
         this.target = target;
         this.srcDstPath = sdpath;
@@ -190,23 +191,22 @@ public class ResourceMacro extends Macro {
     }
     
     /**
-     * Returns the textual description of this macro.
-     * @return the textual description
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
      */
     @Override
-    public String getDescription() {
-        StringBuilder buf = new StringBuilder();
-        buf.append(super.getDescription());
+    public void writeDescription(Appendable out) throws IOException {
+        super.writeDescription(out);
         
-        buf.append(" target=[" + target.toString() + "]");
+        out.append(" target=[").append(target.toString()).append(']');
         if (!getPath().equals(srcDstPath)) {
             if (isRemove() || isMoveTo() || isRenameTo()) {
-                buf.append(" to [" + srcDstPath + "]");
+                out.append(" to [").append(srcDstPath).append(']');
             } else {
-                buf.append(" from [" + srcDstPath + "]");
+                out.append(" from [").append(srcDstPath).append(']');
             }
         }
-        return buf.toString();
     }
     
     /**
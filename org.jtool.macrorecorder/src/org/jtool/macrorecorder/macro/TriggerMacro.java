@@ -6,8 +6,10 @@
 
 package org.jtool.macrorecorder.macro;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 
 /**
  * Stores a macro of a trigger related to an event.
@@ -39,6 +41,21 @@ public class TriggerMacro extends Macro {
      */
     private CommandMacro commandMacro = null;
     
+    /**
+     * The offset of the caret position at the beginning of cursor changes coalesced into this macro.
+     */
+    private int cursorStart = -1;
+    
+    /**
+     * The offset of the caret position at the end of cursor changes coalesced into this macro.
+     */
+    private int cursorEnd = -1;
+    
+    /**
+     * The number of cursor changes coalesced into this macro.
+     */
+    private int cursorCount = 0;
+    
     /**
      * Creates an object storing information about a trigger macro.
      * @param action the action of this trigger macro
@@ -81,7 +98,7 @@ public class TriggerMacro extends Macro {
      * @param timing the timing of a trigger
      * @param macro a command macro that causes this macro
      */
-    protected TriggerMacro(ZonedDateTime time, String action, MacroPath mpath, Timing timing, CommandMacro macro) {
+    public TriggerMacro(ZonedDateTime time, String action, MacroPath mpath, Timing timing, CommandMacro macro) {
         super(time, action, mpath);
         this.timing = timing;
         this.commandMacro = macro;
@@ -92,7 +109,9 @@ public class TriggerMacro extends Macro {
      */
     @Override
     public TriggerMacro clone() {
-        return new TriggerMacro(time, action, macroPath, timing, commandMacro);
+        TriggerMacro macro = new TriggerMacro(time, action, macroPath, timing, commandMacro);
+        macro.setCursorChange(cursorStart, cursorEnd, cursorCount);
+        return macro;
     }
     
     /**
@@ -111,6 +130,42 @@ public class TriggerMacro extends Macro {
         return commandMacro;
     }
     
+    /**
+     * Sets information about cursor changes coalesced into this macro.
+     * @param start the offset of the caret position at the beginning of the cursor changes
+     * @param end the offset of the caret position at the end of the cursor changes
+     * @param count the number of the coalesced cursor changes
+     */
+    public void setCursorChange(int start, int end, int count) {
+        cursorStart = start;
+        cursorEnd = end;
+        cursorCount = count;
+    }
+    
+    /**
+     * Returns the offset of the caret position at the beginning of cursor changes coalesced into this macro.
+     * @return the offset of the caret position, or <code>-1</code> if unknown
+     */
+    public int getCursorStart() {
+        return cursorStart;
+    }
+    
+    /**
+     * Returns the offset of the caret position at the end of cursor changes coalesced into this macro.
+     * @return the offset of the caret position, or <code>-1</code> if unknown
+     */
+    public int getCursorEnd() {
+        return cursorEnd;
+    }
+    
+    /**
+     * Returns the number of cursor changes coalesced into this macro.
+     * @return the number of the cursor changes
+     */
+    public int getCursorCount() {
+        return cursorCount;
+    }
+    
     /**
      * Tests this macro indicates a trigger the beginning of the event.
      * @return <code>true</code> if this macro indicates the beginning, otherwise <code>false</code>
@@ -160,16 +215,24 @@ public class TriggerMacro extends Macro {
     }
     
     /**
-     * Returns the textual description of this macro.
-     * @return the textual description
+     * Writes the textual description of this macro.
+     * @param out the destination of the textual description
+     * @throws IOException if an I/O error occurs
      */
     @Override
-    public String getDescription() {
-        StringBuilder buf = new StringBuilder();
-        buf.append(super.getDescription());
+    public void writeDescription(Appendable out) throws IOException {
+        super.writeDescription(out);
         
-        buf.append(" timing=[" + timing.toString() + "]");
-        return buf.toString();
+        out.append(" timing=[").append(timing.toString()).append(']');
+        if (cursorCount > 0) {
+            out.append(" cursor=[");
+            appendNumber(out, cursorStart);
+            out.append('-');
+            appendNumber(out, cursorEnd);
+            out.append("] num=[");
+            appendNumber(out, cursorCount);
+            out.append(']');
+        }
     }
     
     /**
@@ -178,9 +241,14 @@ public class TriggerMacro extends Macro {
      */
     @Override
     public JsonObject getJSON() {
-        JsonObject json = MacroJSON.getJSONObjectBuilder(this)
-          .add(MacroJSON.JSON_ATTR_TIMING, timing.toString())
-          .build();
+        JsonObjectBuilder builder = MacroJSON.getJSONObjectBuilder(this)
+          .add(MacroJSON.JSON_ATTR_TIMING, timing.toString());
+        if (cursorCount > 0) {
+            builder.add(MacroJSON.JSON_ATTR_CURSOR_START, cursorStart)
+                   .add(MacroJSON.JSON_ATTR_CURSOR_END, cursorEnd)
+                   .add(MacroJSON.JSON_ATTR_NUMBER, cursorCount);
+        }
+        JsonObject json = builder.build();
         return json;
     }
     
@@ -0,0 +1,455 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.recorder;
+
+import org.jtool.macrorecorder.LazyMacroHandler;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Sends macro events to a macro handler on its own thread.
+ * Events are queued by the recording thread without blocking, so a slow handler never delays the editor or other handlers.
+ * A circuit breaker disables the handler for a while when it repeatedly exceeds its time budget or throws exceptions.
+ * A watchdog interrupts a call that exceeds the time budget, and abandons it by disabling the handler if it still does not return.
+ * @author Katsuhisa Maruyama
+ */
+class HandlerLane implements IMacroListener {
+    
+    /**
+     * The maximum number of events waiting for being sent to the handler.
+     */
+    private static final int MAX_QUEUE_SIZE = 4096;
+    
+    /**
+     * The time budget (in milliseconds) of a call of the handler.
+     */
+    private static final long CALL_TIMEOUT = 2000;
+    
+    /**
+     * The number of consecutive failed calls that disables the handler.
+     */
+    private static final int FAILURE_THRESHOLD = 3;
+    
+    /**
+     * The time (in milliseconds) during which the disabled handler receives no event.
+     */
+    private static final long COOL_DOWN_TIME = 60 * 1000;
+    
+    /**
+     * The interval time (in milliseconds) at which the thread checks if it is stopped.
+     */
+    private static final long POLL_INTERVAL = 200;
+    
+    /**
+     * The timer that watches the calls of the handlers of all lanes.
+     */
+    private static final ScheduledThreadPoolExecutor watchdog = createWatchdog();
+    
+    /**
+     * The handler that receives macro events.
+     */
+    private IMacroHandler handler;
+    
+    /**
+     * The queue of events waiting for being sent to the handler and requests for flushing the handler.
+     */
+    private BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(MAX_QUEUE_SIZE);
+    
+    /**
+     * The thread that sends queued events to the handler.
+     */
+    private Thread laneThread = null;
+    
+    /**
+     * A flag that indicates if this lane has been stopped.
+     */
+    private boolean stopped = false;
+    
+    /**
+     * A flag that indicates if the thread has been told to finish after this lane was stopped.
+     */
+    private volatile boolean terminated = false;
+    
+    /**
+     * The time (by <code>System.nanoTime()</code>) when the current call of the handler started, or <code>0</code> if no call is running.
+     */
+    private volatile long callStartTime = 0;
+    
+    /**
+     * The number of consecutive failed calls.
+     */
+    private int failures = 0;
+    
+    /**
+     * The time (in milliseconds) until which the handler is disabled, or <code>0</code> if the handler is enabled.
+     */
+    private long disabledUntil = 0;
+    
+    /**
+     * The number of events that were dropped.
+     */
+    private int dropped = 0;
+    
+    /**
+     * The number of events that were dropped since the queue became full.
+     */
+    private volatile int overflowed = 0;
+    
+    /**
+     * A flag that indicates if events were dropped or discarded without being sent to the handler.
+     */
+    private boolean eventsLost = false;
+    
+    /**
+     * Creates a lane that sends macro events to a handler.
+     * @param handler the handler
+     */
+    HandlerLane(IMacroHandler handler) {
+        assert handler != null;
+        this.handler = handler;
+    }
+    
+    /**
+     * Creates the timer that watches the calls of the handlers.
+     * @return the timer running on a daemon thread
+     */
+    private static ScheduledThreadPoolExecutor createWatchdog() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "MacroHandler-Watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+    
+    /**
+     * Returns the handler that receives macro events.
+     * @return the handler
+     */
+    IMacroHandler getHandler() {
+        return handler;
+    }
+    
+    /**
+     * Receives an event when a new change macro is added.
+     * @param evt the macro event
+     */
+    @Override
+    public void macroAdded(MacroEvent evt) {
+        dispatch(evt);
+    }
+    
+    /**
+     * Receives an event when a new raw change macro is added.
+     * @param evt the raw macro event
+     */
+    @Override
+    public void rawMacroAdded(MacroEvent evt) {
+        dispatch(evt);
+    }
+    
+    /**
+     * Queues a macro event without blocking.
+     * The event is dropped if this lane has been stopped, the handler is disabled, or the queue is full.
+     * Drops caused by the full queue are reported when they begin and when they end.
+     * @param evt the macro event
+     */
+    private void dispatch(MacroEvent evt) {
+        if (!start()) {
+            return;
+        }
+        
+        synchronized (this) {
+            if (disabledUntil != 0) {
+                if (System.currentTimeMillis() < disabledUntil || callStartTime != 0) {
+                    dropped++;
+                    eventsLost = true;
+                    return;
+                }
+                disabledUntil = 0;
+                failures = 0;
+                MacroConsole.println("Handler " + getName() + " is enabled again (" + dropped + " events dropped)");
+                dropped = 0;
+            }
+        }
+        
+        if (!queue.offer(() -> call(evt))) {
+            int count;
+            synchronized (this) {
+                eventsLost = true;
+                count = ++overflowed;
+            }
+            if (count == 1) {
+                MacroConsole.println("Handler " + getName() + " drops events because " + MAX_QUEUE_SIZE + " events are waiting");
+            }
+        } else if (overflowed != 0) {
+            int count;
+            synchronized (this) {
+                count = overflowed;
+                overflowed = 0;
+            }
+            if (count != 0) {
+                MacroConsole.println("Handler " + getName() + " dropped " + count + " events while its queue was full");
+            }
+        }
+    }
+    
+    /**
+     * Asks the handler to write out the macros it buffers after it receives all the events queued so far.
+     * The handler is regarded as not flushed if this lane is stopped, the handler is disabled, the request cannot be queued,
+     * or any event has been dropped or discarded without being sent to the handler.
+     * @param done the callback that receives <code>true</code> if the handler has been flushed, otherwise <code>false</code>
+     */
+    void flush(Consumer<Boolean> done) {
+        boolean enabled;
+        synchronized (this) {
+            enabled = !stopped && laneThread != null && disabledUntil == 0 && !eventsLost;
+        }
+        if (!enabled || !queue.offer(new FlushRequest(done))) {
+            done.accept(false);
+        }
+    }
+    
+    /**
+     * Tests if all the events sent to this lane have been sent to the handler or are still queued.
+     * @return <code>true</code> if no event has been dropped or discarded, otherwise <code>false</code>
+     */
+    private synchronized boolean isLossless() {
+        return !eventsLost;
+    }
+    
+    /**
+     * Starts the thread that sends queued events to the handler unless this lane has been stopped.
+     * @return <code>true</code> if the thread is running, or <code>false</code> if this lane has been stopped
+     */
+    synchronized boolean start() {
+        if (stopped) {
+            return false;
+        }
+        if (laneThread != null) {
+            return true;
+        }
+        
+        laneThread = new Thread("MacroHandler-" + getName()) {
+            
+            /**
+             * Sends queued events to the handler until this lane is terminated.
+             * An interrupt by the watchdog does not finish this thread.
+             */
+            @Override
+            public void run() {
+                while (!terminated) {
+                    try {
+                        Runnable task = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                        if (task != null) {
+                            task.run();
+                        }
+                    } catch (InterruptedException e) { /* empty */ }
+                }
+            }
+        };
+        laneThread.setDaemon(true);
+        laneThread.start();
+        return true;
+    }
+    
+    /**
+     * Stops the thread after sending the remaining events to the handler.
+     * Events that arrive after this lane is stopped are dropped, and the thread is never started again.
+     * The thread is abandoned if the handler does not finish within its time budget.
+     */
+    void stop() {
+        Thread thread;
+        synchronized (this) {
+            stopped = true;
+            thread = laneThread;
+            laneThread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        
+        long deadline = System.currentTimeMillis() + CALL_TIMEOUT;
+        try {
+            while ((!queue.isEmpty() || callStartTime != 0) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) { /* empty */ }
+        
+        terminated = true;
+        thread.interrupt();
+        discard();
+    }
+    
+    /**
+     * Sends a macro event to the handler and measures the time of the call.
+     * The watchdog interrupts the call if it exceeds the time budget.
+     * @param evt the macro event
+     */
+    private void call(MacroEvent evt) {
+        boolean failed = false;
+        String reason = null;
+        long start = System.nanoTime();
+        callStartTime = start;
+        Thread thread = Thread.currentThread();
+        ScheduledFuture<?> timer = watchdog.schedule(() -> interrupt(thread, start), CALL_TIMEOUT, TimeUnit.MILLISECONDS);
+        try {
+            if (evt.getEventType() == MacroEvent.Type.RAW_MACRO) {
+                handler.rawMacroAdded(evt);
+            } else {
+                handler.macroAdded(evt);
+            }
+        } catch (RuntimeException e) {
+            failed = true;
+            reason = "it threw " + e.toString();
+        } finally {
+            timer.cancel(false);
+            callStartTime = 0;
+            Thread.interrupted();
+        }
+        
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (elapsed > CALL_TIMEOUT) {
+            failed = true;
+            reason = "a call took " + elapsed + " ms";
+        }
+        
+        synchronized (this) {
+            if (!failed) {
+                failures = 0;
+                return;
+            }
+            failures++;
+            if (failures < FAILURE_THRESHOLD) {
+                return;
+            }
+        }
+        disable(reason);
+    }
+    
+    /**
+     * Interrupts a call of the handler that exceeds the time budget.
+     * The call is abandoned by disabling the handler if it does not return within the time budget of the remaining failures.
+     * @param thread the thread running the call
+     * @param start the time when the call started
+     */
+    private void interrupt(Thread thread, long start) {
+        if (callStartTime != start) {
+            return;
+        }
+        
+        MacroConsole.println("Handler " + getName() + " is interrupted because a call has not returned for " + CALL_TIMEOUT + " ms");
+        thread.interrupt();
+        watchdog.schedule(() -> {
+            if (callStartTime == start) {
+                disable("a call has not returned for " + (CALL_TIMEOUT * FAILURE_THRESHOLD) + " ms");
+            }
+        }, CALL_TIMEOUT * (FAILURE_THRESHOLD - 1), TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Disables the handler and discards the queued events.
+     * @param reason the reason why the handler is disabled
+     */
+    private void disable(String reason) {
+        synchronized (this) {
+            if (disabledUntil != 0) {
+                return;
+            }
+            disabledUntil = System.currentTimeMillis() + COOL_DOWN_TIME;
+        }
+        int count = discard();
+        synchronized (this) {
+            dropped = dropped + count;
+            eventsLost = eventsLost || count > 0;
+        }
+        MacroConsole.println("Handler " + getName() + " is disabled for " + (COOL_DOWN_TIME / 1000) + " seconds because " + reason +
+                " (" + count + " queued events discarded)");
+    }
+    
+    /**
+     * Discards the queued events and completes the queued requests for flushing the handler as not flushed.
+     * @return the number of the discarded events
+     */
+    private int discard() {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        queue.drainTo(tasks);
+        int count = 0;
+        for (Runnable task : tasks) {
+            if (!(task instanceof FlushRequest)) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            synchronized (this) {
+                eventsLost = true;
+            }
+        }
+        for (Runnable task : tasks) {
+            if (task instanceof FlushRequest) {
+                ((FlushRequest)task).done.accept(false);
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the name of the handler.
+     * @return the simple class name of the handler, or its full name if the class is anonymous
+     */
+    private String getName() {
+        if (handler instanceof LazyMacroHandler) {
+            return ((LazyMacroHandler)handler).getName();
+        }
+        String name = handler.getClass().getSimpleName();
+        if (name.length() == 0) {
+            return handler.getClass().getName();
+        }
+        return name;
+    }
+    
+    /**
+     * A request for flushing the handler, which is queued behind the events sent before it.
+     */
+    private class FlushRequest implements Runnable {
+        
+        /**
+         * The callback that receives whether the handler has been flushed.
+         */
+        private Consumer<Boolean> done;
+        
+        /**
+         * Creates a request for flushing the handler.
+         * @param done the callback that receives whether the handler has been flushed
+         */
+        FlushRequest(Consumer<Boolean> done) {
+            this.done = done;
+        }
+        
+        /**
+         * Flushes the handler and tells the callback whether all the events sent before this request reached the handler.
+         */
+        @Override
+        public void run() {
+            boolean flushed = true;
+            try {
+                handler.flush();
+            } catch (RuntimeException e) {
+                MacroConsole.println("Handler " + getName() + " cannot be flushed because it threw " + e.toString());
+                flushed = false;
+            }
+            done.accept(flushed && isLossless());
+        }
+    }
+}
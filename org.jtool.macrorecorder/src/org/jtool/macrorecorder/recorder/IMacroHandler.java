@@ -15,6 +15,7 @@ public interface IMacroHandler extends IMacroListener {
     /**
      * Tests if the macro recording is allowed.
      * This handler will be registered if <code>true</code> is returned, otherwise the handler will not be registered.
+     * This method is not invoked if the extension of this handler declares the <code>recordingAllowed</code> attribute.
      */
     public boolean recordingAllowed();
     
@@ -27,4 +28,11 @@ public interface IMacroHandler extends IMacroListener {
      * Invoked to terminate this handler immediately after stopping the macro recording.
      */
     public void terminate();
+    
+    /**
+     * Invoked on the thread of this handler to write out the macros that this handler buffers.
+     * Macros that were sent before this call are discarded from the journal for crash recovery after it returns.
+     */
+    public default void flush() {
+    }
 }
@@ -1,11 +1,13 @@
 /*
- *  Copyright 2016-2018
+ *  Copyright 2016-2019
  *  Software Science and Technology Lab.
  *  Department of Computer Science, Ritsumeikan University
  */
 
 package org.jtool.macrorecorder.recorder;
 
+import java.util.concurrent.Flow;
+
 /**
  * An interface for recording change macros that were performed on Eclipse.
  * @author Katsuhisa Maruyama
@@ -39,4 +41,25 @@ public interface IMacroRecorder {
      * @return <code>true</code> if the combinator is attached to the listener, otherwise <code>false</code>
      */
     public boolean setDocMacroCombinator(IMacroListener listener, IDocMacroCombinator combinator);
+    
+    /**
+     * Returns a publisher that sends change macro events to subscribers according to their demand.
+     * @param type the type of the published events
+     * @param policy the policy applied to events that exceed the demand of a subscriber
+     * @return the publisher
+     */
+    public Flow.Publisher<MacroEvent> getMacroPublisher(MacroEvent.Type type, MacroPublisher.Policy policy);
+    
+    /**
+     * Adds a stage that processes macros once before they are sent to the listeners.
+     * The added stage is placed after the existing stages.
+     * @param stage the stage to be added
+     */
+    public void addMacroStage(IMacroStage stage);
+    
+    /**
+     * Removes a stage that processes macros.
+     * @param stage the stage to be removed
+     */
+    public void removeMacroStage(IMacroStage stage);
 }
@@ -0,0 +1,22 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.recorder;
+
+import org.jtool.macrorecorder.macro.Macro;
+
+/**
+ * An interface for receiving macros that flow through a chain of macro stages.
+ * @author Katsuhisa Maruyama
+ */
+public interface IMacroSink {
+    
+    /**
+     * Receives a macro.
+     * @param macro the macro
+     */
+    public void accept(Macro macro);
+}
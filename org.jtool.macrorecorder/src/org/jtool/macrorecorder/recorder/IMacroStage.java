@@ -0,0 +1,26 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.recorder;
+
+/**
+ * An interface for a stage that processes macros once before they are sent to the listeners.
+ * A stage filters, maps, enriches, or splits each macro by passing zero, one, or more macros to its downstream sink.
+ * The stages are linked into a single chain of sinks when they are registered, so that a macro flows through them without
+ * iterating over the stages or allocating intermediate collections.
+ * A stage must not throw an exception, and should not block because it runs on the thread that records macros.
+ * @author Katsuhisa Maruyama
+ */
+public interface IMacroStage {
+    
+    /**
+     * Creates a sink that processes macros and passes the results to the downstream sink.
+     * This method is invoked for the chain of macros and the chain of raw macros respectively.
+     * @param downstream the sink that receives the processed macros
+     * @return the sink that receives macros to be processed
+     */
+    public IMacroSink link(IMacroSink downstream);
+}
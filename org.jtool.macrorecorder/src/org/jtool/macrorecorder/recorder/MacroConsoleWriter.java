@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.recorder;
+
+import org.jtool.macrorecorder.macro.Macro;
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Displays macros on the dedicated console in the background.
+ * Macros are queued by the recording thread and their descriptions are created and printed by a writer thread,
+ * which coalesces bursts of macros and limits the amount of output per second.
+ * @author Katsuhisa Maruyama
+ */
+class MacroConsoleWriter {
+    
+    /**
+     * The interval time (in milliseconds) between consecutive outputs.
+     */
+    private static final int FLUSH_INTERVAL = 200;
+    
+    /**
+     * The maximum number of characters that are displayed per second.
+     */
+    private static final int MAX_CHARS_PER_SECOND = 64 * 1024;
+    
+    /**
+     * The maximum number of macros waiting for being displayed.
+     */
+    private static final int MAX_QUEUE_SIZE = 8192;
+    
+    /**
+     * The queue of macros waiting for being displayed.
+     */
+    private BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(MAX_QUEUE_SIZE);
+    
+    /**
+     * The thread that displays queued macros.
+     */
+    private Thread writerThread = null;
+    
+    /**
+     * The number of characters that can be currently displayed.
+     */
+    private long allowance = MAX_CHARS_PER_SECOND;
+    
+    /**
+     * The time when the allowance was lastly updated.
+     */
+    private long lastTime = System.currentTimeMillis();
+    
+    /**
+     * The number of macros that were not displayed.
+     */
+    private int suppressed = 0;
+    
+    /**
+     * Creates an object that displays macros in the background.
+     */
+    MacroConsoleWriter() {
+    }
+    
+    /**
+     * Displays a macro on the dedicated console per line.
+     * This method returns immediately without creating the description of the macro.
+     * @param prefix the string prepended to the description of the macro
+     * @param macro the macro to be displayed
+     */
+    void println(String prefix, Macro macro) {
+        start();
+        
+        if (!queue.offer(new Entry(prefix, macro))) {
+            synchronized (this) {
+                suppressed++;
+            }
+        }
+    }
+    
+    /**
+     * Starts the thread that displays queued macros.
+     */
+    synchronized void start() {
+        if (writerThread != null) {
+            return;
+        }
+        
+        writerThread = new Thread("MacroConsoleWriter") {
+            
+            /**
+             * Displays queued macros at regular intervals until this thread is interrupted.
+             */
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        Entry entry = queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                        if (entry != null) {
+                            Thread.sleep(FLUSH_INTERVAL);
+                        }
+                        flush(entry);
+                    }
+                } catch (InterruptedException e) { /* empty */ }
+            }
+        };
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+    
+    /**
+     * Stops the thread that displays queued macros after displaying the remaining ones.
+     */
+    void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = writerThread;
+            writerThread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        
+        thread.interrupt();
+        try {
+            thread.join(FLUSH_INTERVAL * 5);
+        } catch (InterruptedException e) { /* empty */ }
+        flush(null);
+    }
+    
+    /**
+     * Displays all the queued macros at a time.
+     * @param first the macro that was firstly taken from the queue, or <code>null</code> if none
+     */
+    private void flush(Entry first) {
+        List<Entry> entries = new ArrayList<Entry>();
+        if (first != null) {
+            entries.add(first);
+        }
+        queue.drainTo(entries);
+        
+        StringBuilder buf = new StringBuilder();
+        synchronized (this) {
+            replenish();
+            
+            for (Entry entry : entries) {
+                if (allowance <= 0) {
+                    suppressed++;
+                    continue;
+                }
+                
+                int len = buf.length();
+                buf.append(entry.prefix);
+                try {
+                    entry.macro.writeDescription(buf);
+                } catch (IOException e) { /* empty */ }
+                buf.append('\n');
+                allowance = allowance - (buf.length() - len);
+            }
+            
+            if (suppressed > 0 && allowance > 0) {
+                buf.append(suppressed + " macros suppressed\n");
+                suppressed = 0;
+            }
+        }
+        
+        if (buf.length() > 0) {
+            MacroConsole.print(buf.toString());
+        }
+    }
+    
+    /**
+     * Restores the number of characters that can be displayed according to the elapsed time.
+     */
+    private void replenish() {
+        long now = System.currentTimeMillis();
+        allowance = Math.min(MAX_CHARS_PER_SECOND, allowance + (now - lastTime) * MAX_CHARS_PER_SECOND / 1000);
+        lastTime = now;
+    }
+    
+    /**
+     * A macro waiting for being displayed.
+     */
+    private static class Entry {
+        
+        /**
+         * The string prepended to the description of the macro.
+         */
+        private String prefix;
+        
+        /**
+         * The macro to be displayed.
+         */
+        private Macro macro;
+        
+        /**
+         * Creates a macro waiting for being displayed.
+         * @param prefix the string prepended to the description of the macro
+         * @param macro the macro to be displayed
+         */
+        Entry(String prefix, Macro macro) {
+            this.prefix = prefix;
+            this.macro = macro;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.recorder;
+
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.CancelMacro;
+import java.util.List;
+import java.util.Deque;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes change macro events to subscribers according to their demand.
+ * Each subscriber has its own bounded buffer, and events that exceed the demand of a subscriber
+ * are buffered, coalesced, or dropped by a policy, so that the recording thread is never blocked.
+ * Events are sent to subscribers on an executor.
+ * @author Katsuhisa Maruyama
+ */
+public class MacroPublisher implements Flow.Publisher<MacroEvent>, IMacroListener {
+    
+    /**
+     * The policy applied to events when the buffer of a subscriber is full.
+     */
+    public enum Policy {
+        
+        /**
+         * Drops the oldest buffered event.
+         */
+        DROP_OLDEST,
+        
+        /**
+         * Drops the newest event.
+         */
+        DROP_LATEST,
+        
+        /**
+         * Combines successive buffered document macros with a combinator, and drops the oldest event if still full.
+         */
+        COALESCE;
+    }
+    
+    /**
+     * The default number of events buffered for each subscriber.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+    
+    /**
+     * The macro recorder that sends events to this publisher.
+     */
+    private IMacroRecorder recorder;
+    
+    /**
+     * The type of the published events.
+     */
+    private MacroEvent.Type type;
+    
+    /**
+     * The policy applied to events that exceed the buffer of a subscriber.
+     */
+    private Policy policy;
+    
+    /**
+     * The number of events buffered for each subscriber.
+     */
+    private int bufferSize;
+    
+    /**
+     * The executor that sends events to subscribers.
+     */
+    private Executor executor;
+    
+    /**
+     * The combinator that coalesces buffered document macros.
+     */
+    private IDocMacroCombinator combinator = new DocMacroCombinator();
+    
+    /**
+     * The subscriptions of the current subscribers.
+     */
+    private List<MacroSubscription> subscriptions = new CopyOnWriteArrayList<MacroSubscription>();
+    
+    /**
+     * Creates a publisher of change macro events.
+     * @param recorder the macro recorder that sends events to the publisher
+     * @param type the type of the published events
+     * @param policy the policy applied to events that exceed the buffer of a subscriber
+     * @param bufferSize the number of events buffered for each subscriber
+     * @param executor the executor that sends events to subscribers
+     */
+    public MacroPublisher(IMacroRecorder recorder, MacroEvent.Type type, Policy policy, int bufferSize, Executor executor) {
+        assert recorder != null;
+        assert type != null;
+        assert policy != null;
+        assert executor != null;
+        this.recorder = recorder;
+        this.type = type;
+        this.policy = policy;
+        this.bufferSize = Math.max(1, bufferSize);
+        this.executor = executor;
+    }
+    
+    /**
+     * Creates a publisher of change macro events, which sends events on the common pool.
+     * @param recorder the macro recorder that sends events to the publisher
+     * @param type the type of the published events
+     * @param policy the policy applied to events that exceed the buffer of a subscriber
+     */
+    public MacroPublisher(IMacroRecorder recorder, MacroEvent.Type type, Policy policy) {
+        this(recorder, type, policy, DEFAULT_BUFFER_SIZE, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Sets a combinator that coalesces buffered document macros.
+     * @param combinator the combinator
+     */
+    public void setDocMacroCombinator(IDocMacroCombinator combinator) {
+        assert combinator != null;
+        this.combinator = combinator;
+    }
+    
+    /**
+     * Adds a subscriber that receives change macro events.
+     * The publisher starts receiving events from the recorder when its first subscriber is added.
+     * @param subscriber the subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super MacroEvent> subscriber) {
+        assert subscriber != null;
+        MacroSubscription subscription = new MacroSubscription(subscriber);
+        synchronized (this) {
+            subscriptions.add(subscription);
+            if (subscriptions.size() == 1) {
+                recorder.addMacroListener(this);
+            }
+        }
+        subscription.start();
+    }
+    
+    /**
+     * Returns the number of the current subscribers.
+     * @return the number of the subscribers
+     */
+    public int getNumberOfSubscribers() {
+        return subscriptions.size();
+    }
+    
+    /**
+     * Returns the number of events that were dropped for the current subscribers.
+     * @return the number of the dropped events
+     */
+    public long getDroppedCount() {
+        long count = 0;
+        for (MacroSubscription subscription : subscriptions) {
+            count = count + subscription.getDroppedCount();
+        }
+        return count;
+    }
+    
+    /**
+     * Completes all the subscriptions after sending their buffered events.
+     */
+    public void close() {
+        for (MacroSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+    }
+    
+    /**
+     * Receives an event when a new change macro is added.
+     * @param evt the macro event
+     */
+    @Override
+    public void macroAdded(MacroEvent evt) {
+        if (type == MacroEvent.Type.GENERIC_MACRO) {
+            publish(evt);
+        }
+    }
+    
+    /**
+     * Receives an event when a new raw change macro is added.
+     * @param evt the raw macro event
+     */
+    @Override
+    public void rawMacroAdded(MacroEvent evt) {
+        if (type == MacroEvent.Type.RAW_MACRO) {
+            publish(evt);
+        }
+    }
+    
+    /**
+     * Sends an event to all the subscribers.
+     * @param evt the macro event
+     */
+    private void publish(MacroEvent evt) {
+        for (MacroSubscription subscription : subscriptions) {
+            subscription.offer(evt);
+        }
+    }
+    
+    /**
+     * Removes a subscription.
+     * The publisher stops receiving events from the recorder when its last subscriber is removed.
+     * @param subscription the subscription to be removed
+     */
+    private void remove(MacroSubscription subscription) {
+        synchronized (this) {
+            if (subscriptions.remove(subscription) && subscriptions.size() == 0) {
+                recorder.removeMacroListener(this);
+            }
+        }
+    }
+    
+    /**
+     * A subscription that buffers events for a subscriber until it requests them.
+     */
+    private class MacroSubscription implements Flow.Subscription {
+        
+        /**
+         * The subscriber that receives events.
+         */
+        private Flow.Subscriber<? super MacroEvent> subscriber;
+        
+        /**
+         * The buffer of events waiting for being sent.
+         */
+        private Deque<MacroEvent> buffer = new ArrayDeque<MacroEvent>();
+        
+        /**
+         * The number of events requested by the subscriber but not sent yet.
+         */
+        private AtomicLong demand = new AtomicLong();
+        
+        /**
+         * The number of pending requests for sending events, which serializes the signals to the subscriber.
+         */
+        private AtomicInteger pending = new AtomicInteger();
+        
+        /**
+         * The flag that indicates if the subscription has not started yet.
+         */
+        private volatile boolean starting = true;
+        
+        /**
+         * The flag that indicates if the subscription was cancelled.
+         */
+        private volatile boolean cancelled = false;
+        
+        /**
+         * The flag that indicates if the subscription is completed after sending buffered events.
+         */
+        private volatile boolean completing = false;
+        
+        /**
+         * The error signaled to the subscriber, or <code>null</code> if none.
+         */
+        private volatile Throwable error = null;
+        
+        /**
+         * The number of events that were dropped.
+         */
+        private long dropped = 0;
+        
+        /**
+         * Creates a subscription.
+         * @param subscriber the subscriber that receives events
+         */
+        MacroSubscription(Flow.Subscriber<? super MacroEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+        
+        /**
+         * Requests events.
+         * @param n the number of the requested events
+         */
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, add) -> {
+                    long sum = current + add;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            drain();
+        }
+        
+        /**
+         * Cancels this subscription.
+         */
+        @Override
+        public void cancel() {
+            cancelled = true;
+            synchronized (buffer) {
+                buffer.clear();
+            }
+            remove(this);
+        }
+        
+        /**
+         * Returns the number of events that were dropped.
+         * @return the number of the dropped events
+         */
+        long getDroppedCount() {
+            synchronized (buffer) {
+                return dropped;
+            }
+        }
+        
+        /**
+         * Signals the subscription to the subscriber.
+         */
+        void start() {
+            drain();
+        }
+        
+        /**
+         * Completes this subscription after sending buffered events.
+         */
+        void complete() {
+            completing = true;
+            drain();
+        }
+        
+        /**
+         * Buffers an event according to the policy.
+         * @param evt the event
+         */
+        void offer(MacroEvent evt) {
+            if (cancelled || completing) {
+                return;
+            }
+            
+            synchronized (buffer) {
+                if (policy == Policy.COALESCE && coalesce(evt)) {
+                    return;
+                }
+                if (buffer.size() >= bufferSize) {
+                    dropped++;
+                    if (policy == Policy.DROP_LATEST) {
+                        return;
+                    }
+                    buffer.pollFirst();
+                }
+                buffer.addLast(evt);
+            }
+            drain();
+        }
+        
+        /**
+         * Combines an event with the last buffered event.
+         * @param evt the event
+         * @return <code>true</code> if the event was combined, otherwise <code>false</code>
+         */
+        private boolean coalesce(MacroEvent evt) {
+            MacroEvent last = buffer.peekLast();
+            if (last == null || !(last.getMacro() instanceof DocumentMacro) || !(evt.getMacro() instanceof DocumentMacro)) {
+                return false;
+            }
+            
+            DocumentMacro former = (DocumentMacro)last.getMacro();
+            DocumentMacro latter = (DocumentMacro)evt.getMacro();
+            if (!Objects.equals(former.getPath(), latter.getPath()) || !canCombine(former) || !canCombine(latter)) {
+                return false;
+            }
+            DocumentMacro combined = combinator.combine(former, latter);
+            if (combined == null) {
+                return false;
+            }
+            buffer.pollLast();
+            buffer.addLast(new MacroEvent(evt.getEventType(), combined));
+            return true;
+        }
+        
+        /**
+         * Tests if a document macro can be combined with another one.
+         * @param macro the document macro
+         * @return <code>true</code> if the macro can be combined, otherwise <code>false</code>
+         */
+        private boolean canCombine(DocumentMacro macro) {
+            return !(macro instanceof CancelMacro) && !macro.isCut() && !macro.isPaste() && combinator.canCombine(macro);
+        }
+        
+        /**
+         * Sends buffered events to the subscriber on the executor as many as it requested.
+         */
+        private void drain() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this::run);
+            }
+        }
+        
+        /**
+         * Sends buffered events to the subscriber.
+         * Only one thread executes this method at a time.
+         */
+        private void run() {
+            int missed = 1;
+            while (true) {
+                if (starting) {
+                    starting = false;
+                    subscriber.onSubscribe(this);
+                }
+                
+                while (!cancelled && demand.get() > 0) {
+                    MacroEvent evt;
+                    synchronized (buffer) {
+                        evt = buffer.pollFirst();
+                    }
+                    if (evt == null) {
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(evt);
+                }
+                
+                if (!cancelled) {
+                    if (error != null) {
+                        cancel();
+                        subscriber.onError(error);
+                    } else if (completing && isEmpty()) {
+                        cancel();
+                        subscriber.onComplete();
+                    }
+                }
+                
+                missed = pending.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * Tests if no event is buffered.
+         * @return <code>true</code> if the buffer is empty, otherwise <code>false</code>
+         */
+        private boolean isEmpty() {
+            synchronized (buffer) {
+                return buffer.isEmpty();
+            }
+        }
+    }
+}
@@ -8,6 +8,8 @@ package org.jtool.macrorecorder.recorder;
 
 import org.jtool.macrorecorder.macro.Macro;
 import org.jtool.macrorecorder.MacroHandlerLoader;
+import org.jtool.macrorecorder.MacroStageLoader;
+import org.jtool.macrorecorder.LazyMacroHandler;
 import org.jtool.macrorecorder.internal.recorder.Notifier;
 import org.jtool.macrorecorder.internal.recorder.Recorder;
 import java.util.List;
@@ -19,6 +21,13 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.concurrent.Flow;
 
 /**
  * Records macros that were performed on Eclipse.
@@ -46,6 +55,21 @@ public class MacroRecorder implements IMacroRecorder {
      */
     private Set<IMacroHandler> macroHandlers = new HashSet<IMacroHandler>();
     
+    /**
+     * The stages that process change macros before they are sent to the listeners.
+     */
+    private List<IMacroStage> macroStages = new ArrayList<IMacroStage>();
+    
+    /**
+     * The lanes that send change macros to the respective macro handlers on their own threads.
+     */
+    private Map<IMacroHandler, HandlerLane> handlerLanes = new ConcurrentHashMap<IMacroHandler, HandlerLane>();
+    
+    /**
+     * The publishers of change macro events, which are created on demand.
+     */
+    private Map<String, MacroPublisher> macroPublishers = new HashMap<String, MacroPublisher>();
+    
     /**
      * A flag that indicates if this macro recorder is running.
      */
@@ -71,6 +95,11 @@ public class MacroRecorder implements IMacroRecorder {
      */
     private IMacroListener macroHandlerForDebugging = null;
     
+    /**
+     * A writer that displays recorded change macros on the console in the background.
+     */
+    private MacroConsoleWriter consoleWriter = new MacroConsoleWriter();
+    
     /**
      * Creates an object that records macros.
      */
@@ -78,6 +107,8 @@ public class MacroRecorder implements IMacroRecorder {
         internalRecorder = new Recorder(this);
         
         macroHandlers = MacroHandlerLoader.load();
+        macroStages = MacroStageLoader.load();
+        internalRecorder.setMacroStages(new ArrayList<IMacroStage>(macroStages));
     }
     
     /**
@@ -95,7 +126,15 @@ public class MacroRecorder implements IMacroRecorder {
     @Override
     public void addMacroListener(IMacroListener listener) {
         assert listener != null;
-        macroNotifiers.add(new Notifier(listener, new DocMacroCombinator()));
+        addNotifier(new Notifier(listener, new DocMacroCombinator()));
+    }
+    
+    /**
+     * Adds a notifier that sends change macro events to a listener, and starts the recording if needed.
+     * @param notifier the notifier
+     */
+    private void addNotifier(Notifier notifier) {
+        macroNotifiers.add(notifier);
         
         start();
     }
@@ -122,7 +161,11 @@ public class MacroRecorder implements IMacroRecorder {
      */
     private Notifier getNotifier(IMacroListener listener) {
         for (Notifier notifier : macroNotifiers) {
-            if (notifier.getMacroListener().equals(listener)) {
+            IMacroListener l = notifier.getMacroListener();
+            if (l.equals(listener)) {
+                return notifier;
+            }
+            if (l instanceof HandlerLane && ((HandlerLane)l).getHandler().equals(listener)) {
                 return notifier;
             }
         }
@@ -159,12 +202,23 @@ public class MacroRecorder implements IMacroRecorder {
     
     /**
      * Registers macro handlers that receives change macros.
+     * Each handler receives change macros on its own thread so that a slow handler does not delay others.
+     * A handler that declares the types of macros it consumes receives only macros of those types.
+     * Macros recovered from the journal are sent to the handlers after all of them are initialized.
      */
     public void registerHandlers() {
         for (IMacroHandler handler : macroHandlers) {
-            addMacroListener(handler);
+            HandlerLane lane = new HandlerLane(handler);
+            handlerLanes.put(handler, lane);
+            Notifier notifier = new Notifier(lane, new DocMacroCombinator());
+            if (handler instanceof LazyMacroHandler) {
+                LazyMacroHandler lazyHandler = (LazyMacroHandler)handler;
+                notifier.setMacroTypes(lazyHandler.getMacroTypes(), lazyHandler.acceptsRawMacros());
+            }
+            addNotifier(notifier);
             handler.initialize();
         }
+        internalRecorder.replayRecoveredMacros();
     }
     
     /**
@@ -172,11 +226,42 @@ public class MacroRecorder implements IMacroRecorder {
      */
     public void unregisterHandlers() {
         for (IMacroHandler handler : macroHandlers) {
-            removeMacroListener(handler);
+            HandlerLane lane = handlerLanes.remove(handler);
+            if (lane != null) {
+                removeMacroListener(lane);
+                lane.stop();
+            }
             handler.terminate();
         }
     }
     
+    /**
+     * Asks all the registered macro handlers to write out the macros they buffer.
+     * Each handler is flushed on its own thread after it receives the macros sent so far.
+     * @param done the callback that receives <code>true</code> once all the handlers have been flushed,
+     * or <code>false</code> if any handler has not been flushed or has missed macros
+     */
+    public void flushHandlers(Consumer<Boolean> done) {
+        List<HandlerLane> lanes = new ArrayList<HandlerLane>(handlerLanes.values());
+        if (lanes.size() == 0) {
+            done.accept(true);
+            return;
+        }
+        
+        AtomicInteger remaining = new AtomicInteger(lanes.size());
+        AtomicBoolean flushedAll = new AtomicBoolean(true);
+        for (HandlerLane lane : lanes) {
+            lane.flush(flushed -> {
+                if (!flushed) {
+                    flushedAll.set(false);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    done.accept(flushedAll.get());
+                }
+            });
+        }
+    }
+    
     /**
      * Tests if this macro recorder is running.
      * @return <code>true</code> if this macro recorder is running, otherwise <code>false</code>
@@ -254,6 +339,50 @@ public class MacroRecorder implements IMacroRecorder {
         return true;
     }
     
+    /**
+     * Adds a stage that processes macros once before they are sent to the listeners.
+     * The added stage is placed after the existing stages.
+     * @param stage the stage to be added
+     */
+    @Override
+    public synchronized void addMacroStage(IMacroStage stage) {
+        assert stage != null;
+        macroStages.add(stage);
+        internalRecorder.setMacroStages(new ArrayList<IMacroStage>(macroStages));
+    }
+    
+    /**
+     * Removes a stage that processes macros.
+     * @param stage the stage to be removed
+     */
+    @Override
+    public synchronized void removeMacroStage(IMacroStage stage) {
+        assert stage != null;
+        if (macroStages.remove(stage)) {
+            internalRecorder.setMacroStages(new ArrayList<IMacroStage>(macroStages));
+        }
+    }
+    
+    /**
+     * Returns a publisher that sends change macro events to subscribers according to their demand.
+     * The same publisher is returned for the same type and policy.
+     * @param type the type of the published events
+     * @param policy the policy applied to events that exceed the demand of a subscriber
+     * @return the publisher
+     */
+    @Override
+    public synchronized Flow.Publisher<MacroEvent> getMacroPublisher(MacroEvent.Type type, MacroPublisher.Policy policy) {
+        assert type != null;
+        assert policy != null;
+        String key = type.toString() + "$" + policy.toString();
+        MacroPublisher publisher = macroPublishers.get(key);
+        if (publisher == null) {
+            publisher = new MacroPublisher(this, type, policy);
+            macroPublishers.put(key, publisher);
+        }
+        return publisher;
+    }
+    
     /**
      * Sets a flag that indicates if macros are displayed on the console for debugging.
      * @param display <code>true</code> if recorded macros are displayed, otherwise <code>false</code>
@@ -313,7 +442,7 @@ public class MacroRecorder implements IMacroRecorder {
                  */
                 public void macroAdded(MacroEvent evt) {
                     if (displayMacro) {
-                        MacroConsole.println(evt.getMacro().getDescription());
+                        consoleWriter.println("", evt.getMacro());
                     }
                     if (urlForPost != null) {
                         postMacro(evt.getMacro().getDescription());
@@ -326,7 +455,7 @@ public class MacroRecorder implements IMacroRecorder {
                  */
                 public void rawMacroAdded(MacroEvent evt) {
                     if (displayRawMacro) {
-                        MacroConsole.println("- " + evt.getMacro().getDescription());
+                        consoleWriter.println("- ", evt.getMacro());
                     }
                     if (urlForPost != null) {
                         postMacro("- " + evt.getMacro().getDescription());
@@ -338,6 +467,7 @@ public class MacroRecorder implements IMacroRecorder {
         } if (macroHandlerForDebugging != null && !addition) {
             removeMacroListener(macroHandlerForDebugging);
             macroHandlerForDebugging = null;
+            consoleWriter.stop();
         }
     }
     
@@ -0,0 +1,192 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.recorder;
+
+import org.jtool.macrorecorder.macro.Macro;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Creates typical macro stages and links stages into a chain.
+ * @author Katsuhisa Maruyama
+ */
+public class MacroStages {
+    
+    /**
+     * The key of the attachment that holds the JSON string of a macro.
+     */
+    public static final String JSON_STRING = "jsonString";
+    
+    /**
+     * Creates a stage that passes only macros satisfying a condition.
+     * @param condition the condition
+     * @return the created stage
+     */
+    public static IMacroStage filter(Predicate<Macro> condition) {
+        return downstream -> macro -> {
+            if (condition.test(macro)) {
+                downstream.accept(macro);
+            }
+        };
+    }
+    
+    /**
+     * Creates a stage that replaces each macro.
+     * @param mapper the function that returns a replaced macro, or <code>null</code> if the macro is discarded
+     * @return the created stage
+     */
+    public static IMacroStage map(UnaryOperator<Macro> mapper) {
+        return downstream -> macro -> {
+            Macro m = mapper.apply(macro);
+            if (m != null) {
+                downstream.accept(m);
+            }
+        };
+    }
+    
+    /**
+     * Creates a stage that attaches a value computed from each macro, which is shared by all the listeners.
+     * @param key the key of the attachment
+     * @param function the function that computes the value, or returns <code>null</code> if nothing is attached
+     * @return the created stage
+     */
+    public static IMacroStage enrich(String key, Function<Macro, ?> function) {
+        return downstream -> macro -> {
+            macro.putAttachment(key, function.apply(macro));
+            downstream.accept(macro);
+        };
+    }
+    
+    /**
+     * Creates a stage that divides each macro into macros.
+     * @param splitter the function that passes the divided macros to the given sink
+     * @return the created stage
+     */
+    public static IMacroStage split(BiConsumer<Macro, IMacroSink> splitter) {
+        return downstream -> macro -> splitter.accept(macro, downstream);
+    }
+    
+    /**
+     * Creates a stage that attaches the JSON string of each macro.
+     * @return the created stage
+     */
+    public static IMacroStage jsonString() {
+        return enrich(JSON_STRING, macro -> macro.getJSONString());
+    }
+    
+    /**
+     * Obtains the JSON string of a macro, reusing the string attached by a stage if any.
+     * @param macro the macro
+     * @return the JSON string
+     */
+    public static String getJSONString(Macro macro) {
+        Object json = macro.getAttachment(JSON_STRING);
+        if (json instanceof String) {
+            return (String)json;
+        }
+        return macro.getJSONString();
+    }
+    
+    /**
+     * Links stages into a single chain.
+     * A stage that throws an exception is reported on the console and skipped, so that the macro is passed on unchanged.
+     * An exception thrown by the terminal sink is passed to the caller.
+     * @param stages the stages in the order in which a macro flows
+     * @param terminal the sink that receives macros passing through all the stages
+     * @return the first sink of the chain, or the terminal sink if there is no stage
+     */
+    public static IMacroSink link(List<IMacroStage> stages, IMacroSink terminal) {
+        if (stages.isEmpty()) {
+            return terminal;
+        }
+        
+        IMacroSink sink = terminal;
+        for (int idx = stages.size() - 1; idx >= 0; idx--) {
+            sink = isolate(stages.get(idx), sink);
+        }
+        IMacroSink first = sink;
+        return macro -> {
+            try {
+                first.accept(macro);
+            } catch (DownstreamException e) {
+                throw e.getCause();
+            }
+        };
+    }
+    
+    /**
+     * Links a stage so that its failure does not prevent a macro from reaching the downstream sink.
+     * @param stage the stage
+     * @param downstream the sink following the stage
+     * @return the sink that passes macros to the stage
+     */
+    private static IMacroSink isolate(IMacroStage stage, IMacroSink downstream) {
+        IMacroSink next = wrap(downstream);
+        IMacroSink upstream;
+        try {
+            upstream = stage.link(next);
+        } catch (RuntimeException e) {
+            MacroConsole.println("Macro stage " + stage.getClass().getName() + " is skipped because it threw " + e.toString());
+            return downstream;
+        }
+        
+        return macro -> {
+            try {
+                upstream.accept(macro);
+            } catch (DownstreamException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                MacroConsole.println("Macro stage " + stage.getClass().getName() + " passed a macro unchanged because it threw " + e.toString());
+                next.accept(macro);
+            }
+        };
+    }
+    
+    /**
+     * Wraps the exceptions thrown by a sink, so that the stages preceding it do not regard them as their own failures.
+     * @param sink the sink
+     * @return the sink that wraps the exceptions
+     */
+    private static IMacroSink wrap(IMacroSink sink) {
+        return macro -> {
+            try {
+                sink.accept(macro);
+            } catch (DownstreamException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new DownstreamException(e);
+            }
+        };
+    }
+    
+    /**
+     * An exception that carries an exception thrown by a sink following a stage.
+     */
+    @SuppressWarnings("serial")
+    private static class DownstreamException extends RuntimeException {
+        
+        /**
+         * Creates an exception.
+         * @param cause the exception thrown by the sink
+         */
+        DownstreamException(RuntimeException cause) {
+            super(cause);
+        }
+        
+        /**
+         * Returns the exception thrown by the sink.
+         * @return the exception
+         */
+        @Override
+        public synchronized RuntimeException getCause() {
+            return (RuntimeException)super.getCause();
+        }
+    }
+}
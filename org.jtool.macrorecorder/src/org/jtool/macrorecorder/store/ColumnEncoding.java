@@ -0,0 +1,361 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Encodes and decodes the contents of columns.
+ * Integers are stored as variable-length numbers so that small values occupy a single byte.
+ * @author Katsuhisa Maruyama
+ */
+class ColumnEncoding {
+    
+    /**
+     * Encodes string values into a dictionary followed by run-length encoded identifiers.
+     * @param values the string values
+     * @param size the number of the values
+     * @return the encoded bytes
+     */
+    static byte[] encodeDictionary(String[] values, int size) {
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        List<String> dictionary = new ArrayList<String>();
+        int[] codes = new int[size];
+        for (int idx = 0; idx < size; idx++) {
+            Integer id = ids.get(values[idx]);
+            if (id == null) {
+                id = dictionary.size();
+                ids.put(values[idx], id);
+                dictionary.add(values[idx]);
+            }
+            codes[idx] = id;
+        }
+        
+        Output out = new Output();
+        out.writeVarLong(dictionary.size());
+        for (String value : dictionary) {
+            out.writeString(value);
+        }
+        writeRunLength(out, codes, size);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Decodes string values that were encoded into a dictionary and run-length encoded identifiers.
+     * @param in the encoded bytes
+     * @param size the number of the values
+     * @param codes the array that stores the identifiers of the values
+     * @return the dictionary of the values
+     * @throws IOException if the encoded bytes are broken
+     */
+    static String[] decodeDictionary(Input in, int size, int[] codes) throws IOException {
+        String[] dictionary = readDictionary(in);
+        readRunLength(in, codes, size);
+        for (int idx = 0; idx < size; idx++) {
+            if (codes[idx] < 0 || codes[idx] >= dictionary.length) {
+                throw new IOException("Broken dictionary identifier: " + codes[idx]);
+            }
+        }
+        return dictionary;
+    }
+    
+    /**
+     * Reads the dictionary of string values without decoding their identifiers.
+     * @param in the encoded bytes, which are positioned after the dictionary when this method returns
+     * @return the dictionary of the values
+     * @throws IOException if the encoded bytes are broken
+     */
+    static String[] readDictionary(Input in) throws IOException {
+        int num = (int)in.readVarLong();
+        String[] dictionary = new String[num];
+        for (int idx = 0; idx < num; idx++) {
+            dictionary[idx] = in.readString();
+        }
+        return dictionary;
+    }
+    
+    /**
+     * Removes rows whose values are not matched from a selection.
+     * Runs of values are examined as they are, so no value is expanded into an array.
+     * @param in the encoded bytes of run-length encoded values
+     * @param matched the flags that indicate whether respective values are matched
+     * @param size the number of the values
+     * @param selection the selected rows, which are cleared if their values are not matched
+     * @throws IOException if the encoded bytes are broken
+     */
+    static void filterRunLength(Input in, boolean[] matched, int size, BitSet selection) throws IOException {
+        int runs = (int)in.readVarLong();
+        int pos = 0;
+        for (int run = 0; run < runs; run++) {
+            int value = (int)in.readZigZag();
+            int len = (int)in.readVarLong();
+            if (len < 0 || pos + len > size || value < 0 || value >= matched.length) {
+                throw new IOException("Broken run length: " + len);
+            }
+            if (!matched[value]) {
+                selection.clear(pos, pos + len);
+            }
+            pos = pos + len;
+        }
+        if (pos != size) {
+            throw new IOException("Broken run length: " + pos + " of " + size + " values");
+        }
+    }
+    
+    /**
+     * Encodes integer values into pairs of a value and the length of its run.
+     * @param values the integer values
+     * @param size the number of the values
+     * @return the encoded bytes
+     */
+    static byte[] encodeRunLength(int[] values, int size) {
+        Output out = new Output();
+        writeRunLength(out, values, size);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Decodes integer values that were run-length encoded.
+     * @param in the encoded bytes
+     * @param values the array that stores the values
+     * @param size the number of the values
+     * @throws IOException if the encoded bytes are broken
+     */
+    static void decodeRunLength(Input in, int[] values, int size) throws IOException {
+        readRunLength(in, values, size);
+    }
+    
+    /**
+     * Encodes integer values into the differences between consecutive values.
+     * @param values the integer values
+     * @param size the number of the values
+     * @return the encoded bytes
+     */
+    static byte[] encodeDelta(long[] values, int size) {
+        Output out = new Output();
+        long prev = 0;
+        for (int idx = 0; idx < size; idx++) {
+            out.writeZigZag(values[idx] - prev);
+            prev = values[idx];
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * Decodes integer values that were delta encoded.
+     * @param in the encoded bytes
+     * @param values the array that stores the values
+     * @param size the number of the values
+     * @throws IOException if the encoded bytes are broken
+     */
+    static void decodeDelta(Input in, long[] values, int size) throws IOException {
+        long prev = 0;
+        for (int idx = 0; idx < size; idx++) {
+            prev = prev + in.readZigZag();
+            values[idx] = prev;
+        }
+    }
+    
+    /**
+     * Writes integer values as pairs of a value and the length of its run.
+     * @param out the destination of the values
+     * @param values the integer values
+     * @param size the number of the values
+     */
+    private static void writeRunLength(Output out, int[] values, int size) {
+        int runs = 0;
+        for (int idx = 0; idx < size; idx++) {
+            if (idx == 0 || values[idx] != values[idx - 1]) {
+                runs++;
+            }
+        }
+        
+        out.writeVarLong(runs);
+        int start = 0;
+        for (int idx = 1; idx <= size; idx++) {
+            if (idx == size || values[idx] != values[start]) {
+                out.writeZigZag(values[start]);
+                out.writeVarLong(idx - start);
+                start = idx;
+            }
+        }
+    }
+    
+    /**
+     * Reads integer values that were written as pairs of a value and the length of its run.
+     * @param in the encoded bytes
+     * @param values the array that stores the values
+     * @param size the number of the values
+     * @throws IOException if the encoded bytes are broken
+     */
+    private static void readRunLength(Input in, int[] values, int size) throws IOException {
+        int runs = (int)in.readVarLong();
+        int pos = 0;
+        for (int run = 0; run < runs; run++) {
+            int value = (int)in.readZigZag();
+            int len = (int)in.readVarLong();
+            if (len < 0 || pos + len > size) {
+                throw new IOException("Broken run length: " + len);
+            }
+            for (int idx = 0; idx < len; idx++) {
+                values[pos++] = value;
+            }
+        }
+        if (pos != size) {
+            throw new IOException("Broken run length: " + pos + " of " + size + " values");
+        }
+    }
+    
+    /**
+     * Writes encoded values into a byte array.
+     */
+    static class Output extends ByteArrayOutputStream {
+        
+        /**
+         * Writes a non-negative integer value as a variable-length number.
+         * @param value the value to be written
+         */
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int)((value & 0x7F) | 0x80));
+                value = value >>> 7;
+            }
+            write((int)value);
+        }
+        
+        /**
+         * Writes a signed integer value as a variable-length number.
+         * @param value the value to be written
+         */
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+        
+        /**
+         * Writes a string as its length and UTF-8 bytes.
+         * @param str the string to be written
+         */
+        void writeString(String str) {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+    
+    /**
+     * Reads encoded values from a byte array.
+     */
+    static class Input {
+        
+        /**
+         * The byte array to be read.
+         */
+        private byte[] bytes;
+        
+        /**
+         * The current position in the byte array.
+         */
+        private int pos = 0;
+        
+        /**
+         * Creates an object that reads encoded values.
+         * @param bytes the byte array to be read
+         */
+        Input(byte[] bytes) {
+            this.bytes = bytes;
+        }
+        
+        /**
+         * Reads a non-negative integer value written as a variable-length number.
+         * @return the read value
+         * @throws IOException if the byte array ends unexpectedly
+         */
+        long readVarLong() throws IOException {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                if (pos >= bytes.length || shift > 63) {
+                    throw new IOException("Broken variable-length number");
+                }
+                int b = bytes[pos++];
+                value = value | ((long)(b & 0x7F) << shift);
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift = shift + 7;
+            }
+        }
+        
+        /**
+         * Reads a signed integer value written as a variable-length number.
+         * @return the read value
+         * @throws IOException if the byte array ends unexpectedly
+         */
+        long readZigZag() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+        
+        /**
+         * Returns the current position in the byte array.
+         * @return the current position
+         */
+        int getPosition() {
+            return pos;
+        }
+        
+        /**
+         * Reads bytes.
+         * @param len the number of bytes to be read
+         * @return the read bytes
+         * @throws IOException if the byte array ends unexpectedly
+         */
+        byte[] readBytes(int len) throws IOException {
+            if (len < 0 || pos + len > bytes.length) {
+                throw new IOException("Broken byte length: " + len);
+            }
+            byte[] data = Arrays.copyOfRange(bytes, pos, pos + len);
+            pos = pos + len;
+            return data;
+        }
+        
+        /**
+         * Skips bytes.
+         * @param len the number of bytes to be skipped
+         * @throws IOException if the byte array ends unexpectedly
+         */
+        void skip(int len) throws IOException {
+            if (len < 0 || pos + len > bytes.length) {
+                throw new IOException("Broken byte length: " + len);
+            }
+            pos = pos + len;
+        }
+        
+        /**
+         * Reads a string written as its length and UTF-8 bytes.
+         * @return the read string
+         * @throws IOException if the byte array ends unexpectedly
+         */
+        String readString() throws IOException {
+            int len = (int)readVarLong();
+            if (len < 0 || pos + len > bytes.length) {
+                throw new IOException("Broken string length: " + len);
+            }
+            String str = new String(bytes, pos, len, StandardCharsets.UTF_8);
+            pos = pos + len;
+            return str;
+        }
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import java.io.File;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Reads the history of macros from a columnar file.
+ * The rows of the file are divided into row groups, each of which is read without the others.
+ * Only the bytes of the columns requested by a projection are read from the file.
+ * Rows can be filtered on the encoded values of columns before any other column is decoded.
+ * @author Katsuhisa Maruyama
+ */
+public class ColumnarMacroReader implements Closeable {
+    
+    /**
+     * The file from which macros are read.
+     */
+    private RandomAccessFile file;
+    
+    /**
+     * The row groups stored in the file.
+     */
+    private List<RowGroup> rowGroups = new ArrayList<RowGroup>();
+    
+    /**
+     * Creates an object that reads macros from a columnar file.
+     * @param file the columnar file
+     * @throws IOException if the file cannot be read or is not a columnar file
+     */
+    public ColumnarMacroReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            readFooter();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Reads the header and the footer of the file.
+     * @throws IOException if the file is not a columnar file or was written in another version of the file format
+     */
+    private void readFooter() throws IOException {
+        if (file.length() < 8 + 12 || file.readInt() != ColumnarMacroWriter.MAGIC) {
+            throw new IOException("Not a columnar macro file");
+        }
+        int version = file.readInt();
+        if (version != ColumnarMacroWriter.VERSION) {
+            throw new IOException("Unsupported columnar macro file version: " + version);
+        }
+        
+        file.seek(file.length() - 12);
+        long footer = file.readLong();
+        if (file.readInt() != ColumnarMacroWriter.MAGIC || footer < 8 || footer > file.length() - 16) {
+            throw new IOException("Broken columnar macro file");
+        }
+        
+        file.seek(footer);
+        int groups = file.readInt();
+        for (int group = 0; group < groups; group++) {
+            RowGroup rowGroup = new RowGroup(file.readInt(), file.readLong(), file.readLong());
+            int num = file.readInt();
+            for (int idx = 0; idx < num; idx++) {
+                int ordinal = file.readInt();
+                long position = file.readLong();
+                long length = file.readLong();
+                if (ordinal < 0 || ordinal >= rowGroup.positions.length || position < 0 || length < 0 || position + length > footer) {
+                    throw new IOException("Broken column in a columnar macro file: " + ordinal);
+                }
+                rowGroup.positions[ordinal] = position;
+                rowGroup.lengths[ordinal] = length;
+            }
+            rowGroups.add(rowGroup);
+        }
+    }
+    
+    /**
+     * Returns the row groups stored in the file.
+     * @return the row groups in the order in which they were written
+     */
+    public List<RowGroup> getRowGroups() {
+        return Collections.unmodifiableList(rowGroups);
+    }
+    
+    /**
+     * Returns the number of rows stored in the file.
+     * @return the number of rows
+     */
+    public long getRowCount() {
+        long count = 0;
+        for (RowGroup rowGroup : rowGroups) {
+            count = count + rowGroup.size;
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the earliest time of the rows stored in the file.
+     * @return the time in milliseconds from the epoch, or <code>Long.MAX_VALUE</code> if the file has no row
+     */
+    public long getMinTime() {
+        long time = Long.MAX_VALUE;
+        for (RowGroup rowGroup : rowGroups) {
+            time = Math.min(time, rowGroup.minTime);
+        }
+        return time;
+    }
+    
+    /**
+     * Returns the latest time of the rows stored in the file.
+     * @return the time in milliseconds from the epoch, or <code>Long.MIN_VALUE</code> if the file has no row
+     */
+    public long getMaxTime() {
+        long time = Long.MIN_VALUE;
+        for (RowGroup rowGroup : rowGroups) {
+            time = Math.max(time, rowGroup.maxTime);
+        }
+        return time;
+    }
+    
+    /**
+     * Returns the number of bytes that a column occupies in the file.
+     * @param column the column
+     * @return the number of bytes of the column in all the row groups
+     */
+    public long getColumnSize(MacroColumn column) {
+        long size = 0;
+        for (RowGroup rowGroup : rowGroups) {
+            size = size + rowGroup.getColumnSize(column);
+        }
+        return size;
+    }
+    
+    /**
+     * Tests if a column is dictionary encoded.
+     * @param column the column
+     * @return <code>true</code> if the column is dictionary encoded, otherwise <code>false</code>
+     */
+    private static boolean isDictionaryColumn(MacroColumn column) {
+        return column == MacroColumn.TYPE || column == MacroColumn.ACTION ||
+               column == MacroColumn.PATH || column == MacroColumn.BRANCH ||
+               column == MacroColumn.PACKAGE || column == MacroColumn.ZONE ||
+               column == MacroColumn.CHARSET || column == MacroColumn.SRC_DST_PATH;
+    }
+    
+    /**
+     * Closes the file.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+    
+    /**
+     * A group of rows whose columns are stored together in the file.
+     */
+    public class RowGroup {
+        
+        /**
+         * The number of rows in this row group.
+         */
+        private int size;
+        
+        /**
+         * The earliest time of the rows.
+         */
+        private long minTime;
+        
+        /**
+         * The latest time of the rows.
+         */
+        private long maxTime;
+        
+        /**
+         * The positions of respective columns in the file.
+         */
+        private long[] positions = new long[MacroColumn.values().length];
+        
+        /**
+         * The lengths of respective columns in the file.
+         */
+        private long[] lengths = new long[MacroColumn.values().length];
+        
+        /**
+         * Creates a row group.
+         * @param size the number of rows
+         * @param minTime the earliest time of the rows
+         * @param maxTime the latest time of the rows
+         */
+        private RowGroup(int size, long minTime, long maxTime) {
+            this.size = size;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+        }
+        
+        /**
+         * Returns the number of rows in this row group.
+         * @return the number of rows
+         */
+        public int getRowCount() {
+            return size;
+        }
+        
+        /**
+         * Returns the earliest time of the rows in this row group.
+         * @return the time in milliseconds from the epoch
+         */
+        public long getMinTime() {
+            return minTime;
+        }
+        
+        /**
+         * Returns the latest time of the rows in this row group.
+         * @return the time in milliseconds from the epoch
+         */
+        public long getMaxTime() {
+            return maxTime;
+        }
+        
+        /**
+         * Returns the number of bytes that a column occupies in this row group.
+         * @param column the column
+         * @return the number of bytes of the column
+         */
+        public long getColumnSize(MacroColumn column) {
+            return lengths[column.ordinal()];
+        }
+        
+        /**
+         * Reads all the columns.
+         * @return the values of all the columns
+         * @throws IOException if the file cannot be read
+         */
+        public MacroColumns readAll() throws IOException {
+            return read(EnumSet.allOf(MacroColumn.class));
+        }
+        
+        /**
+         * Reads columns.
+         * @param columns the columns to be read
+         * @return the values of the read columns
+         * @throws IOException if the file cannot be read
+         */
+        public MacroColumns read(MacroColumn... columns) throws IOException {
+            Set<MacroColumn> projection = EnumSet.noneOf(MacroColumn.class);
+            for (MacroColumn column : columns) {
+                projection.add(column);
+            }
+            return read(projection);
+        }
+        
+        /**
+         * Reads columns.
+         * The lengths of inserted and deleted texts and the snapshots of code are also read when the text column is requested,
+         * and the paths are also read when the snapshot column is requested.
+         * @param projection the set of the columns to be read
+         * @return the values of the read columns
+         * @throws IOException if the file cannot be read
+         */
+        public MacroColumns read(Set<MacroColumn> projection) throws IOException {
+            return read(projection, null);
+        }
+        
+        /**
+         * Reads columns for selected rows.
+         * The values of all the rows are read except that the snapshots of code are decoded only for the files of selected rows.
+         * @param projection the set of the columns to be read
+         * @param selection the selected rows, or <code>null</code> if all the rows are selected
+         * @return the values of the read columns
+         * @throws IOException if the file cannot be read
+         */
+        public MacroColumns read(Set<MacroColumn> projection, BitSet selection) throws IOException {
+            Set<MacroColumn> columns = EnumSet.noneOf(MacroColumn.class);
+            columns.addAll(projection);
+            if (columns.contains(MacroColumn.TEXT)) {
+                columns.add(MacroColumn.INSERTED_LENGTH);
+                columns.add(MacroColumn.DELETED_LENGTH);
+                columns.add(MacroColumn.SNAPSHOT);
+            }
+            if (columns.contains(MacroColumn.SNAPSHOT)) {
+                columns.add(MacroColumn.PATH);
+            }
+            
+            MacroColumns result = new MacroColumns(size, columns);
+            for (MacroColumn column : columns) {
+                byte[] bytes = readColumn(column);
+                ColumnEncoding.Input in = new ColumnEncoding.Input(bytes);
+                switch (column) {
+                    case TYPE:
+                        result.typeIds = new int[size];
+                        result.typeDictionary = ColumnEncoding.decodeDictionary(in, size, result.typeIds);
+                        break;
+                    case ACTION:
+                        result.actionIds = new int[size];
+                        result.actionDictionary = ColumnEncoding.decodeDictionary(in, size, result.actionIds);
+                        break;
+                    case TIME:
+                        result.times = new long[size];
+                        ColumnEncoding.decodeDelta(in, result.times, size);
+                        break;
+                    case PATH:
+                        result.pathIds = new int[size];
+                        result.pathDictionary = ColumnEncoding.decodeDictionary(in, size, result.pathIds);
+                        break;
+                    case OFFSET:
+                        result.offsets = new long[size];
+                        ColumnEncoding.decodeDelta(in, result.offsets, size);
+                        break;
+                    case INSERTED_LENGTH:
+                        result.insertedLengths = new int[size];
+                        ColumnEncoding.decodeRunLength(in, result.insertedLengths, size);
+                        break;
+                    case DELETED_LENGTH:
+                        result.deletedLengths = new int[size];
+                        ColumnEncoding.decodeRunLength(in, result.deletedLengths, size);
+                        break;
+                    case TEXT:
+                        result.texts = getTexts(bytes);
+                        break;
+                    case SNAPSHOT:
+                        result.snapshots = new String[size];
+                        decodeSnapshots(in, bytes.length, result, selection);
+                        break;
+                    case BRANCH:
+                        result.branchIds = new int[size];
+                        result.branchDictionary = ColumnEncoding.decodeDictionary(in, size, result.branchIds);
+                        break;
+                    case PACKAGE:
+                        result.packageIds = new int[size];
+                        result.packageDictionary = ColumnEncoding.decodeDictionary(in, size, result.packageIds);
+                        break;
+                    case NANOS:
+                        result.nanos = new int[size];
+                        ColumnEncoding.decodeRunLength(in, result.nanos, size);
+                        break;
+                    case SEQUENCE:
+                        result.sequences = new int[size];
+                        ColumnEncoding.decodeRunLength(in, result.sequences, size);
+                        break;
+                    case ZONE:
+                        result.zoneIds = new int[size];
+                        result.zoneDictionary = ColumnEncoding.decodeDictionary(in, size, result.zoneIds);
+                        break;
+                    case CHARSET:
+                        result.charsetIds = new int[size];
+                        result.charsetDictionary = ColumnEncoding.decodeDictionary(in, size, result.charsetIds);
+                        break;
+                    case SRC_DST_PATH:
+                        result.srcDstPathIds = new int[size];
+                        result.srcDstPathDictionary = ColumnEncoding.decodeDictionary(in, size, result.srcDstPathIds);
+                        break;
+                }
+            }
+            result.index();
+            return result;
+        }
+        
+        /**
+         * Decodes the snapshots of code of file macros.
+         * Since snapshots are delta encoded for each file, those of files without selected rows
+         * and those after the last selected row are skipped.
+         * @param in the encoded bytes
+         * @param length the number of the encoded bytes
+         * @param result the values of the read columns
+         * @param selection the selected rows, or <code>null</code> if all the rows are selected
+         * @throws IOException if the encoded bytes are broken
+         */
+        private void decodeSnapshots(ColumnEncoding.Input in, int length, MacroColumns result, BitSet selection) throws IOException {
+            boolean[] selectedPaths = new boolean[result.pathDictionary.length];
+            int lastRow = size - 1;
+            if (selection != null) {
+                for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1)) {
+                    selectedPaths[result.pathIds[row]] = true;
+                }
+                lastRow = selection.length() - 1;
+            } else {
+                Arrays.fill(selectedPaths, true);
+            }
+            
+            SnapshotDeltaCodec codec = new SnapshotDeltaCodec();
+            int row = -1;
+            while (in.getPosition() < length) {
+                row = row + (int)in.readVarLong();
+                if (row < 0 || row >= size) {
+                    throw new IOException("Broken snapshot row: " + row);
+                }
+                result.snapshotRows.set(row);
+                int len = (int)in.readVarLong();
+                if (row > lastRow || !selectedPaths[result.pathIds[row]]) {
+                    in.skip(len);
+                    continue;
+                }
+                String path = result.pathDictionary[result.pathIds[row]];
+                result.snapshots[row] = codec.decode(path, in.readBytes(len));
+            }
+        }
+        
+        /**
+         * Decodes the blob of texts, which is stored as UTF-16 code units.
+         * @param bytes the bytes of the blob
+         * @return the concatenation of the texts
+         */
+        private String getTexts(byte[] bytes) {
+            return ByteBuffer.wrap(bytes).asCharBuffer().toString();
+        }
+        
+        /**
+         * Reads the dictionary of a dictionary encoded column without decoding the values of rows.
+         * @param column the column, which is a dictionary encoded column
+         * @return the distinct values of the column
+         * @throws IOException if the file cannot be read
+         */
+        public String[] readDictionary(MacroColumn column) throws IOException {
+            if (!isDictionaryColumn(column)) {
+                throw new IllegalArgumentException("Not a dictionary column: " + column);
+            }
+            return ColumnEncoding.readDictionary(new ColumnEncoding.Input(readColumn(column)));
+        }
+        
+        /**
+         * Removes rows from a selection on the encoded values of a dictionary encoded column.
+         * The predicate is evaluated once for each distinct value, and runs of identifiers are not scanned
+         * if no value or every value is matched.
+         * @param column the column, which is a dictionary encoded column
+         * @param predicate the predicate on the values of the column
+         * @param selection the selected rows, which are cleared if their values are not matched
+         * @throws IOException if the file cannot be read
+         */
+        public void filter(MacroColumn column, Predicate<String> predicate, BitSet selection) throws IOException {
+            if (!isDictionaryColumn(column)) {
+                throw new IllegalArgumentException("Not a dictionary column: " + column);
+            }
+            ColumnEncoding.Input in = new ColumnEncoding.Input(readColumn(column));
+            String[] dictionary = ColumnEncoding.readDictionary(in);
+            boolean[] matched = new boolean[dictionary.length];
+            int count = 0;
+            for (int id = 0; id < dictionary.length; id++) {
+                matched[id] = predicate.test(dictionary[id]);
+                if (matched[id]) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                selection.clear();
+            } else if (count < dictionary.length) {
+                ColumnEncoding.filterRunLength(in, matched, size, selection);
+            }
+        }
+        
+        /**
+         * Removes rows from a selection on their times.
+         * @param from the earliest time of the selected rows in milliseconds from the epoch
+         * @param to the time in milliseconds from the epoch before which the selected rows were performed
+         * @param selection the selected rows, which are cleared if their times are out of the range
+         * @throws IOException if the file cannot be read
+         */
+        public void filterTime(long from, long to, BitSet selection) throws IOException {
+            if (from <= minTime && maxTime < to) {
+                return;
+            }
+            long[] times = new long[size];
+            ColumnEncoding.decodeDelta(new ColumnEncoding.Input(readColumn(MacroColumn.TIME)), times, size);
+            for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1)) {
+                if (times[row] < from || times[row] >= to) {
+                    selection.clear(row);
+                }
+            }
+        }
+        
+        /**
+         * Reads the bytes of a column.
+         * @param column the column
+         * @return the bytes of the column
+         * @throws IOException if the file cannot be read
+         */
+        private byte[] readColumn(MacroColumn column) throws IOException {
+            long length = lengths[column.ordinal()];
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Too large column: " + column);
+            }
+            
+            byte[] bytes = new byte[(int)length];
+            file.seek(positions[column.ordinal()]);
+            file.readFully(bytes);
+            return bytes;
+        }
+        
+    }
+}
@@ -0,0 +1,626 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.CancelMacro;
+import org.jtool.macrorecorder.macro.CopyMacro;
+import org.jtool.macrorecorder.macro.FileMacro;
+import org.jtool.macrorecorder.macro.CompoundMacro;
+import java.io.File;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.FileOutputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Exports the history of macros into a columnar file.
+ * Each attribute of macros is stored in its own column so that a reader can load only the columns it needs.
+ * <p>
+ * Rows are written in row groups as they fill, so that only the rows of the current group are kept in memory.
+ * The footer records the positions of the columns and the time range of each row group so that a query can skip
+ * a whole group. Each row group is decoded without the others.
+ * </p>
+ * <p>
+ * A compound macro is exported as a row for the compound macro followed by rows for the macros it contains.
+ * A file macro stores its code as the inserted text, which is delta encoded against the previous code of the same file
+ * in the same row group. Only document, cancel, copy, and file macros are restored from the columns as they were exported,
+ * which {@link #isRestorable(Macro)} tells. The attributes specific to the other kinds of macros are not exported.
+ * </p>
+ * @author Katsuhisa Maruyama
+ */
+public class ColumnarMacroWriter implements Closeable {
+    
+    /**
+     * The magic number at the beginning and the end of a columnar file.
+     */
+    static final int MAGIC = 0x4A4D5243;
+    
+    /**
+     * The version of the file format.
+     */
+    static final int VERSION = 6;
+    
+    /**
+     * The default maximum number of rows in a row group.
+     */
+    public static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+    
+    /**
+     * The number of characters of texts or bytes of snapshots over which a row group is written even if it has room for rows.
+     */
+    private static final int MAX_GROUP_TEXT_SIZE = 16 * 1024 * 1024;
+    
+    /**
+     * The file into which macros are exported.
+     */
+    private File file;
+    
+    /**
+     * The maximum number of rows in a row group.
+     */
+    private int rowGroupSize;
+    
+    /**
+     * The output stream of the file, which is opened when the first row group is written.
+     */
+    private DataOutputStream out = null;
+    
+    /**
+     * The number of bytes written into the file.
+     */
+    private long position = 0;
+    
+    /**
+     * The entries of the footer for the row groups that were written.
+     */
+    private List<RowGroupEntry> rowGroups = new ArrayList<RowGroupEntry>();
+    
+    /**
+     * The number of rows in the row groups that were written.
+     */
+    private int writtenRows = 0;
+    
+    /**
+     * The number of rows in the current row group.
+     */
+    private int size = 0;
+    
+    /**
+     * The class names of macros.
+     */
+    private String[] types = new String[1024];
+    
+    /**
+     * The actions of macros.
+     */
+    private String[] actions = new String[1024];
+    
+    /**
+     * The paths of macros.
+     */
+    private String[] paths = new String[1024];
+    
+    /**
+     * The branches of macros.
+     */
+    private String[] branches = new String[1024];
+    
+    /**
+     * The package names of macros.
+     */
+    private String[] packages = new String[1024];
+    
+    /**
+     * The times of macros in milliseconds.
+     */
+    private long[] times = new long[1024];
+    
+    /**
+     * The nanoseconds of the times of macros within their milliseconds.
+     */
+    private int[] nanos = new int[1024];
+    
+    /**
+     * The sequence numbers of macros performed at the same times.
+     */
+    private int[] sequences = new int[1024];
+    
+    /**
+     * The time zones of the times of macros.
+     */
+    private String[] zones = new String[1024];
+    
+    /**
+     * The charsets of file macros.
+     */
+    private String[] charsets = new String[1024];
+    
+    /**
+     * The source or destination paths of file macros.
+     */
+    private String[] srcDstPaths = new String[1024];
+    
+    /**
+     * The earliest time of macros in the current row group.
+     */
+    private long minTime = Long.MAX_VALUE;
+    
+    /**
+     * The latest time of macros in the current row group.
+     */
+    private long maxTime = Long.MIN_VALUE;
+    
+    /**
+     * The offsets of texts of macros.
+     */
+    private long[] offsets = new long[1024];
+    
+    /**
+     * The lengths of inserted texts of macros.
+     */
+    private int[] insertedLengths = new int[1024];
+    
+    /**
+     * The lengths of deleted texts of macros.
+     */
+    private int[] deletedLengths = new int[1024];
+    
+    /**
+     * The concatenation of inserted and deleted texts of macros.
+     */
+    private StringBuilder texts = new StringBuilder();
+    
+    /**
+     * The encoded snapshots of code of file macros.
+     */
+    private ColumnEncoding.Output snapshots = new ColumnEncoding.Output();
+    
+    /**
+     * The index of the row that lastly stored a snapshot in the current row group.
+     */
+    private int lastSnapshotRow = -1;
+    
+    /**
+     * A codec that encodes snapshots of code as deltas, which is reset for each row group.
+     */
+    private SnapshotDeltaCodec codec = new SnapshotDeltaCodec();
+    
+    /**
+     * A flag that indicates whether this writer was closed.
+     */
+    private boolean closed = false;
+    
+    /**
+     * Creates an object that exports macros into a columnar file with the default size of row groups.
+     * @param file the file into which macros are exported
+     */
+    public ColumnarMacroWriter(File file) {
+        this(file, DEFAULT_ROW_GROUP_SIZE);
+    }
+    
+    /**
+     * Creates an object that exports macros into a columnar file.
+     * @param file the file into which macros are exported
+     * @param rowGroupSize the maximum number of rows in a row group
+     */
+    public ColumnarMacroWriter(File file, int rowGroupSize) {
+        assert file != null;
+        this.file = file;
+        this.rowGroupSize = Math.max(rowGroupSize, 1);
+    }
+    
+    /**
+     * Creates an object that holds rows without exporting them.
+     */
+    private ColumnarMacroWriter() {
+        this.rowGroupSize = Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Returns the number of rows that were written.
+     * @return the number of rows
+     */
+    public int getRowCount() {
+        return writtenRows + size;
+    }
+    
+    /**
+     * Writes macros.
+     * @param macros the collection of macros to be written
+     * @throws IOException if a row group cannot be written
+     */
+    public void write(List<Macro> macros) throws IOException {
+        for (Macro macro : macros) {
+            write(macro);
+        }
+    }
+    
+    /**
+     * Writes a macro.
+     * The current row group is written into the file when it is full.
+     * @param macro the macro to be written
+     * @throws IOException if a row group cannot be written
+     */
+    public void write(Macro macro) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Writer already closed: " + file.getPath());
+        }
+        
+        add(macro);
+        if (file != null && (size >= rowGroupSize ||
+                texts.length() >= MAX_GROUP_TEXT_SIZE || snapshots.size() >= MAX_GROUP_TEXT_SIZE)) {
+            writeRowGroup();
+        }
+    }
+    
+    /**
+     * Adds a macro and the macros it contains to the current row group.
+     * @param macro the macro to be added
+     */
+    private void add(Macro macro) {
+        
+        int offset = -1;
+        String itext = "";
+        String dtext = "";
+        String code = null;
+        String charset = "";
+        String sdpath = "";
+        if (macro instanceof DocumentMacro) {
+            DocumentMacro dmacro = (DocumentMacro)macro;
+            offset = dmacro.getStart();
+            itext = dmacro.getInsertedText();
+            dtext = dmacro.getDeletedText();
+        } else if (macro instanceof CopyMacro) {
+            CopyMacro cmacro = (CopyMacro)macro;
+            offset = cmacro.getStart();
+            itext = cmacro.getCopiedText();
+        } else if (macro instanceof FileMacro) {
+            FileMacro fmacro = (FileMacro)macro;
+            code = fmacro.getCode();
+            charset = nonNull(fmacro.getCharset());
+            sdpath = nonNull(fmacro.getSrcDstPath());
+        }
+        if (itext == null) {
+            itext = "";
+        }
+        if (dtext == null) {
+            dtext = "";
+        }
+        
+        ensureCapacity(size + 1);
+        types[size] = getTypeName(macro);
+        actions[size] = nonNull(macro.getAction());
+        paths[size] = nonNull(macro.getPath());
+        branches[size] = macro.getMacroPath() != null ? nonNull(macro.getMacroPath().getBranch()) : "";
+        packages[size] = macro.getMacroPath() != null ? nonNull(macro.getPackageName()) : "";
+        times[size] = macro.getTimeAsLong();
+        nanos[size] = macro.getTime().getNano() % 1000000;
+        sequences[size] = macro.getSequence();
+        zones[size] = macro.getTime().getZone().getId();
+        charsets[size] = charset;
+        srcDstPaths[size] = sdpath;
+        minTime = Math.min(minTime, times[size]);
+        maxTime = Math.max(maxTime, times[size]);
+        offsets[size] = offset;
+        insertedLengths[size] = itext.length();
+        deletedLengths[size] = dtext.length();
+        texts.append(itext);
+        texts.append(dtext);
+        if (code != null) {
+            insertedLengths[size] = code.length();
+            byte[] bytes = codec.encode(paths[size], code);
+            snapshots.writeVarLong(size - lastSnapshotRow);
+            snapshots.writeVarLong(bytes.length);
+            snapshots.write(bytes, 0, bytes.length);
+            lastSnapshotRow = size;
+        }
+        size++;
+        
+        if (macro instanceof CompoundMacro) {
+            for (Macro m : ((CompoundMacro)macro).getMacros()) {
+                add(m);
+            }
+        }
+    }
+    
+    /**
+     * Writes the rows of the current row group into the file and starts a new row group.
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeRowGroup() throws IOException {
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            position = 8;
+        }
+        if (size == 0) {
+            return;
+        }
+        
+        MacroColumn[] columns = MacroColumn.values();
+        RowGroupEntry entry = new RowGroupEntry(size, minTime, maxTime, columns.length);
+        for (MacroColumn column : columns) {
+            byte[] bytes = encode(column);
+            entry.positions[column.ordinal()] = position;
+            entry.lengths[column.ordinal()] = bytes.length;
+            out.write(bytes);
+            position = position + bytes.length;
+        }
+        rowGroups.add(entry);
+        writtenRows = writtenRows + size;
+        
+        size = 0;
+        minTime = Long.MAX_VALUE;
+        maxTime = Long.MIN_VALUE;
+        texts.setLength(0);
+        snapshots.reset();
+        lastSnapshotRow = -1;
+        codec.reset();
+    }
+    
+    /**
+     * Writes the remaining rows and the footer into the file and closes this writer.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        
+        try {
+            writeRowGroup();
+            long footer = position;
+            out.writeInt(rowGroups.size());
+            for (RowGroupEntry entry : rowGroups) {
+                out.writeInt(entry.rows);
+                out.writeLong(entry.minTime);
+                out.writeLong(entry.maxTime);
+                out.writeInt(entry.positions.length);
+                for (int ordinal = 0; ordinal < entry.positions.length; ordinal++) {
+                    out.writeInt(ordinal);
+                    out.writeLong(entry.positions[ordinal]);
+                    out.writeLong(entry.lengths[ordinal]);
+                }
+            }
+            out.writeLong(footer);
+            out.writeInt(MAGIC);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+    
+    /**
+     * Encodes the values of a column.
+     * @param column the column
+     * @return the encoded bytes
+     */
+    private byte[] encode(MacroColumn column) {
+        switch (column) {
+            case TYPE:
+                return ColumnEncoding.encodeDictionary(types, size);
+            case ACTION:
+                return ColumnEncoding.encodeDictionary(actions, size);
+            case TIME:
+                return ColumnEncoding.encodeDelta(times, size);
+            case PATH:
+                return ColumnEncoding.encodeDictionary(paths, size);
+            case OFFSET:
+                return ColumnEncoding.encodeDelta(offsets, size);
+            case INSERTED_LENGTH:
+                return ColumnEncoding.encodeRunLength(insertedLengths, size);
+            case DELETED_LENGTH:
+                return ColumnEncoding.encodeRunLength(deletedLengths, size);
+            case TEXT:
+                return getChars(texts);
+            case SNAPSHOT:
+                return snapshots.toByteArray();
+            case BRANCH:
+                return ColumnEncoding.encodeDictionary(branches, size);
+            case PACKAGE:
+                return ColumnEncoding.encodeDictionary(packages, size);
+            case NANOS:
+                return ColumnEncoding.encodeRunLength(nanos, size);
+            case SEQUENCE:
+                return ColumnEncoding.encodeRunLength(sequences, size);
+            case ZONE:
+                return ColumnEncoding.encodeDictionary(zones, size);
+            case CHARSET:
+                return ColumnEncoding.encodeDictionary(charsets, size);
+            case SRC_DST_PATH:
+                return ColumnEncoding.encodeDictionary(srcDstPaths, size);
+        }
+        return new byte[0];
+    }
+    
+    /**
+     * Obtains the UTF-16 code units of a text in big-endian order.
+     * Unlike the UTF-8 encoding, a surrogate that is not paired, which a diff may cut out of a text, is kept as it is.
+     * @param text the text
+     * @return the bytes of the text
+     */
+    private static byte[] getChars(CharSequence text) {
+        ByteBuffer buffer = ByteBuffer.allocate(text.length() * 2);
+        buffer.asCharBuffer().append(text);
+        return buffer.array();
+    }
+    
+    /**
+     * Enlarges the arrays storing the values of columns.
+     * @param capacity the required number of rows
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= times.length) {
+            return;
+        }
+        
+        int len = Math.max(capacity, times.length * 2);
+        types = Arrays.copyOf(types, len);
+        actions = Arrays.copyOf(actions, len);
+        paths = Arrays.copyOf(paths, len);
+        branches = Arrays.copyOf(branches, len);
+        packages = Arrays.copyOf(packages, len);
+        times = Arrays.copyOf(times, len);
+        nanos = Arrays.copyOf(nanos, len);
+        sequences = Arrays.copyOf(sequences, len);
+        zones = Arrays.copyOf(zones, len);
+        charsets = Arrays.copyOf(charsets, len);
+        srcDstPaths = Arrays.copyOf(srcDstPaths, len);
+        offsets = Arrays.copyOf(offsets, len);
+        insertedLengths = Arrays.copyOf(insertedLengths, len);
+        deletedLengths = Arrays.copyOf(deletedLengths, len);
+    }
+    
+    /**
+     * Tests if a macro is restored from a columnar file as it was written.
+     * Compound macros, macros with raw macros, macros of the kinds whose attributes are not stored in the columns,
+     * and macros whose project or file names differ from those in their paths are not restored.
+     * @param macro the macro
+     * @return <code>true</code> if the restored macro has the same JSON representation as the macro, otherwise <code>false</code>
+     */
+    public static boolean isRestorable(Macro macro) {
+        Class<?> type = macro.getClass();
+        if (type != DocumentMacro.class && type != CancelMacro.class && type != CopyMacro.class && type != FileMacro.class) {
+            return false;
+        }
+        if (macro.getRawMacros() != null && !macro.getRawMacros().isEmpty()) {
+            return false;
+        }
+        
+        ColumnarMacroWriter writer = new ColumnarMacroWriter();
+        writer.add(macro);
+        MacroColumns columns = writer.getColumns();
+        if (macro instanceof FileMacro && ((FileMacro)macro).getCode() != null) {
+            columns.snapshots[0] = ((FileMacro)macro).getCode();
+            columns.snapshotRows.set(0);
+        }
+        columns.index();
+        Macro restored = new MacroRow(columns, 0).toMacro();
+        return restored != null && restored.getJSONString().equals(macro.getJSONString());
+    }
+    
+    /**
+     * Obtains the values of columns of the written rows without encoding them.
+     * Each value has its own identifier in a dictionary, and the snapshots of code are not stored.
+     * @return the values of the columns
+     */
+    private MacroColumns getColumns() {
+        MacroColumns columns = new MacroColumns(size, EnumSet.allOf(MacroColumn.class));
+        int[] ids = new int[size];
+        for (int row = 0; row < size; row++) {
+            ids[row] = row;
+        }
+        columns.typeDictionary = Arrays.copyOf(types, size);
+        columns.typeIds = ids;
+        columns.actionDictionary = Arrays.copyOf(actions, size);
+        columns.actionIds = ids;
+        columns.pathDictionary = Arrays.copyOf(paths, size);
+        columns.pathIds = ids;
+        columns.branchDictionary = Arrays.copyOf(branches, size);
+        columns.branchIds = ids;
+        columns.packageDictionary = Arrays.copyOf(packages, size);
+        columns.packageIds = ids;
+        columns.zoneDictionary = Arrays.copyOf(zones, size);
+        columns.zoneIds = ids;
+        columns.charsetDictionary = Arrays.copyOf(charsets, size);
+        columns.charsetIds = ids;
+        columns.srcDstPathDictionary = Arrays.copyOf(srcDstPaths, size);
+        columns.srcDstPathIds = ids;
+        columns.times = Arrays.copyOf(times, size);
+        columns.nanos = Arrays.copyOf(nanos, size);
+        columns.sequences = Arrays.copyOf(sequences, size);
+        columns.offsets = Arrays.copyOf(offsets, size);
+        columns.insertedLengths = Arrays.copyOf(insertedLengths, size);
+        columns.deletedLengths = Arrays.copyOf(deletedLengths, size);
+        columns.texts = texts.toString();
+        columns.snapshots = new String[size];
+        return columns;
+    }
+    
+    /**
+     * Returns the type name of a macro, which is its class name without the suffix "Macro".
+     * @param macro the macro
+     * @return the type name of the macro
+     */
+    static String getTypeName(Macro macro) {
+        String name = macro.getClass().getSimpleName();
+        if (name.endsWith("Macro")) {
+            return name.substring(0, name.length() - 5);
+        }
+        return name;
+    }
+    
+    /**
+     * The entry of the footer for a row group.
+     */
+    private static class RowGroupEntry {
+        
+        /**
+         * The number of rows in the row group.
+         */
+        private int rows;
+        
+        /**
+         * The earliest time of the rows.
+         */
+        private long minTime;
+        
+        /**
+         * The latest time of the rows.
+         */
+        private long maxTime;
+        
+        /**
+         * The positions of respective columns in the file.
+         */
+        private long[] positions;
+        
+        /**
+         * The lengths of respective columns in the file.
+         */
+        private long[] lengths;
+        
+        /**
+         * Creates an entry for a row group.
+         * @param rows the number of rows
+         * @param minTime the earliest time of the rows
+         * @param maxTime the latest time of the rows
+         * @param columns the number of columns
+         */
+        RowGroupEntry(int rows, long minTime, long maxTime, int columns) {
+            this.rows = rows;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.positions = new long[columns];
+            this.lengths = new long[columns];
+        }
+    }
+    
+    /**
+     * Returns a string that is not <code>null</code>.
+     * @param str the string
+     * @return the string, or the empty string if the string is <code>null</code>
+     */
+    private static String nonNull(String str) {
+        if (str != null) {
+            return str;
+        }
+        return "";
+    }
+}
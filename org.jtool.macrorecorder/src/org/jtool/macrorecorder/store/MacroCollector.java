@@ -0,0 +1,930 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParsingException;
+import java.io.File;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A collector server that receives macros posted over HTTP and appends them to segment files.
+ * <p>
+ * A POST request carries a single macro or a batch of macros, and its body may be compressed with
+ * <code>gzip</code> or <code>deflate</code>. The kind of the body is determined by its content type:
+ * </p>
+ * <ul>
+ * <li><code>application/json</code>: a JSON object of a macro, or a JSON array of them</li>
+ * <li><code>application/x-ndjson</code>: JSON objects of macros separated by new lines</li>
+ * <li><code>application/octet-stream</code>: JSON objects of macros, each of which is preceded by its length in four bytes</li>
+ * <li>any other type: lines of text such as descriptions of macros</li>
+ * </ul>
+ * <p>
+ * The code of a file macro encoded as a snapshot delta is restored, so that each stored JSON object is self-contained.
+ * Snapshots are decoded separately for each client, which is identified by the <code>X-Macro-Client</code> header
+ * or by its address if the header is missing.
+ * Connections are kept alive, and the ingest rate and latency are reported at regular intervals.
+ * <code>GET /stats</code> returns the statistics in JSON.
+ * </p>
+ * <pre><code>
+ * % java -cp bin:lib/javax.json-1.1.jar org.jtool.macrorecorder.store.MacroCollector [port] [directory] [-force] [-bind address]
+ * </code></pre>
+ * @author Katsuhisa Maruyama
+ */
+public class MacroCollector implements Closeable {
+    
+    /**
+     * The default port number.
+     */
+    public static final int DEFAULT_PORT = 1337;
+    
+    /**
+     * The maximum size of the body of a request, which is also applied after the decompression.
+     */
+    private static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+    
+    /**
+     * The maximum length of a request line or a header line.
+     */
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    
+    /**
+     * The time (in milliseconds) after which an idle connection is closed.
+     */
+    private static final int IDLE_TIMEOUT = 30 * 1000;
+    
+    /**
+     * The interval time (in milliseconds) between reports of the statistics.
+     */
+    private static final int REPORT_INTERVAL = 10 * 1000;
+    
+    /**
+     * The maximum number of connections served at the same time.
+     */
+    private static final int MAX_CONNECTIONS = 64;
+    
+    /**
+     * The size of a segment file over which a new segment file is created.
+     */
+    private static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+    
+    /**
+     * The name of a property of a stored text that is not a JSON object.
+     */
+    private static final String JSON_ATTR_TEXT = "text";
+    
+    /**
+     * The name of the property of a macro that stores its path.
+     */
+    private static final String JSON_ATTR_PATH = "path";
+    
+    /**
+     * The name of the header that identifies a client, which is in lower case.
+     */
+    private static final String HEADER_CLIENT = "x-macro-client";
+    
+    /**
+     * The port number of this server.
+     */
+    private int port;
+    
+    /**
+     * The address on which this server accepts connections, which is the loopback address by default.
+     */
+    private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+    
+    /**
+     * The writer that appends received macros to segment files.
+     */
+    private MacroLogWriter writer;
+    
+    /**
+     * The codec that restores the code of file macros, which keeps the last snapshots for each client and path.
+     */
+    private SnapshotDeltaCodec codec = new SnapshotDeltaCodec();
+    
+    /**
+     * The socket that accepts connections.
+     */
+    private ServerSocket serverSocket;
+    
+    /**
+     * The threads that serve connections.
+     */
+    private ExecutorService workers;
+    
+    /**
+     * The thread that reports the statistics.
+     */
+    private ScheduledExecutorService reporter;
+    
+    /**
+     * The number of received requests.
+     */
+    private AtomicLong requestCount = new AtomicLong();
+    
+    /**
+     * The number of stored macros.
+     */
+    private AtomicLong macroCount = new AtomicLong();
+    
+    /**
+     * The number of received bytes of request bodies before the decompression.
+     */
+    private AtomicLong byteCount = new AtomicLong();
+    
+    /**
+     * The total time (in nanoseconds) spent for processing requests.
+     */
+    private AtomicLong totalLatency = new AtomicLong();
+    
+    /**
+     * The maximum time (in nanoseconds) spent for processing a request since the last report.
+     */
+    private AtomicLong maxLatency = new AtomicLong();
+    
+    /**
+     * The values of the statistics at the last report.
+     */
+    private long[] lastReport = new long[4];
+    
+    /**
+     * Creates a collector server.
+     * @param port the port number
+     * @param directory the directory where segment files are created
+     */
+    public MacroCollector(int port, File directory) {
+        this.port = port;
+        writer = new MacroLogWriter(directory, "segment-");
+        writer.setExtension(".ndjson");
+        writer.setRotationSize(SEGMENT_SIZE);
+    }
+    
+    /**
+     * Sets whether stored macros are forced to the storage device.
+     * @param force <code>true</code> if the macros are forced, otherwise <code>false</code>
+     */
+    public void setForce(boolean force) {
+        writer.setForce(force);
+    }
+    
+    /**
+     * Sets the address on which this server accepts connections.
+     * Any client that can reach the address is able to store macros, since requests are not authenticated.
+     * @param address the address, or <code>null</code> if connections are accepted on all addresses
+     */
+    public void setBindAddress(InetAddress address) {
+        bindAddress = address;
+    }
+    
+    /**
+     * Starts this server, which accepts connections on the bind address.
+     * @throws IOException if the server cannot be started
+     */
+    public void start() throws IOException {
+        writer.open();
+        serverSocket = new ServerSocket(port, MAX_CONNECTIONS, bindAddress);
+        workers = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        
+        Thread acceptor = new Thread("MacroCollector") {
+            
+            /**
+             * Accepts connections until the server socket is closed.
+             */
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = serverSocket.accept();
+                        workers.execute(() -> serve(socket));
+                    }
+                } catch (IOException e) { /* empty */ }
+            }
+        };
+        acceptor.start();
+        
+        reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(this::report, REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stops this server and closes the segment file.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+        writer.close();
+    }
+    
+    /**
+     * Returns the statistics of this server.
+     * @return the JSON object that stores the statistics
+     */
+    public JsonObject getStatistics() {
+        long requests = requestCount.get();
+        return Json.createObjectBuilder()
+                   .add("requests", requests)
+                   .add("macros", macroCount.get())
+                   .add("bytes", byteCount.get())
+                   .add("averageLatencyMicros", requests > 0 ? totalLatency.get() / requests / 1000 : 0)
+                   .build();
+    }
+    
+    /**
+     * Serves requests on a connection until it is closed.
+     * @param socket the socket of the connection
+     */
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(IDLE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            
+            while (true) {
+                Request request = readRequestHeader(in);
+                if (request == null) {
+                    break;
+                }
+                request.address = socket.getInetAddress().getHostAddress();
+                
+                Response response;
+                long start = 0;
+                try {
+                    if (request.expectsContinue()) {
+                        out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                        out.flush();
+                    }
+                    readRequestBody(in, request);
+                    start = System.nanoTime();
+                    response = handle(request);
+                } catch (CollectorException e) {
+                    response = new Response(e.status, "text/plain; charset=utf-8", e.getMessage() + "\n");
+                    request.keepAlive = request.keepAlive && e.status != 413;
+                }
+                
+                writeResponse(out, response, request.keepAlive);
+                if (start != 0) {
+                    recordLatency(System.nanoTime() - start);
+                }
+                if (!request.keepAlive) {
+                    break;
+                }
+            }
+        } catch (SocketTimeoutException | SocketException | EOFException e) {
+            /* empty */
+        } catch (IOException e) {
+            System.err.println("Connection error: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Processes a request.
+     * @param request the request
+     * @return the response
+     * @throws CollectorException if the request cannot be processed
+     */
+    private Response handle(Request request) throws CollectorException {
+        if (request.method.equals("GET")) {
+            if (request.target.equals("/stats")) {
+                return new Response(200, "application/json; charset=utf-8", getStatistics().toString());
+            }
+            return new Response(200, "text/plain; charset=utf-8", "This is a ChangeMacroRecorder collector server!\n");
+        }
+        if (!request.method.equals("POST")) {
+            throw new CollectorException(405, "Method Not Allowed");
+        }
+        
+        requestCount.incrementAndGet();
+        byteCount.addAndGet(request.body.length);
+        
+        byte[] body = decompress(request.body, request.getHeader("content-encoding"));
+        List<String> records = parse(body, request.getMediaType(), request.getClient());
+        try {
+            synchronized (writer) {
+                for (String record : records) {
+                    writer.write(record);
+                }
+            }
+        } catch (IOException e) {
+            throw new CollectorException(500, "Cannot store macros: " + e.getMessage());
+        }
+        macroCount.addAndGet(records.size());
+        
+        JsonObject result = Json.createObjectBuilder()
+                                .add("result", "Ok")
+                                .add("count", records.size())
+                                .build();
+        return new Response(200, "application/json; charset=utf-8", result.toString());
+    }
+    
+    /**
+     * Decompresses the body of a request.
+     * @param body the body
+     * @param encoding the content encoding of the body, or <code>null</code> if the body is not encoded
+     * @return the decompressed body
+     * @throws CollectorException if the encoding is not supported or the body is broken
+     */
+    private byte[] decompress(byte[] body, String encoding) throws CollectorException {
+        if (encoding == null || encoding.equalsIgnoreCase("identity")) {
+            return body;
+        }
+        
+        InputStream in;
+        try {
+            if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) {
+                in = new GZIPInputStream(new ByteArrayInputStream(body));
+            } else if (encoding.equalsIgnoreCase("deflate")) {
+                in = new InflaterInputStream(new ByteArrayInputStream(body));
+            } else {
+                throw new CollectorException(415, "Unsupported Content-Encoding: " + encoding);
+            }
+            return readFully(in, -1);
+        } catch (CollectorException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new CollectorException(400, "Broken compressed body: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Extracts macros from the body of a request.
+     * @param body the decompressed body
+     * @param mediaType the media type of the body
+     * @param client the identifier of the client that sent the body
+     * @return the collection of the JSON strings of the macros
+     * @throws CollectorException if the body is malformed
+     */
+    private List<String> parse(byte[] body, String mediaType, String client) throws CollectorException {
+        List<String> records = new ArrayList<String>();
+        try {
+            if (mediaType.equals("application/json")) {
+                try (JsonReader reader = Json.createReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+                    JsonValue value = reader.readValue();
+                    if (value instanceof JsonArray) {
+                        for (JsonValue elem : (JsonArray)value) {
+                            records.add(normalize(elem, client));
+                        }
+                    } else {
+                        records.add(normalize(value, client));
+                    }
+                }
+                
+            } else if (mediaType.equals("application/x-ndjson") || mediaType.equals("application/jsonl")) {
+                for (String line : new String(body, StandardCharsets.UTF_8).split("\r?\n")) {
+                    if (line.trim().length() > 0) {
+                        records.add(normalize(parseValue(line), client));
+                    }
+                }
+                
+            } else if (mediaType.equals("application/octet-stream")) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+                while (in.available() > 0) {
+                    int length = in.readInt();
+                    if (length < 0 || length > in.available()) {
+                        throw new CollectorException(400, "Broken record length: " + length);
+                    }
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    records.add(normalize(parseValue(new String(bytes, StandardCharsets.UTF_8)), client));
+                }
+                
+            } else {
+                for (String line : new String(body, StandardCharsets.UTF_8).split("\r?\n")) {
+                    if (line.length() > 0) {
+                        records.add(Json.createObjectBuilder().add(JSON_ATTR_TEXT, line).build().toString());
+                    }
+                }
+            }
+        } catch (JsonParsingException e) {
+            throw new CollectorException(400, "Malformed JSON: " + e.getMessage());
+        } catch (IOException e) {
+            throw new CollectorException(400, "Malformed body: " + e.getMessage());
+        }
+        return records;
+    }
+    
+    /**
+     * Parses a JSON value.
+     * @param text the string representation of the value
+     * @return the parsed value
+     */
+    private static JsonValue parseValue(String text) {
+        try (JsonReader reader = Json.createReader(new StringReader(text))) {
+            return reader.readValue();
+        }
+    }
+    
+    /**
+     * Converts a received JSON value into its stored form.
+     * The code of a file macro that is encoded as a snapshot delta is restored.
+     * @param value the received JSON value
+     * @param client the identifier of the client that sent the value
+     * @return the string representation of the stored JSON object
+     * @throws IOException if the snapshot delta cannot be decoded
+     */
+    private String normalize(JsonValue value, String client) throws IOException {
+        if (value instanceof JsonString) {
+            return Json.createObjectBuilder().add(JSON_ATTR_TEXT, ((JsonString)value).getString()).build().toString();
+        }
+        if (!(value instanceof JsonObject)) {
+            throw new CollectorException(400, "Not a macro: " + value);
+        }
+        
+        JsonObject json = (JsonObject)value;
+        if (!json.containsKey(SnapshotDeltaCodec.JSON_ATTR_CODE_DELTA)) {
+            return json.toString();
+        }
+        
+        String path = json.getString(JSON_ATTR_PATH, "");
+        String code;
+        try {
+            code = codec.decodeJSON(client + " " + path, json);
+        } catch (IOException e) {
+            throw new CollectorException(409, e.getMessage());
+        }
+        return Json.createObjectBuilder(json)
+                   .remove(SnapshotDeltaCodec.JSON_ATTR_CODE_DELTA)
+                   .add(SnapshotDeltaCodec.JSON_ATTR_CODE, code)
+                   .build().toString();
+    }
+    
+    /**
+     * Reads the request line and the headers of a request.
+     * @param in the input stream of the connection
+     * @return the request, or <code>null</code> if the connection was closed
+     * @throws IOException if the request is malformed
+     */
+    private Request readRequestHeader(InputStream in) throws IOException {
+        String line = readLine(in);
+        while (line != null && line.length() == 0) {
+            line = readLine(in);
+        }
+        if (line == null) {
+            return null;
+        }
+        
+        String[] parts = line.split(" ");
+        if (parts.length != 3) {
+            throw new IOException("Malformed request line: " + line);
+        }
+        Request request = new Request(parts[0], parts[1], parts[2]);
+        
+        while (true) {
+            line = readLine(in);
+            if (line == null) {
+                throw new EOFException();
+            }
+            if (line.length() == 0) {
+                break;
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        
+        String connection = request.getHeader("connection");
+        if (request.version.equals("HTTP/1.1")) {
+            request.keepAlive = connection == null || !connection.equalsIgnoreCase("close");
+        } else {
+            request.keepAlive = connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return request;
+    }
+    
+    /**
+     * Reads the body of a request.
+     * @param in the input stream of the connection
+     * @param request the request
+     * @throws IOException if the body cannot be read
+     */
+    private void readRequestBody(InputStream in, Request request) throws IOException {
+        String transferEncoding = request.getHeader("transfer-encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            while (true) {
+                String line = readLine(in);
+                if (line == null) {
+                    throw new EOFException();
+                }
+                int size;
+                try {
+                    size = Integer.parseInt(line.split(";")[0].trim(), 16);
+                } catch (NumberFormatException e) {
+                    request.keepAlive = false;
+                    throw new CollectorException(400, "Malformed chunk size: " + line);
+                }
+                if (size == 0) {
+                    while (line != null && line.length() > 0) {
+                        line = readLine(in);
+                    }
+                    break;
+                }
+                if (buf.size() + size > MAX_BODY_SIZE) {
+                    throw new CollectorException(413, "Payload Too Large");
+                }
+                buf.write(readFully(in, size));
+                readLine(in);
+            }
+            request.body = buf.toByteArray();
+            return;
+        }
+        
+        String contentLength = request.getHeader("content-length");
+        if (contentLength == null) {
+            if (request.method.equals("POST")) {
+                request.keepAlive = false;
+                throw new CollectorException(411, "Length Required");
+            }
+            return;
+        }
+        
+        long length;
+        try {
+            length = Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            request.keepAlive = false;
+            throw new CollectorException(400, "Malformed Content-Length: " + contentLength);
+        }
+        if (length > MAX_BODY_SIZE || length < 0) {
+            throw new CollectorException(413, "Payload Too Large");
+        }
+        request.body = readFully(in, (int)length);
+    }
+    
+    /**
+     * Reads bytes from an input stream.
+     * @param in the input stream
+     * @param length the number of bytes to be read, or <code>-1</code> if all the bytes are read
+     * @return the read bytes
+     * @throws IOException if the stream ends before the bytes are read or the bytes are too large
+     */
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        if (length >= 0) {
+            byte[] bytes = new byte[length];
+            int pos = 0;
+            while (pos < length) {
+                int n = in.read(bytes, pos, length - pos);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                pos = pos + n;
+            }
+            return bytes;
+        }
+        
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] bytes = new byte[8192];
+        int n;
+        while ((n = in.read(bytes)) >= 0) {
+            buf.write(bytes, 0, n);
+            if (buf.size() > MAX_BODY_SIZE) {
+                throw new CollectorException(413, "Payload Too Large");
+            }
+        }
+        return buf.toByteArray();
+    }
+    
+    /**
+     * Reads a line terminated by CRLF or LF.
+     * @param in the input stream
+     * @return the line without its terminator, or <code>null</code> if the stream ends
+     * @throws IOException if the line is too long
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        while (true) {
+            int ch = in.read();
+            if (ch < 0) {
+                if (buf.length() == 0) {
+                    return null;
+                }
+                break;
+            }
+            if (ch == '\n') {
+                break;
+            }
+            if (ch != '\r') {
+                buf.append((char)ch);
+            }
+            if (buf.length() > MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Writes a response.
+     * @param out the output stream of the connection
+     * @param response the response
+     * @param keepAlive <code>true</code> if the connection is kept alive, otherwise <code>false</code>
+     * @throws IOException if an I/O error occurs
+     */
+    private static void writeResponse(OutputStream out, Response response, boolean keepAlive) throws IOException {
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder header = new StringBuilder();
+        header.append("HTTP/1.1 ").append(response.status).append(' ').append(getReasonPhrase(response.status)).append("\r\n");
+        header.append("Content-Type: ").append(response.contentType).append("\r\n");
+        header.append("Content-Length: ").append(body.length).append("\r\n");
+        header.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        header.append("\r\n");
+        out.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+    
+    /**
+     * Returns the reason phrase of a status code.
+     * @param status the status code
+     * @return the reason phrase
+     */
+    private static String getReasonPhrase(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 400: return "Bad Request";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 411: return "Length Required";
+            case 413: return "Payload Too Large";
+            case 415: return "Unsupported Media Type";
+            default: return "Internal Server Error";
+        }
+    }
+    
+    /**
+     * Records the time spent for processing a request.
+     * @param nanos the time in nanoseconds
+     */
+    private void recordLatency(long nanos) {
+        totalLatency.addAndGet(nanos);
+        maxLatency.accumulateAndGet(nanos, Math::max);
+    }
+    
+    /**
+     * Reports the ingest rate and latency since the last report.
+     */
+    private void report() {
+        long[] current = new long[] { requestCount.get(), macroCount.get(), byteCount.get(), totalLatency.get() };
+        long requests = current[0] - lastReport[0];
+        if (requests == 0) {
+            return;
+        }
+        
+        double seconds = REPORT_INTERVAL / 1000.0;
+        long macros = current[1] - lastReport[1];
+        long bytes = current[2] - lastReport[2];
+        long latency = current[3] - lastReport[3];
+        System.out.println(String.format("%.1f macros/s, %.1f requests/s, %.1f KB/s, latency avg %.3f ms max %.3f ms, total %d macros",
+                macros / seconds, requests / seconds, bytes / 1024.0 / seconds,
+                latency / 1e6 / requests, maxLatency.getAndSet(0) / 1e6, current[1]));
+        lastReport = current;
+    }
+    
+    /**
+     * Starts a collector server.
+     * @param args the port number, the directory where segment files are created, <code>-force</code> if stored macros are forced,
+     * and <code>-bind</code> followed by the address on which connections are accepted
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        String directory = "collector";
+        boolean force = false;
+        String bind = null;
+        int pos = 0;
+        for (int idx = 0; idx < args.length; idx++) {
+            String arg = args[idx];
+            if (arg.equals("-force")) {
+                force = true;
+            } else if (arg.equals("-bind") && idx + 1 < args.length) {
+                bind = args[++idx];
+            } else if (pos == 0) {
+                port = Integer.parseInt(arg);
+                pos++;
+            } else {
+                directory = arg;
+            }
+        }
+        
+        MacroCollector collector = new MacroCollector(port, new File(directory));
+        collector.setForce(force);
+        try {
+            if (bind != null) {
+                collector.setBindAddress(InetAddress.getByName(bind));
+            }
+            collector.start();
+        } catch (IOException e) {
+            System.err.println("Cannot start the server: " + e.getMessage());
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                collector.close();
+            } catch (IOException e) { /* empty */ }
+        }));
+        System.out.println("Server running on " + collector.serverSocket.getLocalSocketAddress() +
+                ", storing macros into " + new File(directory).getAbsolutePath());
+    }
+    
+    /**
+     * A request received from a client.
+     */
+    private static class Request {
+        
+        /**
+         * The method of this request.
+         */
+        private String method;
+        
+        /**
+         * The target of this request.
+         */
+        private String target;
+        
+        /**
+         * The HTTP version of this request.
+         */
+        private String version;
+        
+        /**
+         * The headers of this request, whose names are in lower case.
+         */
+        private Map<String, String> headers = new HashMap<String, String>();
+        
+        /**
+         * The body of this request.
+         */
+        private byte[] body = new byte[0];
+        
+        /**
+         * The flag that indicates if the connection is kept alive after this request.
+         */
+        private boolean keepAlive;
+        
+        /**
+         * The address of the client that sent this request.
+         */
+        private String address = "";
+        
+        /**
+         * Creates a request.
+         * @param method the method
+         * @param target the target
+         * @param version the HTTP version
+         */
+        Request(String method, String target, String version) {
+            this.method = method;
+            this.target = target;
+            this.version = version;
+        }
+        
+        /**
+         * Returns the value of a header.
+         * @param name the name of the header in lower case
+         * @return the value of the header, or <code>null</code> if none
+         */
+        String getHeader(String name) {
+            return headers.get(name);
+        }
+        
+        /**
+         * Returns the identifier of the client that sent this request.
+         * @return the value of the client header, or the address of the client if the header is missing
+         */
+        String getClient() {
+            String client = getHeader(HEADER_CLIENT);
+            if (client == null || client.length() == 0) {
+                return address;
+            }
+            return client;
+        }
+        
+        /**
+         * Returns the media type of the body of this request.
+         * @return the media type in lower case without its parameters
+         */
+        String getMediaType() {
+            String type = getHeader("content-type");
+            if (type == null) {
+                return "";
+            }
+            int semicolon = type.indexOf(';');
+            if (semicolon >= 0) {
+                type = type.substring(0, semicolon);
+            }
+            return type.trim().toLowerCase(Locale.ROOT);
+        }
+        
+        /**
+         * Tests if the client waits for a continue response before sending the body.
+         * @return <code>true</code> if the client expects the continue response, otherwise <code>false</code>
+         */
+        boolean expectsContinue() {
+            String expect = getHeader("expect");
+            return expect != null && expect.equalsIgnoreCase("100-continue");
+        }
+    }
+    
+    /**
+     * A response sent to a client.
+     */
+    private static class Response {
+        
+        /**
+         * The status code of this response.
+         */
+        private int status;
+        
+        /**
+         * The content type of this response.
+         */
+        private String contentType;
+        
+        /**
+         * The body of this response.
+         */
+        private String body;
+        
+        /**
+         * Creates a response.
+         * @param status the status code
+         * @param contentType the content type
+         * @param body the body
+         */
+        Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+    
+    /**
+     * An exception that is sent to a client as an error response.
+     */
+    @SuppressWarnings("serial")
+    private static class CollectorException extends IOException {
+        
+        /**
+         * The status code of the error response.
+         */
+        private int status;
+        
+        /**
+         * Creates an exception.
+         * @param status the status code of the error response
+         * @param message the message of the error
+         */
+        CollectorException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+/**
+ * The columns of a columnar macro history file.
+ * @author Katsuhisa Maruyama
+ */
+public enum MacroColumn {
+    
+    /**
+     * The class name of a macro, which is dictionary and run-length encoded.
+     */
+    TYPE,
+    
+    /**
+     * The action of a macro, which is dictionary and run-length encoded.
+     */
+    ACTION,
+    
+    /**
+     * The time of a macro in milliseconds, which is delta encoded.
+     * The nanoseconds within the millisecond and the time zone are stored in their own columns.
+     */
+    TIME,
+    
+    /**
+     * The path of a macro, which is dictionary and run-length encoded.
+     */
+    PATH,
+    
+    /**
+     * The offset of the text of a macro, which is delta encoded.
+     */
+    OFFSET,
+    
+    /**
+     * The length of the inserted text of a macro, which is run-length encoded.
+     */
+    INSERTED_LENGTH,
+    
+    /**
+     * The length of the deleted text of a macro, which is run-length encoded.
+     */
+    DELETED_LENGTH,
+    
+    /**
+     * The inserted and deleted texts of all macros, which are concatenated into a blob.
+     * The code of a file macro is stored in the snapshot column instead.
+     */
+    TEXT,
+    
+    /**
+     * The code of file macros, which is encoded as a delta against the previous snapshot of the same file.
+     */
+    SNAPSHOT,
+    
+    /**
+     * The branch of a macro, which is dictionary and run-length encoded.
+     */
+    BRANCH,
+    
+    /**
+     * The package name of a macro, which is dictionary and run-length encoded.
+     */
+    PACKAGE,
+    
+    /**
+     * The nanoseconds of the time of a macro within its millisecond, which is run-length encoded.
+     */
+    NANOS,
+    
+    /**
+     * The time zone of the time of a macro, which is dictionary and run-length encoded.
+     */
+    ZONE,
+    
+    /**
+     * The charset of a file macro, which is dictionary and run-length encoded.
+     */
+    CHARSET,
+    
+    /**
+     * The source or destination path of a file macro, which is dictionary and run-length encoded.
+     */
+    SRC_DST_PATH,
+    
+    /**
+     * The sequence number that orders a macro after other macros performed at the same time, which is run-length encoded.
+     */
+    SEQUENCE;
+}
@@ -0,0 +1,422 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * Stores the values of columns read from a columnar file.
+ * Values of a column that was not read cannot be obtained.
+ * @author Katsuhisa Maruyama
+ */
+public class MacroColumns {
+    
+    /**
+     * The number of rows.
+     */
+    private int size;
+    
+    /**
+     * The set of the read columns.
+     */
+    private Set<MacroColumn> columns;
+    
+    /**
+     * The dictionary of type names.
+     */
+    String[] typeDictionary;
+    
+    /**
+     * The identifiers of type names of respective rows.
+     */
+    int[] typeIds;
+    
+    /**
+     * The dictionary of actions.
+     */
+    String[] actionDictionary;
+    
+    /**
+     * The identifiers of actions of respective rows.
+     */
+    int[] actionIds;
+    
+    /**
+     * The dictionary of paths.
+     */
+    String[] pathDictionary;
+    
+    /**
+     * The identifiers of paths of respective rows.
+     */
+    int[] pathIds;
+    
+    /**
+     * The dictionary of branches.
+     */
+    String[] branchDictionary;
+    
+    /**
+     * The identifiers of branches of respective rows.
+     */
+    int[] branchIds;
+    
+    /**
+     * The dictionary of package names.
+     */
+    String[] packageDictionary;
+    
+    /**
+     * The identifiers of package names of respective rows.
+     */
+    int[] packageIds;
+    
+    /**
+     * The dictionary of time zones.
+     */
+    String[] zoneDictionary;
+    
+    /**
+     * The identifiers of time zones of respective rows.
+     */
+    int[] zoneIds;
+    
+    /**
+     * The dictionary of charsets.
+     */
+    String[] charsetDictionary;
+    
+    /**
+     * The identifiers of charsets of respective rows.
+     */
+    int[] charsetIds;
+    
+    /**
+     * The dictionary of source or destination paths.
+     */
+    String[] srcDstPathDictionary;
+    
+    /**
+     * The identifiers of source or destination paths of respective rows.
+     */
+    int[] srcDstPathIds;
+    
+    /**
+     * The times of respective rows.
+     */
+    long[] times;
+    
+    /**
+     * The nanoseconds of the times of respective rows within their milliseconds.
+     */
+    int[] nanos;
+    
+    /**
+     * The sequence numbers of respective rows performed at the same times.
+     */
+    int[] sequences;
+    
+    /**
+     * The offsets of respective rows.
+     */
+    long[] offsets;
+    
+    /**
+     * The lengths of inserted texts of respective rows.
+     */
+    int[] insertedLengths;
+    
+    /**
+     * The lengths of deleted texts of respective rows.
+     */
+    int[] deletedLengths;
+    
+    /**
+     * The concatenation of inserted and deleted texts of all rows.
+     */
+    String texts;
+    
+    /**
+     * The decoded code of file macros of respective rows.
+     */
+    String[] snapshots;
+    
+    /**
+     * The rows of file macros that store snapshots of code, whether the snapshots were decoded or not.
+     */
+    BitSet snapshotRows = new BitSet();
+    
+    /**
+     * The positions of texts of respective rows in the concatenation.
+     */
+    private int[] textPositions;
+    
+    /**
+     * Creates an object that stores the values of columns.
+     * @param size the number of rows
+     * @param columns the set of the read columns
+     */
+    MacroColumns(int size, Set<MacroColumn> columns) {
+        this.size = size;
+        this.columns = columns;
+    }
+    
+    /**
+     * Calculates the positions of texts of respective rows.
+     */
+    void index() {
+        if (texts == null) {
+            return;
+        }
+        
+        textPositions = new int[size];
+        int pos = 0;
+        for (int row = 0; row < size; row++) {
+            textPositions[row] = pos;
+            if (!snapshotRows.get(row)) {
+                pos = pos + insertedLengths[row] + deletedLengths[row];
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of rows.
+     * @return the number of rows
+     */
+    public int getRowCount() {
+        return size;
+    }
+    
+    /**
+     * Tests if a column was read.
+     * @param column the column
+     * @return <code>true</code> if the column was read, otherwise <code>false</code>
+     */
+    public boolean contains(MacroColumn column) {
+        return columns.contains(column);
+    }
+    
+    /**
+     * Returns the type name of a macro.
+     * @param row the index of the row
+     * @return the type name, which is the class name of the macro without the suffix "Macro"
+     */
+    public String getType(int row) {
+        check(MacroColumn.TYPE);
+        return typeDictionary[typeIds[row]];
+    }
+    
+    /**
+     * Returns the action of a macro.
+     * @param row the index of the row
+     * @return the action
+     */
+    public String getAction(int row) {
+        check(MacroColumn.ACTION);
+        return actionDictionary[actionIds[row]];
+    }
+    
+    /**
+     * Returns the time of a macro.
+     * @param row the index of the row
+     * @return the time in milliseconds from the epoch
+     */
+    public long getTime(int row) {
+        check(MacroColumn.TIME);
+        return times[row];
+    }
+    
+    /**
+     * Returns the path of a macro.
+     * @param row the index of the row
+     * @return the path
+     */
+    public String getPath(int row) {
+        check(MacroColumn.PATH);
+        return pathDictionary[pathIds[row]];
+    }
+    
+    /**
+     * Returns the identifier of the path of a macro.
+     * Rows with the same path have the same identifier.
+     * @param row the index of the row
+     * @return the identifier of the path
+     */
+    public int getPathId(int row) {
+        check(MacroColumn.PATH);
+        return pathIds[row];
+    }
+    
+    /**
+     * Returns the number of distinct paths.
+     * @return the number of paths
+     */
+    public int getPathCount() {
+        check(MacroColumn.PATH);
+        return pathDictionary.length;
+    }
+    
+    /**
+     * Returns the path corresponding to an identifier.
+     * @param id the identifier of the path
+     * @return the path
+     */
+    public String getPathById(int id) {
+        check(MacroColumn.PATH);
+        return pathDictionary[id];
+    }
+    
+    /**
+     * Returns the branch of a macro.
+     * @param row the index of the row
+     * @return the branch, or the empty string if the branch is unknown
+     */
+    public String getBranch(int row) {
+        check(MacroColumn.BRANCH);
+        return branchDictionary[branchIds[row]];
+    }
+    
+    /**
+     * Returns the package name of a macro.
+     * @param row the index of the row
+     * @return the package name, or the empty string if the macro has no package
+     */
+    public String getPackageName(int row) {
+        check(MacroColumn.PACKAGE);
+        return packageDictionary[packageIds[row]];
+    }
+    
+    /**
+     * Returns the nanoseconds of the time of a macro within its millisecond.
+     * @param row the index of the row
+     * @return the nanoseconds
+     */
+    public int getNanos(int row) {
+        check(MacroColumn.NANOS);
+        return nanos[row];
+    }
+    
+    /**
+     * Returns the sequence number that orders a macro after other macros performed at the same time.
+     * @param row the index of the row
+     * @return the sequence number
+     */
+    public int getSequence(int row) {
+        check(MacroColumn.SEQUENCE);
+        return sequences[row];
+    }
+    
+    /**
+     * Returns the time zone of the time of a macro.
+     * @param row the index of the row
+     * @return the identifier of the time zone, or the empty string if it is unknown
+     */
+    public String getZone(int row) {
+        check(MacroColumn.ZONE);
+        return zoneDictionary[zoneIds[row]];
+    }
+    
+    /**
+     * Returns the charset of a file macro.
+     * @param row the index of the row
+     * @return the name of the charset, or the empty string if the macro is not a file macro
+     */
+    public String getCharset(int row) {
+        check(MacroColumn.CHARSET);
+        return charsetDictionary[charsetIds[row]];
+    }
+    
+    /**
+     * Returns the source or destination path of a file macro.
+     * @param row the index of the row
+     * @return the source or destination path, or the empty string if the macro is not a file macro
+     */
+    public String getSrcDstPath(int row) {
+        check(MacroColumn.SRC_DST_PATH);
+        return srcDstPathDictionary[srcDstPathIds[row]];
+    }
+    
+    /**
+     * Returns the offset of the text of a macro.
+     * @param row the index of the row
+     * @return the offset, or <code>-1</code> if the macro has no offset
+     */
+    public int getOffset(int row) {
+        check(MacroColumn.OFFSET);
+        return (int)offsets[row];
+    }
+    
+    /**
+     * Returns the length of the inserted text of a macro.
+     * @param row the index of the row
+     * @return the length of the inserted text
+     */
+    public int getInsertedLength(int row) {
+        check(MacroColumn.INSERTED_LENGTH);
+        return insertedLengths[row];
+    }
+    
+    /**
+     * Returns the length of the deleted text of a macro.
+     * @param row the index of the row
+     * @return the length of the deleted text
+     */
+    public int getDeletedLength(int row) {
+        check(MacroColumn.DELETED_LENGTH);
+        return deletedLengths[row];
+    }
+    
+    /**
+     * Returns the inserted text of a macro.
+     * @param row the index of the row
+     * @return the inserted text, or the code if the macro is a file macro
+     */
+    public String getInsertedText(int row) {
+        check(MacroColumn.TEXT);
+        if (snapshotRows.get(row)) {
+            return snapshots[row];
+        }
+        int start = textPositions[row];
+        return texts.substring(start, start + insertedLengths[row]);
+    }
+    
+    /**
+     * Returns the deleted text of a macro.
+     * @param row the index of the row
+     * @return the deleted text
+     */
+    public String getDeletedText(int row) {
+        check(MacroColumn.TEXT);
+        if (snapshotRows.get(row)) {
+            return "";
+        }
+        int start = textPositions[row] + insertedLengths[row];
+        return texts.substring(start, start + deletedLengths[row]);
+    }
+    
+    /**
+     * Returns the code of a file macro.
+     * @param row the index of the row
+     * @return the code, or <code>null</code> if the macro is not a file macro with code or the code was not decoded for the row
+     */
+    public String getCode(int row) {
+        check(MacroColumn.SNAPSHOT);
+        return snapshots[row];
+    }
+    
+    /**
+     * Checks if a column was read.
+     * @param column the column
+     * @throws IllegalStateException if the column was not read
+     */
+    private void check(MacroColumn column) {
+        if (!columns.contains(column)) {
+            throw new IllegalStateException("Column not projected: " + column);
+        }
+    }
+}
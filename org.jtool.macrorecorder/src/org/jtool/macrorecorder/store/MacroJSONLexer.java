@@ -0,0 +1,647 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pulls tokens of JSON text from a stream of bytes in the UTF-8 encoding.
+ * The contents of a string or a number token are left in the buffer as bytes and are converted only on request,
+ * and a string longer than a given size can be skipped without being held in the buffer.
+ * JSON values at the top level may be separated only by white spaces, as in a stream of JSON objects separated by new lines.
+ * @author Katsuhisa Maruyama
+ */
+class MacroJSONLexer {
+    
+    /**
+     * The kinds of tokens.
+     */
+    enum Token {
+        START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, KEY, STRING, NUMBER, TRUE, FALSE, NULL, END;
+    }
+    
+    /**
+     * The initial size of the buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * The stream from which bytes are read.
+     */
+    private InputStream in;
+    
+    /**
+     * The buffer that stores the bytes read from the stream.
+     */
+    byte[] buf = new byte[BUFFER_SIZE];
+    
+    /**
+     * The index of the next byte to be examined.
+     */
+    private int pos = 0;
+    
+    /**
+     * The index next to the last byte read into the buffer.
+     */
+    private int limit = 0;
+    
+    /**
+     * The position of the first byte of the buffer in the stream.
+     */
+    private long base = 0;
+    
+    /**
+     * The flag that indicates whether the stream has reached its end.
+     */
+    private boolean eof = false;
+    
+    /**
+     * The number of bytes by which the bytes in the buffer have been shifted by the last fill.
+     */
+    private int shift = 0;
+    
+    /**
+     * The kinds of the containers enclosing the current position, which are either '{' or '['.
+     */
+    private byte[] containers = new byte[32];
+    
+    /**
+     * The number of the containers enclosing the current position.
+     */
+    private int depth = 0;
+    
+    /**
+     * The flag that indicates whether the next string in the current object is a key.
+     */
+    private boolean expectKey = false;
+    
+    /**
+     * The flag that indicates whether a value has just been completed in the current container.
+     */
+    private boolean afterValue = false;
+    
+    /**
+     * The index of the first byte of the contents of the current string or number token in the buffer.
+     */
+    int start;
+    
+    /**
+     * The index next to the last byte of the contents of the current string or number token in the buffer.
+     */
+    int end;
+    
+    /**
+     * The flag that indicates whether the current string token contains escape sequences.
+     */
+    boolean escaped;
+    
+    /**
+     * The flag that indicates whether the current string token consists of only ASCII characters.
+     */
+    boolean ascii;
+    
+    /**
+     * The flag that indicates whether the contents of the current string token have been skipped.
+     */
+    boolean skipped;
+    
+    /**
+     * The position of the first byte of the contents of the current string token in the stream.
+     */
+    long streamStart;
+    
+    /**
+     * The position next to the last byte of the contents of the current string token in the stream.
+     */
+    long streamEnd;
+    
+    /**
+     * Creates a lexer that reads JSON text from a stream.
+     * @param in the stream
+     */
+    MacroJSONLexer(InputStream in) {
+        this.in = in;
+    }
+    
+    /**
+     * Returns the number of the containers enclosing the current position.
+     * @return the depth of the current position
+     */
+    int getDepth() {
+        return depth;
+    }
+    
+    /**
+     * Pulls the next token.
+     * @return the kind of the token
+     * @throws IOException if an I/O error occurs or the JSON text is malformed
+     */
+    Token next() throws IOException {
+        return next(Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Pulls the next token, where a string longer than a given number of bytes is skipped.
+     * The position of the contents of a skipped string in the stream is available instead of its contents.
+     * @param skipSize the number of bytes over which a string value is skipped
+     * @return the kind of the token
+     * @throws IOException if an I/O error occurs or the JSON text is malformed
+     */
+    Token next(int skipSize) throws IOException {
+        int c = skipWhitespace();
+        if (afterValue && depth > 0) {
+            if (c == ',') {
+                pos++;
+                afterValue = false;
+                expectKey = containers[depth - 1] == '{';
+                c = skipWhitespace();
+                if (c == '}' || c == ']') {
+                    throw error("Unexpected '" + (char)c + "'");
+                }
+            } else if (c != '}' && c != ']') {
+                throw error(c == -1 ? "Unexpected end of JSON text" : "Expected ',' but found '" + (char)c + "'");
+            }
+        }
+        
+        switch (c) {
+            case -1:
+                if (depth > 0) {
+                    throw error("Unexpected end of JSON text");
+                }
+                return Token.END;
+            case '{':
+                checkValue();
+                pos++;
+                push((byte)'{');
+                expectKey = true;
+                return Token.START_OBJECT;
+            case '[':
+                checkValue();
+                pos++;
+                push((byte)'[');
+                expectKey = false;
+                return Token.START_ARRAY;
+            case '}':
+                pop((byte)'{');
+                return Token.END_OBJECT;
+            case ']':
+                pop((byte)'[');
+                return Token.END_ARRAY;
+            case '"':
+                if (expectKey) {
+                    scanString(Integer.MAX_VALUE);
+                    if (skipWhitespace(true) != ':') {
+                        throw error("Expected ':' after a key");
+                    }
+                    pos++;
+                    expectKey = false;
+                    return Token.KEY;
+                }
+                checkValue();
+                scanString(skipSize);
+                afterValue = true;
+                return Token.STRING;
+            case 't':
+                scanLiteral("true");
+                return Token.TRUE;
+            case 'f':
+                scanLiteral("false");
+                return Token.FALSE;
+            case 'n':
+                scanLiteral("null");
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    checkValue();
+                    scanNumber();
+                    afterValue = true;
+                    return Token.NUMBER;
+                }
+                throw error("Unexpected '" + (char)c + "'");
+        }
+    }
+    
+    /**
+     * Skips the value that follows the current token, which is a key or an element of an array.
+     * @param token the first token of the value
+     * @throws IOException if an I/O error occurs or the JSON text is malformed
+     */
+    void skipValue(Token token) throws IOException {
+        if (token == Token.START_OBJECT || token == Token.START_ARRAY) {
+            int target = depth - 1;
+            while (depth > target) {
+                if (next(0) == Token.END) {
+                    throw error("Unexpected end of JSON text");
+                }
+            }
+        } else if (token == Token.END_OBJECT || token == Token.END_ARRAY || token == Token.KEY || token == Token.END) {
+            throw error("Expected a value");
+        }
+    }
+    
+    /**
+     * Returns the contents of the current string token.
+     * @return the string
+     */
+    String getString() {
+        return decode(buf, start, end, escaped, ascii);
+    }
+    
+    /**
+     * Tests if the current string token is equal to a string consisting of only ASCII characters.
+     * @param bytes the bytes of the string
+     * @return <code>true</code> if the contents are equal to the string, otherwise <code>false</code>
+     */
+    boolean contentEquals(byte[] bytes) {
+        return !escaped && end - start == bytes.length && Arrays.equals(buf, start, end, bytes, 0, bytes.length);
+    }
+    
+    /**
+     * Returns the value of the current number token as a long integer.
+     * @return the value
+     * @throws IOException if the number cannot be represented as a long integer
+     */
+    long getLong() throws IOException {
+        long value = 0;
+        int index = start;
+        boolean negative = buf[index] == '-';
+        if (negative) {
+            index++;
+        }
+        if (end - index > 18) {
+            return getLongSlowly();
+        }
+        for (; index < end; index++) {
+            int digit = buf[index] - '0';
+            if (digit < 0 || digit > 9) {
+                return getLongSlowly();
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+    
+    /**
+     * Returns the value of the current number token with a fraction or an exponent as a long integer.
+     * @return the value
+     * @throws IOException if the number cannot be represented as a long integer
+     */
+    private long getLongSlowly() throws IOException {
+        String text = new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+        try {
+            return new java.math.BigDecimal(text).longValueExact();
+        } catch (ArithmeticException | NumberFormatException e) {
+            throw error("Not an integer: " + text);
+        }
+    }
+    
+    /**
+     * Decodes the contents of a string token.
+     * Escape sequences are resolved into the bytes of the characters they represent before the bytes are decoded.
+     * @param bytes the bytes containing the contents
+     * @param from the index of the first byte of the contents
+     * @param to the index next to the last byte of the contents
+     * @param escaped <code>true</code> if the contents contain escape sequences
+     * @param ascii <code>true</code> if the contents consist of only ASCII characters
+     * @return the decoded string
+     */
+    static String decode(byte[] bytes, int from, int to, boolean escaped, boolean ascii) {
+        if (!escaped) {
+            return new String(bytes, from, to - from, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+        }
+        
+        byte[] out = new byte[to - from];
+        int length = 0;
+        int index = from;
+        while (index < to) {
+            byte b = bytes[index];
+            if (b != '\\') {
+                out[length++] = b;
+                index++;
+                continue;
+            }
+            
+            byte c = bytes[index + 1];
+            index += 2;
+            switch (c) {
+                case 'b': out[length++] = '\b'; break;
+                case 'f': out[length++] = '\f'; break;
+                case 'n': out[length++] = '\n'; break;
+                case 'r': out[length++] = '\r'; break;
+                case 't': out[length++] = '\t'; break;
+                case 'u':
+                    int code = getHex(bytes, index, to);
+                    index += 4;
+                    if (Character.isHighSurrogate((char)code) && index + 6 <= to &&
+                        bytes[index] == '\\' && bytes[index + 1] == 'u') {
+                        int low = getHex(bytes, index + 2, to);
+                        if (Character.isLowSurrogate((char)low)) {
+                            code = Character.toCodePoint((char)code, (char)low);
+                            index += 6;
+                        }
+                    }
+                    if (code < 0x10000 && Character.isSurrogate((char)code)) {
+                        code = 0xFFFD;
+                    }
+                    length = putUTF8(out, length, code);
+                    ascii = ascii && code < 0x80;
+                    break;
+                default: out[length++] = c; break;
+            }
+        }
+        return new String(out, 0, length, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Obtains the character code of the four hexadecimal digits of a unicode escape.
+     * @param bytes the bytes containing the digits
+     * @param index the index of the first digit
+     * @param to the index next to the last byte of the contents
+     * @return the character code, or the code of the replacement character if the digits are broken
+     */
+    private static int getHex(byte[] bytes, int index, int to) {
+        if (index + 4 > to) {
+            return 0xFFFD;
+        }
+        int code = 0;
+        for (int offset = 0; offset < 4; offset++) {
+            int digit = Character.digit(bytes[index + offset], 16);
+            if (digit == -1) {
+                return 0xFFFD;
+            }
+            code = code * 16 + digit;
+        }
+        return code;
+    }
+    
+    /**
+     * Writes the bytes of a character in the UTF-8 encoding.
+     * @param out the destination of the bytes
+     * @param length the index at which the bytes are written
+     * @param code the code point of the character
+     * @return the index next to the written bytes
+     */
+    private static int putUTF8(byte[] out, int length, int code) {
+        if (code < 0x80) {
+            out[length++] = (byte)code;
+        } else if (code < 0x800) {
+            out[length++] = (byte)(0xC0 | (code >> 6));
+            out[length++] = (byte)(0x80 | (code & 0x3F));
+        } else if (code < 0x10000) {
+            out[length++] = (byte)(0xE0 | (code >> 12));
+            out[length++] = (byte)(0x80 | ((code >> 6) & 0x3F));
+            out[length++] = (byte)(0x80 | (code & 0x3F));
+        } else {
+            out[length++] = (byte)(0xF0 | (code >> 18));
+            out[length++] = (byte)(0x80 | ((code >> 12) & 0x3F));
+            out[length++] = (byte)(0x80 | ((code >> 6) & 0x3F));
+            out[length++] = (byte)(0x80 | (code & 0x3F));
+        }
+        return length;
+    }
+    
+    /**
+     * Scans a string token whose opening quotation mark is at the current position.
+     * @param skipSize the number of bytes over which the contents are skipped
+     * @throws IOException if an I/O error occurs or the string is not terminated
+     */
+    private void scanString(int skipSize) throws IOException {
+        escaped = false;
+        ascii = true;
+        skipped = false;
+        int index = pos + 1;
+        start = index;
+        streamStart = base + index;
+        while (true) {
+            byte[] bytes = buf;
+            int last = limit;
+            int bits = 0;
+            while (index < last) {
+                byte b = bytes[index];
+                if (b == '"' || b == '\\') {
+                    break;
+                }
+                bits |= b;
+                index++;
+            }
+            if (bits < 0) {
+                ascii = false;
+            }
+            
+            if (index + 1 < last && bytes[index] == '\\') {
+                escaped = true;
+                if (bytes[index + 1] == 'u') {
+                    unicodeEscape(index + 1);
+                }
+                index += 2;
+            } else if (index < last && bytes[index] == '"') {
+                break;
+            } else {
+                if (skipped || index - start > skipSize) {
+                    skipped = true;
+                    start = index;
+                }
+                boolean filled = fill(start);
+                index -= shift;
+                start -= shift;
+                if (!filled) {
+                    throw error("Unterminated string");
+                }
+            }
+        }
+        
+        streamEnd = base + index;
+        end = index;
+        pos = index + 1;
+        if (streamEnd - streamStart > skipSize) {
+            skipped = true;
+        }
+    }
+    
+    /**
+     * Checks the four hexadecimal digits following a unicode escape.
+     * @param index the index of the byte 'u' of the escape
+     * @throws IOException if an I/O error occurs or the escape is broken
+     */
+    private void unicodeEscape(int index) throws IOException {
+        if (index + 5 > limit) {
+            return;
+        }
+        for (int offset = 1; offset <= 4; offset++) {
+            if (Character.digit(buf[index + offset], 16) == -1) {
+                throw error("Broken unicode escape");
+            }
+        }
+    }
+    
+    /**
+     * Scans a number token starting at the current position.
+     * @throws IOException if an I/O error occurs
+     */
+    private void scanNumber() throws IOException {
+        int index = pos;
+        start = index;
+        while (true) {
+            if (index >= limit) {
+                boolean filled = fill(start);
+                index -= shift;
+                start -= shift;
+                if (!filled) {
+                    break;
+                }
+                continue;
+            }
+            
+            byte b = buf[index];
+            if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                index++;
+            } else {
+                break;
+            }
+        }
+        end = index;
+        pos = index;
+    }
+    
+    /**
+     * Scans a literal name starting at the current position.
+     * @param name the literal name
+     * @throws IOException if an I/O error occurs or the literal name does not match
+     */
+    private void scanLiteral(String name) throws IOException {
+        checkValue();
+        while (limit - pos < name.length()) {
+            if (!fill(pos)) {
+                throw error("Unexpected end of JSON text");
+            }
+        }
+        for (int index = 0; index < name.length(); index++) {
+            if (buf[pos + index] != name.charAt(index)) {
+                throw error("Unexpected literal");
+            }
+        }
+        pos += name.length();
+        afterValue = true;
+    }
+    
+    /**
+     * Checks that a value is allowed at the current position.
+     * @throws IOException if a key is expected
+     */
+    private void checkValue() throws IOException {
+        if (expectKey) {
+            throw error("Expected a key");
+        }
+    }
+    
+    /**
+     * Enters a container.
+     * @param kind the kind of the container
+     */
+    private void push(byte kind) {
+        if (depth == containers.length) {
+            containers = Arrays.copyOf(containers, depth * 2);
+        }
+        containers[depth++] = kind;
+        afterValue = false;
+    }
+    
+    /**
+     * Leaves a container.
+     * @param kind the kind of the container
+     * @throws IOException if the container does not match
+     */
+    private void pop(byte kind) throws IOException {
+        if (depth == 0 || containers[depth - 1] != kind || (kind == '{' && !expectKey && !afterValue)) {
+            throw error("Unexpected '" + (kind == '{' ? '}' : ']') + "'");
+        }
+        pos++;
+        depth--;
+        expectKey = false;
+        afterValue = true;
+    }
+    
+    /**
+     * Skips white spaces.
+     * @return the byte at the current position, or <code>-1</code> if the stream has reached its end
+     * @throws IOException if an I/O error occurs
+     */
+    private int skipWhitespace() throws IOException {
+        return skipWhitespace(false);
+    }
+    
+    /**
+     * Skips white spaces, optionally keeping the contents of the current token in the buffer.
+     * @param keepToken <code>true</code> if the contents of the current token are kept
+     * @return the byte at the current position, or <code>-1</code> if the stream has reached its end
+     * @throws IOException if an I/O error occurs
+     */
+    private int skipWhitespace(boolean keepToken) throws IOException {
+        while (true) {
+            while (pos < limit) {
+                byte b = buf[pos];
+                if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                    return b;
+                }
+                pos++;
+            }
+            boolean filled = fill(keepToken ? start : pos);
+            if (keepToken) {
+                start -= shift;
+                end -= shift;
+            }
+            if (!filled) {
+                return -1;
+            }
+        }
+    }
+    
+    /**
+     * Reads bytes from the stream into the buffer, discarding the bytes before a given index.
+     * The buffer is enlarged if no byte can be discarded.
+     * The number of bytes by which the kept bytes have been shifted is stored in {@link #shift}.
+     * @param keep the index of the first byte to be kept
+     * @return <code>true</code> if bytes have been read, or <code>false</code> if the stream has reached its end
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean fill(int keep) throws IOException {
+        shift = 0;
+        if (eof) {
+            return false;
+        }
+        
+        if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, limit - keep);
+            limit -= keep;
+            pos -= keep;
+            base += keep;
+            shift = keep;
+        } else if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        
+        int count = in.read(buf, limit, buf.length - limit);
+        if (count == -1) {
+            eof = true;
+            return false;
+        }
+        limit += count;
+        return true;
+    }
+    
+    /**
+     * Creates an exception for malformed JSON text.
+     * @param message the detail message
+     * @return the created exception
+     */
+    IOException error(String message) {
+        return new IOException(message + " at " + (base + pos));
+    }
+}
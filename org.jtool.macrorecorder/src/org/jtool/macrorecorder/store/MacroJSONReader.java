@@ -0,0 +1,899 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.CancelMacro;
+import org.jtool.macrorecorder.macro.CopyMacro;
+import org.jtool.macrorecorder.macro.FileMacro;
+import org.jtool.macrorecorder.macro.CommandMacro;
+import org.jtool.macrorecorder.macro.CodeCompletionMacro;
+import org.jtool.macrorecorder.macro.CompoundMacro;
+import org.jtool.macrorecorder.macro.GitMacro;
+import org.jtool.macrorecorder.macro.RefactoringMacro;
+import org.jtool.macrorecorder.macro.ResourceMacro;
+import org.jtool.macrorecorder.macro.TriggerMacro;
+import org.jtool.macrorecorder.store.MacroJSONLexer.Token;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Reads macros from JSON text written by <code>Macro.getJSON()</code>.
+ * The text is pulled token by token and each JSON object is mapped directly to the macro of its type
+ * without building a tree of JSON values. The text may contain JSON objects separated by white spaces
+ * (typically new lines), JSON arrays of them, or both. JSON objects that do not represent macros are skipped.
+ * <p>
+ * The code of a file macro encoded as a snapshot delta is restored as {@link SnapshotDeltaCodec} does,
+ * and macros referred to by ids as {@link MacroReferenceCodec} writes them are shared with their earlier occurrences.
+ * JSON objects marked as definitions are only remembered for later references and are not returned as macros.
+ * When macros are read from a file, code longer than a given size is not held in memory and is loaded from the file
+ * when the macro first requests it.
+ * </p>
+ * @author Katsuhisa Maruyama
+ */
+public class MacroJSONReader implements Closeable {
+    
+    /**
+     * The default number of bytes of code over which the code is loaded when it is first requested.
+     */
+    public static final int DEFAULT_LAZY_TEXT_SIZE = 16 * 1024;
+    
+    /**
+     * The attributes of a JSON object that are mapped to the values of a macro.
+     */
+    private enum Attribute {
+        MACRO("macro"), TIME("time"), ACTION("action"), PATH("path"), BRANCH("branch"),
+        PROJECT("project"), PACKAGE("package"), FILE("file"), RAW_MACROS("rawMacros"), MACROS("macros"),
+        COMMAND("commandId"), OFFSET("offset"), INSERTED_TEXT("itext"), DELETED_TEXT("dtext"), COPIED_TEXT("ctext"),
+        CODE(SnapshotDeltaCodec.JSON_ATTR_CODE), CODE_DELTA(SnapshotDeltaCodec.JSON_ATTR_CODE_DELTA), CHARSET("charset"),
+        SRC_DST_PATH("sdpath"), REFACTORING_NAME("refname"), REFACTORING_START("refstart"), REFACTORING_END("refend"),
+        TARGET("target"), TIMING("timing"), CURSOR_START("cstart"), CURSOR_END("cend"), NUMBER("num"),
+        ID(MacroReferenceCodec.JSON_ATTR_ID), RAW_MACRO_IDS(MacroReferenceCodec.JSON_ATTR_RAW_MACRO_IDS),
+        MACRO_IDS(MacroReferenceCodec.JSON_ATTR_MACRO_IDS), DEFINITION(MacroReferenceCodec.JSON_ATTR_DEFINITION),
+        SEQUENCE("seq");
+        
+        /**
+         * The bytes of the name of this attribute.
+         */
+        private final byte[] name;
+        
+        /**
+         * Creates an attribute.
+         * @param name the name of the attribute
+         */
+        private Attribute(String name) {
+            this.name = name.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+    
+    /**
+     * The attributes, which are examined in this order.
+     */
+    private static final Attribute[] ATTRIBUTES = Attribute.values();
+    
+    /**
+     * The lexer that pulls tokens from the JSON text.
+     */
+    private MacroJSONLexer lexer;
+    
+    /**
+     * The stream from which the JSON text is read.
+     */
+    private InputStream in;
+    
+    /**
+     * The file from which the JSON text is read, or <code>null</code> if the text is read from a stream.
+     */
+    private Path file;
+    
+    /**
+     * The number of bytes of code over which the code is loaded when it is first requested.
+     */
+    private int lazyTextSize = DEFAULT_LAZY_TEXT_SIZE;
+    
+    /**
+     * A codec that decodes snapshots of code encoded as deltas.
+     */
+    private SnapshotDeltaCodec codec = new SnapshotDeltaCodec();
+    
+    /**
+     * The number of the latest ids that can be referred to, which must match the window size of the encoder.
+     */
+    private int windowSize;
+    
+    /**
+     * The macros with ids that can be referred to by later macros.
+     */
+    private Map<Long, Macro> referredMacros = new LinkedHashMap<Long, Macro>() {
+        
+        private static final long serialVersionUID = 1L;
+        
+        /**
+         * Tests if the eldest macro leaves the window of ids.
+         * @param eldest the eldest entry
+         * @return <code>true</code> if the eldest macro should be removed, otherwise <code>false</code>
+         */
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Macro> eldest) {
+            return size() > windowSize;
+        }
+    };
+    
+    /**
+     * The last strings of respective attributes, which are shared by successive macros with the same values.
+     */
+    private LastString[] lastStrings = new LastString[ATTRIBUTES.length];
+    
+    /**
+     * The last path information, which is shared by successive macros on the same resource.
+     */
+    private MacroPath lastPath = null;
+    
+    /**
+     * The last time zone of the time of a macro.
+     */
+    private byte[] lastZoneBytes = new byte[0];
+    
+    /**
+     * The offset of the last time zone.
+     */
+    private ZoneOffset lastOffset;
+    
+    /**
+     * The region of the last time zone.
+     */
+    private ZoneId lastZone;
+    
+    /**
+     * Creates a reader that reads macros from a stream.
+     * Macros referred to by ids are resolved within the default window size of {@link MacroReferenceCodec}.
+     * @param in the stream of JSON text in the UTF-8 encoding
+     */
+    public MacroJSONReader(InputStream in) {
+        this(in, MacroReferenceCodec.DEFAULT_WINDOW_SIZE);
+    }
+    
+    /**
+     * Creates a reader that reads macros from a stream.
+     * @param in the stream of JSON text in the UTF-8 encoding
+     * @param windowSize the window size of the {@link MacroReferenceCodec} that encoded the macros
+     */
+    public MacroJSONReader(InputStream in, int windowSize) {
+        this.in = in;
+        this.windowSize = Math.max(windowSize, 1);
+        this.lexer = new MacroJSONLexer(in);
+        this.file = null;
+        for (int index = 0; index < lastStrings.length; index++) {
+            lastStrings[index] = new LastString();
+        }
+    }
+    
+    /**
+     * Creates a reader that reads macros from a file.
+     * Macros referred to by ids are resolved within the default window size of {@link MacroReferenceCodec}.
+     * @param file the file of JSON text in the UTF-8 encoding
+     * @throws IOException if the file cannot be opened
+     */
+    public MacroJSONReader(File file) throws IOException {
+        this(file, MacroReferenceCodec.DEFAULT_WINDOW_SIZE);
+    }
+    
+    /**
+     * Creates a reader that reads macros from a file.
+     * @param file the file of JSON text in the UTF-8 encoding
+     * @param windowSize the window size of the {@link MacroReferenceCodec} that encoded the macros
+     * @throws IOException if the file cannot be opened
+     */
+    public MacroJSONReader(File file, int windowSize) throws IOException {
+        this(new FileInputStream(file), windowSize);
+        this.file = file.toPath();
+    }
+    
+    /**
+     * Sets the number of bytes of code over which the code is loaded when it is first requested.
+     * Code is always held in memory when macros are read from a stream.
+     * @param size the number of bytes, or <code>Integer.MAX_VALUE</code> to hold all code in memory
+     */
+    public void setLazyTextSize(int size) {
+        this.lazyTextSize = size;
+    }
+    
+    /**
+     * Reads the next macro.
+     * @return the macro, or <code>null</code> if no macro remains
+     * @throws IOException if an I/O error occurs or the JSON text is malformed
+     */
+    public Macro read() throws IOException {
+        while (true) {
+            Token token = lexer.next();
+            if (token == Token.END) {
+                return null;
+            } else if (token == Token.START_OBJECT) {
+                Macro macro = readMacro();
+                if (macro != null) {
+                    return macro;
+                }
+            } else if (token != Token.START_ARRAY && token != Token.END_ARRAY) {
+                lexer.skipValue(token);
+            }
+        }
+    }
+    
+    /**
+     * Reads all the remaining macros.
+     * @return the collection of the macros
+     * @throws IOException if an I/O error occurs or the JSON text is malformed
+     */
+    public List<Macro> readAll() throws IOException {
+        List<Macro> macros = new ArrayList<Macro>();
+        Macro macro;
+        while ((macro = read()) != null) {
+            macros.add(macro);
+        }
+        return macros;
+    }
+    
+    /**
+     * Closes the stream or the file.
+     * Code of macros that has not been loaded can still be loaded from the file.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+    
+    /**
+     * Reads a macro from a JSON object whose start has been pulled.
+     * @return the macro, or <code>null</code> if the JSON object does not represent a macro or is a definition
+     * @throws IOException if an I/O error occurs or the JSON object is malformed
+     */
+    private Macro readMacro() throws IOException {
+        Record record = new Record();
+        while (lexer.next() != Token.END_OBJECT) {
+            Attribute key = getAttribute();
+            Token token;
+            if (key == Attribute.CODE && file != null) {
+                token = lexer.next(lazyTextSize);
+            } else {
+                token = lexer.next();
+            }
+            
+            if (key == null) {
+                lexer.skipValue(token);
+            } else if (token == Token.STRING) {
+                readString(record, key);
+            } else if (token == Token.NUMBER) {
+                record.numbers[key.ordinal()] = lexer.getLong();
+            } else if (token == Token.TRUE) {
+                record.numbers[key.ordinal()] = 1;
+            } else if (token == Token.START_ARRAY) {
+                readArray(record, key);
+            } else {
+                lexer.skipValue(token);
+            }
+        }
+        return createMacro(record);
+    }
+    
+    /**
+     * Reads a string value of an attribute.
+     * @param record the values of the JSON object being read
+     * @param key the attribute
+     * @throws IOException if the value is malformed
+     */
+    private void readString(Record record, Attribute key) throws IOException {
+        if (key == Attribute.TIME) {
+            record.time = getTime();
+        } else if (key == Attribute.CODE && lexer.skipped) {
+            record.codeLoader = new TextLoader(file, lexer.streamStart, lexer.streamEnd, lexer.escaped, lexer.ascii);
+        } else if (key == Attribute.CODE || key == Attribute.CODE_DELTA ||
+                   key == Attribute.INSERTED_TEXT || key == Attribute.DELETED_TEXT || key == Attribute.COPIED_TEXT) {
+            record.strings[key.ordinal()] = lexer.getString();
+        } else {
+            record.strings[key.ordinal()] = lastStrings[key.ordinal()].get(lexer);
+        }
+    }
+    
+    /**
+     * Reads an array value of an attribute whose start has been pulled.
+     * @param record the values of the JSON object being read
+     * @param key the attribute
+     * @throws IOException if an I/O error occurs or the array is malformed
+     */
+    private void readArray(Record record, Attribute key) throws IOException {
+        if (key == Attribute.RAW_MACRO_IDS || key == Attribute.MACRO_IDS) {
+            List<Macro> macros = getReferredMacros();
+            if (key == Attribute.RAW_MACRO_IDS) {
+                record.rawMacros = macros;
+            } else {
+                record.macros = macros;
+            }
+            return;
+        }
+        
+        if (key != Attribute.RAW_MACROS && key != Attribute.MACROS) {
+            lexer.skipValue(Token.START_ARRAY);
+            return;
+        }
+        
+        boolean arguments = key == Attribute.RAW_MACROS && "Refactoring".equals(record.strings[Attribute.MACRO.ordinal()]);
+        List<Macro> macros = new ArrayList<Macro>();
+        Token token;
+        while ((token = lexer.next()) != Token.END_ARRAY) {
+            if (token != Token.START_OBJECT) {
+                lexer.skipValue(token);
+            } else if (arguments) {
+                readArguments(record);
+            } else {
+                Macro macro = readMacro();
+                if (macro != null) {
+                    macros.add(macro);
+                }
+            }
+        }
+        
+        if (key == Attribute.RAW_MACROS) {
+            record.rawMacros = macros;
+        } else {
+            record.macros = macros;
+        }
+    }
+    
+    /**
+     * Reads the arguments of a refactoring from a JSON object whose start has been pulled.
+     * @param record the values of the JSON object being read
+     * @throws IOException if an I/O error occurs or the JSON object is malformed
+     */
+    private void readArguments(Record record) throws IOException {
+        if (record.arguments == null) {
+            record.arguments = new HashMap<String, String>();
+        }
+        while (lexer.next() != Token.END_OBJECT) {
+            String name = lexer.getString();
+            Token token = lexer.next();
+            if (token == Token.STRING) {
+                record.arguments.put(name, lexer.getString());
+            } else {
+                lexer.skipValue(token);
+            }
+        }
+    }
+    
+    /**
+     * Obtains the macros referred to by ranges of ids in an array whose start has been pulled.
+     * @return the referred macros
+     * @throws IOException if an I/O error occurs, the ranges are broken, or a referred macro has not been read
+     */
+    private List<Macro> getReferredMacros() throws IOException {
+        List<Macro> macros = new ArrayList<Macro>();
+        Token token;
+        while ((token = lexer.next()) != Token.END_ARRAY) {
+            if (token != Token.START_ARRAY || lexer.next() != Token.NUMBER) {
+                throw lexer.error("Broken references");
+            }
+            long from = lexer.getLong();
+            if (lexer.next() != Token.NUMBER) {
+                throw lexer.error("Broken references");
+            }
+            long to = lexer.getLong();
+            if (lexer.next() != Token.END_ARRAY) {
+                throw lexer.error("Broken references");
+            }
+            
+            for (long id = from; id <= to; id++) {
+                macros.add(getReferredMacro(id));
+            }
+        }
+        return macros;
+    }
+    
+    /**
+     * Obtains a macro referred to by its id.
+     * @param id the id of the macro
+     * @return the referred macro
+     * @throws IOException if the macro has not been read or has left the window
+     */
+    private Macro getReferredMacro(long id) throws IOException {
+        Macro macro = referredMacros.get(id);
+        if (macro == null) {
+            throw new IOException("Missing macro for reference: " + id);
+        }
+        return macro;
+    }
+    
+    /**
+     * Returns the attribute of the current key.
+     * @return the attribute, or <code>null</code> if the attribute is not mapped to any value of a macro
+     */
+    private Attribute getAttribute() {
+        for (Attribute attribute : ATTRIBUTES) {
+            if (lexer.contentEquals(attribute.name)) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Creates a macro from the values of a JSON object.
+     * @param record the values of the JSON object
+     * @return the created macro, or <code>null</code> if the JSON object does not represent a macro or is a definition
+     * @throws IOException if the values are inconsistent
+     */
+    private Macro createMacro(Record record) throws IOException {
+        String type = record.strings[Attribute.MACRO.ordinal()];
+        long id = record.numbers[Attribute.ID.ordinal()];
+        if (type == null) {
+            if (id >= 0) {
+                return getReferredMacro(id);
+            }
+            return null;
+        }
+        
+        if (record.time == null) {
+            throw new IOException("Missing time of a macro");
+        }
+        ZonedDateTime time = record.time;
+        String action = record.getString(Attribute.ACTION);
+        MacroPath mpath = getMacroPath(record);
+        
+        Macro macro;
+        try {
+            macro = createMacro(type, time, action, mpath, record);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Broken macro: " + e.getMessage());
+        }
+        
+        if (record.getInt(Attribute.SEQUENCE) > 0) {
+            macro.setSequence(record.getInt(Attribute.SEQUENCE));
+        }
+        if (record.rawMacros != null && record.rawMacros.size() > 0 && !(macro instanceof RefactoringMacro)) {
+            macro.setRawMacros(record.rawMacros);
+        }
+        if (id >= 0) {
+            referredMacros.put(id, macro);
+        }
+        if (record.getInt(Attribute.DEFINITION) == 1) {
+            return null;
+        }
+        return macro;
+    }
+    
+    /**
+     * Creates a macro of a given type from the values of a JSON object.
+     * @param type the type name of the macro
+     * @param time the time of the macro
+     * @param action the action of the macro
+     * @param mpath the path information of the macro
+     * @param record the values of the JSON object
+     * @return the created macro
+     * @throws IOException if the type is unknown or the code cannot be restored
+     */
+    private Macro createMacro(String type, ZonedDateTime time, String action, MacroPath mpath, Record record) throws IOException {
+        switch (type) {
+            case "Document":
+                return new DocumentMacro(time, action, mpath, record.getInt(Attribute.OFFSET),
+                        record.getString(Attribute.INSERTED_TEXT), record.getString(Attribute.DELETED_TEXT));
+            case "Cancel":
+                return new CancelMacro(time, action, mpath, record.getInt(Attribute.OFFSET),
+                        record.getString(Attribute.INSERTED_TEXT), record.getString(Attribute.DELETED_TEXT));
+            case "Copy":
+                return new CopyMacro(time, action, mpath, record.getInt(Attribute.OFFSET), record.getString(Attribute.COPIED_TEXT));
+            case "File":
+                return createFileMacro(time, action, mpath, record);
+            case "Command":
+                return new CommandMacro(time, action, mpath, record.getString(Attribute.COMMAND));
+            case "CodeCompletion":
+                return new CodeCompletionMacro(time, action, mpath, record.getString(Attribute.COMMAND));
+            case "Git":
+                return new GitMacro(time, action, mpath, "");
+            case "Refactoring":
+                return createRefactoringMacro(time, action, mpath, record);
+            case "Resource":
+                return new ResourceMacro(time, action, mpath,
+                        ResourceMacro.Target.valueOf(record.getString(Attribute.TARGET)), record.getString(Attribute.SRC_DST_PATH));
+            case "Trigger":
+                TriggerMacro tmacro = new TriggerMacro(time, action, mpath,
+                        TriggerMacro.Timing.valueOf(record.getString(Attribute.TIMING)), null);
+                if (record.getInt(Attribute.NUMBER) > 0) {
+                    tmacro.setCursorChange(record.getInt(Attribute.CURSOR_START), record.getInt(Attribute.CURSOR_END), record.getInt(Attribute.NUMBER));
+                }
+                return tmacro;
+            case "Compound":
+                return createCompoundMacro(time, action, mpath, record);
+            default:
+                throw new IOException("Unknown macro type: " + type);
+        }
+    }
+    
+    /**
+     * Creates a file macro from the values of a JSON object.
+     * @param time the time of the macro
+     * @param action the action of the macro
+     * @param mpath the path information of the macro
+     * @param record the values of the JSON object
+     * @return the created macro
+     * @throws IOException if the code encoded as a snapshot delta cannot be restored
+     */
+    private FileMacro createFileMacro(ZonedDateTime time, String action, MacroPath mpath, Record record) throws IOException {
+        String charset = record.getString(Attribute.CHARSET);
+        String sdpath = record.getString(Attribute.SRC_DST_PATH);
+        String path = mpath.getPath();
+        
+        if (record.strings[Attribute.CODE_DELTA.ordinal()] != null) {
+            byte[] bytes;
+            try {
+                bytes = Base64.getDecoder().decode(record.strings[Attribute.CODE_DELTA.ordinal()]);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Broken snapshot of " + path);
+            }
+            return new FileMacro(time, action, mpath, codec.decode(path, bytes), charset, sdpath);
+        }
+        
+        codec.reset(path);
+        if (record.codeLoader != null) {
+            return new FileMacro(time, action, mpath, record.codeLoader, charset, sdpath);
+        }
+        return new FileMacro(time, action, mpath, record.strings[Attribute.CODE.ordinal()], charset, sdpath);
+    }
+    
+    /**
+     * Creates a refactoring macro from the values of a JSON object.
+     * @param time the time of the macro
+     * @param action the action of the macro
+     * @param mpath the path information of the macro
+     * @param record the values of the JSON object
+     * @return the created macro
+     */
+    private RefactoringMacro createRefactoringMacro(ZonedDateTime time, String action, MacroPath mpath, Record record) {
+        Map<String, String> arguments = record.arguments != null ? record.arguments : new HashMap<String, String>();
+        RefactoringMacro rmacro = new RefactoringMacro(time, action, mpath, record.getString(Attribute.REFACTORING_NAME), arguments);
+        rmacro.setSelectionStart(record.getInt(Attribute.REFACTORING_START));
+        rmacro.setSelectionText(record.getCode());
+        return rmacro;
+    }
+    
+    /**
+     * Creates a compound macro from the values of a JSON object.
+     * @param time the time of the macro
+     * @param action the action of the macro
+     * @param mpath the path information of the macro
+     * @param record the values of the JSON object
+     * @return the created macro
+     */
+    private CompoundMacro createCompoundMacro(ZonedDateTime time, String action, MacroPath mpath, Record record) {
+        String commandId = record.getString(Attribute.COMMAND);
+        CommandMacro cmacro = null;
+        if (commandId.length() > 0) {
+            cmacro = new CommandMacro(time, CommandMacro.Action.EXECUTION.toString(), mpath, commandId);
+        }
+        CompoundMacro macro = new CompoundMacro(time, action, mpath, cmacro);
+        if (record.macros != null) {
+            for (Macro child : record.macros) {
+                macro.addMacro(child);
+            }
+        }
+        return macro;
+    }
+    
+    /**
+     * Obtains the path information of a macro, which is shared with the previous macro if they are the same.
+     * @param record the values of the JSON object
+     * @return the path information
+     */
+    private MacroPath getMacroPath(Record record) {
+        String path = record.getString(Attribute.PATH);
+        String branch = record.getString(Attribute.BRANCH);
+        String project = record.getString(Attribute.PROJECT);
+        String pkg = record.getString(Attribute.PACKAGE);
+        String file = record.getString(Attribute.FILE);
+        if (lastPath == null || lastPath.getPath() != path || lastPath.getBranch() != branch ||
+            lastPath.getProjectName() != project || lastPath.getPackageName() != pkg || lastPath.getFileName() != file) {
+            lastPath = new MacroPath(path, branch, project, pkg, file);
+        }
+        return lastPath;
+    }
+    
+    /**
+     * Obtains the time of a macro from the current string token.
+     * The common form written by <code>DateTimeFormatter.ISO_ZONED_DATE_TIME</code> is parsed without a formatter.
+     * @return the time
+     * @throws IOException if the string does not represent a time
+     */
+    private ZonedDateTime getTime() throws IOException {
+        byte[] buf = lexer.buf;
+        int start = lexer.start;
+        int end = lexer.end;
+        if (!lexer.escaped && end - start >= 20 && buf[start + 4] == '-' && buf[start + 7] == '-' &&
+            buf[start + 10] == 'T' && buf[start + 13] == ':' && buf[start + 16] == ':') {
+            int year = getDigits(buf, start, 4);
+            int month = getDigits(buf, start + 5, 2);
+            int day = getDigits(buf, start + 8, 2);
+            int hour = getDigits(buf, start + 11, 2);
+            int minute = getDigits(buf, start + 14, 2);
+            int second = getDigits(buf, start + 17, 2);
+            int index = start + 19;
+            int nano = 0;
+            if (buf[index] == '.') {
+                int digits = 0;
+                for (index++; index < end && buf[index] >= '0' && buf[index] <= '9'; index++) {
+                    if (digits < 9) {
+                        nano = nano * 10 + buf[index] - '0';
+                        digits++;
+                    }
+                }
+                for (; digits < 9; digits++) {
+                    nano *= 10;
+                }
+            }
+            
+            if (year >= 0 && month >= 0 && day >= 0 && hour >= 0 && minute >= 0 && second >= 0 && setZone(buf, index, end)) {
+                try {
+                    LocalDateTime localTime = LocalDateTime.of(year, month, day, hour, minute, second, nano);
+                    return ZonedDateTime.ofInstant(localTime, lastOffset, lastZone);
+                } catch (DateTimeException e) {
+                    /* empty */
+                }
+            }
+        }
+        
+        try {
+            return ZonedDateTime.parse(lexer.getString(), DateTimeFormatter.ISO_ZONED_DATE_TIME);
+        } catch (DateTimeException e) {
+            throw lexer.error("Broken time: " + lexer.getString());
+        }
+    }
+    
+    /**
+     * Sets the time zone of the time of a macro, which is reused while successive macros have the same time zone.
+     * @param buf the bytes of the time zone
+     * @param start the index of the first byte of the time zone
+     * @param end the index next to the last byte of the time zone
+     * @return <code>true</code> if the time zone is valid, otherwise <code>false</code>
+     */
+    private boolean setZone(byte[] buf, int start, int end) {
+        if (Arrays.equals(buf, start, end, lastZoneBytes, 0, lastZoneBytes.length)) {
+            return lastOffset != null;
+        }
+        
+        lastZoneBytes = Arrays.copyOfRange(buf, start, end);
+        lastOffset = null;
+        String text = new String(lastZoneBytes, StandardCharsets.UTF_8);
+        int bracket = text.indexOf('[');
+        try {
+            if (bracket == -1) {
+                lastOffset = ZoneOffset.of(text);
+                lastZone = lastOffset;
+            } else if (text.endsWith("]")) {
+                lastOffset = ZoneOffset.of(text.substring(0, bracket));
+                lastZone = ZoneId.of(text.substring(bracket + 1, text.length() - 1));
+            }
+        } catch (DateTimeException e) {
+            lastOffset = null;
+        }
+        return lastOffset != null;
+    }
+    
+    /**
+     * Obtains a non-negative integer from decimal digits.
+     * @param buf the bytes of the digits
+     * @param start the index of the first digit
+     * @param length the number of the digits
+     * @return the integer, or <code>-1</code> if a byte is not a digit
+     */
+    private static int getDigits(byte[] buf, int start, int length) {
+        int value = 0;
+        for (int index = start; index < start + length; index++) {
+            int digit = buf[index] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+    
+    /**
+     * The values of a JSON object being read.
+     */
+    private static class Record {
+        
+        /**
+         * The string values of the attributes.
+         */
+        String[] strings = new String[ATTRIBUTES.length];
+        
+        /**
+         * The number values of the attributes.
+         */
+        long[] numbers = new long[ATTRIBUTES.length];
+        
+        /**
+         * The time of the macro.
+         */
+        ZonedDateTime time;
+        
+        /**
+         * The loader of code that has not been read, or <code>null</code> if the code has been read.
+         */
+        TextLoader codeLoader;
+        
+        /**
+         * The raw macros of the macro.
+         */
+        List<Macro> rawMacros;
+        
+        /**
+         * The macros of the compound macro.
+         */
+        List<Macro> macros;
+        
+        /**
+         * The arguments of the refactoring macro.
+         */
+        Map<String, String> arguments;
+        
+        /**
+         * Creates an empty record.
+         */
+        Record() {
+            Arrays.fill(numbers, -1);
+        }
+        
+        /**
+         * Returns the string value of an attribute.
+         * @param key the attribute
+         * @return the value, or the empty string if the attribute is missing
+         */
+        String getString(Attribute key) {
+            return strings[key.ordinal()] != null ? strings[key.ordinal()] : "";
+        }
+        
+        /**
+         * Returns the integer value of an attribute.
+         * @param key the attribute
+         * @return the value, or <code>-1</code> if the attribute is missing
+         */
+        int getInt(Attribute key) {
+            return (int)numbers[key.ordinal()];
+        }
+        
+        /**
+         * Returns the code, which is loaded if it has not been read.
+         * @return the code, or the empty string if the attribute is missing
+         */
+        String getCode() {
+            if (codeLoader != null) {
+                return codeLoader.get();
+            }
+            return getString(Attribute.CODE);
+        }
+    }
+    
+    /**
+     * The last string value of an attribute, which is reused while the bytes of successive values are the same.
+     */
+    private static class LastString {
+        
+        /**
+         * The bytes of the last value.
+         */
+        private byte[] bytes = new byte[0];
+        
+        /**
+         * The last value.
+         */
+        private String value = null;
+        
+        /**
+         * Obtains the string value of the current string token.
+         * @param lexer the lexer
+         * @return the string value
+         */
+        String get(MacroJSONLexer lexer) {
+            if (value != null && lexer.contentEquals(bytes)) {
+                return value;
+            }
+            value = lexer.getString();
+            bytes = Arrays.copyOfRange(lexer.buf, lexer.start, lexer.end);
+            return value;
+        }
+    }
+    
+    /**
+     * Loads a string value from a file when it is first requested.
+     */
+    private static class TextLoader implements Supplier<String> {
+        
+        /**
+         * The file that stores the value.
+         */
+        private Path file;
+        
+        /**
+         * The position of the first byte of the value in the file.
+         */
+        private long start;
+        
+        /**
+         * The position next to the last byte of the value in the file.
+         */
+        private long end;
+        
+        /**
+         * The flag that indicates whether the value contains escape sequences.
+         */
+        private boolean escaped;
+        
+        /**
+         * The flag that indicates whether the value consists of only ASCII characters.
+         */
+        private boolean ascii;
+        
+        /**
+         * Creates a loader of a string value.
+         * @param file the file that stores the value
+         * @param start the position of the first byte of the value
+         * @param end the position next to the last byte of the value
+         * @param escaped <code>true</code> if the value contains escape sequences
+         * @param ascii <code>true</code> if the value consists of only ASCII characters
+         */
+        TextLoader(Path file, long start, long end, boolean escaped, boolean ascii) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.escaped = escaped;
+            this.ascii = ascii;
+        }
+        
+        /**
+         * Loads the string value.
+         * @return the string value
+         * @throws UncheckedIOException if the file cannot be read
+         */
+        @Override
+        public String get() {
+            ByteBuffer buffer = ByteBuffer.allocate((int)(end - start));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) == -1) {
+                        throw new IOException("Unexpected end of " + file);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return MacroJSONLexer.decode(buffer.array(), 0, buffer.limit(), escaped, ascii);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.CancelMacro;
+import org.jtool.macrorecorder.macro.TriggerMacro;
+import org.jtool.macrorecorder.macro.CompoundMacro;
+import org.jtool.macrorecorder.recorder.IDocMacroCombinator;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
+
+/**
+ * Compacts a stored log of macros offline.
+ * Adjacent document macros of the same file are combined by a combinator in the same way as the recorder does,
+ * edits that cancel each other within a compound macro are removed,
+ * and successive cursor change triggers of the same file are merged into the last one.
+ * <p>
+ * The compacted log is verified by replaying both logs from the contents of the files before the log.
+ * If the contents of any file differ, any replay is inconsistent, or the contents of an edited file are not known,
+ * the original log is returned unchanged.
+ * </p>
+ * @author Katsuhisa Maruyama
+ */
+public class MacroLogCompactor {
+    
+    /**
+     * A combinator that combines successive document macros.
+     */
+    private IDocMacroCombinator combinator;
+    
+    /**
+     * The number of logs that could not be compacted because the verification failed.
+     */
+    private int failures = 0;
+    
+    /**
+     * Creates an object that compacts logs of macros.
+     * @param combinator a combinator that combines successive document macros
+     */
+    public MacroLogCompactor(IDocMacroCombinator combinator) {
+        assert combinator != null;
+        this.combinator = combinator;
+    }
+    
+    /**
+     * Returns the number of logs that could not be compacted because the verification failed.
+     * @return the number of the failures
+     */
+    public int getFailureCount() {
+        return failures;
+    }
+    
+    /**
+     * Compacts a log of macros that contains the contents of every file before it is edited.
+     * @param macros the collection of macros in the log, which are sorted in time order
+     * @return the collection of compacted macros, or a copy of the original ones if the compaction was not verified
+     */
+    public List<Macro> compact(List<Macro> macros) {
+        return compact(macros, Collections.emptyMap());
+    }
+    
+    /**
+     * Compacts a log of macros.
+     * @param macros the collection of macros in the log, which are sorted in time order
+     * @param baselines the map from the paths of files to their contents before the log
+     * @return the collection of compacted macros, or a copy of the original ones if the compaction was not verified
+     */
+    public List<Macro> compact(List<Macro> macros, Map<String, String> baselines) {
+        List<Macro> compacted = compactMacros(macros, false);
+        if (!verify(macros, compacted, baselines)) {
+            failures++;
+            return new ArrayList<Macro>(macros);
+        }
+        return compacted;
+    }
+    
+    /**
+     * Tests if two logs that contain the contents of every file before it is edited reconstruct the same contents of files.
+     * @param original the collection of original macros
+     * @param compacted the collection of compacted macros
+     * @return <code>true</code> if both logs are consistent and the contents of all the files are equal, otherwise <code>false</code>
+     */
+    public static boolean verify(List<Macro> original, List<Macro> compacted) {
+        return verify(original, compacted, Collections.emptyMap());
+    }
+    
+    /**
+     * Tests if two logs reconstruct the same contents of files.
+     * The verification fails if either replay is inconsistent with the contents of files,
+     * or the contents of an edited file are neither given as its baseline nor contained in the logs.
+     * @param original the collection of original macros
+     * @param compacted the collection of compacted macros
+     * @param baselines the map from the paths of files to their contents before the logs
+     * @return <code>true</code> if both logs are consistent and the contents of all the files are equal, otherwise <code>false</code>
+     */
+    public static boolean verify(List<Macro> original, List<Macro> compacted, Map<String, String> baselines) {
+        MacroReplayer replayer1 = replay(original, baselines);
+        MacroReplayer replayer2 = replay(compacted, baselines);
+        if (replayer1.getInconsistencyCount() > 0 || replayer2.getInconsistencyCount() > 0) {
+            return false;
+        }
+        if (!replayer1.getPathsWithoutBaseline().isEmpty() || !replayer2.getPathsWithoutBaseline().isEmpty()) {
+            return false;
+        }
+        return replayer1.hasSameCodes(replayer2);
+    }
+    
+    /**
+     * Replays a log from the contents of files before it.
+     * @param macros the collection of macros in the log
+     * @param baselines the map from the paths of files to their contents before the log
+     * @return the replayer that replayed the log
+     */
+    private static MacroReplayer replay(List<Macro> macros, Map<String, String> baselines) {
+        MacroReplayer replayer = new MacroReplayer();
+        for (Map.Entry<String, String> entry : baselines.entrySet()) {
+            replayer.setCode(entry.getKey(), entry.getValue());
+        }
+        replayer.replay(macros);
+        return replayer;
+    }
+    
+    /**
+     * Compacts macros.
+     * @param macros the collection of macros to be compacted
+     * @param inCompound <code>true</code> if the macros are contained in a compound macro, otherwise <code>false</code>
+     * @return the collection of compacted macros
+     */
+    private List<Macro> compactMacros(List<Macro> macros, boolean inCompound) {
+        List<Macro> result = new ArrayList<Macro>(macros.size());
+        Map<String, Integer> lastDocumentMacros = new HashMap<String, Integer>();
+        Map<String, Integer> lastCursorMacros = new HashMap<String, Integer>();
+        
+        for (Macro macro : macros) {
+            String path = macro.getPath();
+            
+            if (macro instanceof DocumentMacro) {
+                lastCursorMacros.remove(path);
+                DocumentMacro dmacro = (DocumentMacro)macro;
+                
+                Integer index = lastDocumentMacros.get(path);
+                if (index != null && canCombine(dmacro) && canCombine((DocumentMacro)result.get(index))) {
+                    DocumentMacro newMacro = combinator.combine((DocumentMacro)result.get(index), dmacro);
+                    if (newMacro != null) {
+                        result.set(index, newMacro);
+                        continue;
+                    }
+                }
+                
+                if (inCompound && index != null && isInverse((DocumentMacro)result.get(index), dmacro)) {
+                    result.set(index, null);
+                    lastDocumentMacros.remove(path);
+                    continue;
+                }
+                
+                if (canCombine(dmacro) || inCompound) {
+                    lastDocumentMacros.put(path, result.size());
+                } else {
+                    lastDocumentMacros.remove(path);
+                }
+                result.add(dmacro);
+                
+            } else if (macro instanceof TriggerMacro && ((TriggerMacro)macro).cursorChanged()) {
+                lastDocumentMacros.remove(path);
+                TriggerMacro tmacro = (TriggerMacro)macro;
+                
+                Integer index = lastCursorMacros.get(path);
+                if (index != null) {
+                    tmacro = mergeCursorMacros((TriggerMacro)result.get(index), tmacro);
+                    result.set(index, null);
+                }
+                lastCursorMacros.put(path, result.size());
+                result.add(tmacro);
+                
+            } else if (macro instanceof CompoundMacro) {
+                lastDocumentMacros.clear();
+                lastCursorMacros.clear();
+                result.add(compactCompoundMacro((CompoundMacro)macro));
+                
+            } else {
+                lastDocumentMacros.remove(path);
+                lastCursorMacros.remove(path);
+                result.add(macro);
+            }
+        }
+        
+        List<Macro> compacted = new ArrayList<Macro>(result.size());
+        for (Macro macro : result) {
+            if (macro != null) {
+                compacted.add(macro);
+            }
+        }
+        return compacted;
+    }
+    
+    /**
+     * Tests if a document macro can be combined with its previous document macro.
+     * Cut, paste, and cancel macros are never combined as the recorder does not combine them.
+     * @param macro the document macro
+     * @return <code>true</code> if the macro can be combined, otherwise <code>false</code>
+     */
+    private boolean canCombine(DocumentMacro macro) {
+        if (macro instanceof CancelMacro || macro.isCut() || macro.isPaste()) {
+            return false;
+        }
+        return combinator.canCombine(macro);
+    }
+    
+    /**
+     * Tests if a document macro cancels the edit of its previous document macro.
+     * @param former the former document macro
+     * @param latter the latter document macro
+     * @return <code>true</code> if the latter macro restores the text changed by the former macro, otherwise <code>false</code>
+     */
+    private boolean isInverse(DocumentMacro former, DocumentMacro latter) {
+        return former.getStart() == latter.getStart() &&
+               former.getInsertedText().equals(latter.getDeletedText()) &&
+               former.getDeletedText().equals(latter.getInsertedText());
+    }
+    
+    /**
+     * Creates a compound macro whose contents are compacted.
+     * @param macro the compound macro
+     * @return the compound macro containing the compacted macros
+     */
+    private CompoundMacro compactCompoundMacro(CompoundMacro macro) {
+        CompoundMacro newMacro = new CompoundMacro(macro.getTime(), macro.getAction(),
+                macro.getMacroPath(), macro.getCommandMacro());
+        for (Macro m : compactMacros(macro.getMacros(), true)) {
+            newMacro.addMacro(m);
+        }
+        if (macro.getRawMacros() != null) {
+            newMacro.setRawMacros(macro.getRawMacros());
+        }
+        return newMacro;
+    }
+    
+    /**
+     * Merges successive two cursor change triggers into the latter one.
+     * @param former the former trigger macro
+     * @param latter the latter trigger macro
+     * @return the merged trigger macro
+     */
+    private TriggerMacro mergeCursorMacros(TriggerMacro former, TriggerMacro latter) {
+        TriggerMacro newMacro = latter.clone();
+        if (former.getCursorCount() > 0) {
+            if (latter.getCursorCount() > 0) {
+                newMacro.setCursorChange(former.getCursorStart(), latter.getCursorEnd(),
+                        former.getCursorCount() + latter.getCursorCount());
+            } else {
+                newMacro.setCursorChange(former.getCursorStart(), former.getCursorEnd(), former.getCursorCount() + 1);
+            }
+        }
+        return newMacro;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * The formats of logs of macros that are read and written offline.
+ * @author Katsuhisa Maruyama
+ */
+enum MacroLogFormat {
+    
+    /**
+     * Lines of the textual descriptions of macros, which cannot be read back.
+     */
+    TEXT("txt"),
+    
+    /**
+     * JSON objects of macros separated by new lines.
+     */
+    JSON("json"),
+    
+    /**
+     * JSON objects of macros, each of which is preceded by its length in four bytes.
+     */
+    BINARY("bin"),
+    
+    /**
+     * Columnar files written by {@link ColumnarMacroWriter}.
+     */
+    COLUMNAR("col");
+    
+    /**
+     * The extension of files in this format.
+     */
+    private final String extension;
+    
+    /**
+     * Creates a format.
+     * @param extension the extension of files in the format
+     */
+    private MacroLogFormat(String extension) {
+        this.extension = extension;
+    }
+    
+    /**
+     * Returns the extension of files in this format.
+     * @return the extension without a period
+     */
+    String getExtension() {
+        return extension;
+    }
+    
+    /**
+     * Finds a format by its name or extension.
+     * @param name the name or extension of the format, which is case-insensitive
+     * @return the format, or <code>null</code> if none
+     */
+    static MacroLogFormat get(String name) {
+        for (MacroLogFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name) || format.extension.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        if (name.equalsIgnoreCase("ndjson")) {
+            return JSON;
+        }
+        return null;
+    }
+    
+    /**
+     * Finds a format by the extension of a file.
+     * @param file the file
+     * @return the format, or <code>null</code> if none
+     */
+    static MacroLogFormat get(File file) {
+        String name = file.getName();
+        int sep = name.lastIndexOf('.');
+        if (sep == -1) {
+            return null;
+        }
+        return get(name.substring(sep + 1));
+    }
+    
+    /**
+     * Detects the readable format of a file from its first bytes.
+     * An empty file is regarded as a JSON file without macros.
+     * @param file the file
+     * @return the format, or <code>null</code> if the file is not readable as a log of macros
+     * @throws IOException if the file cannot be read
+     */
+    static MacroLogFormat detect(File file) throws IOException {
+        byte[] head = new byte[64];
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while (length < head.length && (n = in.read(head, length, head.length - length)) != -1) {
+                length = length + n;
+            }
+        }
+        
+        if (length == 0) {
+            return JSON;
+        }
+        if (length >= 4 && getInt(head, 0) == ColumnarMacroWriter.MAGIC) {
+            return COLUMNAR;
+        }
+        for (int pos = 0; pos < length; pos++) {
+            byte b = head[pos];
+            if (b == '{' || b == '[') {
+                return JSON;
+            }
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                break;
+            }
+        }
+        if (length >= 5 && getInt(head, 0) > 0 && head[4] == '{') {
+            return BINARY;
+        }
+        return null;
+    }
+    
+    /**
+     * Obtains a four-byte integer in the big-endian order.
+     * @param bytes the bytes
+     * @param pos the position of the integer
+     * @return the integer
+     */
+    private static int getInt(byte[] bytes, int pos) {
+        return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16) | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+    }
+}
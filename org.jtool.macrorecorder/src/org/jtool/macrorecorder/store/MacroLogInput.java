@@ -0,0 +1,264 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Reads macros one by one from a log file in any readable format.
+ * @author Katsuhisa Maruyama
+ */
+abstract class MacroLogInput implements Closeable {
+    
+    /**
+     * Opens a log file whose format is detected from its contents.
+     * @param file the log file
+     * @return the input that reads macros from the file
+     * @throws IOException if the file cannot be opened or its format is unknown
+     */
+    static MacroLogInput open(File file) throws IOException {
+        MacroLogFormat format = MacroLogFormat.detect(file);
+        if (format == MacroLogFormat.JSON) {
+            return new JSONInput(new MacroJSONReader(file));
+        } else if (format == MacroLogFormat.BINARY) {
+            InputStream in = new LengthPrefixedInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            return new JSONInput(new MacroJSONReader(in));
+        } else if (format == MacroLogFormat.COLUMNAR) {
+            return new ColumnarInput(new MacroQuery(file).macros());
+        }
+        throw new IOException("Unknown format of a log file: " + file.getPath());
+    }
+    
+    /**
+     * Reads the next macro.
+     * @return the macro, or <code>null</code> if no macro remains
+     * @throws IOException if an I/O error occurs or the log is malformed
+     */
+    abstract Macro read() throws IOException;
+    
+    /**
+     * An input that reads macros from JSON text.
+     */
+    private static class JSONInput extends MacroLogInput {
+        
+        /**
+         * The reader of the JSON text.
+         */
+        private MacroJSONReader reader;
+        
+        /**
+         * Creates an input that reads macros from JSON text.
+         * @param reader the reader of the JSON text
+         */
+        JSONInput(MacroJSONReader reader) {
+            this.reader = reader;
+        }
+        
+        /**
+         * Reads the next macro.
+         * @return the macro, or <code>null</code> if no macro remains
+         * @throws IOException if an I/O error occurs or the JSON text is malformed
+         */
+        @Override
+        Macro read() throws IOException {
+            return reader.read();
+        }
+        
+        /**
+         * Closes the reader.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+    
+    /**
+     * An input that reads macros from a columnar file.
+     * Macros that cannot be created from the columns, such as command and refactoring macros, are skipped.
+     */
+    private static class ColumnarInput extends MacroLogInput {
+        
+        /**
+         * The stream of the macros.
+         */
+        private Stream<Macro> stream;
+        
+        /**
+         * The iterator over the stream of the macros.
+         */
+        private Iterator<Macro> iterator;
+        
+        /**
+         * Creates an input that reads macros from a columnar file.
+         * @param stream the stream of the macros
+         */
+        ColumnarInput(Stream<Macro> stream) {
+            this.stream = stream;
+            this.iterator = stream.iterator();
+        }
+        
+        /**
+         * Reads the next macro.
+         * @return the macro, or <code>null</code> if no macro remains
+         * @throws IOException if an I/O error occurs or the columnar file is malformed
+         */
+        @Override
+        Macro read() throws IOException {
+            try {
+                if (iterator.hasNext()) {
+                    return iterator.next();
+                }
+                return null;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        
+        /**
+         * Closes the stream.
+         */
+        @Override
+        public void close() {
+            stream.close();
+        }
+    }
+    
+    /**
+     * A stream that replaces the length preceding each JSON object with white spaces,
+     * so that the JSON objects can be pulled by a JSON reader.
+     */
+    private static class LengthPrefixedInputStream extends FilterInputStream {
+        
+        /**
+         * The number of bytes remaining in the current JSON object.
+         */
+        private long remaining = 0;
+        
+        /**
+         * The number of white spaces remaining in place of the current length.
+         */
+        private int spaces = 0;
+        
+        /**
+         * Creates a stream that replaces the lengths of JSON objects with white spaces.
+         * @param in the stream of the length-prefixed JSON objects
+         */
+        LengthPrefixedInputStream(InputStream in) {
+            super(in);
+        }
+        
+        /**
+         * Reads a byte.
+         * @return the byte, or <code>-1</code> if the end of the stream is reached
+         * @throws IOException if an I/O error occurs or a length is broken
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : (b[0] & 0xFF);
+        }
+        
+        /**
+         * Reads bytes into an array.
+         * @param b the array
+         * @param off the start offset in the array
+         * @param len the maximum number of bytes to be read
+         * @return the number of bytes read, or <code>-1</code> if the end of the stream is reached
+         * @throws IOException if an I/O error occurs or a length is broken
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = 0;
+            while (count < len) {
+                if (spaces == 0 && remaining == 0) {
+                    int length = readLength();
+                    if (length == -1) {
+                        break;
+                    }
+                    remaining = length;
+                    spaces = 4;
+                }
+                
+                if (spaces > 0) {
+                    int n = Math.min(len - count, spaces);
+                    for (int i = 0; i < n; i++) {
+                        b[off + count + i] = ' ';
+                    }
+                    spaces = spaces - n;
+                    count = count + n;
+                } else {
+                    int n = in.read(b, off + count, (int)Math.min(len - count, remaining));
+                    if (n == -1) {
+                        throw new EOFException("Truncated JSON object");
+                    }
+                    remaining = remaining - n;
+                    count = count + n;
+                }
+            }
+            if (count == 0 && len > 0) {
+                return -1;
+            }
+            return count;
+        }
+        
+        /**
+         * Reads the length of the next JSON object.
+         * @return the length, or <code>-1</code> if the end of the stream is reached
+         * @throws IOException if an I/O error occurs or the length is broken
+         */
+        private int readLength() throws IOException {
+            int length = 0;
+            for (int i = 0; i < 4; i++) {
+                int c = in.read();
+                if (c == -1) {
+                    if (i == 0) {
+                        return -1;
+                    }
+                    throw new EOFException("Truncated length of a JSON object");
+                }
+                length = (length << 8) | c;
+            }
+            if (length < 0) {
+                throw new IOException("Broken length of a JSON object: " + length);
+            }
+            return length;
+        }
+        
+        /**
+         * Skips bytes, which is not supported.
+         * @param n the number of bytes to be skipped
+         * @return always <code>0</code>
+         */
+        @Override
+        public long skip(long n) {
+            return 0;
+        }
+        
+        /**
+         * Tests if this stream supports marks.
+         * @return always <code>false</code>
+         */
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroTemplate;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes macros into a log file in a given format.
+ * Chunks of macros may be encoded concurrently before they are written in order.
+ * @author Katsuhisa Maruyama
+ */
+abstract class MacroLogOutput implements Closeable {
+    
+    /**
+     * Creates an output that writes macros into a file.
+     * @param format the format of the file
+     * @param file the file
+     * @param rowsPerFile the number of rows in a columnar file over which a new file is created
+     * @param lossy <code>true</code> if macros that cannot be restored from a columnar file are written into it,
+     *        or <code>false</code> if they fail the output
+     * @return the created output
+     * @throws IOException if the file cannot be created
+     */
+    static MacroLogOutput create(MacroLogFormat format, File file, int rowsPerFile, boolean lossy) throws IOException {
+        if (format == MacroLogFormat.COLUMNAR) {
+            return new ColumnarOutput(file, rowsPerFile, lossy);
+        }
+        return new EncodedOutput(format, file);
+    }
+    
+    /**
+     * Encodes a chunk of macros, which may be invoked concurrently.
+     * @param macros the chunk of macros
+     * @return the encoded bytes, or <code>null</code> if the macros are encoded when they are written
+     */
+    abstract byte[] encode(List<Macro> macros);
+    
+    /**
+     * Writes a chunk of macros.
+     * @param macros the chunk of macros
+     * @param bytes the bytes returned by {@link #encode(List)} for the chunk
+     * @throws IOException if an I/O error occurs
+     */
+    abstract void write(List<Macro> macros, byte[] bytes) throws IOException;
+    
+    /**
+     * Returns the number of files that were written.
+     * @return the number of the files
+     */
+    abstract int getFileCount();
+    
+    /**
+     * Returns the number of written macros that cannot be restored as they were.
+     * @return the number of the macros
+     */
+    long getLossCount() {
+        return 0;
+    }
+    
+    /**
+     * An output that writes macros encoded into bytes.
+     */
+    private static class EncodedOutput extends MacroLogOutput {
+        
+        /**
+         * The format of the file.
+         */
+        private MacroLogFormat format;
+        
+        /**
+         * The stream of the file.
+         */
+        private OutputStream out;
+        
+        /**
+         * Creates an output that writes encoded macros into a file.
+         * @param format the format of the file
+         * @param file the file
+         * @throws IOException if the file cannot be created
+         */
+        EncodedOutput(MacroLogFormat format, File file) throws IOException {
+            this.format = format;
+            this.out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        }
+        
+        /**
+         * Encodes a chunk of macros into lines of text, lines of JSON objects, or length-prefixed JSON objects.
+         * @param macros the chunk of macros
+         * @return the encoded bytes
+         */
+        @Override
+        byte[] encode(List<Macro> macros) {
+            if (format == MacroLogFormat.TEXT) {
+                StringBuilder buf = new StringBuilder();
+                for (Macro macro : macros) {
+                    try {
+                        MacroTemplate.DESCRIPTION.render(macro, buf);
+                    } catch (IOException e) { /* empty */ }
+                    buf.append('\n');
+                }
+                return buf.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(macros.size() * 256);
+            for (Macro macro : macros) {
+                byte[] json = macro.getJSONString().getBytes(StandardCharsets.UTF_8);
+                if (format == MacroLogFormat.BINARY) {
+                    bytes.write(json.length >>> 24);
+                    bytes.write(json.length >>> 16);
+                    bytes.write(json.length >>> 8);
+                    bytes.write(json.length);
+                    bytes.write(json, 0, json.length);
+                } else {
+                    bytes.write(json, 0, json.length);
+                    bytes.write('\n');
+                }
+            }
+            return bytes.toByteArray();
+        }
+        
+        /**
+         * Writes the encoded bytes of a chunk of macros.
+         * @param macros the chunk of macros
+         * @param bytes the encoded bytes
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        void write(List<Macro> macros, byte[] bytes) throws IOException {
+            out.write(bytes);
+        }
+        
+        /**
+         * Returns the number of files that were written.
+         * @return always <code>1</code>
+         */
+        @Override
+        int getFileCount() {
+            return 1;
+        }
+        
+        /**
+         * Flushes and closes the file.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+    
+    /**
+     * An output that writes macros into columnar files.
+     * Row groups are written as they fill, and a new file is created when a file holds a given number of rows.
+     */
+    private static class ColumnarOutput extends MacroLogOutput {
+        
+        /**
+         * The first file.
+         */
+        private File file;
+        
+        /**
+         * The number of rows in a file over which a new file is created.
+         */
+        private int rowsPerFile;
+        
+        /**
+         * The writer of the current file.
+         */
+        private ColumnarMacroWriter writer;
+        
+        /**
+         * The number of files that were created.
+         */
+        private int fileCount = 1;
+        
+        /**
+         * A flag that indicates whether macros that cannot be restored are written.
+         */
+        private boolean lossy;
+        
+        /**
+         * The number of macros that cannot be restored.
+         */
+        private AtomicLong lossCount = new AtomicLong();
+        
+        /**
+         * Creates an output that writes macros into columnar files.
+         * @param file the first file
+         * @param rowsPerFile the number of rows in a file over which a new file is created
+         * @param lossy <code>true</code> if macros that cannot be restored are written, otherwise <code>false</code>
+         */
+        ColumnarOutput(File file, int rowsPerFile, boolean lossy) {
+            this.file = file;
+            this.rowsPerFile = rowsPerFile;
+            this.lossy = lossy;
+            this.writer = new ColumnarMacroWriter(file);
+        }
+        
+        /**
+         * Does not encode macros, which are encoded when they are written, but checks that they can be restored.
+         * @param macros the chunk of macros
+         * @return always <code>null</code>
+         * @throws UncheckedIOException if a macro cannot be restored and such macros are not written
+         */
+        @Override
+        byte[] encode(List<Macro> macros) {
+            for (Macro macro : macros) {
+                if (!ColumnarMacroWriter.isRestorable(macro)) {
+                    if (!lossy) {
+                        throw new UncheckedIOException(new IOException("Cannot restore from columnar files: "
+                                + ColumnarMacroWriter.getTypeName(macro) + " " + macro.getTime() + " " + macro.getPath()
+                                + " (use -lossy to write such macros)"));
+                    }
+                    lossCount.incrementAndGet();
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * Writes a chunk of macros.
+         * @param macros the chunk of macros
+         * @param bytes not used
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        void write(List<Macro> macros, byte[] bytes) throws IOException {
+            for (Macro macro : macros) {
+                if (writer.getRowCount() >= rowsPerFile) {
+                    writer.close();
+                    writer = new ColumnarMacroWriter(getPartFile(file, fileCount));
+                    fileCount++;
+                }
+                writer.write(macro);
+            }
+        }
+        
+        /**
+         * Returns the number of files that were written.
+         * @return the number of the files
+         */
+        @Override
+        int getFileCount() {
+            return fileCount;
+        }
+        
+        /**
+         * Returns the number of written macros that cannot be restored as they were.
+         * @return the number of the macros
+         */
+        @Override
+        long getLossCount() {
+            return lossCount.get();
+        }
+        
+        /**
+         * Writes and closes the current file.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+        
+        /**
+         * Obtains a file that follows the first file.
+         * @param file the first file
+         * @param index the index of the following file
+         * @return the file whose name has the index before its extension
+         */
+        private static File getPartFile(File file, int index) {
+            String name = file.getName();
+            int sep = name.lastIndexOf('.');
+            if (sep == -1) {
+                sep = name.length();
+            }
+            return new File(file.getParentFile(), name.substring(0, sep) + "-" + index + name.substring(sep));
+        }
+    }
+}
@@ -0,0 +1,1220 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.CompoundMacro;
+import org.jtool.macrorecorder.recorder.DocMacroCombinator;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * A command-line tool that processes logs of macros offline without launching Eclipse.
+ * <p>
+ * The inputs are log files or directories, whose files are processed in the order of their paths.
+ * The format of each file is detected from its contents: JSON objects of macros (as {@link MacroJSONReader} reads them),
+ * length-prefixed JSON objects, or columnar files. The following commands are available:
+ * </p>
+ * <ul>
+ * <li><code>stats</code>: counts macros by their types and actions, and reports their paths, time range, and edit volume</li>
+ * <li><code>replay</code>: reconstructs the contents of files, and writes them into a directory given by <code>-o</code></li>
+ * <li><code>convert</code>: writes macros into a file given by <code>-o</code> in the format given by <code>-f</code>
+ *     (<code>text</code>, <code>json</code>, <code>binary</code>, or <code>columnar</code>).
+ *     Since columnar files store only the attributes of document, cancel, copy, and file macros,
+ *     a macro that cannot be restored from them fails the command unless <code>-lossy</code> is given</li>
+ * <li><code>compact</code>: compacts macros as {@link MacroLogCompactor} does, and writes them like <code>convert</code></li>
+ * <li><code>merge</code>: merges the logs of respective inputs in time order, and writes them like <code>convert</code></li>
+ * <li><code>verify</code>: checks that the logs are readable, ordered in time for each path, and consistent when replayed</li>
+ * </ul>
+ * <p>
+ * Files are read concurrently and their macros are streamed in chunks through bounded queues,
+ * so the memory does not depend on the size of the logs except for the contents reconstructed by <code>replay</code>,
+ * <code>verify</code>, and <code>compact</code>. Macros are partitioned by their paths so that each partition is processed by its own thread
+ * in the order of the files, and chunks are encoded or compacted concurrently before they are written in order.
+ * A compacted chunk is verified by itself from the contents of its files reconstructed from the preceding chunks,
+ * so edits across the boundaries of chunks are not combined.
+ * </p>
+ * <pre><code>
+ * % java -cp bin:lib/javax.json-1.1.jar org.jtool.macrorecorder.store.MacroLogTool command [-j threads] [-o output] [-f format] [-rows rows] [-lossy] input...
+ * </code></pre>
+ * @author Katsuhisa Maruyama
+ */
+public class MacroLogTool {
+    
+    /**
+     * The number of macros in a chunk that is passed between threads.
+     */
+    static final int CHUNK_SIZE = 4096;
+    
+    /**
+     * The number of macros in a chunk that is compacted at a time.
+     */
+    static final int COMPACTION_CHUNK_SIZE = 65536;
+    
+    /**
+     * The default number of rows in a columnar file over which a new file is created.
+     */
+    public static final int DEFAULT_ROWS_PER_FILE = 1 << 20;
+    
+    /**
+     * The number of chunks that can wait in a queue between threads.
+     */
+    private static final int QUEUE_CAPACITY = 2;
+    
+    /**
+     * The maximum number of errors that are displayed.
+     */
+    private static final int MAX_DISPLAYED_ERRORS = 100;
+    
+    /**
+     * The chunk that indicates the end of the macros of a file.
+     */
+    private static final List<Macro> END = Collections.unmodifiableList(new ArrayList<Macro>(0));
+    
+    /**
+     * The number of threads that read files or process chunks.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * The output file or directory, or <code>null</code> if none.
+     */
+    private File output = null;
+    
+    /**
+     * The format of the output file, or <code>null</code> if it is determined by the extension of the file.
+     */
+    private MacroLogFormat format = null;
+    
+    /**
+     * The number of rows in a columnar file over which a new file is created.
+     */
+    private int rowsPerFile = DEFAULT_ROWS_PER_FILE;
+    
+    /**
+     * A flag that indicates whether macros that cannot be restored from columnar files are written into them.
+     */
+    private boolean lossy = false;
+    
+    /**
+     * The number of macros that were read.
+     */
+    private AtomicLong readCount = new AtomicLong();
+    
+    /**
+     * The messages of errors that occurred.
+     */
+    private List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    
+    /**
+     * Creates a command-line tool.
+     */
+    MacroLogTool() {
+    }
+    
+    /**
+     * Runs a command and exits with its status.
+     * @param args the command, its options, and its inputs
+     */
+    public static void main(String[] args) {
+        System.exit(new MacroLogTool().run(args));
+    }
+    
+    /**
+     * Runs a command.
+     * @param args the command, its options, and its inputs
+     * @return <code>0</code> if the command succeeded, <code>1</code> if it failed, or <code>2</code> if the arguments are wrong
+     */
+    int run(String[] args) {
+        if (args.length == 0) {
+            return usage(null);
+        }
+        String command = args[0];
+        List<List<File>> inputs = new ArrayList<List<File>>();
+        try {
+            for (int idx = 1; idx < args.length; idx++) {
+                String arg = args[idx];
+                if (arg.equals("-j")) {
+                    threads = Math.max(1, Integer.parseInt(getValue(args, ++idx)));
+                } else if (arg.equals("-o")) {
+                    output = new File(getValue(args, ++idx));
+                } else if (arg.equals("-f")) {
+                    format = MacroLogFormat.get(getValue(args, ++idx));
+                    if (format == null) {
+                        return usage("Unknown format: " + args[idx]);
+                    }
+                } else if (arg.equals("-rows")) {
+                    rowsPerFile = Math.max(1, Integer.parseInt(getValue(args, ++idx)));
+                } else if (arg.equals("-lossy")) {
+                    lossy = true;
+                } else if (arg.startsWith("-")) {
+                    return usage("Unknown option: " + arg);
+                } else {
+                    inputs.add(getFiles(new File(arg)));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return usage(e.getMessage());
+        }
+        if (inputs.isEmpty()) {
+            return usage("No input");
+        }
+        
+        List<File> files = new ArrayList<File>();
+        for (List<File> input : inputs) {
+            files.addAll(input);
+        }
+        
+        long start = System.nanoTime();
+        try {
+            switch (command) {
+                case "stats":
+                    stats(files);
+                    break;
+                case "replay":
+                    replay(files);
+                    break;
+                case "verify":
+                    verify(files);
+                    break;
+                case "convert":
+                    write(files, null, CHUNK_SIZE);
+                    break;
+                case "compact":
+                    compact(files);
+                    break;
+                case "merge":
+                    merge(inputs);
+                    break;
+                default:
+                    return usage("Unknown command: " + command);
+            }
+        } catch (IllegalArgumentException e) {
+            return usage(e.getMessage());
+        } catch (IOException e) {
+            errors.add(e.getMessage());
+        }
+        
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d macros read from %d files in %.1f s (%.0f macros/s)",
+                readCount.get(), files.size(), seconds, readCount.get() / Math.max(seconds, 1e-9)));
+        return reportErrors();
+    }
+    
+    /**
+     * Obtains the value of an option.
+     * @param args the arguments
+     * @param idx the index of the value
+     * @return the value
+     * @throws IllegalArgumentException if the value is missing
+     */
+    private static String getValue(String[] args, int idx) {
+        if (idx >= args.length) {
+            throw new IllegalArgumentException("Missing value of " + args[idx - 1]);
+        }
+        return args[idx];
+    }
+    
+    /**
+     * Collects log files in a file or directory.
+     * @param file the file or directory
+     * @return the sorted collection of the files, excluding hidden ones
+     * @throws IllegalArgumentException if the file does not exist
+     */
+    private static List<File> getFiles(File file) {
+        if (!file.exists()) {
+            throw new IllegalArgumentException("No such file or directory: " + file.getPath());
+        }
+        List<File> files = new ArrayList<File>();
+        collectFiles(file, files);
+        return files;
+    }
+    
+    /**
+     * Collects log files in a file or directory recursively.
+     * @param file the file or directory
+     * @param files the collection that stores the files
+     */
+    private static void collectFiles(File file, List<File> files) {
+        if (file.isFile()) {
+            files.add(file);
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (!child.getName().startsWith(".")) {
+                collectFiles(child, files);
+            }
+        }
+    }
+    
+    /**
+     * Displays the usage of this tool.
+     * @param message the message of an error, or <code>null</code> if none
+     * @return always <code>2</code>
+     */
+    private static int usage(String message) {
+        if (message != null) {
+            System.err.println(message);
+        }
+        System.err.println("Usage: MacroLogTool command [options] input...");
+        System.err.println("  stats                      counts macros by type and action, paths, time range, and edit volume");
+        System.err.println("  replay [-o directory]      reconstructs the contents of files");
+        System.err.println("  convert -o file [-f format] converts macros into text, json, binary, or columnar");
+        System.err.println("  compact -o file [-f format] compacts macros");
+        System.err.println("  merge -o file [-f format]  merges the logs of respective inputs in time order");
+        System.err.println("  verify                     checks that the logs are readable, ordered, and consistent");
+        System.err.println("Options:");
+        System.err.println("  -j threads                 the number of threads (default: the number of processors)");
+        System.err.println("  -rows rows                 the number of rows in a columnar file (default: " + DEFAULT_ROWS_PER_FILE + ")");
+        System.err.println("  -lossy                     writes macros that cannot be restored from columnar files into them");
+        return 2;
+    }
+    
+    /**
+     * Displays the errors that occurred.
+     * @return <code>0</code> if no error occurred, otherwise <code>1</code>
+     */
+    private int reportErrors() {
+        if (errors.isEmpty()) {
+            return 0;
+        }
+        synchronized (errors) {
+            for (int idx = 0; idx < errors.size() && idx < MAX_DISPLAYED_ERRORS; idx++) {
+                System.err.println(errors.get(idx));
+            }
+            if (errors.size() > MAX_DISPLAYED_ERRORS) {
+                System.err.println("... " + (errors.size() - MAX_DISPLAYED_ERRORS) + " more errors");
+            }
+        }
+        return 1;
+    }
+    
+    /**
+     * Displays statistics on macros.
+     * @param files the log files
+     * @throws IOException if an I/O error occurs
+     */
+    private void stats(List<File> files) throws IOException {
+        Stats[] stats = new Stats[threads];
+        for (int p = 0; p < stats.length; p++) {
+            stats[p] = new Stats();
+        }
+        scan(files, threads, CHUNK_SIZE, false, threads, (p, macros) -> {
+            for (Macro macro : macros) {
+                stats[p].add(macro, true);
+            }
+        });
+        
+        Stats total = new Stats();
+        for (Stats s : stats) {
+            total.merge(s);
+        }
+        total.print();
+    }
+    
+    /**
+     * Reconstructs the contents of files, and writes them into the output directory if any.
+     * @param files the log files
+     * @throws IOException if an I/O error occurs
+     */
+    private void replay(List<File> files) throws IOException {
+        MacroReplayer[] replayers = new MacroReplayer[threads];
+        for (int p = 0; p < replayers.length; p++) {
+            replayers[p] = new MacroReplayer();
+        }
+        scan(files, threads, CHUNK_SIZE, true, threads, (p, macros) -> replayers[p].replay(macros));
+        
+        Map<String, String> codes = new TreeMap<String, String>();
+        int inconsistencies = 0;
+        for (MacroReplayer replayer : replayers) {
+            for (String path : replayer.getPaths()) {
+                codes.put(path, replayer.getCode(path));
+            }
+            inconsistencies = inconsistencies + replayer.getInconsistencyCount();
+        }
+        
+        for (String path : codes.keySet()) {
+            String code = codes.get(path);
+            if (output == null) {
+                System.out.println(code.length() + " " + path);
+            } else {
+                writeCode(path, code);
+            }
+        }
+        System.out.println(codes.size() + " files reconstructed, " + inconsistencies + " inconsistent document macros");
+    }
+    
+    /**
+     * Writes the reconstructed contents of a file into the output directory.
+     * @param path the path of the file
+     * @param code the contents of the file
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeCode(String path, String code) throws IOException {
+        Path dir = output.toPath().toAbsolutePath().normalize();
+        String name = path;
+        while (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        Path file;
+        try {
+            file = dir.resolve(name).normalize();
+        } catch (InvalidPathException e) {
+            errors.add("Skipped a file whose path is invalid: " + path);
+            return;
+        }
+        if (name.length() == 0 || !file.startsWith(dir) || file.equals(dir)) {
+            errors.add("Skipped a file outside the output directory: " + path);
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Files.write(file, code.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Checks that logs are readable, ordered in time for each path, and consistent when replayed.
+     * @param files the log files
+     * @throws IOException if an I/O error occurs
+     */
+    private void verify(List<File> files) throws IOException {
+        MacroReplayer[] replayers = new MacroReplayer[threads];
+        List<Map<String, Macro>> lastMacros = new ArrayList<Map<String, Macro>>();
+        AtomicLong disorders = new AtomicLong();
+        for (int p = 0; p < replayers.length; p++) {
+            replayers[p] = new MacroReplayer();
+            lastMacros.add(new HashMap<String, Macro>());
+        }
+        scan(files, threads, CHUNK_SIZE, true, threads, (p, macros) -> {
+            Map<String, Macro> lasts = lastMacros.get(p);
+            for (Macro macro : macros) {
+                String path = macro.getPath() != null ? macro.getPath() : "";
+                Macro last = lasts.put(path, macro);
+                if (last != null && macro.compareTime(last) < 0) {
+                    disorders.incrementAndGet();
+                    errors.add("Macro earlier than its predecessor: " + macro.toString());
+                }
+                replayers[p].replay(macro);
+            }
+        });
+        
+        int inconsistencies = 0;
+        for (MacroReplayer replayer : replayers) {
+            inconsistencies = inconsistencies + replayer.getInconsistencyCount();
+        }
+        if (inconsistencies > 0) {
+            errors.add(inconsistencies + " document macros are inconsistent with the contents of their files");
+        }
+        System.out.println(disorders.get() + " macros out of order, " + inconsistencies + " inconsistent document macros");
+    }
+    
+    /**
+     * Compacts macros and writes them into the output file.
+     * @param files the log files
+     * @throws IOException if an I/O error occurs
+     */
+    private void compact(List<File> files) throws IOException {
+        AtomicInteger failures = new AtomicInteger();
+        MacroReplayer history = new MacroReplayer();
+        long written;
+        try (OrderedWriter writer = new OrderedWriter(null)) {
+            scan(files, 1, COMPACTION_CHUNK_SIZE, false, threads, (p, macros) -> {
+                Set<String> paths = new HashSet<String>();
+                collectPaths(macros, paths);
+                Map<String, String> baselines = history.getCodes(paths);
+                history.replay(macros);
+                
+                writer.submit(macros, chunk -> {
+                    MacroLogCompactor compactor = new MacroLogCompactor(new DocMacroCombinator() {});
+                    List<Macro> compacted = compactor.compact(chunk, baselines);
+                    failures.addAndGet(compactor.getFailureCount());
+                    return compacted;
+                });
+            });
+            writer.finish();
+            written = writer.getWrittenCount();
+            System.out.println(written + " macros written into " + writer.getFileCount() + " files");
+        }
+        System.out.println(readCount.get() + " macros compacted into " + written + " macros, "
+                + failures.get() + " chunks left unchanged because their compaction was not verified");
+    }
+    
+    /**
+     * Collects the paths of macros including the macros contained in compound macros.
+     * @param macros the collection of the macros
+     * @param paths the set that stores the paths
+     */
+    private static void collectPaths(List<Macro> macros, Set<String> paths) {
+        for (Macro macro : macros) {
+            paths.add(macro.getPath() != null ? macro.getPath() : "");
+            if (macro instanceof CompoundMacro) {
+                collectPaths(((CompoundMacro)macro).getMacros(), paths);
+            }
+        }
+    }
+    
+    /**
+     * Writes macros of log files into the output file in order.
+     * @param files the log files
+     * @param function the function that transforms each chunk of macros, or <code>null</code> if macros are written as they are
+     * @param chunkSize the number of macros in a chunk
+     * @return the number of written macros
+     * @throws IOException if an I/O error occurs
+     */
+    private long write(List<File> files, UnaryOperator<List<Macro>> function, int chunkSize) throws IOException {
+        try (OrderedWriter writer = new OrderedWriter(function)) {
+            scan(files, 1, chunkSize, false, threads, (p, macros) -> writer.submit(macros));
+            writer.finish();
+            System.out.println(writer.getWrittenCount() + " macros written into " + writer.getFileCount() + " files");
+            return writer.getWrittenCount();
+        }
+    }
+    
+    /**
+     * Merges the logs of respective inputs in time order and writes them into the output file.
+     * The files of each input are concatenated in the order of their paths.
+     * @param inputs the collections of log files of the respective inputs
+     * @throws IOException if an I/O error occurs
+     */
+    private void merge(List<List<File>> inputs) throws IOException {
+        int readers = Math.max(1, threads / inputs.size());
+        List<Cursor> cursors = new ArrayList<Cursor>();
+        List<Thread> producers = new ArrayList<Thread>();
+        for (List<File> input : inputs) {
+            BlockingQueue<List<Macro>> queue = new ArrayBlockingQueue<List<Macro>>(QUEUE_CAPACITY);
+            cursors.add(new Cursor(queue, cursors.size()));
+            Thread producer = new Thread(() -> {
+                try {
+                    scan(input, 1, CHUNK_SIZE, false, readers, (p, macros) -> put(queue, macros));
+                } finally {
+                    put(queue, END);
+                }
+            }, "MacroLogTool-merge");
+            producer.setDaemon(true);
+            producer.start();
+            producers.add(producer);
+        }
+        
+        try (OrderedWriter writer = new OrderedWriter(null)) {
+            PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>();
+            for (Cursor cursor : cursors) {
+                if (cursor.next()) {
+                    heads.add(cursor);
+                }
+            }
+            List<Macro> chunk = new ArrayList<Macro>(CHUNK_SIZE);
+            while (!heads.isEmpty()) {
+                Cursor cursor = heads.poll();
+                chunk.add(cursor.macro);
+                if (chunk.size() >= CHUNK_SIZE) {
+                    writer.submit(chunk);
+                    chunk = new ArrayList<Macro>(CHUNK_SIZE);
+                }
+                if (cursor.next()) {
+                    heads.add(cursor);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writer.submit(chunk);
+            }
+            writer.finish();
+            System.out.println(writer.getWrittenCount() + " macros merged into " + writer.getFileCount() + " files");
+        }
+        
+        for (Thread producer : producers) {
+            join(producer);
+        }
+    }
+    
+    /**
+     * Reads log files concurrently and passes their macros to partitions.
+     * A partition receives chunks of macros of its paths on its own thread, in the order of the files and the macros.
+     * At most a given number of files are read at the same time, and at most a few chunks of each file wait for each partition.
+     * @param files the log files
+     * @param partitions the number of the partitions
+     * @param chunkSize the maximum number of macros in a chunk
+     * @param flatten <code>true</code> if the macros of a compound macro are passed instead of the compound macro
+     * @param readers the number of threads that read files
+     * @param consumer the consumer of the chunks
+     */
+    private void scan(List<File> files, int partitions, int chunkSize, boolean flatten, int readers, ChunkConsumer consumer) {
+        if (files.isEmpty()) {
+            return;
+        }
+        
+        Map<Integer, Slot> slots = new ConcurrentHashMap<Integer, Slot>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(readers, files.size()));
+        try {
+            for (int index = 0; index < files.size(); index++) {
+                int i = index;
+                pool.execute(() -> read(files.get(i), getSlot(slots, i, partitions), chunkSize, flatten));
+            }
+            
+            List<Thread> workers = new ArrayList<Thread>();
+            for (int partition = 0; partition < partitions; partition++) {
+                int p = partition;
+                Thread worker = new Thread(() -> {
+                    boolean failed = false;
+                    for (int i = 0; i < files.size(); i++) {
+                        Slot slot = getSlot(slots, i, partitions);
+                        BlockingQueue<List<Macro>> queue = slot.queues.get(p);
+                        List<Macro> macros;
+                        while ((macros = take(queue)) != END) {
+                            if (failed) {
+                                continue;
+                            }
+                            try {
+                                consumer.accept(p, macros);
+                            } catch (IOException | RuntimeException e) {
+                                errors.add(getMessage(e));
+                                failed = true;
+                            }
+                        }
+                        if (slot.remaining.decrementAndGet() == 0) {
+                            slots.remove(i);
+                        }
+                    }
+                }, "MacroLogTool-" + p);
+                worker.start();
+                workers.add(worker);
+            }
+            for (Thread worker : workers) {
+                join(worker);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Obtains the slot of queues for a file, creating it if it does not exist.
+     * @param slots the slots of the files being read
+     * @param index the index of the file
+     * @param partitions the number of partitions
+     * @return the slot of the file
+     */
+    private static Slot getSlot(Map<Integer, Slot> slots, int index, int partitions) {
+        return slots.computeIfAbsent(index, i -> new Slot(partitions));
+    }
+    
+    /**
+     * Reads a log file and passes chunks of its macros to the partitions of their paths.
+     * An error is recorded, and the macros read before it are passed.
+     * @param file the log file
+     * @param slot the slot of queues for the file
+     * @param chunkSize the maximum number of macros in a chunk
+     * @param flatten <code>true</code> if the macros of a compound macro are passed instead of the compound macro
+     */
+    private void read(File file, Slot slot, int chunkSize, boolean flatten) {
+        int partitions = slot.queues.size();
+        List<List<Macro>> chunks = new ArrayList<List<Macro>>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            chunks.add(new ArrayList<Macro>());
+        }
+        
+        try (MacroLogInput input = MacroLogInput.open(file)) {
+            Macro macro;
+            while ((macro = input.read()) != null) {
+                readCount.incrementAndGet();
+                route(macro, slot, chunks, chunkSize, flatten);
+            }
+        } catch (IOException | RuntimeException e) {
+            errors.add(file.getPath() + ": " + getMessage(e));
+        } finally {
+            for (int p = 0; p < partitions; p++) {
+                if (!chunks.get(p).isEmpty()) {
+                    put(slot.queues.get(p), chunks.get(p));
+                }
+                put(slot.queues.get(p), END);
+            }
+        }
+    }
+    
+    /**
+     * Adds a macro to the chunk of the partition of its path, and passes the chunk if it is full.
+     * @param macro the macro
+     * @param slot the slot of queues for the file
+     * @param chunks the chunks being filled for the respective partitions
+     * @param chunkSize the maximum number of macros in a chunk
+     * @param flatten <code>true</code> if the macros of a compound macro are added instead of the compound macro
+     */
+    private static void route(Macro macro, Slot slot, List<List<Macro>> chunks, int chunkSize, boolean flatten) {
+        if (flatten && macro instanceof CompoundMacro) {
+            for (Macro m : ((CompoundMacro)macro).getMacros()) {
+                route(m, slot, chunks, chunkSize, flatten);
+            }
+            return;
+        }
+        
+        int p = 0;
+        if (chunks.size() > 1 && macro.getPath() != null) {
+            p = (macro.getPath().hashCode() & 0x7FFFFFFF) % chunks.size();
+        }
+        List<Macro> chunk = chunks.get(p);
+        chunk.add(macro);
+        if (chunk.size() >= chunkSize) {
+            put(slot.queues.get(p), chunk);
+            chunks.set(p, new ArrayList<Macro>());
+        }
+    }
+    
+    /**
+     * Puts a chunk into a queue, waiting for space to become available.
+     * @param queue the queue
+     * @param macros the chunk of macros
+     */
+    private static void put(BlockingQueue<List<Macro>> queue, List<Macro> macros) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(macros);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Takes a chunk from a queue, waiting for a chunk to become available.
+     * @param queue the queue
+     * @return the chunk of macros
+     */
+    private static List<Macro> take(BlockingQueue<List<Macro>> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Waits for a thread to die.
+     * @param thread the thread
+     */
+    private static void join(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Obtains the message of an exception.
+     * @param e the exception
+     * @return the message, or the name of the exception if it has no message
+     */
+    private static String getMessage(Exception e) {
+        Throwable cause = e instanceof UncheckedIOException ? e.getCause() : e;
+        if (cause.getMessage() != null) {
+            return cause.getMessage();
+        }
+        return cause.toString();
+    }
+    
+    /**
+     * A consumer of chunks of macros passed to a partition.
+     */
+    @FunctionalInterface
+    private interface ChunkConsumer {
+        
+        /**
+         * Receives a chunk of macros.
+         * @param partition the index of the partition
+         * @param macros the chunk of macros
+         * @throws IOException if an I/O error occurs
+         */
+        void accept(int partition, List<Macro> macros) throws IOException;
+    }
+    
+    /**
+     * The queues through which chunks of macros of a file are passed to the respective partitions.
+     */
+    private static class Slot {
+        
+        /**
+         * The queues for the respective partitions.
+         */
+        private List<BlockingQueue<List<Macro>>> queues;
+        
+        /**
+         * The number of partitions that have not received all the chunks of the file.
+         */
+        private AtomicInteger remaining;
+        
+        /**
+         * Creates a slot of queues for a file.
+         * @param partitions the number of partitions
+         */
+        Slot(int partitions) {
+            queues = new ArrayList<BlockingQueue<List<Macro>>>(partitions);
+            for (int p = 0; p < partitions; p++) {
+                queues.add(new ArrayBlockingQueue<List<Macro>>(QUEUE_CAPACITY));
+            }
+            remaining = new AtomicInteger(partitions);
+        }
+    }
+    
+    /**
+     * A cursor that points to the next macro of an input to be merged.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+        
+        /**
+         * The queue of chunks of macros of the input.
+         */
+        private BlockingQueue<List<Macro>> queue;
+        
+        /**
+         * The order of the input, which breaks ties between macros with the same time.
+         */
+        private int order;
+        
+        /**
+         * The current chunk of macros.
+         */
+        private List<Macro> chunk = Collections.emptyList();
+        
+        /**
+         * The index of the next macro in the current chunk.
+         */
+        private int index = 0;
+        
+        /**
+         * The macro this cursor points to.
+         */
+        private Macro macro;
+        
+        /**
+         * Creates a cursor.
+         * @param queue the queue of chunks of macros of the input
+         * @param order the order of the input
+         */
+        Cursor(BlockingQueue<List<Macro>> queue, int order) {
+            this.queue = queue;
+            this.order = order;
+        }
+        
+        /**
+         * Moves this cursor to the next macro.
+         * @return <code>true</code> if the next macro exists, otherwise <code>false</code>
+         */
+        boolean next() {
+            while (index >= chunk.size()) {
+                if (chunk == END) {
+                    return false;
+                }
+                chunk = take(queue);
+                index = 0;
+            }
+            macro = chunk.get(index++);
+            return true;
+        }
+        
+        /**
+         * Compares this cursor with another cursor by the times and sequence numbers of their macros
+         * and the orders of their inputs.
+         * @param cursor the other cursor
+         * @return a negative integer, zero, or a positive integer as this cursor is less than, equal to, or greater than the other
+         */
+        @Override
+        public int compareTo(Cursor cursor) {
+            int result = macro.compareTime(cursor.macro);
+            if (result != 0) {
+                return result;
+            }
+            return Integer.compare(order, cursor.order);
+        }
+    }
+    
+    /**
+     * A writer that transforms and encodes chunks of macros concurrently and writes them in order.
+     */
+    private class OrderedWriter implements AutoCloseable {
+        
+        /**
+         * The output into which macros are written.
+         */
+        private MacroLogOutput out;
+        
+        /**
+         * The function that transforms each chunk of macros, or <code>null</code> if macros are written as they are.
+         */
+        private UnaryOperator<List<Macro>> function;
+        
+        /**
+         * The threads that transform and encode chunks.
+         */
+        private ExecutorService executor = Executors.newFixedThreadPool(threads);
+        
+        /**
+         * The chunks being transformed and encoded in the order in which they are written.
+         */
+        private Deque<Future<EncodedChunk>> pending = new ArrayDeque<Future<EncodedChunk>>();
+        
+        /**
+         * The number of written macros.
+         */
+        private long writtenCount = 0;
+        
+        /**
+         * Creates a writer into the output file.
+         * @param function the function that transforms each chunk of macros, or <code>null</code> if macros are written as they are
+         * @throws IOException if the output file cannot be created
+         * @throws IllegalArgumentException if the output file or its format is not given
+         */
+        OrderedWriter(UnaryOperator<List<Macro>> function) throws IOException {
+            if (output == null) {
+                throw new IllegalArgumentException("No output file given by -o");
+            }
+            MacroLogFormat f = format != null ? format : MacroLogFormat.get(output);
+            if (f == null) {
+                f = MacroLogFormat.JSON;
+            }
+            this.function = function;
+            try {
+                this.out = MacroLogOutput.create(f, output, rowsPerFile, lossy);
+            } catch (IOException e) {
+                executor.shutdown();
+                throw e;
+            }
+        }
+        
+        /**
+         * Submits a chunk of macros, waiting for earlier chunks to be written if too many chunks are pending.
+         * @param macros the chunk of macros
+         * @throws IOException if an I/O error occurs
+         */
+        void submit(List<Macro> macros) throws IOException {
+            submit(macros, function);
+        }
+        
+        /**
+         * Submits a chunk of macros with its own function, waiting for earlier chunks to be written if too many chunks are pending.
+         * @param macros the chunk of macros
+         * @param transform the function that transforms the chunk, or <code>null</code> if macros are written as they are
+         * @throws IOException if an I/O error occurs
+         */
+        void submit(List<Macro> macros, UnaryOperator<List<Macro>> transform) throws IOException {
+            pending.addLast(executor.submit(() -> {
+                List<Macro> transformed = transform != null ? transform.apply(macros) : macros;
+                return new EncodedChunk(transformed, out.encode(transformed));
+            }));
+            while (pending.size() > threads * 2) {
+                writeFirst();
+            }
+        }
+        
+        /**
+         * Writes all the pending chunks.
+         * @throws IOException if an I/O error occurs
+         */
+        void finish() throws IOException {
+            while (!pending.isEmpty()) {
+                writeFirst();
+            }
+            if (out.getLossCount() > 0) {
+                System.err.println("Warning: " + out.getLossCount() + " macros cannot be restored from the columnar files as they were");
+            }
+        }
+        
+        /**
+         * Writes the first pending chunk after it has been transformed and encoded.
+         * @throws IOException if an I/O error occurs
+         */
+        private void writeFirst() throws IOException {
+            Future<EncodedChunk> future = pending.removeFirst();
+            EncodedChunk chunk;
+            try {
+                chunk = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException)cause).getCause();
+                }
+                throw new IOException(cause.toString(), cause);
+            }
+            out.write(chunk.macros, chunk.bytes);
+            writtenCount = writtenCount + chunk.macros.size();
+        }
+        
+        /**
+         * Returns the number of written macros.
+         * @return the number of the macros
+         */
+        long getWrittenCount() {
+            return writtenCount;
+        }
+        
+        /**
+         * Returns the number of written files.
+         * @return the number of the files
+         */
+        int getFileCount() {
+            return out.getFileCount();
+        }
+        
+        /**
+         * Discards the pending chunks and closes the output.
+         * @throws IOException if an I/O error occurs
+         */
+        @Override
+        public void close() throws IOException {
+            for (Future<EncodedChunk> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+    
+    /**
+     * A chunk of macros with their encoded bytes.
+     */
+    private static class EncodedChunk {
+        
+        /**
+         * The macros.
+         */
+        private List<Macro> macros;
+        
+        /**
+         * The encoded bytes of the macros, or <code>null</code> if they are encoded when they are written.
+         */
+        private byte[] bytes;
+        
+        /**
+         * Creates a chunk of macros.
+         * @param macros the macros
+         * @param bytes the encoded bytes of the macros
+         */
+        EncodedChunk(List<Macro> macros, byte[] bytes) {
+            this.macros = macros;
+            this.bytes = bytes;
+        }
+    }
+    
+    /**
+     * Statistics on macros.
+     */
+    private static class Stats {
+        
+        /**
+         * The number of macros of the respective types.
+         */
+        private Map<String, Long> types = new TreeMap<String, Long>();
+        
+        /**
+         * The number of macros of the respective pairs of types and actions.
+         */
+        private Map<String, Long> actions = new TreeMap<String, Long>();
+        
+        /**
+         * The paths of macros.
+         */
+        private Set<String> paths = new TreeSet<String>();
+        
+        /**
+         * The branches of macros.
+         */
+        private Set<String> branches = new TreeSet<String>();
+        
+        /**
+         * The number of macros that were read.
+         */
+        private long count = 0;
+        
+        /**
+         * The number of macros contained in compound macros.
+         */
+        private long nestedCount = 0;
+        
+        /**
+         * The number of raw macros attached to macros.
+         */
+        private long rawCount = 0;
+        
+        /**
+         * The number of inserted characters of document macros.
+         */
+        private long inserted = 0;
+        
+        /**
+         * The number of deleted characters of document macros.
+         */
+        private long deleted = 0;
+        
+        /**
+         * The earliest time of macros in milliseconds from the epoch.
+         */
+        private long minTime = Long.MAX_VALUE;
+        
+        /**
+         * The latest time of macros in milliseconds from the epoch.
+         */
+        private long maxTime = Long.MIN_VALUE;
+        
+        /**
+         * Adds a macro to the statistics.
+         * @param macro the macro
+         * @param top <code>true</code> if the macro was read, or <code>false</code> if it is contained in a compound macro
+         */
+        void add(Macro macro, boolean top) {
+            if (top) {
+                count++;
+            } else {
+                nestedCount++;
+            }
+            String type = ColumnarMacroWriter.getTypeName(macro);
+            increment(types, type, 1);
+            increment(actions, type + " " + macro.getAction(), 1);
+            if (macro.getPath() != null) {
+                paths.add(macro.getPath());
+            }
+            if (macro.getBranch() != null && macro.getBranch().length() > 0) {
+                branches.add(macro.getBranch());
+            }
+            long time = macro.getTimeAsLong();
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            if (macro.getRawMacros() != null) {
+                rawCount = rawCount + macro.getRawMacros().size();
+            }
+            
+            if (macro instanceof DocumentMacro) {
+                DocumentMacro dmacro = (DocumentMacro)macro;
+                inserted = inserted + length(dmacro.getInsertedText());
+                deleted = deleted + length(dmacro.getDeletedText());
+            } else if (macro instanceof CompoundMacro) {
+                for (Macro m : ((CompoundMacro)macro).getMacros()) {
+                    add(m, false);
+                }
+            }
+        }
+        
+        /**
+         * Adds other statistics to these statistics.
+         * @param stats the other statistics
+         */
+        void merge(Stats stats) {
+            for (String type : stats.types.keySet()) {
+                increment(types, type, stats.types.get(type));
+            }
+            for (String action : stats.actions.keySet()) {
+                increment(actions, action, stats.actions.get(action));
+            }
+            paths.addAll(stats.paths);
+            branches.addAll(stats.branches);
+            count = count + stats.count;
+            nestedCount = nestedCount + stats.nestedCount;
+            rawCount = rawCount + stats.rawCount;
+            inserted = inserted + stats.inserted;
+            deleted = deleted + stats.deleted;
+            minTime = Math.min(minTime, stats.minTime);
+            maxTime = Math.max(maxTime, stats.maxTime);
+        }
+        
+        /**
+         * Displays the statistics.
+         */
+        void print() {
+            System.out.println("macros: " + count + " (" + nestedCount + " in compound macros, " + rawCount + " raw macros)");
+            if (count > 0) {
+                System.out.println("time: " + Instant.ofEpochMilli(minTime) + " - " + Instant.ofEpochMilli(maxTime));
+            }
+            System.out.println("paths: " + paths.size());
+            System.out.println("branches: " + branches.size() + " " + branches);
+            System.out.println("edit volume: " + (inserted + deleted) + " (" + inserted + " inserted, " + deleted + " deleted)");
+            for (String type : types.keySet()) {
+                System.out.println(type + ": " + types.get(type));
+                String prefix = type + " ";
+                for (String action : actions.keySet()) {
+                    if (action.startsWith(prefix)) {
+                        System.out.println("    " + action.substring(prefix.length()) + ": " + actions.get(action));
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Increments a count in a map.
+         * @param map the map
+         * @param key the key of the count
+         * @param delta the increment
+         */
+        private static void increment(Map<String, Long> map, String key, long delta) {
+            map.merge(key, delta, Long::sum);
+        }
+        
+        /**
+         * Returns the length of a text.
+         * @param text the text, which may be <code>null</code>
+         * @return the length of the text
+         */
+        private static int length(String text) {
+            return text != null ? text.length() : 0;
+        }
+    }
+}
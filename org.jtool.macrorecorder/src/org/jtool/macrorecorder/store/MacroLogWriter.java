@@ -0,0 +1,464 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroTemplate;
+import java.io.File;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes macros into text files in the UTF-8 encoding.
+ * Macros are encoded into a pooled direct buffer and written together through a file channel
+ * when the buffer holds a given number of bytes or a given time has elapsed since the previous write.
+ * The written contents are optionally forced to the storage device, and files are rotated by their size or age.
+ * <p>
+ * A handler typically creates a writer in its <code>initialize()</code> method, passes macros to {@link #write(Macro)},
+ * calls {@link #flush()} at the points where macros should be durable, and closes the writer in its <code>terminate()</code> method.
+ * </p>
+ * @author Katsuhisa Maruyama
+ */
+public class MacroLogWriter implements Closeable {
+    
+    /**
+     * The capacity of a pooled buffer.
+     */
+    private static final int BUFFER_CAPACITY = 64 * 1024;
+    
+    /**
+     * The default interval in milliseconds at which pending macros are written.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    
+    /**
+     * The pool of direct buffers that are not used by any writer.
+     */
+    private static final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<ByteBuffer>();
+    
+    /**
+     * The timer that flushes the writers periodically.
+     */
+    private static ScheduledExecutorService timer = null;
+    
+    /**
+     * The directory where files are created.
+     */
+    private File directory;
+    
+    /**
+     * The prefix of the names of files.
+     */
+    private String prefix;
+    
+    /**
+     * The extension of the names of files.
+     */
+    private String extension = ".txt";
+    
+    /**
+     * The template that renders a macro into a line of text.
+     */
+    private MacroTemplate template = MacroTemplate.DESCRIPTION;
+    
+    /**
+     * The number of bytes of pending macros that triggers a write.
+     */
+    private int flushSize = 32 * 1024;
+    
+    /**
+     * The interval in milliseconds at which pending macros are written.
+     */
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    
+    /**
+     * The flag that indicates whether written contents are forced to the storage device.
+     */
+    private boolean force = false;
+    
+    /**
+     * The size of a file in bytes over which a new file is created.
+     */
+    private long rotationSize = 0;
+    
+    /**
+     * The age of a file in milliseconds over which a new file is created.
+     */
+    private long rotationInterval = 0;
+    
+    /**
+     * The buffer that stores the encoded bytes of pending macros.
+     */
+    private ByteBuffer buffer;
+    
+    /**
+     * The encoder of texts.
+     */
+    private CharsetEncoder encoder;
+    
+    /**
+     * The buffer that stores the rendered text of a macro.
+     */
+    private StringBuilder line = new StringBuilder();
+    
+    /**
+     * The file currently written.
+     */
+    private File file;
+    
+    /**
+     * The channel of the file currently written.
+     */
+    private FileChannel channel;
+    
+    /**
+     * The time when the current file was created.
+     */
+    private long fileTime;
+    
+    /**
+     * The task that flushes this writer periodically.
+     */
+    private ScheduledFuture<?> flushTask;
+    
+    /**
+     * The exception that occurred in the periodical flush.
+     */
+    private IOException pendingException;
+    
+    /**
+     * Creates a writer that writes macros into files.
+     * @param directory the directory where files are created
+     * @param prefix the prefix of the names of files
+     */
+    public MacroLogWriter(File directory, String prefix) {
+        assert directory != null;
+        this.directory = directory;
+        this.prefix = prefix != null ? prefix : "";
+    }
+    
+    /**
+     * Sets the extension of the names of files.
+     * @param extension the extension including its leading dot
+     */
+    public void setExtension(String extension) {
+        this.extension = extension != null ? extension : "";
+    }
+    
+    /**
+     * Sets the template that renders a macro into a line of text.
+     * @param template the template
+     */
+    public void setTemplate(MacroTemplate template) {
+        this.template = template;
+    }
+    
+    /**
+     * Sets the number of bytes of pending macros that triggers a write.
+     * @param size the number of bytes
+     */
+    public void setFlushSize(int size) {
+        flushSize = Math.max(1, size);
+    }
+    
+    /**
+     * Sets the interval at which pending macros are written.
+     * @param millis the interval in milliseconds, or <code>0</code> if macros are written only by their size
+     */
+    public void setFlushInterval(long millis) {
+        flushInterval = millis;
+    }
+    
+    /**
+     * Sets whether written contents are forced to the storage device.
+     * @param force <code>true</code> if the contents are forced, otherwise <code>false</code>
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+    
+    /**
+     * Sets the size of a file over which a new file is created.
+     * @param size the size in bytes, or <code>0</code> if files are not rotated by their size
+     */
+    public void setRotationSize(long size) {
+        rotationSize = size;
+    }
+    
+    /**
+     * Sets the age of a file over which a new file is created.
+     * @param millis the age in milliseconds, or <code>0</code> if files are not rotated by their age
+     */
+    public void setRotationInterval(long millis) {
+        rotationInterval = millis;
+    }
+    
+    /**
+     * Opens this writer.
+     * @throws IOException if the file cannot be created
+     */
+    public synchronized void open() throws IOException {
+        if (buffer != null) {
+            return;
+        }
+        
+        buffer = bufferPool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_CAPACITY);
+        }
+        buffer.clear();
+        encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        
+        try {
+            openFile();
+        } catch (IOException e) {
+            bufferPool.offer(buffer);
+            buffer = null;
+            throw e;
+        }
+        if (flushInterval > 0) {
+            flushTask = getTimer().scheduleWithFixedDelay(this::flushPeriodically,
+                    flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Tests if this writer is open.
+     * @return <code>true</code> if this writer is open, otherwise <code>false</code>
+     */
+    public synchronized boolean isOpen() {
+        return buffer != null;
+    }
+    
+    /**
+     * Returns the file currently written.
+     * @return the file, or <code>null</code> if this writer is not open
+     */
+    public synchronized File getFile() {
+        return file;
+    }
+    
+    /**
+     * Writes a macro as a line of text.
+     * The macro is written into the file when enough macros are pending or the flush interval elapses.
+     * @param macro the macro to be written
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void write(Macro macro) throws IOException {
+        checkOpen();
+        
+        line.setLength(0);
+        template.render(macro, line);
+        line.append('\n');
+        writeLine(line);
+    }
+    
+    /**
+     * Writes a line of text as it is, which is not rendered from a macro.
+     * The line is written into the file when enough lines are pending or the flush interval elapses.
+     * @param text the text of the line, which does not contain a new line character
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void write(CharSequence text) throws IOException {
+        checkOpen();
+        
+        line.setLength(0);
+        line.append(text);
+        line.append('\n');
+        writeLine(line);
+    }
+    
+    /**
+     * Encodes a line of text into the buffer.
+     * @param line the line that ends with a new line character
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeLine(CharSequence line) throws IOException {
+        if (needsRotation(line.length())) {
+            flush();
+            channel.close();
+            openFile();
+        }
+        
+        CharBuffer chars = CharBuffer.wrap(line);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                writeBuffer();
+            } else {
+                break;
+            }
+        }
+        encoder.reset();
+        
+        if (buffer.position() >= flushSize) {
+            writeBuffer();
+            if (force) {
+                channel.force(false);
+            }
+        }
+    }
+    
+    /**
+     * Writes all the pending macros into the file.
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (buffer.position() > 0) {
+            writeBuffer();
+            if (force) {
+                channel.force(false);
+            }
+        }
+    }
+    
+    /**
+     * Writes all the pending macros and closes this writer.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        try {
+            if (buffer.position() > 0) {
+                writeBuffer();
+            }
+            if (force) {
+                channel.force(false);
+            }
+        } finally {
+            channel.close();
+            channel = null;
+            file = null;
+            buffer.clear();
+            bufferPool.offer(buffer);
+            buffer = null;
+            pendingException = null;
+        }
+    }
+    
+    /**
+     * Writes pending macros if the flush interval elapses.
+     */
+    private synchronized void flushPeriodically() {
+        if (buffer == null || buffer.position() == 0) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            pendingException = e;
+        }
+    }
+    
+    /**
+     * Checks if this writer is open and no error occurred in the periodical flush.
+     * @throws IOException if this writer is closed or the periodical flush failed
+     */
+    private void checkOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Writer is not open");
+        }
+        if (pendingException != null) {
+            IOException e = pendingException;
+            pendingException = null;
+            throw e;
+        }
+    }
+    
+    /**
+     * Tests if a new file is needed before a line of text is written.
+     * @param length the number of characters of the line
+     * @return <code>true</code> if the current file should be rotated, otherwise <code>false</code>
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean needsRotation(int length) throws IOException {
+        long size = channel.position() + buffer.position();
+        if (size == 0) {
+            return false;
+        }
+        if (rotationSize > 0 && size + length > rotationSize) {
+            return true;
+        }
+        if (rotationInterval > 0 && System.currentTimeMillis() - fileTime >= rotationInterval) {
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Writes the encoded bytes in the buffer into the file.
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    /**
+     * Creates a new file.
+     * @throws IOException if the file cannot be created
+     */
+    private void openFile() throws IOException {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        
+        fileTime = System.currentTimeMillis();
+        File newFile = new File(directory, prefix + String.valueOf(fileTime) + extension);
+        int count = 1;
+        while (newFile.exists()) {
+            newFile = new File(directory, prefix + String.valueOf(fileTime) + "-" + String.valueOf(count) + extension);
+            count++;
+        }
+        
+        channel = FileChannel.open(newFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        file = newFile;
+    }
+    
+    /**
+     * Returns the timer that flushes the writers periodically.
+     * @return the timer
+     */
+    private static synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "MacroLogWriter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return timer;
+    }
+}
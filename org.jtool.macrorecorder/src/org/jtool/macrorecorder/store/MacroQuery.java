@@ -0,0 +1,483 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Queries the histories of macros stored in columnar files.
+ * <p>
+ * Filters on the type, action, path, branch, and time of macros are evaluated in each row group of a file before
+ * the projected columns are decoded. A file or a row group is skipped by its time range or by the dictionaries of its columns
+ * if it has no matching row, and the other filters are evaluated on the runs of encoded values.
+ * Only the snapshots of code for the files of matching rows are decoded.
+ * </p>
+ * <p>
+ * Results are streamed lazily, so the columns of a row group are read when the stream reaches it.
+ * The following example counts the edits of Java files on the master branch:
+ * </p>
+ * <pre><code>
+ * long count = new MacroQuery(files).type("Document").path("/**&#47;*.java").branch("master").count();
+ * </code></pre>
+ * @author Katsuhisa Maruyama
+ */
+public class MacroQuery {
+    
+    /**
+     * The columnar files to be queried.
+     */
+    private List<File> files;
+    
+    /**
+     * The filter on type names, or <code>null</code> if any type is matched.
+     */
+    private Set<String> types = null;
+    
+    /**
+     * The filter on actions, or <code>null</code> if any action is matched.
+     */
+    private Set<String> actions = null;
+    
+    /**
+     * The filter on branches, or <code>null</code> if any branch is matched.
+     */
+    private Set<String> branches = null;
+    
+    /**
+     * The filter on paths, or <code>null</code> if any path is matched.
+     */
+    private Pattern pathPattern = null;
+    
+    /**
+     * The earliest time of matching macros in milliseconds from the epoch.
+     */
+    private long fromTime = Long.MIN_VALUE;
+    
+    /**
+     * The time in milliseconds from the epoch before which matching macros were performed.
+     */
+    private long toTime = Long.MAX_VALUE;
+    
+    /**
+     * The columns read for matching rows.
+     */
+    private Set<MacroColumn> projection = EnumSet.of(MacroColumn.TYPE, MacroColumn.ACTION, MacroColumn.TIME,
+            MacroColumn.PATH, MacroColumn.BRANCH, MacroColumn.OFFSET, MacroColumn.INSERTED_LENGTH, MacroColumn.DELETED_LENGTH);
+    
+    /**
+     * The number of files that were read.
+     */
+    private int scannedFileCount = 0;
+    
+    /**
+     * The number of files that were skipped since none of their row groups has a matching row.
+     */
+    private int prunedFileCount = 0;
+    
+    /**
+     * Creates a query over columnar files.
+     * @param files the collection of the columnar files, which are read in this order
+     */
+    public MacroQuery(List<File> files) {
+        assert files != null;
+        this.files = files;
+    }
+    
+    /**
+     * Creates a query over columnar files.
+     * @param files the columnar files, which are read in this order
+     */
+    public MacroQuery(File... files) {
+        this(Arrays.asList(files));
+    }
+    
+    /**
+     * Restricts matching macros to those with given type names.
+     * @param names the type names, which are the class names of macros without the suffix "Macro"
+     * @return this query
+     */
+    public MacroQuery type(String... names) {
+        types = new HashSet<String>(Arrays.asList(names));
+        return this;
+    }
+    
+    /**
+     * Restricts matching macros to those with given actions.
+     * @param names the actions
+     * @return this query
+     */
+    public MacroQuery action(String... names) {
+        actions = new HashSet<String>(Arrays.asList(names));
+        return this;
+    }
+    
+    /**
+     * Restricts matching macros to those on given branches.
+     * @param names the branches
+     * @return this query
+     */
+    public MacroQuery branch(String... names) {
+        branches = new HashSet<String>(Arrays.asList(names));
+        return this;
+    }
+    
+    /**
+     * Restricts matching macros to those whose paths match a glob pattern.
+     * In the pattern, <code>*</code> matches characters within a segment of a path,
+     * <code>**</code> matches characters across segments, and <code>?</code> matches a character within a segment.
+     * @param glob the glob pattern
+     * @return this query
+     */
+    public MacroQuery path(String glob) {
+        pathPattern = compileGlob(glob);
+        return this;
+    }
+    
+    /**
+     * Restricts matching macros to those performed within a time range.
+     * @param from the earliest time in milliseconds from the epoch
+     * @param to the time in milliseconds from the epoch before which macros were performed
+     * @return this query
+     */
+    public MacroQuery between(long from, long to) {
+        fromTime = from;
+        toTime = to;
+        return this;
+    }
+    
+    /**
+     * Restricts matching macros to those performed within a time range.
+     * @param from the earliest time
+     * @param to the time before which macros were performed
+     * @return this query
+     */
+    public MacroQuery between(ZonedDateTime from, ZonedDateTime to) {
+        return between(from.toInstant().toEpochMilli(), to.toInstant().toEpochMilli());
+    }
+    
+    /**
+     * Sets the columns read for matching rows.
+     * By default, all the columns except the texts and the snapshots of code are read.
+     * @param columns the columns
+     * @return this query
+     */
+    public MacroQuery select(MacroColumn... columns) {
+        projection = EnumSet.noneOf(MacroColumn.class);
+        projection.addAll(Arrays.asList(columns));
+        return this;
+    }
+    
+    /**
+     * Returns the number of files that were read by this query.
+     * @return the number of the files
+     */
+    public int getScannedFileCount() {
+        return scannedFileCount;
+    }
+    
+    /**
+     * Returns the number of files that were skipped since none of their row groups has a matching row.
+     * @return the number of the files
+     */
+    public int getPrunedFileCount() {
+        return prunedFileCount;
+    }
+    
+    /**
+     * Returns matching rows as views of the projected columns.
+     * @return the stream of the rows
+     * @throws UncheckedIOException if a file cannot be read
+     */
+    public Stream<MacroRow> rows() {
+        Set<MacroColumn> columns = EnumSet.copyOf(projection);
+        return files.stream().flatMap(this::scan).flatMap(selected -> selected.read(columns));
+    }
+    
+    /**
+     * Returns matching macros.
+     * Rows of macros that cannot be created from the columns, such as command and refactoring macros, are skipped.
+     * The macros contained in a compound macro are returned without the compound macro.
+     * @return the stream of the macros
+     * @throws UncheckedIOException if a file cannot be read
+     * @see MacroRow#toMacro()
+     */
+    public Stream<Macro> macros() {
+        Set<MacroColumn> columns = EnumSet.allOf(MacroColumn.class);
+        return files.stream().flatMap(this::scan).flatMap(selected -> selected.read(columns))
+                    .map(MacroRow::toMacro).filter(Objects::nonNull);
+    }
+    
+    /**
+     * Counts matching macros.
+     * No column other than those of the filters is decoded.
+     * @return the number of the macros
+     * @throws UncheckedIOException if a file cannot be read
+     */
+    public long count() {
+        long count = 0;
+        for (File file : files) {
+            try (ColumnarMacroReader reader = open(file)) {
+                for (SelectedRows selected : select(file, reader)) {
+                    count = count + selected.rows.cardinality();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Calculates the edit volume of matching macros, which is the total length of inserted and deleted texts
+     * of document and cancel macros. Only the type and length columns are decoded.
+     * @return the number of the inserted and deleted characters
+     * @throws UncheckedIOException if a file cannot be read
+     */
+    public long editVolume() {
+        long volume = 0;
+        for (File file : files) {
+            try (ColumnarMacroReader reader = open(file)) {
+                for (SelectedRows selected : select(file, reader)) {
+                    BitSet selection = selected.rows;
+                    MacroColumns columns = reader.getRowGroups().get(selected.index).read(EnumSet.of(MacroColumn.TYPE,
+                            MacroColumn.INSERTED_LENGTH, MacroColumn.DELETED_LENGTH), selection);
+                    for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1)) {
+                        String type = columns.getType(row);
+                        if (type.equals("Document") || type.equals("Cancel")) {
+                            volume = volume + columns.getInsertedLength(row) + columns.getDeletedLength(row);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return volume;
+    }
+    
+    /**
+     * Collects the distinct paths of matching macros.
+     * The dictionary of paths is used as it is for a row group whose rows are all matched.
+     * @return the sorted set of the paths
+     * @throws UncheckedIOException if a file cannot be read
+     */
+    public Set<String> distinctPaths() {
+        Set<String> paths = new TreeSet<String>();
+        for (File file : files) {
+            try (ColumnarMacroReader reader = open(file)) {
+                for (SelectedRows selected : select(file, reader)) {
+                    BitSet selection = selected.rows;
+                    ColumnarMacroReader.RowGroup rowGroup = reader.getRowGroups().get(selected.index);
+                    if (selection.cardinality() == rowGroup.getRowCount()) {
+                        paths.addAll(Arrays.asList(rowGroup.readDictionary(MacroColumn.PATH)));
+                        continue;
+                    }
+                    MacroColumns columns = rowGroup.read(EnumSet.of(MacroColumn.PATH), selection);
+                    BitSet ids = new BitSet(columns.getPathCount());
+                    for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1)) {
+                        ids.set(columns.getPathId(row));
+                    }
+                    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                        paths.add(columns.getPathById(id));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        paths.remove("");
+        return paths;
+    }
+    
+    /**
+     * Selects matching rows of a file without reading the projected columns.
+     * The file is closed after the filters are evaluated, so that it is not kept open while the rows are consumed.
+     * @param file the columnar file
+     * @return the stream of the selected rows of the row groups that have matching rows
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    private Stream<SelectedRows> scan(File file) {
+        try (ColumnarMacroReader reader = open(file)) {
+            return select(file, reader).stream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Opens a columnar file.
+     * @param file the columnar file
+     * @return the reader of the file
+     * @throws IOException if the file cannot be read
+     */
+    private ColumnarMacroReader open(File file) throws IOException {
+        scannedFileCount++;
+        return new ColumnarMacroReader(file);
+    }
+    
+    /**
+     * Evaluates the filters on the encoded columns of the row groups of a file.
+     * @param file the columnar file
+     * @param reader the reader of the file
+     * @return the selected rows of the row groups that have matching rows
+     * @throws IOException if the file cannot be read
+     */
+    private List<SelectedRows> select(File file, ColumnarMacroReader reader) throws IOException {
+        List<SelectedRows> selections = new ArrayList<SelectedRows>();
+        if (reader.getMaxTime() >= fromTime && reader.getMinTime() < toTime) {
+            List<ColumnarMacroReader.RowGroup> rowGroups = reader.getRowGroups();
+            for (int index = 0; index < rowGroups.size(); index++) {
+                BitSet selection = select(rowGroups.get(index));
+                if (selection != null) {
+                    selections.add(new SelectedRows(file, index, selection));
+                }
+            }
+        }
+        if (selections.isEmpty()) {
+            prunedFileCount++;
+        }
+        return selections;
+    }
+    
+    /**
+     * Evaluates the filters on the encoded columns of a row group.
+     * @param rowGroup the row group
+     * @return the selected rows, or <code>null</code> if no row is matched
+     * @throws IOException if the file cannot be read
+     */
+    private BitSet select(ColumnarMacroReader.RowGroup rowGroup) throws IOException {
+        int size = rowGroup.getRowCount();
+        if (size == 0 || rowGroup.getMaxTime() < fromTime || rowGroup.getMinTime() >= toTime) {
+            return null;
+        }
+        
+        BitSet selection = new BitSet(size);
+        selection.set(0, size);
+        if (!filter(rowGroup, MacroColumn.TYPE, types == null ? null : types::contains, selection) ||
+            !filter(rowGroup, MacroColumn.ACTION, actions == null ? null : actions::contains, selection) ||
+            !filter(rowGroup, MacroColumn.BRANCH, branches == null ? null : branches::contains, selection) ||
+            !filter(rowGroup, MacroColumn.PATH, pathPattern == null ? null : path -> pathPattern.matcher(path).matches(), selection)) {
+            return null;
+        }
+        
+        if (fromTime != Long.MIN_VALUE || toTime != Long.MAX_VALUE) {
+            rowGroup.filterTime(fromTime, toTime, selection);
+            if (selection.isEmpty()) {
+                return null;
+            }
+        }
+        return selection;
+    }
+    
+    /**
+     * Evaluates a filter on a dictionary encoded column.
+     * @param rowGroup the row group
+     * @param column the column
+     * @param predicate the predicate on the values of the column, or <code>null</code> if no filter is given
+     * @param selection the selected rows
+     * @return <code>true</code> if any row remains selected, otherwise <code>false</code>
+     * @throws IOException if the file cannot be read
+     */
+    private static boolean filter(ColumnarMacroReader.RowGroup rowGroup, MacroColumn column,
+            Predicate<String> predicate, BitSet selection) throws IOException {
+        if (predicate != null) {
+            rowGroup.filter(column, predicate, selection);
+        }
+        return !selection.isEmpty();
+    }
+    
+    /**
+     * Converts a glob pattern into a regular expression.
+     * @param glob the glob pattern
+     * @return the compiled regular expression
+     */
+    private static Pattern compileGlob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int idx = 0; idx < glob.length(); idx++) {
+            char ch = glob.charAt(idx);
+            if (ch == '*') {
+                if (idx + 1 < glob.length() && glob.charAt(idx + 1) == '*') {
+                    regex.append(".*");
+                    idx++;
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if (ch == '?') {
+                regex.append("[^/]");
+            } else if ("\\.[]{}()+-^$|".indexOf(ch) >= 0) {
+                regex.append('\\').append(ch);
+            } else {
+                regex.append(ch);
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+    
+    /**
+     * The selected rows of a row group in a columnar file.
+     */
+    private static class SelectedRows {
+        
+        /**
+         * The columnar file.
+         */
+        private File file;
+        
+        /**
+         * The index of the row group in the file.
+         */
+        private int index;
+        
+        /**
+         * The selected rows of the row group.
+         */
+        private BitSet rows;
+        
+        /**
+         * Creates the selected rows of a row group.
+         * @param file the columnar file
+         * @param index the index of the row group in the file
+         * @param rows the selected rows
+         */
+        SelectedRows(File file, int index, BitSet rows) {
+            this.file = file;
+            this.index = index;
+            this.rows = rows;
+        }
+        
+        /**
+         * Reads the columns of the selected rows.
+         * @param columns the columns to be read
+         * @return the stream of the selected rows
+         * @throws UncheckedIOException if the file cannot be read
+         */
+        Stream<MacroRow> read(Set<MacroColumn> columns) {
+            try (ColumnarMacroReader reader = new ColumnarMacroReader(file)) {
+                MacroColumns values = reader.getRowGroups().get(index).read(columns, rows);
+                return rows.stream().mapToObj(row -> new MacroRow(values, row));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.CompoundMacro;
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+
+/**
+ * Encodes macros as a stream of JSON objects in which every macro appears only once.
+ * Each JSON object carries the id of its macro, and refers to its raw macros and the macros of a compound macro
+ * by ranges of their ids instead of embedding their JSON objects. A referred macro is emitted before the macro
+ * that refers to it, so the ids in a stream increase monotonically. A JSON object emitted only to be referred to
+ * is marked as a definition, so that it is not mistaken for a macro in the stream.
+ * <p>
+ * An encoder remembers the macros it has emitted and a decoder remembers the objects it has decoded within a window
+ * of the latest ids. A macro that is referred again after it left the window is emitted again with a new id,
+ * and macros that cannot be kept within the window are embedded as <code>Macro.getJSON()</code> does.
+ * JSON objects must be decoded in the order in which they were encoded, and the decoder rebuilds the same JSON objects
+ * as <code>Macro.getJSON()</code> returns.
+ * </p>
+ * @author Katsuhisa Maruyama
+ */
+public class MacroReferenceCodec {
+    
+    /**
+     * The JSON attribute that stores the id of a macro.
+     */
+    public static final String JSON_ATTR_ID = "id";
+    
+    /**
+     * The JSON attribute that stores the ranges of the ids of the raw macros of a macro.
+     */
+    public static final String JSON_ATTR_RAW_MACRO_IDS = "rawIds";
+    
+    /**
+     * The JSON attribute that stores the ranges of the ids of the macros of a compound macro.
+     */
+    public static final String JSON_ATTR_MACRO_IDS = "ids";
+    
+    /**
+     * The JSON attribute that marks a JSON object emitted only to be referred to by later objects.
+     */
+    public static final String JSON_ATTR_DEFINITION = "def";
+    
+    /**
+     * The JSON attribute that stores the raw macros of a macro.
+     */
+    public static final String JSON_ATTR_RAW_MACROS = "rawMacros";
+    
+    /**
+     * The JSON attribute that stores the macros of a compound macro.
+     */
+    public static final String JSON_ATTR_MACROS = "macros";
+    
+    /**
+     * The default number of the latest ids that can be referred to.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 65536;
+    
+    /**
+     * The number of the latest ids that can be referred to.
+     */
+    private int windowSize;
+    
+    /**
+     * The id given to the next emitted macro.
+     */
+    private long nextId = 0;
+    
+    /**
+     * The ids of the emitted macros within the window.
+     */
+    private Map<Macro, Long> emittedIds = new IdentityHashMap<Macro, Long>();
+    
+    /**
+     * The emitted macros within the window in the order of their ids.
+     */
+    private ArrayDeque<Macro> emittedMacros = new ArrayDeque<Macro>();
+    
+    /**
+     * The decoded JSON objects within the window.
+     */
+    private Map<Long, JsonObject> decodedObjects;
+    
+    /**
+     * Creates an object that encodes and decodes macros with the default window size.
+     */
+    public MacroReferenceCodec() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+    
+    /**
+     * Creates an object that encodes and decodes macros.
+     * @param windowSize the number of the latest ids that can be referred to
+     */
+    public MacroReferenceCodec(int windowSize) {
+        this.windowSize = Math.max(windowSize, 1);
+        this.decodedObjects = new LinkedHashMap<Long, JsonObject>() {
+            
+            private static final long serialVersionUID = 1L;
+            
+            /**
+             * Tests if the oldest decoded object leaves the window.
+             * @param eldest the oldest entry
+             * @return <code>true</code> if the entry is removed, otherwise <code>false</code>
+             */
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, JsonObject> eldest) {
+                return size() > MacroReferenceCodec.this.windowSize;
+            }
+        };
+    }
+    
+    /**
+     * Forgets all the emitted macros and the decoded objects, and starts a new stream.
+     */
+    public synchronized void reset() {
+        nextId = 0;
+        emittedIds.clear();
+        emittedMacros.clear();
+        decodedObjects.clear();
+    }
+    
+    /**
+     * Encodes a macro.
+     * @param macro the macro
+     * @return the JSON objects to be written in this order, which end with the object of the macro,
+     *         or only a reference to the macro if it has already been emitted
+     */
+    public synchronized List<JsonObject> encode(Macro macro) {
+        List<JsonObject> objects = new ArrayList<JsonObject>();
+        long id = emit(macro, objects, false);
+        if (objects.isEmpty()) {
+            objects.add(Json.createObjectBuilder().add(JSON_ATTR_ID, id).build());
+        }
+        return objects;
+    }
+    
+    /**
+     * Emits the JSON object of a macro after the objects of the macros it refers to.
+     * @param macro the macro
+     * @param objects the collection that stores the emitted JSON objects
+     * @param definition <code>true</code> if the macro is emitted only to be referred to, otherwise <code>false</code>
+     * @return the id of the macro
+     */
+    private long emit(Macro macro, List<JsonObject> objects, boolean definition) {
+        Long emittedId = emittedIds.get(macro);
+        if (emittedId != null && emittedId >= nextId - windowSize) {
+            return emittedId;
+        }
+        
+        JsonObject json = macro.getShallowJSON();
+        List<Macro> raws = new ArrayList<Macro>();
+        if (macro.getRawMacros() != null && !json.containsKey(JSON_ATTR_RAW_MACROS)) {
+            raws.addAll(macro.getRawMacros());
+        }
+        List<Macro> children = new ArrayList<Macro>();
+        if (macro instanceof CompoundMacro) {
+            children.addAll(((CompoundMacro)macro).getMacros());
+        }
+        
+        List<Long> rawIds = emitAll(raws, objects);
+        List<Long> macroIds = emitAll(children, objects);
+        
+        long id = nextId++;
+        JsonObjectBuilder builder = Json.createObjectBuilder(json).add(JSON_ATTR_ID, id);
+        if (definition) {
+            builder.add(JSON_ATTR_DEFINITION, true);
+        }
+        if (!rawIds.isEmpty()) {
+            if (isStale(rawIds, id)) {
+                builder.add(JSON_ATTR_RAW_MACROS, getJSONArray(raws));
+            } else {
+                builder.add(JSON_ATTR_RAW_MACRO_IDS, getRanges(rawIds));
+            }
+        }
+        if (!macroIds.isEmpty()) {
+            if (isStale(macroIds, id)) {
+                builder.add(JSON_ATTR_MACROS, getJSONArray(children));
+            } else {
+                builder.add(JSON_ATTR_MACRO_IDS, getRanges(macroIds));
+            }
+        }
+        objects.add(builder.build());
+        
+        emittedIds.put(macro, id);
+        emittedMacros.addLast(macro);
+        if (emittedMacros.size() > windowSize) {
+            Macro oldest = emittedMacros.removeFirst();
+            Long oldestId = emittedIds.get(oldest);
+            if (oldestId != null && oldestId < id - windowSize) {
+                emittedIds.remove(oldest);
+            }
+        }
+        return id;
+    }
+    
+    /**
+     * Emits the JSON objects of macros referred to by another macro.
+     * @param macros the macros
+     * @param objects the collection that stores the emitted JSON objects
+     * @return the ids of the macros
+     */
+    private List<Long> emitAll(List<Macro> macros, List<JsonObject> objects) {
+        List<Long> ids = new ArrayList<Long>(macros.size());
+        for (Macro macro : macros) {
+            ids.add(emit(macro, objects, true));
+        }
+        return ids;
+    }
+    
+    /**
+     * Tests if any of referred macros has left the window of the decoder when the macro referring to them arrives.
+     * @param ids the ids of the referred macros
+     * @param id the id of the macro referring to them
+     * @return <code>true</code> if any referred macro has left the window, otherwise <code>false</code>
+     */
+    private boolean isStale(List<Long> ids, long id) {
+        for (long referredId : ids) {
+            if (referredId < id - windowSize) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Creates a JSON array that embeds the JSON objects of macros, which is used when they cannot be referred to.
+     * @param macros the macros
+     * @return the JSON array of the macros
+     */
+    private static JsonArrayBuilder getJSONArray(List<Macro> macros) {
+        JsonArrayBuilder builder = Json.createArrayBuilder();
+        for (Macro macro : macros) {
+            builder.add(macro.getJSON());
+        }
+        return builder;
+    }
+    
+    /**
+     * Creates a JSON array of the ranges of ids, each of which is a pair of its first and last ids.
+     * @param ids the ids
+     * @return the JSON array of the ranges
+     */
+    private static JsonArrayBuilder getRanges(List<Long> ids) {
+        JsonArrayBuilder builder = Json.createArrayBuilder();
+        int from = 0;
+        for (int index = 1; index <= ids.size(); index++) {
+            if (index == ids.size() || ids.get(index) != ids.get(index - 1) + 1) {
+                builder.add(Json.createArrayBuilder().add(ids.get(from)).add(ids.get(index - 1)));
+                from = index;
+            }
+        }
+        return builder;
+    }
+    
+    /**
+     * Encodes a macro into the string representations of JSON objects separated by new lines.
+     * @param macro the macro
+     * @return the string representations of the JSON objects, which end with a new line
+     */
+    public String encodeString(Macro macro) {
+        StringBuilder buf = new StringBuilder();
+        for (JsonObject json : encode(macro)) {
+            buf.append(json.toString()).append('\n');
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * Decodes a JSON object.
+     * A JSON object without an id is returned as it is. A JSON object marked as a definition is remembered
+     * for later objects that refer to it, and is not returned because it does not represent a macro in the stream.
+     * @param json the JSON object
+     * @return the JSON object in which the referred macros are embedded, or <code>null</code> if the JSON object is a definition
+     * @throws IOException if the JSON object refers to a macro that has not been decoded
+     */
+    public synchronized JsonObject decode(JsonObject json) throws IOException {
+        JsonNumber idValue = getNumber(json, JSON_ATTR_ID);
+        if (idValue == null) {
+            return json;
+        }
+        
+        long id = idValue.longValue();
+        if (json.size() == 1) {
+            return lookup(id);
+        }
+        
+        JsonObjectBuilder builder = Json.createObjectBuilder(json)
+                                        .remove(JSON_ATTR_ID)
+                                        .remove(JSON_ATTR_DEFINITION)
+                                        .remove(JSON_ATTR_RAW_MACRO_IDS)
+                                        .remove(JSON_ATTR_MACRO_IDS);
+        if (json.containsKey(JSON_ATTR_RAW_MACRO_IDS)) {
+            builder.add(JSON_ATTR_RAW_MACROS, resolve(json, JSON_ATTR_RAW_MACRO_IDS));
+        }
+        if (json.containsKey(JSON_ATTR_MACRO_IDS)) {
+            builder.add(JSON_ATTR_MACROS, resolve(json, JSON_ATTR_MACRO_IDS));
+        }
+        
+        JsonObject decoded = builder.build();
+        decodedObjects.put(id, decoded);
+        if (isDefinition(json)) {
+            return null;
+        }
+        return decoded;
+    }
+    
+    /**
+     * Tests if a decoded JSON object is a reference to a macro that has already been decoded.
+     * Such an object is not a new macro, and is usually skipped when macros are collected from a stream.
+     * @param json the JSON object before it is decoded
+     * @return <code>true</code> if the JSON object is only a reference, otherwise <code>false</code>
+     */
+    public static boolean isReference(JsonObject json) {
+        return json.size() == 1 && json.containsKey(JSON_ATTR_ID);
+    }
+    
+    /**
+     * Tests if a JSON object is a definition of a macro, which is emitted only to be referred to by later objects.
+     * @param json the JSON object before it is decoded
+     * @return <code>true</code> if the JSON object is a definition, otherwise <code>false</code>
+     */
+    public static boolean isDefinition(JsonObject json) {
+        return json.get(JSON_ATTR_DEFINITION) == JsonValue.TRUE;
+    }
+    
+    /**
+     * Creates a JSON array of the decoded objects referred to by the ranges of ids.
+     * @param json the JSON object that refers to the objects
+     * @param key the attribute that stores the ranges of ids
+     * @return the JSON array of the referred objects
+     * @throws IOException if the ranges are broken or an object has not been decoded
+     */
+    private JsonArrayBuilder resolve(JsonObject json, String key) throws IOException {
+        JsonArrayBuilder builder = Json.createArrayBuilder();
+        try {
+            for (JsonValue value : json.getJsonArray(key)) {
+                JsonArray range = (JsonArray)value;
+                long from = range.getJsonNumber(0).longValue();
+                long to = range.getJsonNumber(1).longValue();
+                for (long id = from; id <= to; id++) {
+                    builder.add(lookup(id));
+                }
+            }
+        } catch (ClassCastException | IndexOutOfBoundsException e) {
+            throw new IOException("Broken references: " + json.get(key));
+        }
+        return builder;
+    }
+    
+    /**
+     * Returns a decoded JSON object.
+     * @param id the id of the macro
+     * @return the decoded JSON object
+     * @throws IOException if the JSON object has not been decoded or has left the window
+     */
+    private JsonObject lookup(long id) throws IOException {
+        JsonObject json = decodedObjects.get(id);
+        if (json == null) {
+            throw new IOException("Missing macro for reference: " + id);
+        }
+        return json;
+    }
+    
+    /**
+     * Returns the number stored in an attribute of a JSON object.
+     * @param json the JSON object
+     * @param key the attribute
+     * @return the number, or <code>null</code> if the attribute does not store a number
+     */
+    private static JsonNumber getNumber(JsonObject json, String key) {
+        JsonValue value = json.get(key);
+        if (value instanceof JsonNumber) {
+            return (JsonNumber)value;
+        }
+        return null;
+    }
+}
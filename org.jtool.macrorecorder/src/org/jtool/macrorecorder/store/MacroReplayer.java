@@ -0,0 +1,194 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.FileMacro;
+import org.jtool.macrorecorder.macro.CompoundMacro;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Collection;
+
+/**
+ * Reconstructs the contents of files by replaying macros.
+ * The code of a file macro replaces the contents of its file, and a document macro edits the contents.
+ * A file whose contents are edited before they are given has no baseline, and its contents start with the empty text.
+ * @author Katsuhisa Maruyama
+ */
+public class MacroReplayer {
+    
+    /**
+     * The contents of files, sorted by their paths.
+     */
+    private Map<String, StringBuilder> codes = new TreeMap<String, StringBuilder>();
+    
+    /**
+     * The number of document macros that were inconsistent with the contents of their files.
+     */
+    private int inconsistencies = 0;
+    
+    /**
+     * The paths of files whose contents were edited before they were given.
+     */
+    private Set<String> pathsWithoutBaseline = new TreeSet<String>();
+    
+    /**
+     * Creates an object that replays macros.
+     */
+    public MacroReplayer() {
+    }
+    
+    /**
+     * Sets the contents of a file before replaying macros.
+     * @param path the path of the file
+     * @param code the contents of the file
+     */
+    public void setCode(String path, String code) {
+        codes.put(nonNull(path), new StringBuilder(nonNull(code)));
+        pathsWithoutBaseline.remove(nonNull(path));
+    }
+    
+    /**
+     * Replays macros.
+     * @param macros the collection of macros to be replayed
+     */
+    public void replay(List<? extends Macro> macros) {
+        for (Macro macro : macros) {
+            replay(macro);
+        }
+    }
+    
+    /**
+     * Replays a macro.
+     * @param macro the macro to be replayed
+     */
+    public void replay(Macro macro) {
+        if (macro instanceof CompoundMacro) {
+            replay(((CompoundMacro)macro).getMacros());
+            
+        } else if (macro instanceof FileMacro) {
+            FileMacro fmacro = (FileMacro)macro;
+            if (fmacro.getCode() != null) {
+                setCode(fmacro.getPath(), fmacro.getCode());
+            }
+            
+        } else if (macro instanceof DocumentMacro) {
+            apply((DocumentMacro)macro);
+        }
+    }
+    
+    /**
+     * Applies a document macro to the contents of its file.
+     * @param macro the document macro
+     */
+    private void apply(DocumentMacro macro) {
+        String path = nonNull(macro.getPath());
+        StringBuilder code = codes.get(path);
+        if (code == null) {
+            code = new StringBuilder();
+            codes.put(path, code);
+            pathsWithoutBaseline.add(path);
+        }
+        
+        int start = macro.getStart();
+        int end = start + macro.getDeletedText().length();
+        if (start < 0 || end > code.length()) {
+            inconsistencies++;
+            return;
+        }
+        if (!macro.getDeletedText().contentEquals(code.subSequence(start, end))) {
+            inconsistencies++;
+        }
+        code.replace(start, end, macro.getInsertedText());
+    }
+    
+    /**
+     * Returns the paths of files whose contents were reconstructed.
+     * @return the sorted set of the paths
+     */
+    public Set<String> getPaths() {
+        return codes.keySet();
+    }
+    
+    /**
+     * Returns the reconstructed contents of a file.
+     * @param path the path of the file
+     * @return the contents of the file, or <code>null</code> if no macro was replayed for the file
+     */
+    public String getCode(String path) {
+        StringBuilder code = codes.get(nonNull(path));
+        if (code != null) {
+            return code.toString();
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the contents of files that have their baselines.
+     * @param paths the paths of the files
+     * @return the map from the paths to the contents, which excludes files without contents or baselines
+     */
+    public Map<String, String> getCodes(Collection<String> paths) {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (String path : paths) {
+            StringBuilder code = codes.get(nonNull(path));
+            if (code != null && !pathsWithoutBaseline.contains(nonNull(path))) {
+                result.put(nonNull(path), code.toString());
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the paths of files whose contents were edited before they were given.
+     * @return the sorted set of the paths
+     */
+    public Set<String> getPathsWithoutBaseline() {
+        return pathsWithoutBaseline;
+    }
+    
+    /**
+     * Returns the number of document macros that were inconsistent with the contents of their files.
+     * @return the number of the inconsistent document macros
+     */
+    public int getInconsistencyCount() {
+        return inconsistencies;
+    }
+    
+    /**
+     * Tests if this replayer reconstructed the same contents of files as another replayer.
+     * @param replayer the other replayer
+     * @return <code>true</code> if the paths and contents of all the files are equal, otherwise <code>false</code>
+     */
+    public boolean hasSameCodes(MacroReplayer replayer) {
+        if (!codes.keySet().equals(replayer.codes.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, StringBuilder> entry : codes.entrySet()) {
+            if (entry.getValue().compareTo(replayer.codes.get(entry.getKey())) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns a string that is not <code>null</code>.
+     * @param str the string
+     * @return the string, or the empty string if the string is <code>null</code>
+     */
+    private static String nonNull(String str) {
+        if (str != null) {
+            return str;
+        }
+        return "";
+    }
+}
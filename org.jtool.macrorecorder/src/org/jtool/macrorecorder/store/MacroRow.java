@@ -0,0 +1,253 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.Macro;
+import org.jtool.macrorecorder.macro.MacroPath;
+import org.jtool.macrorecorder.macro.DocumentMacro;
+import org.jtool.macrorecorder.macro.CancelMacro;
+import org.jtool.macrorecorder.macro.CopyMacro;
+import org.jtool.macrorecorder.macro.FileMacro;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * A lightweight view of a row of a columnar file, which is returned by a query.
+ * The values are obtained from the columns without creating a macro.
+ * Values of a column that was not projected by the query cannot be obtained.
+ * @author Katsuhisa Maruyama
+ */
+public class MacroRow {
+    
+    /**
+     * The values of the columns read from the file.
+     */
+    private MacroColumns columns;
+    
+    /**
+     * The index of this row.
+     */
+    private int row;
+    
+    /**
+     * Creates a view of a row.
+     * @param columns the values of the columns read from the file
+     * @param row the index of the row
+     */
+    MacroRow(MacroColumns columns, int row) {
+        this.columns = columns;
+        this.row = row;
+    }
+    
+    /**
+     * Returns the index of this row in the file.
+     * @return the index of the row
+     */
+    public int getRowIndex() {
+        return row;
+    }
+    
+    /**
+     * Returns the type name of the macro.
+     * @return the type name, which is the class name of the macro without the suffix "Macro"
+     */
+    public String getType() {
+        return columns.getType(row);
+    }
+    
+    /**
+     * Returns the action of the macro.
+     * @return the action
+     */
+    public String getAction() {
+        return columns.getAction(row);
+    }
+    
+    /**
+     * Returns the time of the macro.
+     * @return the time in milliseconds from the epoch
+     */
+    public long getTime() {
+        return columns.getTime(row);
+    }
+    
+    /**
+     * Returns the path of the macro.
+     * @return the path
+     */
+    public String getPath() {
+        return columns.getPath(row);
+    }
+    
+    /**
+     * Returns the branch of the macro.
+     * @return the branch, or the empty string if the branch is unknown
+     */
+    public String getBranch() {
+        return columns.getBranch(row);
+    }
+    
+    /**
+     * Returns the offset of the text of the macro.
+     * @return the offset, or <code>-1</code> if the macro has no offset
+     */
+    public int getOffset() {
+        return columns.getOffset(row);
+    }
+    
+    /**
+     * Returns the length of the inserted text of the macro.
+     * @return the length of the inserted text
+     */
+    public int getInsertedLength() {
+        return columns.getInsertedLength(row);
+    }
+    
+    /**
+     * Returns the length of the deleted text of the macro.
+     * @return the length of the deleted text
+     */
+    public int getDeletedLength() {
+        return columns.getDeletedLength(row);
+    }
+    
+    /**
+     * Returns the inserted text of the macro.
+     * @return the inserted text, or the code if the macro is a file macro
+     */
+    public String getInsertedText() {
+        return columns.getInsertedText(row);
+    }
+    
+    /**
+     * Returns the deleted text of the macro.
+     * @return the deleted text
+     */
+    public String getDeletedText() {
+        return columns.getDeletedText(row);
+    }
+    
+    /**
+     * Returns the code of the file macro.
+     * @return the code, or <code>null</code> if the macro is not a file macro with code
+     */
+    public String getCode() {
+        return columns.getCode(row);
+    }
+    
+    /**
+     * Returns the package name of the macro.
+     * @return the package name, or the empty string if the macro has no package
+     */
+    public String getPackageName() {
+        return columns.getPackageName(row);
+    }
+    
+    /**
+     * Returns the charset of the file macro.
+     * @return the name of the charset, or the empty string if the macro is not a file macro
+     */
+    public String getCharset() {
+        return columns.getCharset(row);
+    }
+    
+    /**
+     * Returns the source or destination path of the file macro.
+     * @return the source or destination path, or the empty string if the macro is not a file macro
+     */
+    public String getSrcDstPath() {
+        return columns.getSrcDstPath(row);
+    }
+    
+    /**
+     * Creates a macro from this row.
+     * Only document, cancel, copy, and file macros can be created since the columns do not store
+     * the attributes specific to the other kinds of macros. The project and file names of the created macro
+     * are obtained from its path. A macro is created as it was written if {@link ColumnarMacroWriter#isRestorable(Macro)}
+     * returned <code>true</code> for it.
+     * @return the created macro, or <code>null</code> if the macro cannot be created from the columns
+     */
+    public Macro toMacro() {
+        Macro macro = createMacro();
+        if (macro != null) {
+            macro.setSequence(columns.getSequence(row));
+        }
+        return macro;
+    }
+    
+    /**
+     * Creates a macro from the columns of this row except the sequence number.
+     * @return the created macro, or <code>null</code> if the macro cannot be created from the columns
+     */
+    private Macro createMacro() {
+        String type = getType();
+        String zone = columns.getZone(row);
+        Instant instant = Instant.ofEpochMilli(getTime()).plusNanos(columns.getNanos(row));
+        ZonedDateTime time = ZonedDateTime.ofInstant(instant, zone.length() > 0 ? ZoneId.of(zone) : ZoneId.systemDefault());
+        String path = getPath();
+        MacroPath mpath = new MacroPath(path, getBranch(), getProjectName(path), getPackageName(), getFileName(path));
+        
+        if (type.equals("Document")) {
+            return new DocumentMacro(time, getAction(), mpath, getOffset(), getInsertedText(), getDeletedText());
+        } else if (type.equals("Cancel")) {
+            return new CancelMacro(time, getAction(), mpath, getOffset(), getInsertedText(), getDeletedText());
+        } else if (type.equals("Copy")) {
+            return new CopyMacro(time, getAction(), mpath, getOffset(), getInsertedText());
+        } else if (type.equals("File")) {
+            String code = getCode();
+            return new FileMacro(time, getAction(), mpath, code != null ? code : "", getCharset(), getSrcDstPath());
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the project name contained in a path.
+     * @param path the path
+     * @return the first segment of the path
+     */
+    private static String getProjectName(String path) {
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = path.indexOf('/', start);
+        return end >= 0 ? path.substring(start, end) : path.substring(start);
+    }
+    
+    /**
+     * Returns the file name contained in a path.
+     * @param path the path
+     * @return the last segment of the path
+     */
+    private static String getFileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+    
+    /**
+     * Returns the string for printing, which contains the projected values of this row.
+     * @return the string for printing
+     */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append(row);
+        if (columns.contains(MacroColumn.TIME)) {
+            buf.append(" " + getTime());
+        }
+        if (columns.contains(MacroColumn.TYPE)) {
+            buf.append(" " + getType());
+        }
+        if (columns.contains(MacroColumn.ACTION)) {
+            buf.append(" " + getAction());
+        }
+        if (columns.contains(MacroColumn.PATH)) {
+            buf.append(" " + getPath());
+        }
+        if (columns.contains(MacroColumn.OFFSET)) {
+            buf.append(" " + getOffset());
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ *  Copyright 2019
+ *  Software Science and Technology Lab.
+ *  Department of Computer Science, Ritsumeikan University
+ */
+
+package org.jtool.macrorecorder.store;
+
+import org.jtool.macrorecorder.macro.FileMacro;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import javax.json.Json;
+import javax.json.JsonObject;
+
+/**
+ * Encodes successive snapshots of the code of each file as binary deltas against the previous snapshot.
+ * A full snapshot (a keyframe) is stored at regular intervals and whenever a delta would not be smaller,
+ * so that a reader can resume decoding without the whole history.
+ * <p>
+ * An encoder and a decoder keep the last snapshot of each file, and snapshots of a file must be decoded
+ * in the order in which they were encoded. A delta whose previous snapshot is missing cannot be decoded.
+ * </p>
+ * @author Katsuhisa Maruyama
+ */
+public class SnapshotDeltaCodec {
+    
+    /**
+     * The JSON attribute that stores the full code of a file macro.
+     */
+    public static final String JSON_ATTR_CODE = "code";
+    
+    /**
+     * The JSON attribute that stores the encoded snapshot of a file macro in Base64.
+     */
+    public static final String JSON_ATTR_CODE_DELTA = "cdelta";
+    
+    /**
+     * The default number of snapshots between consecutive keyframes.
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 16;
+    
+    /**
+     * The kind of a snapshot that stores the full code.
+     */
+    private static final int KEYFRAME = 0;
+    
+    /**
+     * The kind of a snapshot that stores a delta.
+     */
+    private static final int DELTA = 1;
+    
+    /**
+     * The operation that copies a range of the previous snapshot.
+     */
+    private static final int COPY = 0;
+    
+    /**
+     * The operation that inserts a text.
+     */
+    private static final int INSERT = 1;
+    
+    /**
+     * The number of snapshots between consecutive keyframes.
+     */
+    private int keyframeInterval;
+    
+    /**
+     * The last snapshots of respective files.
+     */
+    private Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+    
+    /**
+     * Creates an object that encodes and decodes snapshots with the default keyframe interval.
+     */
+    public SnapshotDeltaCodec() {
+        this(DEFAULT_KEYFRAME_INTERVAL);
+    }
+    
+    /**
+     * Creates an object that encodes and decodes snapshots.
+     * @param keyframeInterval the number of snapshots between consecutive keyframes
+     */
+    public SnapshotDeltaCodec(int keyframeInterval) {
+        this.keyframeInterval = Math.max(keyframeInterval, 1);
+    }
+    
+    /**
+     * Forgets the last snapshot of a file, so that the next snapshot of the file is encoded as a keyframe.
+     * @param path the path of the file
+     */
+    public synchronized void reset(String path) {
+        snapshots.remove(path);
+    }
+    
+    /**
+     * Forgets the last snapshots of all files.
+     */
+    public synchronized void reset() {
+        snapshots.clear();
+    }
+    
+    /**
+     * Encodes a snapshot of the code of a file.
+     * @param path the path of the file
+     * @param code the code of the file
+     * @return the encoded bytes
+     */
+    public synchronized byte[] encode(String path, String code) {
+        Snapshot last = snapshots.get(path);
+        long seq = 0;
+        if (last != null) {
+            seq = last.seq + 1;
+        }
+        
+        ColumnEncoding.Output out = new ColumnEncoding.Output();
+        boolean keyframe = last == null || seq - last.keyframeSeq >= keyframeInterval;
+        if (!keyframe) {
+            out.write(DELTA);
+            out.writeVarLong(seq);
+            out.writeVarLong(last.code.length());
+            writeOperations(out, last.code, code);
+            if (out.size() >= code.length()) {
+                keyframe = true;
+                out.reset();
+            }
+        }
+        
+        long keyframeSeq = seq;
+        if (keyframe) {
+            out.write(KEYFRAME);
+            out.writeVarLong(seq);
+            out.writeString(code);
+        } else {
+            keyframeSeq = last.keyframeSeq;
+        }
+        snapshots.put(path, new Snapshot(code, seq, keyframeSeq));
+        return out.toByteArray();
+    }
+    
+    /**
+     * Decodes a snapshot of the code of a file.
+     * @param path the path of the file
+     * @param bytes the encoded bytes
+     * @return the code of the file
+     * @throws IOException if the bytes are broken or the previous snapshot of the file is missing
+     */
+    public synchronized String decode(String path, byte[] bytes) throws IOException {
+        if (bytes.length == 0) {
+            throw new IOException("Empty snapshot of " + path);
+        }
+        
+        ColumnEncoding.Input in = new ColumnEncoding.Input(bytes);
+        int kind = (int)in.readVarLong();
+        long seq = in.readVarLong();
+        String code;
+        long keyframeSeq = seq;
+        if (kind == KEYFRAME) {
+            code = in.readString();
+            
+        } else if (kind == DELTA) {
+            Snapshot last = snapshots.get(path);
+            if (last == null || last.seq != seq - 1) {
+                throw new IOException("Missing previous snapshot of " + path + " for snapshot " + seq);
+            }
+            if (in.readVarLong() != last.code.length()) {
+                throw new IOException("Inconsistent previous snapshot of " + path + " for snapshot " + seq);
+            }
+            code = readOperations(in, last.code);
+            keyframeSeq = last.keyframeSeq;
+            
+        } else {
+            throw new IOException("Unknown kind of snapshot: " + kind);
+        }
+        snapshots.put(path, new Snapshot(code, seq, keyframeSeq));
+        return code;
+    }
+    
+    /**
+     * Creates a JSON object of a file macro whose code is replaced with its encoded snapshot.
+     * @param macro the file macro
+     * @return the JSON object of the file macro
+     */
+    public JsonObject encodeJSON(FileMacro macro) {
+        JsonObject json = macro.getJSON();
+        if (macro.getCode() == null) {
+            return json;
+        }
+        
+        byte[] bytes = encode(macro.getPath(), macro.getCode());
+        return Json.createObjectBuilder(json)
+                   .remove(JSON_ATTR_CODE)
+                   .add(JSON_ATTR_CODE_DELTA, Base64.getEncoder().encodeToString(bytes))
+                   .build();
+    }
+    
+    /**
+     * Creates the string representation of the JSON object of a file macro whose code is replaced with its encoded snapshot.
+     * @param macro the file macro
+     * @return the string representation of the JSON object
+     */
+    public String encodeJSONString(FileMacro macro) {
+        return encodeJSON(macro).toString();
+    }
+    
+    /**
+     * Decodes the code of a file macro from its JSON object.
+     * @param path the path of the file
+     * @param json the JSON object of the file macro
+     * @return the code of the file, or <code>null</code> if the JSON object contains no code
+     * @throws IOException if the encoded snapshot is broken or the previous snapshot of the file is missing
+     */
+    public String decodeJSON(String path, JsonObject json) throws IOException {
+        if (json.containsKey(JSON_ATTR_CODE_DELTA)) {
+            try {
+                return decode(path, Base64.getDecoder().decode(json.getString(JSON_ATTR_CODE_DELTA)));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Broken snapshot of " + path);
+            }
+        }
+        if (json.containsKey(JSON_ATTR_CODE)) {
+            String code = json.getString(JSON_ATTR_CODE);
+            synchronized (this) {
+                snapshots.remove(path);
+            }
+            return code;
+        }
+        return null;
+    }
+    
+    /**
+     * Writes the operations that transform the previous snapshot into the current one.
+     * Unchanged lines between the common prefix and suffix are copied from the previous snapshot.
+     * The common prefix and suffix never split a surrogate pair, so that inserted texts are written as valid UTF-8.
+     * @param out the destination of the operations
+     * @param base the previous snapshot
+     * @param code the current snapshot
+     */
+    private void writeOperations(ColumnEncoding.Output out, String base, String code) {
+        int min = Math.min(base.length(), code.length());
+        int prefix = 0;
+        while (prefix < min && base.charAt(prefix) == code.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix > 0 && Character.isHighSurrogate(code.charAt(prefix - 1))) {
+            prefix--;
+        }
+        int suffix = 0;
+        while (suffix < min - prefix &&
+               base.charAt(base.length() - 1 - suffix) == code.charAt(code.length() - 1 - suffix)) {
+            suffix++;
+        }
+        if (suffix > 0 && Character.isLowSurrogate(code.charAt(code.length() - suffix))) {
+            suffix--;
+        }
+        
+        List<long[]> ops = new ArrayList<long[]>();
+        List<String> texts = new ArrayList<String>();
+        addCopy(ops, texts, 0, prefix);
+        
+        int baseEnd = base.length() - suffix;
+        int codeEnd = code.length() - suffix;
+        Map<String, List<Integer>> lines = indexLines(base, prefix, baseEnd);
+        int expected = prefix;
+        int pos = prefix;
+        while (pos < codeEnd) {
+            int next = code.indexOf('\n', pos);
+            if (next == -1 || next >= codeEnd) {
+                next = codeEnd;
+            } else {
+                next++;
+            }
+            String line = code.substring(pos, next);
+            
+            int start = -1;
+            if (expected + line.length() <= baseEnd && base.startsWith(line, expected)) {
+                start = expected;
+            } else {
+                List<Integer> candidates = lines.get(line);
+                if (candidates != null) {
+                    start = candidates.get(0);
+                }
+            }
+            
+            if (start >= 0) {
+                addCopy(ops, texts, start, line.length());
+                expected = start + line.length();
+            } else {
+                addInsert(ops, texts, line);
+            }
+            pos = next;
+        }
+        addCopy(ops, texts, baseEnd, suffix);
+        
+        out.writeVarLong(ops.size());
+        for (int idx = 0; idx < ops.size(); idx++) {
+            long[] op = ops.get(idx);
+            out.writeVarLong(op[0]);
+            if (op[0] == COPY) {
+                out.writeVarLong(op[1]);
+                out.writeVarLong(op[2]);
+            } else {
+                out.writeString(texts.get(idx));
+            }
+        }
+    }
+    
+    /**
+     * Collects the starting positions of lines in a range of a text.
+     * @param text the text
+     * @param start the starting position of the range
+     * @param end the ending position of the range
+     * @return the map from lines to their starting positions
+     */
+    private Map<String, List<Integer>> indexLines(String text, int start, int end) {
+        Map<String, List<Integer>> lines = new HashMap<String, List<Integer>>();
+        int pos = start;
+        while (pos < end) {
+            int next = text.indexOf('\n', pos);
+            if (next == -1 || next >= end) {
+                next = end;
+            } else {
+                next++;
+            }
+            
+            String line = text.substring(pos, next);
+            List<Integer> positions = lines.get(line);
+            if (positions == null) {
+                positions = new ArrayList<Integer>(1);
+                lines.put(line, positions);
+            }
+            positions.add(pos);
+            pos = next;
+        }
+        return lines;
+    }
+    
+    /**
+     * Adds an operation that copies a range of the previous snapshot, merging it with the last operation if possible.
+     * @param ops the collection of operations
+     * @param texts the collection of texts of the operations
+     * @param start the starting position of the range
+     * @param len the length of the range
+     */
+    private void addCopy(List<long[]> ops, List<String> texts, int start, int len) {
+        if (len == 0) {
+            return;
+        }
+        
+        if (ops.size() > 0) {
+            long[] last = ops.get(ops.size() - 1);
+            if (last[0] == COPY && last[1] + last[2] == start) {
+                last[2] = last[2] + len;
+                return;
+            }
+        }
+        ops.add(new long[] { COPY, start, len });
+        texts.add(null);
+    }
+    
+    /**
+     * Adds an operation that inserts a text, merging it with the last operation if possible.
+     * @param ops the collection of operations
+     * @param texts the collection of texts of the operations
+     * @param text the text to be inserted
+     */
+    private void addInsert(List<long[]> ops, List<String> texts, String text) {
+        if (ops.size() > 0) {
+            long[] last = ops.get(ops.size() - 1);
+            if (last[0] == INSERT) {
+                texts.set(texts.size() - 1, texts.get(texts.size() - 1) + text);
+                return;
+            }
+        }
+        ops.add(new long[] { INSERT });
+        texts.add(text);
+    }
+    
+    /**
+     * Reads the operations and applies them to the previous snapshot.
+     * @param in the encoded bytes
+     * @param base the previous snapshot
+     * @return the current snapshot
+     * @throws IOException if the operations are broken
+     */
+    private String readOperations(ColumnEncoding.Input in, String base) throws IOException {
+        StringBuilder buf = new StringBuilder(base.length());
+        long num = in.readVarLong();
+        for (long idx = 0; idx < num; idx++) {
+            int op = (int)in.readVarLong();
+            if (op == COPY) {
+                long start = in.readVarLong();
+                long len = in.readVarLong();
+                if (start < 0 || len < 0 || start + len > base.length()) {
+                    throw new IOException("Broken copy operation: " + start + "+" + len);
+                }
+                buf.append(base, (int)start, (int)(start + len));
+            } else if (op == INSERT) {
+                buf.append(in.readString());
+            } else {
+                throw new IOException("Unknown operation: " + op);
+            }
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * The last snapshot of a file.
+     */
+    private static class Snapshot {
+        
+        /**
+         * The code of the file.
+         */
+        private String code;
+        
+        /**
+         * The sequence number of the snapshot.
+         */
+        private long seq;
+        
+        /**
+         * The sequence number of the last keyframe.
+         */
+        private long keyframeSeq;
+        
+        /**
+         * Creates a snapshot of a file.
+         * @param code the code of the file
+         * @param seq the sequence number of the snapshot
+         * @param keyframeSeq the sequence number of the last keyframe
+         */
+        Snapshot(String code, long seq, long keyframeSeq) {
+            this.code = code;
+            this.seq = seq;
+            this.keyframeSeq = keyframeSeq;
+        }
+    }
+}